@@ -0,0 +1,76 @@
+package vstore.framework.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import vstore.framework.context.ContextDescription;
+import vstore.framework.context.types.location.VLatLng;
+import vstore.framework.db.codec.ContextCodec;
+import vstore.framework.utils.ContextUtils;
+
+/**
+ * Measures the context primitives used in the matching: the distance between two
+ * locations and the parsing of a usage context from its JSON representation and from
+ * the binary representation stored in the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContextBenchmark {
+    private static final int SAMPLES = 1024;
+
+    private VLatLng[] mLocations;
+    private String[] mContextJson;
+    private byte[][] mContextData;
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticData data = new SyntheticData(SyntheticData.DEFAULT_SEED);
+        mLocations = new VLatLng[SAMPLES];
+        mContextJson = new String[SAMPLES];
+        mContextData = new byte[SAMPLES][];
+        for(int i = 0; i < SAMPLES; ++i)
+        {
+            mLocations[i] = data.newLatLng();
+            mContextJson[i] = data.newContextJson();
+            mContextData[i] = ContextCodec.encode(new ContextDescription(mContextJson[i]));
+        }
+    }
+
+    private int next() {
+        mNext = (mNext + 1) % SAMPLES;
+        return mNext;
+    }
+
+    @Benchmark
+    public float distanceBetween() {
+        int i = next();
+        return ContextUtils.distanceBetween(mLocations[i], mLocations[(i + 1) % SAMPLES]);
+    }
+
+    @Benchmark
+    public ContextDescription parseContextJson() {
+        return new ContextDescription(mContextJson[next()]);
+    }
+
+    @Benchmark
+    public ContextDescription decodeContext() throws IOException {
+        return ContextCodec.decode(mContextData[next()]);
+    }
+}
@@ -0,0 +1,93 @@
+package vstore.framework.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import vstore.framework.file.VStoreFile;
+import vstore.framework.matching.Matching;
+import vstore.framework.matching.MatchingCache;
+import vstore.framework.node.NodeInfo;
+
+/**
+ * Measures a complete matching decision for a file, i.e. loading the rules for the
+ * mime type, checking the rule conditions and selecting the storage nodes.
+ *
+ * Every fork works on a fresh temporary database, filled with synthetic rules and nodes.
+ * Run with e.g. "gradle jmh -Pjmh.args='MatchingBenchmark -p rules=1000'".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MatchingBenchmark {
+    private static final int FILES = 256;
+
+    @Param({"10", "1000", "10000", "50000"})
+    public int rules;
+
+    @Param({"10", "1000", "10000"})
+    public int nodes;
+
+    /**
+     * If false, the matching cache is disabled, so that every decision is computed from scratch.
+     */
+    @Param({"false", "true"})
+    public boolean cache;
+
+    private List<VStoreFile> mFiles;
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        File baseDir = SyntheticData.initializeFramework();
+        SyntheticData data = new SyntheticData(SyntheticData.DEFAULT_SEED);
+        List<NodeInfo> nodeList = data.insertNodes(nodes);
+        data.insertRules(rules, nodeList);
+
+        File dir = new File(baseDir, "bench_files");
+        dir.mkdirs();
+        mFiles = new ArrayList<>(FILES);
+        for(int i = 0; i < FILES; ++i)
+        {
+            mFiles.add(data.newFile(dir, 1 + i * 4096));
+        }
+        if(cache) {
+            MatchingCache.get().configure(MatchingCache.DEFAULT_MAX_ENTRIES, MatchingCache.DEFAULT_TTL_MS);
+        } else {
+            MatchingCache.get().configure(0, MatchingCache.DEFAULT_TTL_MS);
+        }
+    }
+
+    private VStoreFile nextFile() {
+        VStoreFile f = mFiles.get(mNext);
+        mNext = (mNext + 1) % mFiles.size();
+        return f;
+    }
+
+    @Benchmark
+    public List<NodeInfo> rulesNextOnNoMatch() {
+        return new Matching(nextFile(), Matching.MatchingMode.RULES_NEXT_ON_NO_MATCH).getDecidedNodes();
+    }
+
+    @Benchmark
+    public List<NodeInfo> random() {
+        return new Matching(nextFile(), Matching.MatchingMode.RANDOM).getDecidedNodes();
+    }
+}
@@ -0,0 +1,81 @@
+package vstore.framework.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import vstore.framework.context.types.location.VLatLng;
+import vstore.framework.node.NodeInfo;
+import vstore.framework.node.NodeManager;
+import vstore.framework.node.NodeType;
+
+/**
+ * Measures the node queries of the node manager that are used during node selection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NodeSelectionBenchmark {
+    private static final int LOCATIONS = 1024;
+
+    @Param({"10", "1000", "10000"})
+    public int nodes;
+
+    private VLatLng[] mLocations;
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SyntheticData.initializeFramework();
+        SyntheticData data = new SyntheticData(SyntheticData.DEFAULT_SEED);
+        data.insertNodes(nodes);
+        mLocations = new VLatLng[LOCATIONS];
+        for(int i = 0; i < LOCATIONS; ++i)
+        {
+            mLocations[i] = data.newLatLng();
+        }
+    }
+
+    private VLatLng nextLocation() {
+        VLatLng l = mLocations[mNext];
+        mNext = (mNext + 1) % mLocations.length;
+        return l;
+    }
+
+    @Benchmark
+    public NodeInfo nearestNodeOfType() {
+        return NodeManager.get().getNearestNodeOfType(NodeType.CLOUDLET, nextLocation());
+    }
+
+    @Benchmark
+    public List<NodeInfo> nNearestNodesOfType() {
+        return NodeManager.get().get_N_NearestNodesOfType(NodeType.CLOUDLET, nextLocation(), 5);
+    }
+
+    @Benchmark
+    public List<NodeInfo> nodesOfTypeMatchingBandwidthAndRadius() {
+        return NodeManager.get().getNodesMatchingBandwidthAndRadius(
+                NodeType.CLOUDLET, 20000, 20000, 500, 10000, nextLocation());
+    }
+
+    @Benchmark
+    public List<NodeInfo> nodesMatchingBandwidthAndRadius() {
+        return NodeManager.get().getNodesMatchingBandwidthAndRadius(
+                20000, 20000, 500, 10000, nextLocation());
+    }
+}
@@ -0,0 +1,348 @@
+package vstore.framework.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import vstore.framework.context.ContextDescription;
+import vstore.framework.context.RuleContextDescription;
+import vstore.framework.context.types.activity.ActivityType;
+import vstore.framework.context.types.activity.VActivity;
+import vstore.framework.context.types.location.VLatLng;
+import vstore.framework.context.types.location.VLocation;
+import vstore.framework.context.types.network.VNetwork;
+import vstore.framework.context.types.network.cellular.CellularNetwork;
+import vstore.framework.context.types.network.wifi.WiFi;
+import vstore.framework.context.types.noise.VNoise;
+import vstore.framework.context.types.place.PlaceType;
+import vstore.framework.context.types.place.VPlaces;
+import vstore.framework.context.types.place.VSinglePlace;
+import vstore.framework.db.DBHelper;
+import vstore.framework.db.table_helper.NodeDBHelper;
+import vstore.framework.db.table_helper.RulesDBHelper;
+import vstore.framework.exceptions.VStoreException;
+import vstore.framework.file.FileManager;
+import vstore.framework.file.VStoreFile;
+import vstore.framework.node.NodeInfo;
+import vstore.framework.node.NodeManager;
+import vstore.framework.node.NodeType;
+import vstore.framework.rule.DecisionLayer;
+import vstore.framework.rule.RuleIndex;
+import vstore.framework.rule.VStoreRule;
+
+/**
+ * Generates reproducible synthetic rules, nodes and usage contexts for the benchmarks.
+ * All values are drawn from a seeded random generator, so two runs with the same seed
+ * and the same sizes work on exactly the same data.
+ *
+ * Locations are spread over an area of roughly 50km x 50km, so that radius based rule
+ * conditions and node selections hit a realistic share of the data.
+ */
+public class SyntheticData {
+    public static final long DEFAULT_SEED = 42;
+
+    private static final double CENTER_LAT = 50.8;
+    private static final double CENTER_LNG = 8.7;
+    private static final double SPREAD_DEG = 0.25;
+
+    public static final String[] MIME_TYPES = {
+            "image/jpeg", "image/png", "video/mp4", "audio/mpeg", "text/plain", "application/pdf"
+    };
+    private static final String[] RULE_MIME_TYPES = {
+            "image/jpeg", "image/png", "video/mp4", "audio/mpeg", "text/plain", "application/pdf",
+            "image/*", "video/*", "*/*"
+    };
+    private static final NodeType[] NODE_TYPES = {
+            NodeType.CLOUD, NodeType.CORENET, NodeType.CLOUDLET, NodeType.GATEWAY, NodeType.PRIVATE_NODE
+    };
+    private static final String[] SSIDS = { "home", "office", "campus", "cafe" };
+
+    private final Random mRandom;
+
+    public SyntheticData(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Initializes the file manager and the database of the framework in a new temporary
+     * directory. Has to be called once per JVM before anything is put into the database.
+     *
+     * @return The temporary base directory.
+     * @throws IOException If the directory cannot be created.
+     * @throws VStoreException If the framework cannot be initialized.
+     */
+    public static File initializeFramework() throws IOException, VStoreException {
+        File baseDir = Files.createTempDirectory("vstore-bench").toFile();
+        baseDir.deleteOnExit();
+        FileManager.initialize(baseDir);
+        DBHelper.initialize();
+        return baseDir;
+    }
+
+    /**
+     * Generates the given number of nodes, saves them to the database and reloads the
+     * node manager.
+     *
+     * @param count The number of nodes.
+     * @return The generated nodes.
+     * @throws SQLException in case of a database error.
+     */
+    public List<NodeInfo> insertNodes(int count) throws SQLException {
+        List<NodeInfo> nodes = new ArrayList<>(count);
+        DBHelper db = DBHelper.get();
+        Connection c = db.acquireWriter();
+        try
+        {
+            c.setAutoCommit(false);
+            for(int i = 0; i < count; ++i)
+            {
+                NodeInfo n = newNode();
+                NodeDBHelper.insertNode(n);
+                nodes.add(n);
+            }
+            c.commit();
+        }
+        finally
+        {
+            c.setAutoCommit(true);
+            db.releaseWriter();
+        }
+        NodeManager.get().refreshNodes();
+        return nodes;
+    }
+
+    /**
+     * Generates the given number of rules, saves them to the database and rebuilds the
+     * rule index once afterwards.
+     *
+     * @param count The number of rules.
+     * @param nodes The nodes specific decision layers can point to. May be empty.
+     * @return The generated rules.
+     * @throws SQLException in case of a database error.
+     */
+    public List<VStoreRule> insertRules(int count, List<NodeInfo> nodes) throws SQLException {
+        List<VStoreRule> rules = new ArrayList<>(count);
+        DBHelper db = DBHelper.get();
+        //Do not rebuild the index on every single insert
+        RuleIndex.get().invalidate();
+        Connection c = db.acquireWriter();
+        try
+        {
+            c.setAutoCommit(false);
+            for(int i = 0; i < count; ++i)
+            {
+                VStoreRule r = newRule(i, nodes);
+                RulesDBHelper.insertRule(r);
+                rules.add(r);
+            }
+            c.commit();
+        }
+        finally
+        {
+            c.setAutoCommit(true);
+            db.releaseWriter();
+        }
+        RuleIndex.get().rebuild();
+        return rules;
+    }
+
+    /**
+     * @return A new node of a random type at a random location.
+     */
+    public NodeInfo newNode() {
+        NodeType type = NODE_TYPES[mRandom.nextInt(NODE_TYPES.length)];
+        NodeInfo n = new NodeInfo(
+                UUID.randomUUID().toString(),
+                "10." + mRandom.nextInt(256) + "." + mRandom.nextInt(256) + "." + mRandom.nextInt(256),
+                50000 + mRandom.nextInt(1000),
+                type,
+                newLatLng());
+        n.setBandwidthUp(1 + mRandom.nextInt(100000));
+        n.setBandwidthDown(1 + mRandom.nextInt(100000));
+        return n;
+    }
+
+    /**
+     * Generates a rule. Every condition is set with a fixed probability, so that the rules
+     * have a mix of simple and very detailed conditions.
+     *
+     * @param i The index of the rule, used for its name.
+     * @param nodes The nodes specific decision layers can point to. May be empty.
+     * @return The new rule.
+     */
+    public VStoreRule newRule(int i, List<NodeInfo> nodes) {
+        VStoreRule r = new VStoreRule();
+        r.setName("Rule " + i);
+        r.addMimeType(RULE_MIME_TYPES[mRandom.nextInt(RULE_MIME_TYPES.length)]);
+        if(mRandom.nextInt(4) == 0) {
+            r.addMimeType(RULE_MIME_TYPES[mRandom.nextInt(RULE_MIME_TYPES.length)]);
+        }
+        r.setSharingDomain(mRandom.nextInt(3) - 1);
+        if(mRandom.nextInt(3) == 0) {
+            r.setMinFileSize(1024L << mRandom.nextInt(16));
+        }
+        List<Integer> weekdays = new ArrayList<>();
+        for(int d = 1; d <= 7; ++d)
+        {
+            if(mRandom.nextInt(4) != 0) { weekdays.add(d); }
+        }
+        r.setWeekdays(weekdays);
+        if(mRandom.nextInt(3) == 0)
+        {
+            r.setTimeStart(mRandom.nextInt(12), mRandom.nextInt(60));
+            r.setTimeEnd(12 + mRandom.nextInt(12), mRandom.nextInt(60));
+        }
+
+        RuleContextDescription ctx = new RuleContextDescription();
+        if(mRandom.nextInt(3) == 0)
+        {
+            VLatLng center = newLatLng();
+            ctx.setLocationContext(center.getLatitude(), center.getLongitude(), 100 + mRandom.nextInt(5000));
+        }
+        if(mRandom.nextInt(3) == 0) {
+            ctx.addPlaceType(randomPlaceType());
+        }
+        if(mRandom.nextInt(4) == 0) {
+            ctx.setActivityContext(randomActivity());
+        }
+        if(mRandom.nextInt(4) == 0) {
+            ctx.setNoiseContext(new VNoise(30 + mRandom.nextInt(60), 0, 0, 60));
+        }
+        if(mRandom.nextInt(4) == 0) {
+            ctx.setNetworkContext(newNetwork());
+        }
+        r.setRuleContext(ctx);
+
+        int layers = 1 + mRandom.nextInt(3);
+        for(int l = 0; l < layers; ++l)
+        {
+            r.addDecisionLayer(newDecisionLayer(nodes));
+        }
+        r.setStoreMultiple(mRandom.nextInt(4) == 0);
+        r.setReplicationFactor(1 + mRandom.nextInt(2));
+        r.setDetailScore(r.calculateDetailScore());
+        return r;
+    }
+
+    /**
+     * @param nodes The nodes a specific decision layer can point to. May be empty.
+     * @return A new decision layer with random constraints.
+     */
+    public DecisionLayer newDecisionLayer(List<NodeInfo> nodes) {
+        DecisionLayer l = new DecisionLayer();
+        l.specificNodeId = "";
+        if(!nodes.isEmpty() && mRandom.nextInt(10) == 0)
+        {
+            l.isSpecific = true;
+            l.specificNodeId = nodes.get(mRandom.nextInt(nodes.size())).getIdentifier();
+            l.targetType = NodeType.UNKNOWN;
+            return l;
+        }
+        l.targetType = (mRandom.nextInt(4) == 0)
+                ? NodeType.UNKNOWN
+                : NODE_TYPES[mRandom.nextInt(NODE_TYPES.length)];
+        if(mRandom.nextBoolean())
+        {
+            l.minRadius = mRandom.nextInt(1000);
+            l.maxRadius = l.minRadius + 1000 + mRandom.nextInt(30000);
+        }
+        if(mRandom.nextBoolean())
+        {
+            l.minBwUp = mRandom.nextInt(50000);
+            l.minBwDown = mRandom.nextInt(50000);
+        }
+        return l;
+    }
+
+    /**
+     * @return A new usage context with all context types set.
+     */
+    public ContextDescription newContext() {
+        ContextDescription ctx = new ContextDescription();
+        long now = System.currentTimeMillis();
+        VLatLng latLng = newLatLng();
+        ctx.setLocationContext(new VLocation(latLng, 5 + mRandom.nextInt(50), now, ""));
+
+        ArrayList<VSinglePlace> places = new ArrayList<>();
+        int count = 1 + mRandom.nextInt(5);
+        for(int i = 0; i < count; ++i)
+        {
+            places.add(new VSinglePlace(UUID.randomUUID().toString(), "Place " + i,
+                    randomPlaceType(),
+                    latLng.getLatitude() + (mRandom.nextDouble() - 0.5) * 0.001,
+                    latLng.getLongitude() + (mRandom.nextDouble() - 0.5) * 0.001,
+                    mRandom.nextDouble()));
+        }
+        ctx.setPlacesContext(new VPlaces(places, now));
+        ctx.setActivityContext(new VActivity(randomActivity(), 50 + mRandom.nextInt(50), now));
+        ctx.setNoiseContext(new VNoise(20 + mRandom.nextInt(80), mRandom.nextInt(5000), 0, 60, now));
+        ctx.setNetworkContext(newNetwork());
+        return ctx;
+    }
+
+    /**
+     * @return The JSON representation of a new usage context, as it is stored in the database.
+     */
+    public String newContextJson() {
+        return newContext().getJson().toJSONString();
+    }
+
+    /**
+     * Creates a file with random content in the given directory and wraps it into a
+     * vStore file with a new usage context.
+     *
+     * @param dir The directory to create the file in.
+     * @param size The size of the file in bytes.
+     * @return The new file.
+     * @throws IOException If the file cannot be written.
+     */
+    public VStoreFile newFile(File dir, int size) throws IOException {
+        String uuid = UUID.randomUUID().toString();
+        String mime = MIME_TYPES[mRandom.nextInt(MIME_TYPES.length)];
+        File f = new File(dir, uuid + "." + mime.substring(mime.indexOf('/') + 1));
+        byte[] content = new byte[size];
+        mRandom.nextBytes(content);
+        try (FileOutputStream out = new FileOutputStream(f))
+        {
+            out.write(content);
+        }
+        f.deleteOnExit();
+        VStoreFile vf = new VStoreFile(uuid, f, mime, false, mRandom.nextBoolean());
+        vf.setContext(newContext());
+        return vf;
+    }
+
+    /**
+     * @return A new random location in the benchmark area.
+     */
+    public VLatLng newLatLng() {
+        return new VLatLng(
+                CENTER_LAT + (mRandom.nextDouble() - 0.5) * SPREAD_DEG,
+                CENTER_LNG + (mRandom.nextDouble() - 0.5) * SPREAD_DEG);
+    }
+
+    private VNetwork newNetwork() {
+        boolean wifi = mRandom.nextBoolean();
+        CellularNetwork.MobileType[] types = CellularNetwork.MobileType.values();
+        return new VNetwork(
+                new WiFi(wifi, wifi ? SSIDS[mRandom.nextInt(SSIDS.length)] : ""),
+                new CellularNetwork(!wifi, mRandom.nextBoolean(), types[mRandom.nextInt(types.length)]));
+    }
+
+    private PlaceType randomPlaceType() {
+        PlaceType[] types = PlaceType.values();
+        return types[mRandom.nextInt(types.length)];
+    }
+
+    private ActivityType randomActivity() {
+        ActivityType[] types = ActivityType.values();
+        return types[mRandom.nextInt(types.length)];
+    }
+}
@@ -4,13 +4,24 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.net.URL;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import vstore.framework.communication.CommunicationManager;
+import vstore.framework.communication.NodeProber;
 import vstore.framework.communication.RequestFilesMatchingContextThread;
 import vstore.framework.communication.download.Downloader;
 import vstore.framework.communication.download.PersistentDownloadList;
@@ -25,12 +36,15 @@ import vstore.framework.context.ContextManager;
 import vstore.framework.context.SearchContextDescription;
 import vstore.framework.db.DBHelper;
 import vstore.framework.db.DBResultOrdering;
+import vstore.framework.db.FileCursor;
+import vstore.framework.db.FileStateQueue;
 import vstore.framework.db.table_helper.FileDBHelper;
 import vstore.framework.error.ErrorCode;
 import vstore.framework.error.ErrorMessages;
 import vstore.framework.exceptions.StoreException;
 import vstore.framework.exceptions.VStoreException;
 import vstore.framework.file.FileManager;
+import vstore.framework.file.StoreResult;
 import vstore.framework.file.VFileType;
 import vstore.framework.file.VStoreFile;
 import vstore.framework.file.events.FileDeletedEvent;
@@ -39,6 +53,7 @@ import vstore.framework.logging.LogHandler;
 import vstore.framework.logging.LoggingService;
 import vstore.framework.matching.FileNodeMapper;
 import vstore.framework.matching.Matching;
+import vstore.framework.matching.MatchingStats;
 import vstore.framework.node.NodeInfo;
 import vstore.framework.node.NodeManager;
 import vstore.framework.rule.RuleManager;
@@ -67,6 +82,11 @@ public class VStore {
 
     private static final Logger LOGGER = LogManager.getLogger(VStore.class);
 
+    /**
+     * Maximum number of threads used to copy and hash files in {@link VStore#storeAll}.
+     */
+    private static final int STORE_ALL_MAX_THREADS = 4;
+
     /**
      * Private constructor for creating a new VStore object. 
      * It initializes all components necessary for operation of the
@@ -105,6 +125,9 @@ public class VStore {
         RuleManager.initialize();
         LOGGER.debug("Initializing node manager...");
         NodeManager.initialize();
+        NodeManager.get().startPeriodicSync(NodeManager.DEFAULT_SYNC_INTERVAL_MS);
+        LOGGER.debug("Starting node prober...");
+        NodeProber.get().start();
         LOGGER.debug("Initializing file node mapper...");
         FileNodeMapper.getMapper();
     }
@@ -256,6 +279,242 @@ public class VStore {
     		throws StoreException 
     {
         LOGGER.debug("Storing file " + fileUri + ", isPrivate=" + isPrivate);
+        VStoreFile f = prepareFile(fileUri, isPrivate);
+        File fCopied = new File(f.getFullPath());
+
+        //Post an error if I already stored the same file before
+        if(FileDBHelper.isAlreadyStored(f.getMD5Hash()))
+        {
+            fCopied.delete();
+            //Abort in case the file already exists
+            throw new StoreException(ErrorCode.FILE_ALREADY_EXISTS, FILE_ALREADY_EXISTS);
+        }
+        f.setContext(ContextManager.get().getCurrentContext());
+
+        ConfigManager vCfg = ConfigManager.get();
+        //Start logging for this file
+        LogHandler.logStartForFile(f, vCfg.getMatchingMode());
+
+        //Make storage matching decision for the file
+        long decisionTimeStart = System.nanoTime();
+        List<NodeInfo> targetNodes = decide(f, new Matching(vCfg.getMatchingMode()));
+        long decisionTime = (System.nanoTime() - decisionTimeStart) / 1000000 ;
+        LOGGER.info("Matching took " + decisionTime + "ms");
+
+        //Insert information into local database
+        try 
+        {
+            FileDBHelper.insertFile(f);
+        } 
+        catch (SQLException e) 
+        {
+            //Error while storing the information in the database.
+            e.printStackTrace();
+            fCopied.delete();
+            LogHandler.abortLoggingForFile(f.getUuid());
+            throw new StoreException(ErrorCode.DB_LOCAL_ERROR, e.getMessage());
+        }
+
+        if(f.isUploadPending())
+        {
+            //Schedule job for background upload
+            Uploader up = Uploader.getUploader();
+            up.enqueueUpload(f);
+            up.startUploads();
+        }
+
+        //Log the decided node (will log null if stored on phone)
+        LogHandler.logDecidedNode(f, ((targetNodes != null) ? targetNodes.get(0) : null), decisionTime);
+        //TODO Update logging to handle a list of multiple storage nodes
+        return f;
+    }
+
+    /**
+     * Stores multiple files in the virtual storage framework. Works like
+     * {@link VStore#store(String, boolean)}, but copies and hashes the files in parallel,
+     * inserts all of them into the local database in one transaction and schedules
+     * the uploads in one go.
+     *
+     * @param fileUris The absolute paths to the files to upload.
+     * @param isPrivate Specify whether the files should be publicly available
+     *                  or if they are personal files that should remain private.
+     *                  True = private, False = public
+     *
+     * @return A list containing one result per given file, in the same order.
+     *         Each result either contains the stored file or the error that occurred.
+     *         If preparing or matching a file throws a RuntimeException, the copies of all
+     *         files of the batch are deleted and the exception is rethrown.
+     *
+     * @throws StoreException in case the given collection is null.
+     */
+    public List<StoreResult> storeAll(Collection<String> fileUris, final boolean isPrivate)
+            throws StoreException
+    {
+        if(fileUris == null)
+        {
+            throw new StoreException(ErrorCode.PARAMETERS_MUST_NOT_BE_NULL,
+                    ErrorMessages.PARAMETERS_MUST_NOT_BE_NULL);
+        }
+        LOGGER.debug("Storing " + fileUris.size() + " files, isPrivate=" + isPrivate);
+        List<String> uris = new ArrayList<>(fileUris);
+        StoreResult[] results = new StoreResult[uris.size()];
+        if(uris.size() == 0) { return new ArrayList<>(); }
+
+        //Step 1: Copy and hash all files in parallel
+        int threads = Math.max(1, Math.min(STORE_ALL_MAX_THREADS,
+                Math.min(uris.size(), Runtime.getRuntime().availableProcessors())));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<StoreResult>> prepared = new ArrayList<>();
+        for(final String uri : uris)
+        {
+            prepared.add(pool.submit(new Callable<StoreResult>() {
+                @Override
+                public StoreResult call() {
+                    try
+                    {
+                        return new StoreResult(uri, prepareFile(uri, isPrivate));
+                    }
+                    catch(StoreException e)
+                    {
+                        return new StoreResult(uri, e);
+                    }
+                }
+            }));
+        }
+        pool.shutdown();
+
+        //Step 2: Wait for all copies. Check for duplicates within the batch and, with one
+        //query, against the files already stored.
+        List<VStoreFile> copies = new ArrayList<>();
+        List<Integer> copyPositions = new ArrayList<>();
+        List<VStoreFile> toInsert = new ArrayList<>();
+        List<Integer> insertPositions = new ArrayList<>();
+        int consumed = 0;
+        try
+        {
+            for(int i = 0; i < uris.size(); ++i)
+            {
+                consumed = i + 1;
+                StoreResult r = getPrepared(prepared.get(i), uris.get(i));
+                if(!r.isSuccessful()) { results[i] = r; continue; }
+                copies.add(r.getFile());
+                copyPositions.add(i);
+            }
+            List<String> copyHashes = new ArrayList<>();
+            for(VStoreFile f : copies) { copyHashes.add(f.getMD5Hash()); }
+            Set<String> hashes = FileDBHelper.getStoredHashes(copyHashes);
+            for(int j = 0; j < copies.size(); ++j)
+            {
+                VStoreFile f = copies.get(j);
+                int i = copyPositions.get(j);
+                if(!hashes.add(f.getMD5Hash()))
+                {
+                    new File(f.getFullPath()).delete();
+                    results[i] = new StoreResult(uris.get(i),
+                            new StoreException(ErrorCode.FILE_ALREADY_EXISTS, FILE_ALREADY_EXISTS));
+                    continue;
+                }
+                toInsert.add(f);
+                insertPositions.add(i);
+            }
+        }
+        catch(RuntimeException e)
+        {
+            //Do not leave the copies of the batch behind
+            for(VStoreFile f : copies)
+            {
+                new File(f.getFullPath()).delete();
+            }
+            for(int j = consumed; j < uris.size(); ++j)
+            {
+                deletePrepared(prepared.get(j));
+            }
+            throw e;
+        }
+
+        //Decide on the storage nodes. Context, matching mode, rules and nodes are the same
+        //for the whole batch.
+        ContextDescription ctx = ContextManager.get().getCurrentContext();
+        Matching.MatchingMode mode = ConfigManager.get().getMatchingMode();
+        Map<String, List<NodeInfo>> targetNodes = new HashMap<>();
+        Map<String, Long> decisionTimes = new HashMap<>();
+        int logged = 0;
+        try
+        {
+            Matching matching = new Matching(mode);
+            for(VStoreFile f : toInsert)
+            {
+                f.setContext(ctx);
+                LogHandler.logStartForFile(f, mode);
+                ++logged;
+
+                long decisionTimeStart = System.nanoTime();
+                targetNodes.put(f.getUuid(), decide(f, matching));
+                decisionTimes.put(f.getUuid(), (System.nanoTime() - decisionTimeStart) / 1000000);
+            }
+        }
+        catch(RuntimeException e)
+        {
+            //Do not leave the copies of the batch behind
+            for(int j = 0; j < toInsert.size(); ++j)
+            {
+                VStoreFile f = toInsert.get(j);
+                new File(f.getFullPath()).delete();
+                if(j < logged) { LogHandler.abortLoggingForFile(f.getUuid()); }
+            }
+            throw e;
+        }
+
+        //Step 3: Insert all files into the local database
+        try
+        {
+            FileDBHelper.insertFiles(toInsert);
+        }
+        catch (SQLException e)
+        {
+            e.printStackTrace();
+            for(int j = 0; j < toInsert.size(); ++j)
+            {
+                VStoreFile f = toInsert.get(j);
+                new File(f.getFullPath()).delete();
+                LogHandler.abortLoggingForFile(f.getUuid());
+                results[insertPositions.get(j)] = new StoreResult(uris.get(insertPositions.get(j)),
+                        new StoreException(ErrorCode.DB_LOCAL_ERROR, e.getMessage()));
+            }
+            return Arrays.asList(results);
+        }
+
+        //Step 4: Schedule the uploads
+        Uploader up = Uploader.getUploader();
+        boolean uploadsPending = false;
+        for(int j = 0; j < toInsert.size(); ++j)
+        {
+            VStoreFile f = toInsert.get(j);
+            if(f.isUploadPending())
+            {
+                up.enqueueUpload(f);
+                uploadsPending = true;
+            }
+            List<NodeInfo> nodes = targetNodes.get(f.getUuid());
+            LogHandler.logDecidedNode(f, ((nodes != null) ? nodes.get(0) : null),
+                    decisionTimes.get(f.getUuid()));
+            results[insertPositions.get(j)] = new StoreResult(uris.get(insertPositions.get(j)), f);
+        }
+        if(uploadsPending) { up.startUploads(); }
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Copies the given file into the framework folder, computes its hash and creates the
+     * corresponding {@link VStoreFile} object. Does not touch the database.
+     *
+     * @param fileUri The absolute path to the file.
+     * @param isPrivate True, if the file is private.
+     * @return The file object for the copied file.
+     * @throws StoreException in case something failed.
+     */
+    private VStoreFile prepareFile(String fileUri, boolean isPrivate) throws StoreException {
         if(fileUri == null || fileUri.equals(""))
         {
             throw new StoreException(ErrorCode.PARAMETERS_MUST_NOT_BE_NULL,
@@ -263,7 +522,6 @@ public class VStore {
         }
         
         File file = new File(fileUri);
-               System.out.println(file.getAbsolutePath());
         //Generate new UUID for file
         String uuid = UUID.randomUUID().toString();
         String descriptiveName = file.getName();
@@ -294,94 +552,99 @@ public class VStore {
             throw new StoreException(ErrorCode.COPYING_INTO_FRAMEWORK_FAILED,
                     COPYING_INTO_FRAMEWORK_FAILED);
         }
-      //  System.out.println(fCopied.exists());
         //Compute hash for file
         //TODO: Replace MD5 with something better
-        String md5 = Hash.MD5.calculateMD5(fCopied);
-        //Post an error if I already stored the same file before
-        if(FileDBHelper.isAlreadyStored(md5))
-        {
-            fCopied.delete();
-            //Abort in case the file already exists
-            throw new StoreException(ErrorCode.FILE_ALREADY_EXISTS, FILE_ALREADY_EXISTS);
-        }
-        
+        String md5;
         VStoreFile f;
 		try 
 		{
+			md5 = Hash.MD5.calculateMD5(fCopied);
 			f = new VStoreFile(uuid, fCopied, descriptiveName, 
 					mimetype, true, isPrivate);
 		} 
 		catch (FileNotFoundException e) 
 		{
 			LOGGER.error("Copied file not found!");
+			fCopied.delete();
 		    throw new StoreException(ErrorCode.FILE_NOT_FOUND, COPIED_FILE_NOT_FOUND);
 		}
+		catch (RuntimeException e)
+		{
+			fCopied.delete();
+			throw e;
+		}
         f.setMD5Hash(md5);
-        f.setContext(ContextManager.get().getCurrentContext());
-
-        ConfigManager vCfg = ConfigManager.get();
-        //Start logging for this file
-        LogHandler.logStartForFile(f, vCfg.getMatchingMode());
-
-        //Make storage matching decision for the file
-
+        return f;
+    }
 
-        long decisionTimeStart = System.nanoTime();
-        Matching matching = new Matching(f, vCfg.getMatchingMode());
-        List<NodeInfo> targetNodes = matching.getDecidedNodes();
-        long decisionTime = (System.nanoTime() - decisionTimeStart) / 1000000 ;
-        LOGGER.info("Matching took " + decisionTime + "ms");
-        
+    /**
+     * Makes the storage matching decision for the given file and adds the decided
+     * nodes to it. If no node was decided, the file is only stored on the device.
+     *
+     * @param f The file, with its context already set.
+     * @param matching The matching to decide with, see {@link Matching#Matching(Matching.MatchingMode)}.
+     * @return The decided nodes, or null.
+     */
+    private List<NodeInfo> decide(VStoreFile f, Matching matching) {
+        List<NodeInfo> targetNodes = matching.decide(f);
+        if(MatchingStats.get().isExplainEnabled())
+        {
+            LOGGER.debug("Matching trace for file " + f.getUuid() + ":\n" + matching.getTrace());
+        }
         if(targetNodes != null && targetNodes.size() > 0)
         {
             for(NodeInfo n : targetNodes) {
                 if(n == null) { continue; }
                 f.addStoredNodeId(n.getIdentifier());
-
             }
-
-            //Insert information into local database
-            try 
-            {
-				FileDBHelper.insertFile(f);
-			} 
-            catch (SQLException e) 
-            {
-            	//Error while storing the information in the database.
-				e.printStackTrace();
-				fCopied.delete();
-				LogHandler.abortLoggingForFile(f.getUuid());
-	            throw new StoreException(ErrorCode.DB_LOCAL_ERROR, e.getMessage());
-			}
-            //Schedule job for background upload
-            Uploader up = Uploader.getUploader();
-            up.enqueueUpload(f);
-            up.startUploads();
-        } 
-        else 
+        }
+        else
         {
             //TODO: No node was decided, so we only store the 
-        	//file on the device.
-        	f.setUploadPending(false);
-            try 
-            {
-				FileDBHelper.insertFile(f);
-			} 
-            catch (SQLException e) 
-            {
-				e.printStackTrace();
-				fCopied.delete();
-				LogHandler.abortLoggingForFile(f.getUuid());
-	            throw new StoreException(ErrorCode.DB_LOCAL_ERROR, e.getMessage());
-			}
+            //file on the device.
+            f.setUploadPending(false);
         }
+        return targetNodes;
+    }
 
-        //Log the decided node (will log null if stored on phone)
+    /**
+     * Waits until the given file is copied and hashed.
+     * A RuntimeException thrown while preparing the file is rethrown, like in
+     * {@link VStore#store(String, boolean)}.
+     */
+    private static StoreResult getPrepared(Future<StoreResult> future, String fileUri) {
+        try
+        {
+            return future.get();
+        }
+        catch(ExecutionException e)
+        {
+            if(e.getCause() instanceof RuntimeException) { throw (RuntimeException) e.getCause(); }
+            e.printStackTrace();
+            return new StoreResult(fileUri, new StoreException(
+                    ErrorCode.COPYING_INTO_FRAMEWORK_FAILED, COPYING_INTO_FRAMEWORK_FAILED));
+        }
+        catch(InterruptedException e)
+        {
+            e.printStackTrace();
+            return new StoreResult(fileUri, new StoreException(
+                    ErrorCode.COPYING_INTO_FRAMEWORK_FAILED, COPYING_INTO_FRAMEWORK_FAILED));
+        }
+    }
 
-        LogHandler.logDecidedNode(f, ((targetNodes != null) ? targetNodes.get(0) : null), decisionTime);
-        //TODO Update logging to handle a list of multiple storage nodes
-        return f;
+    /**
+     * Waits until the given file is copied and deletes the copy again.
+     */
+    private static void deletePrepared(Future<StoreResult> future) {
+        try
+        {
+            StoreResult r = future.get();
+            if(r.isSuccessful()) { new File(r.getFile().getFullPath()).delete(); }
+        }
+        catch(InterruptedException | ExecutionException e)
+        {
+            //Nothing to delete, a failed preparation removes its copy itself
+        }
     }
 
     /**
@@ -457,6 +720,25 @@ public class VStore {
         FileManager.get().getLocalFileList(ordering, onlyPending, onlyPrivate);
     }
 
+    /**
+     * Can be used to page through the files uploaded (or currently uploading) from this device.
+     * The page is published in the {@link FilesReadyEvent}. To get the next page, call this
+     * again with {@link FilesReadyEvent#getNextCursor()}.
+     *
+     * @param ordering The order in which to fetch the files.
+     *                       (see {@link DBResultOrdering}).
+     * @param onlyPending If true, only files that are pending to upload
+     * 				      will be returned.
+     * @param onlyPrivate If true, only files that are marked private
+     *                    will be returned.
+     * @param after The cursor of the previous page, or null for the first page.
+     * @param pageSize The maximum number of files in the page.
+     */
+    public void getFilesUploadedByThisDevice(DBResultOrdering ordering, boolean onlyPending,
+                                             boolean onlyPrivate, FileCursor after, int pageSize) {
+        FileManager.get().getLocalFileListPage(ordering, onlyPending, onlyPrivate, after, pageSize);
+    }
+
     /**
      * Use this method to request the full file that has the given UUID.
      * Subscribe to the event {@link DownloadProgressEvent} to get notified 
@@ -529,6 +811,10 @@ public class VStore {
      */
     public void clean() {
         LOGGER.debug("Cleaning up...");
+        //Stop everything that may still write to the database before closing it
+        NodeProber.get().stop();
+        NodeManager.get().stopPeriodicSync();
+        FileStateQueue.get().stop();
         DBHelper.get().close();
         LoggingService.getThread().askToStop();
         PersistentDownloadList.clear();
@@ -0,0 +1,279 @@
+package vstore.framework.communication;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import vstore.framework.node.NodeHealthTracker;
+import vstore.framework.node.NodeInfo;
+import vstore.framework.node.NodeManager;
+
+/**
+ * Periodically probes all known storage nodes in the background and reports the results to
+ * the {@link NodeHealthTracker}.
+ *
+ * A probe is a small GET request to the identifier endpoint of a node. The time until the reply
+ * arrives is the round trip time, the duration of reading the reply gives the throughput.
+ * At most {@link #getMaxConcurrent()} probes run at the same time, and a new round of probes
+ * is started {@link #getIntervalMs()} after the previous round has finished, so rounds
+ * never overlap.
+ */
+public class NodeProber {
+    private static final Logger LOGGER = LogManager.getLogger(NodeProber.class);
+
+    public static final long DEFAULT_INTERVAL_MS = 60 * 1000;
+    public static final int DEFAULT_MAX_CONCURRENT = 4;
+    public static final long DEFAULT_TIMEOUT_MS = 2000;
+    /**
+     * Lower bound for the interval between two rounds of probes.
+     */
+    public static final long MIN_INTERVAL_MS = 1000;
+    /**
+     * Upper bound for the number of concurrent probes.
+     */
+    public static final int MAX_CONCURRENT = 16;
+    /**
+     * Probe replies are read up to this number of bytes.
+     */
+    private static final int MAX_PROBE_BYTES = 64 * 1024;
+    /**
+     * The maximum time {@link #stop()} waits for running probes to finish.
+     */
+    private static final long SHUTDOWN_TIMEOUT_MS = 5000;
+
+    private static NodeProber mInstance;
+
+    private final NodeHealthTracker mTracker;
+    private final OkHttpClient mClient;
+    private final long mIntervalMs;
+    private final int mMaxConcurrent;
+
+    private ScheduledExecutorService mScheduler;
+    private ExecutorService mWorkers;
+
+    /**
+     * @param tracker The tracker to report the results to.
+     * @param intervalMs The time between two rounds of probes in milliseconds.
+     *                   At least {@link #MIN_INTERVAL_MS}.
+     * @param maxConcurrent The maximum number of probes running at the same time.
+     *                      Between 1 and {@link #MAX_CONCURRENT}.
+     * @param timeoutMs The timeout of a single probe in milliseconds.
+     */
+    public NodeProber(NodeHealthTracker tracker, long intervalMs, int maxConcurrent, long timeoutMs) {
+        mTracker = tracker;
+        mIntervalMs = Math.max(MIN_INTERVAL_MS, intervalMs);
+        mMaxConcurrent = Math.max(1, Math.min(MAX_CONCURRENT, maxConcurrent));
+        mClient = new OkHttpClient.Builder()
+                .connectTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .writeTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public static synchronized void initialize() {
+        if(mInstance == null) {
+            mInstance = new NodeProber(NodeHealthTracker.get(), DEFAULT_INTERVAL_MS,
+                    DEFAULT_MAX_CONCURRENT, DEFAULT_TIMEOUT_MS);
+        }
+    }
+
+    /**
+     * @return Gets the instance of the prober, which reports to the default health tracker.
+     */
+    public static NodeProber get() {
+        initialize();
+        return mInstance;
+    }
+
+    /**
+     * Starts probing the nodes of the {@link NodeManager} in the background.
+     * Does nothing if the prober is already running.
+     */
+    public synchronized void start() {
+        if(mScheduler != null) { return; }
+        mWorkers = Executors.newFixedThreadPool(mMaxConcurrent, daemonThreads("vStore node probe"));
+        mScheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("vStore node prober"));
+        mScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try
+                {
+                    probeAll(NodeManager.get().getSnapshot().getNodes().values());
+                }
+                catch(RuntimeException e)
+                {
+                    //Do not let a single failed round stop the prober
+                    e.printStackTrace();
+                }
+            }
+        }, 0, mIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops probing. Running probes are interrupted, and this method waits until they
+     * have finished.
+     */
+    public void stop() {
+        ScheduledExecutorService scheduler;
+        ExecutorService workers;
+        synchronized(this)
+        {
+            if(mScheduler == null) { return; }
+            scheduler = mScheduler;
+            workers = mWorkers;
+            mScheduler = null;
+            mWorkers = null;
+        }
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+        //Wait outside of the lock, a running round needs it to get the workers
+        try
+        {
+            scheduler.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            workers.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The threads of the prober are daemon threads, so that they do not keep the application
+     * running if {@link #stop()} is not called.
+     */
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * @return True, if the prober is running.
+     */
+    public synchronized boolean isRunning() {
+        return mScheduler != null;
+    }
+
+    /**
+     * Probes the given nodes, with at most {@link #getMaxConcurrent()} probes at the same time,
+     * and waits until all probes have finished.
+     *
+     * @param nodes The nodes to probe.
+     */
+    public void probeAll(Collection<NodeInfo> nodes) {
+        List<Callable<Boolean>> probes = new ArrayList<>();
+        for(final NodeInfo n : nodes)
+        {
+            probes.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return probe(n);
+                }
+            });
+        }
+        if(probes.isEmpty()) { return; }
+
+        ExecutorService workers;
+        synchronized(this) { workers = mWorkers; }
+        boolean ownWorkers = (workers == null);
+        if(ownWorkers)
+        {
+            workers = Executors.newFixedThreadPool(Math.min(mMaxConcurrent, probes.size()),
+                    daemonThreads("vStore node probe"));
+        }
+        try
+        {
+            workers.invokeAll(probes);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            if(ownWorkers) { workers.shutdownNow(); }
+        }
+    }
+
+    /**
+     * Probes a single node and reports the result to the health tracker.
+     *
+     * @param node The node to probe.
+     * @return True, if the node replied successfully.
+     */
+    public boolean probe(NodeInfo node) {
+        if(node == null || node.getIdentifier() == null) { return false; }
+        Request request = new Request.Builder()
+                .url(node.getUUIDUri())
+                .build();
+        long start = System.nanoTime();
+        try (Response response = mClient.newCall(request).execute())
+        {
+            long rtt = System.nanoTime() - start;
+            if(response == null || !response.isSuccessful())
+            {
+                mTracker.probeFailed(node.getIdentifier());
+                return false;
+            }
+            long bytes = readBody(response.body());
+            mTracker.probeSucceeded(node.getIdentifier(), rtt, bytes, System.nanoTime() - start);
+            return true;
+        }
+        catch(IOException | RuntimeException e)
+        {
+            LOGGER.debug("Probe of node " + node.getIdentifier() + " failed: " + e.getMessage());
+            mTracker.probeFailed(node.getIdentifier());
+            return false;
+        }
+    }
+
+    private static long readBody(ResponseBody body) throws IOException {
+        if(body == null) { return 0; }
+        long total = 0;
+        byte[] buffer = new byte[8192];
+        try (InputStream in = body.byteStream())
+        {
+            int read;
+            while(total < MAX_PROBE_BYTES && (read = in.read(buffer)) != -1)
+            {
+                total += read;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return The time between two rounds of probes in milliseconds.
+     */
+    public long getIntervalMs() {
+        return mIntervalMs;
+    }
+
+    /**
+     * @return The maximum number of probes running at the same time.
+     */
+    public int getMaxConcurrent() {
+        return mMaxConcurrent;
+    }
+}
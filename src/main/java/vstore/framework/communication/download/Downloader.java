@@ -1,6 +1,7 @@
 package vstore.framework.communication.download;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -13,6 +14,7 @@ import vstore.framework.communication.download.threads.MetadataHandlerThread;
 import vstore.framework.communication.download.threads.ThumbnailDownloadThread;
 import vstore.framework.file.FileManager;
 import vstore.framework.matching.FileNodeMapper;
+import vstore.framework.node.NodeHealthTracker;
 import vstore.framework.node.NodeInfo;
 import vstore.framework.node.NodeManager;
 import vstore.framework.utils.IdentifierUtils;
@@ -141,15 +143,30 @@ public class Downloader {
      * @return The address to contact to retrieve the thumbnail for the given file.
      */
 	private static String getUriForThumbnail(String uuid) {
-    	if(uuid == null) return null;
-        
-    	List<String> nodeIds = FileNodeMapper.getMapper().getNodeIds(uuid);
-        if (nodeIds.size() == 0) return null;
+        NodeInfo n = getNodeForThumbnail(uuid);
+        if (n == null) return null;
+        return n.getThumbnailUri(uuid, IdentifierUtils.getDeviceIdentifier());
+    }
 
-        //TODO: Get the thumbnail from the fastest node (?)
+    /**
+     * @param uuid The UUID of the file to request a thumbnail for.
+     * @return The fastest healthy of the known nodes that store the file, see
+     *         {@link NodeHealthTracker#getFastest(List)}. Null, if no such node is known.
+     */
+    private static NodeInfo getNodeForThumbnail(String uuid) {
+        if(uuid == null) return null;
 
-        NodeManager manager = NodeManager.get();
-        return manager.getNode(nodeIds.get(0)).getThumbnailUri(uuid, IdentifierUtils.getDeviceIdentifier());
+        List<String> nodeIds = FileNodeMapper.getMapper().getNodeIds(uuid);
+        if (nodeIds.size() == 0) return null;
+
+        NodeManager mgr = NodeManager.get();
+        List<NodeInfo> nodes = new ArrayList<>();
+        for(String nodeId : nodeIds)
+        {
+            NodeInfo n = mgr.getNode(nodeId);
+            if(n != null) { nodes.add(n); }
+        }
+        return NodeHealthTracker.get().getFastest(nodes);
     }
 
     /**
@@ -157,16 +174,13 @@ public class Downloader {
      * @param fileId The UUID of the file to request a thumbnail for.
      */
     public static void downloadThumbnail(String fileId) {
-        String uri = getUriForThumbnail(fileId);
-        //TODO: Get the thumbnail from the fastest node (?)
         try {
-            List<String> nodeIds = FileNodeMapper.getMapper().getNodeIds(fileId);
-            if (nodeIds.size() == 0) return;
-            NodeManager mgr = NodeManager.get();
+            NodeInfo node = getNodeForThumbnail(fileId);
+            if (node == null) return;
 
             ThumbnailDownloadThread thumbThread = new ThumbnailDownloadThread(
                     fileId,
-                    mgr.getNode(nodeIds.get(0)),
+                    node,
                     FileManager.get().getThumbnailsDir());
             thumbThread.start();
         }
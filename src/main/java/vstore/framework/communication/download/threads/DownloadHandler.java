@@ -14,7 +14,7 @@ import vstore.framework.communication.master_node.MasterNode;
 import vstore.framework.file.VStoreFile;
 import vstore.framework.logging.LogHandler;
 import vstore.framework.matching.FileNodeMapper;
-import vstore.framework.node.NodeDistanceMetric;
+import vstore.framework.node.NodeCostModel;
 import vstore.framework.node.NodeInfo;
 import vstore.framework.node.NodeManager;
 
@@ -99,7 +99,7 @@ public class DownloadHandler extends Thread {
         }
 
         //List is larger than one element.
-        //Use distance metric to decide which storage node to use.
+        //Use the estimated download time to decide which storage node to use.
         //First get node information for all nodes.
         List<NodeInfo> nodeInfos = new ArrayList<>();
         NodeManager mgr = NodeManager.get();
@@ -109,8 +109,8 @@ public class DownloadHandler extends Thread {
             if(nodeInfo == null) { /* TODO get nodeinfo from master node*/ continue; }
             nodeInfos.add(nodeInfo);
         }
-        //Sort nodes by distance metric
-        List<NodeInfo> sortedNodes = NodeDistanceMetric.sortNodesByDistanceMetric(nodeInfos);
+        //Rank nodes by estimated download time, nodes that failed their recent probes last
+        List<NodeInfo> sortedNodes = NodeCostModel.get().rank(nodeInfos);
         //Then go one by one
         for(int i = 0; i <sortedNodes.size(); ++i)
         {
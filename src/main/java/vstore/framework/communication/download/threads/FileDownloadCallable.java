@@ -26,6 +26,7 @@ import vstore.framework.file.MetaData;
 import vstore.framework.file.VStoreFile;
 import vstore.framework.logging.LogHandler;
 import vstore.framework.node.NodeInfo;
+import vstore.framework.node.NodeLoadTracker;
 import vstore.framework.utils.IdentifierUtils;
 
 /**
@@ -145,15 +146,28 @@ public class FileDownloadCallable implements Callable<VStoreFile> {
 		        .url(node.getDownloadUri(fileUuid, IdentifierUtils.getDeviceIdentifier()))
 		        .build();
 		
+		//Measure the transfer for ranking the nodes of later downloads
+		NodeLoadTracker tracker = NodeLoadTracker.get();
+		tracker.downloadStarted(node.getIdentifier());
+		long start = System.currentTimeMillis();
+		long firstByte = 0;
+		VStoreFile result = null;
 		try (Response response = client.newCall(request).execute()) 
 		{
-			return parseResponse(response);
+			firstByte = System.currentTimeMillis() - start;
+			result = parseResponse(response);
 	    } 
 		catch (IOException e) 
 		{
 			downloadFailed(e);
 		}
-		return null;
+		finally
+		{
+			long bytes = (result != null && result.getFileSize() > 0) ? result.getFileSize() : 0;
+			tracker.downloadFinished(node.getIdentifier(), bytes, firstByte,
+					System.currentTimeMillis() - start, result != null);
+		}
+		return result;
 	}
 
 	private VStoreFile parseResponse(Response response) throws IOException {
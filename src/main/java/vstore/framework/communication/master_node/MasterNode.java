@@ -6,6 +6,7 @@ import vstore.framework.communication.master_node.file_node_mapping.DeleteFileNo
 import vstore.framework.communication.master_node.file_node_mapping.PostFileNodeMappingCallable;
 import vstore.framework.communication.master_node.file_node_mapping.RequestFileNodeMappingCallable;
 import vstore.framework.node.NodeInfo;
+import vstore.framework.node.NodeListDelta;
 
 /**
  * Provides simple calls for communicating with the master node.
@@ -36,6 +37,12 @@ public class MasterNode {
 
     public static List<NodeInfo> getStorageNodeList() {
         NodeListDownloadCallable callable = new NodeListDownloadCallable();
+        NodeListDelta delta = callable.call();
+        return (delta != null) ? delta.getChanged() : null;
+    }
+
+    public static NodeListDelta getStorageNodeListDelta(long sinceVersion, String etag) {
+        NodeListDownloadCallable callable = new NodeListDownloadCallable(sinceVersion, etag);
         return callable.call();
     }
 }
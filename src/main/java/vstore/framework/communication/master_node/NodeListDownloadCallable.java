@@ -1,9 +1,12 @@
 package vstore.framework.communication.master_node;
 
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
@@ -13,16 +16,19 @@ import okhttp3.Request;
 import okhttp3.Response;
 import vstore.framework.communication.ApiConstants;
 import vstore.framework.communication.CommunicationManager;
-import vstore.framework.config.ConfigParser;
-import vstore.framework.node.NodeInfo;
+import vstore.framework.node.NodeListDelta;
 
 /**
- * This callable downloads the complete list of storage nodes from the master node.
+ * This callable downloads the list of storage nodes from the master node.
+ * If a version or ETag of the list is known, the master node is asked for the changes
+ * since then only, see {@link NodeListDelta}.
  */
-public class NodeListDownloadCallable implements Callable<List<NodeInfo>> {
+public class NodeListDownloadCallable implements Callable<NodeListDelta> {
     public static final MediaType JSON
             = MediaType.parse("application/json; charset=utf-8");
 
+    private static final int HTTP_NOT_MODIFIED = 304;
+
     final OkHttpClient client = new OkHttpClient.Builder()
             .connectTimeout(5, TimeUnit.SECONDS)
             .writeTimeout(2, TimeUnit.SECONDS)
@@ -30,8 +36,28 @@ public class NodeListDownloadCallable implements Callable<List<NodeInfo>> {
             .cache(null)
             .build();
 
+    private final long mSinceVersion;
+    private final String mETag;
+
+    /**
+     * Creates a callable that downloads the full node list.
+     */
+    public NodeListDownloadCallable() {
+        this(NodeListDelta.NO_VERSION, null);
+    }
+
+    /**
+     * @param sinceVersion The version of the node list known to this device,
+     *                     or {@link NodeListDelta#NO_VERSION}.
+     * @param etag The ETag of the node list known to this device, or null.
+     */
+    public NodeListDownloadCallable(long sinceVersion, String etag) {
+        mSinceVersion = sinceVersion;
+        mETag = etag;
+    }
+
     @Override
-    public List<NodeInfo> call() {
+    public NodeListDelta call() {
         Request request = buildRequest();
         if(request == null) { return null; }
         return doDownload(request);
@@ -40,26 +66,39 @@ public class NodeListDownloadCallable implements Callable<List<NodeInfo>> {
     private Request buildRequest() {
         //Build the request
         try {
-            return new Request.Builder()
-                    .url(new URL(CommunicationManager.get().getMasterNodeAddress()
-                            + ApiConstants.MasterNode.ROUTE_NODES_INFORMATION))
-                    .get()
-                    .build();
+            String url = CommunicationManager.get().getMasterNodeAddress()
+                    + ApiConstants.MasterNode.ROUTE_NODES_INFORMATION;
+            if(mSinceVersion != NodeListDelta.NO_VERSION)
+            {
+                url += "?since=" + mSinceVersion;
+            }
+            Request.Builder builder = new Request.Builder()
+                    .url(new URL(url))
+                    .get();
+            if(mETag != null)
+            {
+                builder.header("If-None-Match", mETag);
+            }
+            return builder.build();
         } catch (MalformedURLException e) {
             e.printStackTrace();
             return null;
         }
     }
 
-    private List<NodeInfo> doDownload(Request request) {
+    private NodeListDelta doDownload(Request request) {
         try (Response response = client.newCall(request).execute())
         {
+            if (response.code() == HTTP_NOT_MODIFIED) {
+                return NodeListDelta.notModified(mSinceVersion, mETag);
+            }
             if (!response.isSuccessful() || response.body() == null) {
                 return null;
             }
-            return ConfigParser.parseNodeListJson(response.body().string());
+            JSONObject j = (JSONObject) new JSONParser().parse(response.body().string());
+            return NodeListDelta.fromJson(j, response.header("ETag"));
         }
-        catch (IOException e)
+        catch (IOException | ParseException | RuntimeException e)
         {
             e.printStackTrace();
         }
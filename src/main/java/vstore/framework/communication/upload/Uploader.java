@@ -20,6 +20,7 @@ import vstore.framework.communication.upload.events.UploadDoneCompletelyEvent;
 import vstore.framework.communication.upload.threads.FileUploadThread;
 import vstore.framework.db.table_helper.FileDBHelper;
 import vstore.framework.file.VStoreFile;
+import vstore.framework.node.NodeLoadTracker;
 import vstore.framework.utils.IdentifierUtils;
 
 /**
@@ -70,7 +71,7 @@ public class Uploader {
             .addFormDataPart("creationdate", Long.toString(file.getCreationDateUnix()))
             .addFormDataPart("isPrivate", "" + file.isPrivate())
             .addFormDataPart("phoneID", IdentifierUtils.getDeviceIdentifier())
-            .addFormDataPart("context", file.getContext().getJson().toString())
+            .addFormDataPart("context", file.getContextJson())
             .build();
     	
     	UploadQueueObject q_obj = new UploadQueueObject();
@@ -78,6 +79,14 @@ public class Uploader {
     	q_obj.requestBody = body;
     	//Get upload location from node manager for this node
 		q_obj.nodeIds = file.getStoredNodeIds();
+		//Count the upload towards the load of the nodes, unless it is already queued
+		if(!uploadQueue.containsKey(q_obj.fileId) && q_obj.nodeIds != null)
+		{
+			for(String nodeId : q_obj.nodeIds)
+			{
+				NodeLoadTracker.get().uploadQueued(nodeId);
+			}
+		}
 		uploadQueue.put(q_obj.fileId, q_obj);
     }
     
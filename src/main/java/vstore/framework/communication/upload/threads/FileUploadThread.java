@@ -6,7 +6,6 @@ import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 import java.io.IOException;
-import java.sql.SQLException;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -24,10 +23,11 @@ import vstore.framework.communication.upload.events.UploadFailedCompletelyEvent;
 import vstore.framework.communication.upload.events.UploadFailedEvent;
 import vstore.framework.communication.upload.events.UploadFailedPermanentlyEvent;
 import vstore.framework.communication.upload.events.UploadStateEvent;
-import vstore.framework.db.table_helper.FileDBHelper;
+import vstore.framework.db.FileStateQueue;
 import vstore.framework.error.ErrorMessages;
 import vstore.framework.logging.log_events.LogUploadDoneEvent;
 import vstore.framework.node.NodeInfo;
+import vstore.framework.node.NodeLoadTracker;
 import vstore.framework.node.NodeManager;
 import vstore.framework.utils.JsonUtils;
 
@@ -71,7 +71,10 @@ public class FileUploadThread extends Thread implements ProgressRequestBody.List
 			String node_id = node_ids.get(i);
 			if(node_id == null) { continue; }
 			NodeInfo node = NodeManager.get().getNode(node_id);
-			if(node == null) { continue; }
+			if(node == null) {
+				NodeLoadTracker.get().uploadCancelled(node_id);
+				continue;
+			}
 			String uploadUrl = node.getUploadUri();
 			qObject.attemptsPerNode.put(node_id, 0);
 			doUpload(node_id, uploadUrl);
@@ -83,6 +86,7 @@ public class FileUploadThread extends Thread implements ProgressRequestBody.List
 	}
 	
 	private void doUpload(String node_id, String uploadUrl) {
+		long startTime = System.currentTimeMillis();
 		ProgressRequestBody reqBody = new ProgressRequestBody(node_id, qObject.requestBody, this);
 		Request request = new Request.Builder()
 				.url(uploadUrl)
@@ -119,19 +123,12 @@ public class FileUploadThread extends Thread implements ProgressRequestBody.List
 		                //Upload successful.
 		                //Update the row in the database:
 		                //(upload_pending = false, upload_failed = false)
-		                try
-		                {
-							FileDBHelper.updateFile(qObject.fileId, false, false, false);
+		                FileStateQueue.get().setFlags(qObject.fileId, false, false, false);
 
-                            //TODO What to do if the file was uploaded, but the file-node-mapping update failed?
-                            CommunicationManager.postFileNodeMapping(qObject.fileId, node_id);
-						}
-		                catch (SQLException e)
-		                {
-		                	//Upload successful, but updating the database failed.
-		                	//Should never happen
-		                	e.printStackTrace();
-						}
+		                //TODO What to do if the file was uploaded, but the file-node-mapping update failed?
+		                CommunicationManager.postFileNodeMapping(qObject.fileId, node_id);
+		                NodeLoadTracker.get().uploadFinished(node_id, getContentLength(),
+		                        System.currentTimeMillis() - startTime, true);
 		                uploadDone(node_id);
 		                return;
 		            }
@@ -139,19 +136,12 @@ public class FileUploadThread extends Thread implements ProgressRequestBody.List
 						//Upload successful.
 						//Update the row in the database:
 						//(upload_pending = false, upload_failed = false)
-						try
-						{
-							FileDBHelper.updateFile(qObject.fileId, false, false, false);
+						FileStateQueue.get().setFlags(qObject.fileId, false, false, false);
 
-							//TODO What to do if the file was uploaded, but the file-node-mapping update failed?
-							CommunicationManager.postFileNodeMapping(qObject.fileId, node_id);
-						}
-						catch (SQLException e)
-						{
-							//Upload successful, but updating the database failed.
-							//Should never happen
-							e.printStackTrace();
-						}
+						//TODO What to do if the file was uploaded, but the file-node-mapping update failed?
+						CommunicationManager.postFileNodeMapping(qObject.fileId, node_id);
+						NodeLoadTracker.get().uploadFinished(node_id, getContentLength(),
+								System.currentTimeMillis() - startTime, true);
 						uploadDone(node_id);
 						return;
 		            }
@@ -160,19 +150,14 @@ public class FileUploadThread extends Thread implements ProgressRequestBody.List
 		                //Upload not successful, node replied with an error.
 		                //Update the row in the database:
 		                //(upload_pending = false, upload_failed = true, delete_pending = false)
-		                try 
-		                {
-							FileDBHelper.updateFile(qObject.fileId, false, true, false);
-						} 
-		                catch (SQLException e) {
-							//Upload failed, and updating database failed.
-		                	e.printStackTrace();
-						}
+		                FileStateQueue.get().setFlags(qObject.fileId, false, true, false);
 		                
 		                //Post event that upload failed permanently
 			    		String strResponse = (invalidResponse) ?
 			    				("(Invalid response)") : ((String)j.get("error_msg"));
                         failedPermanently(node_id, strResponse);
+                        NodeLoadTracker.get().uploadFinished(node_id, 0,
+                                System.currentTimeMillis() - startTime, false);
 
 		                //Post event for the logger
 		                LogUploadDoneEvent logEvt = new LogUploadDoneEvent();
@@ -192,6 +177,7 @@ public class FileUploadThread extends Thread implements ProgressRequestBody.List
 			sleepBetweenAttempts(node_id);
 		}
         failedPermanently(node_id,"");
+        NodeLoadTracker.get().uploadFinished(node_id, 0, System.currentTimeMillis() - startTime, false);
 	}
 	
 	private void sleepBetweenAttempts(String node_id) {
@@ -226,17 +212,20 @@ public class FileUploadThread extends Thread implements ProgressRequestBody.List
         logEvt.fileUUID = qObject.fileId;
         //Upload speed information etc
         long elapsedTime = System.currentTimeMillis() - beginTime;
-        long uploadSpeed;
+        long uploadSpeed = (elapsedTime > 0) ? getContentLength() / elapsedTime : 0;
+        logEvt.uploadInfo = new UploadInfo(elapsedTime, uploadSpeed);
+        logEvt.success = true;
+        EventBus.getDefault().post(logEvt);
+    }
+
+    private long getContentLength() {
         try {
-            uploadSpeed = qObject.requestBody.contentLength() / elapsedTime;
+            return qObject.requestBody.contentLength();
         }
         catch(IOException e)
         {
-            uploadSpeed = 0;
+            return 0;
         }
-        logEvt.uploadInfo = new UploadInfo(elapsedTime, uploadSpeed);
-        logEvt.success = true;
-        EventBus.getDefault().post(logEvt);
     }
 
     private void uploadFailed(String node_id, int sleepTime) {
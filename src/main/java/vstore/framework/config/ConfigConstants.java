@@ -6,8 +6,11 @@ public final class ConfigConstants {
     public static final String DEFAULT_RMS_THRESHOLD_KEY = "k_default_rms";
     public static final String DEFAULT_DB_THRESHOLD_KEY = "k_default_db_key";
     public static final String MATCHING_MODE_KEY = "k_decision_mode";
+    public static final String NODE_SELECTION_KEY = "k_node_selection";
     public static final String ALLOW_MULTIPLE_NODES_KEY = "k_multiple_nodes";
     public static final String CONTEXT_REFRESH_SECONDS = "k_conf_refresh_sec";
+    public static final String NODE_LIST_VERSION_KEY = "k_node_list_version";
+    public static final String NODE_LIST_ETAG_KEY = "k_node_list_etag";
     
     private ConfigConstants() {}
 }
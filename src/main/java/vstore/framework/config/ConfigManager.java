@@ -15,6 +15,7 @@ import vstore.framework.error.ErrorCode;
 import vstore.framework.matching.Matching;
 import vstore.framework.matching.Matching.MatchingMode;
 import vstore.framework.node.NodeManager;
+import vstore.framework.node.NodeSelectionStrategy;
 
 /**
  * This class loads the configuration for the framework.
@@ -27,6 +28,8 @@ public class ConfigManager {
     private boolean mMultipleNodesPerRule;
     
     private MatchingMode mMatchingMode;
+
+    private NodeSelectionStrategy mNodeSelection;
     
     private NodeManager mNodeManager;
     private static ConfigManager mConfMgrInstance;
@@ -78,6 +81,14 @@ public class ConfigManager {
             mMatchingMode = Matching.MatchingMode.RULES_NEXT_ON_NO_MATCH;
         }
 
+        //Get from settings file, how a node is chosen from the candidate nodes
+        String nodeSelection = ConfigPrefFile.getString(ConfigConstants.NODE_SELECTION_KEY, NodeSelectionStrategy.RANDOM.toString());
+        try {
+            mNodeSelection = NodeSelectionStrategy.valueOf(nodeSelection);
+        } catch(IllegalArgumentException e) {
+            mNodeSelection = NodeSelectionStrategy.RANDOM;
+        }
+
         if(mNodeManager == null) {
             mNodeManager = NodeManager.get();
         }
@@ -129,6 +140,13 @@ public class ConfigManager {
         return mMatchingMode;
     }
 
+    /**
+     * @return The strategy to choose a node from the candidate nodes that is currently configured.
+     */
+    public NodeSelectionStrategy getNodeSelectionStrategy() {
+        return mNodeSelection;
+    }
+
     /**
      * Sets the flag to allow/disallow a decision rule to decide for storing a file on
      * multiple storage nodes.
@@ -159,4 +177,13 @@ public class ConfigManager {
         mMatchingMode = mode;
     }
 
+    /**
+     * Sets the strategy to choose a node from the candidate nodes and stores it.
+     * @param strategy The node selection strategy
+     */
+    public void setNodeSelectionStrategy(NodeSelectionStrategy strategy) {
+        ConfigPrefFile.putString(ConfigConstants.NODE_SELECTION_KEY, strategy.name());
+        mNodeSelection = strategy;
+    }
+
 }
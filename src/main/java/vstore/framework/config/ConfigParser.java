@@ -7,12 +7,14 @@ import org.json.simple.parser.ParseException;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import vstore.framework.db.table_helper.RulesDBHelper;
 import vstore.framework.matching.Matching;
 import vstore.framework.node.NodeInfo;
 import vstore.framework.node.NodeManager;
+import vstore.framework.node.NodeSelectionStrategy;
 import vstore.framework.rule.VStoreRule;
 import vstore.framework.utils.JsonUtils;
 
@@ -31,6 +33,7 @@ public class ConfigParser {
         parseNodeList(j);
         parseRules(j);
         parseMatchingMode(j);
+        parseNodeSelection(j);
     }
 
     /**
@@ -75,12 +78,8 @@ public class ConfigParser {
     public static void parseNodeList(JSONObject j) {
         List<NodeInfo> nodes = parseNodeListJson(j);
         if(nodes == null) { return; }
-        NodeManager manager = NodeManager.get();
-        for(NodeInfo node : nodes)
-        {
-            manager.addNode(node);
-        }
-        manager.refreshNodes();
+        //Only write the nodes that have changed, in one transaction
+        NodeManager.get().applyNodeChanges(nodes, Collections.<String>emptyList());
     }
 
     public static void parseRules(JSONObject j) {
@@ -139,4 +138,22 @@ public class ConfigParser {
             ConfigManager.get().setMatchingMode(Matching.MatchingMode.RULES_NEXT_ON_NO_MATCH);
         }
     }
+
+    public static void parseNodeSelection(JSONObject j) {
+        if(!j.containsKey("nodeSelection")) {
+            //If property is missing from the config file, simply use a random node
+            ConfigManager.get().setNodeSelectionStrategy(NodeSelectionStrategy.RANDOM);
+            return;
+        }
+
+        String nodeSelection = JsonUtils.getStringFromJson("nodeSelection", j, "");
+        try
+        {
+            ConfigManager.get().setNodeSelectionStrategy(NodeSelectionStrategy.valueOf(nodeSelection));
+        }
+        catch(IllegalArgumentException ex)
+        {
+            ConfigManager.get().setNodeSelectionStrategy(NodeSelectionStrategy.RANDOM);
+        }
+    }
 }
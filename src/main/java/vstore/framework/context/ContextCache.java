@@ -0,0 +1,150 @@
+package vstore.framework.context;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import vstore.framework.db.codec.ContextCodec;
+
+/**
+ * Interns the context descriptions of stored files by their JSON or binary representation
+ * (see {@link ContextCodec}).
+ *
+ * Most files stored in a session share the same context, so files read from the database
+ * share one parsed {@link ContextDescription} per distinct representation instead of parsing
+ * and keeping a copy each. The shared descriptions are frozen and cannot be modified.
+ * The least recently used description is dropped once the cache is full.
+ */
+public class ContextCache {
+    public static final int MAX_ENTRIES = 256;
+
+    private static ContextCache mInstance;
+
+    private final Map<Object, ContextDescription> mEntries;
+
+    private ContextCache() {
+        //Access order, so that the eldest entry is the least recently used one
+        mEntries = new LinkedHashMap<Object, ContextDescription>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, ContextDescription> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+    }
+
+    public static synchronized void initialize() {
+        if(mInstance == null) {
+            mInstance = new ContextCache();
+        }
+    }
+
+    /**
+     * @return Gets the instance of the context cache.
+     */
+    public static ContextCache get() {
+        initialize();
+        return mInstance;
+    }
+
+    /**
+     * Returns the shared context description for the given JSON string. Parses it only
+     * if it is not cached yet.
+     *
+     * @param json The context as a json string.
+     * @return The frozen context description, or null if json is null.
+     */
+    public ContextDescription intern(String json) {
+        if(json == null) { return null; }
+        ContextDescription ctx = lookup(json);
+        if(ctx != null) { return ctx; }
+
+        //Parse outside of the lock, a concurrent parse of the same string is only wasted work
+        return store(json, new ContextDescription(json));
+    }
+
+    /**
+     * Returns the shared context description for the given encoded context. Decodes it only
+     * if it is not cached yet.
+     *
+     * @param data The context encoded by {@link ContextCodec}.
+     * @return The frozen context description, or null if data is null.
+     */
+    public ContextDescription intern(byte[] data) {
+        if(data == null) { return null; }
+        ByteKey key = new ByteKey(data);
+        ContextDescription ctx = lookup(key);
+        if(ctx != null) { return ctx; }
+
+        try
+        {
+            return store(key, ContextCodec.decode(data));
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+            //Like a malformed json string, malformed data results in an empty context
+            ctx = new ContextDescription();
+            ctx.freeze();
+            return ctx;
+        }
+    }
+
+    private ContextDescription lookup(Object key) {
+        synchronized(mEntries)
+        {
+            return mEntries.get(key);
+        }
+    }
+
+    private ContextDescription store(Object key, ContextDescription parsed) {
+        parsed.freeze();
+        synchronized(mEntries)
+        {
+            ContextDescription ctx = mEntries.get(key);
+            if(ctx != null) { return ctx; }
+            mEntries.put(key, parsed);
+            return parsed;
+        }
+    }
+
+    /**
+     * @return The number of cached context descriptions.
+     */
+    public int size() {
+        synchronized(mEntries) { return mEntries.size(); }
+    }
+
+    /**
+     * Drops all cached context descriptions. Files keep the descriptions they already use.
+     */
+    public void clear() {
+        synchronized(mEntries)
+        {
+            mEntries.clear();
+        }
+    }
+
+    /**
+     * Compares encoded contexts by their content.
+     */
+    private static final class ByteKey {
+        private final byte[] mData;
+        private final int mHash;
+
+        ByteKey(byte[] data) {
+            mData = data;
+            mHash = Arrays.hashCode(data);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof ByteKey) && Arrays.equals(mData, ((ByteKey) o).mData);
+        }
+    }
+}
@@ -32,6 +32,11 @@ public class ContextDescription implements Serializable {
 
     private int mWeekday;
 
+    /**
+     * True, if this description is shared (see {@link ContextCache}) and must not be modified.
+     */
+    private transient boolean mFrozen;
+
     /**
      * The timestamp of this context in seconds.
      */
@@ -108,6 +113,35 @@ public class ContextDescription implements Serializable {
         }
     }
 
+    /**
+     * Makes this description read-only. All setters will throw afterwards.
+     */
+    void freeze() {
+        mFrozen = true;
+    }
+
+    /**
+     * @return True, if this description is shared and cannot be modified. Use {@link #copy()}
+     * to get a modifiable one.
+     */
+    public boolean isFrozen() {
+        return mFrozen;
+    }
+
+    /**
+     * @return A modifiable copy of this context description.
+     */
+    public ContextDescription copy() {
+        return new ContextDescription(getJson().toString());
+    }
+
+    private void checkMutable() {
+        if(mFrozen) {
+            throw new UnsupportedOperationException("This context description is shared and cannot be modified. "
+                    + "Modify a copy() instead.");
+        }
+    }
+
     /**
      * @return The Location object containing the location of this usage context.
      * Be careful, it can be null!
@@ -116,9 +150,11 @@ public class ContextDescription implements Serializable {
         return mLocation;
     }
     public void setLocationContext(VLocation l) {
+        checkMutable();
         mLocation = l;
     }
     public void setLocationTimestamp(long timestamp) {
+        checkMutable();
         if(mLocation != null)
             mLocation.setTimestamp(timestamp);
     }
@@ -128,6 +164,7 @@ public class ContextDescription implements Serializable {
         return 0;
     }
     public void clearLocationContext() {
+        checkMutable();
         mLocation = null;
     }
 
@@ -178,6 +215,7 @@ public class ContextDescription implements Serializable {
      * @param p The place to add.
      */
     public void putPlace(VSinglePlace p) {
+        checkMutable();
         if(mPlaces == null) 
         {
             mPlaces = new VPlaces(new ArrayList<VSinglePlace>(), System.currentTimeMillis());
@@ -190,6 +228,7 @@ public class ContextDescription implements Serializable {
      * @param timestamp The timestamp in seconds.
      */
     public void setPlacesTimestamp(long timestamp) {
+        checkMutable();
         if(mPlaces != null) {
             mPlaces.setTimestamp(timestamp);
         }
@@ -210,6 +249,7 @@ public class ContextDescription implements Serializable {
      * @param p The new places context for this description.
      */
     public void setPlacesContext(VPlaces p) {
+        checkMutable();
         mPlaces = p;
     }
 
@@ -217,6 +257,7 @@ public class ContextDescription implements Serializable {
      * Sets the places context to null.
      */
     public void clearPlacesContext() {
+        checkMutable();
         mPlaces = null;
     }
 
@@ -233,6 +274,7 @@ public class ContextDescription implements Serializable {
      * @param a The new activity context for this context description.
      */
     public void setActivityContext(VActivity a) {
+        checkMutable();
         mActivity = a;
     }
     /**
@@ -240,6 +282,7 @@ public class ContextDescription implements Serializable {
      * @param timestamp The timestamp in seconds.
      */
     public void setActivityTimestamp(long timestamp) {
+        checkMutable();
         if(mActivity != null)
             mActivity.setTimestamp(timestamp);
     }
@@ -258,6 +301,7 @@ public class ContextDescription implements Serializable {
      * Sets the activity context to null.
      */
     public void clearActivityContext() {
+        checkMutable();
         mActivity = null;
     }
 
@@ -266,8 +310,12 @@ public class ContextDescription implements Serializable {
      * Be careful, it can be null!
      */
     public VNetwork getNetworkContext() { return mNetwork; }
-    public void setNetworkContext(VNetwork network) { mNetwork = network; }
+    public void setNetworkContext(VNetwork network) {
+        checkMutable();
+        mNetwork = network;
+    }
     public void setNetworkTimestamp(long timestamp) {
+        checkMutable();
         if(mNetwork != null)
             mNetwork.setTimestamp(timestamp);
     }
@@ -278,6 +326,7 @@ public class ContextDescription implements Serializable {
         return 0;
     }
     public void clearNetworkContext() {
+        checkMutable();
         mNetwork = null;
     }
 
@@ -289,9 +338,11 @@ public class ContextDescription implements Serializable {
         return mNoise;
     }
     public void setNoiseContext(VNoise noise) {
+        checkMutable();
         mNoise = noise;
     }
     public void setNoiseTimestamp(long timestamp) {
+        checkMutable();
         if(mNoise != null)
             mNoise.setTimestamp(timestamp);
     }
@@ -302,6 +353,7 @@ public class ContextDescription implements Serializable {
         return 0;
     }
     public void clearNoiseContext() {
+        checkMutable();
         mNoise = null;
     }
 
@@ -310,6 +362,7 @@ public class ContextDescription implements Serializable {
      * @param weekday 1=Monday, 7=Sunday
      */
     public void setDayOfWeek(int weekday) {
+        checkMutable();
         if(weekday >= 1 && weekday <= 7) {
             mWeekday = weekday;
         } else {
@@ -330,6 +383,7 @@ public class ContextDescription implements Serializable {
      * @param timestamp The timestamp in milliseconds
      */
     public void setTimestamp(long timestamp) {
+        checkMutable();
         mTimestamp = timestamp/1000;
     }
 
@@ -7,6 +7,8 @@ import org.json.simple.parser.ParseException;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 
@@ -123,6 +125,21 @@ public class VPlaces implements Serializable {
         return results;
     }
 
+    /**
+     * @return A new list of all nearby places, sorted by likelihood (most likely first).
+     * Places with the same likelihood keep their order.
+     */
+    public List<VSinglePlace> getPlacesByLikelihood() {
+        List<VSinglePlace> sorted = (mPlaceList != null) ? new ArrayList<>(mPlaceList) : new ArrayList<VSinglePlace>();
+        Collections.sort(sorted, new Comparator<VSinglePlace>() {
+            @Override
+            public int compare(VSinglePlace a, VSinglePlace b) {
+                return Double.compare(b.getLikelihood(), a.getLikelihood());
+            }
+        });
+        return sorted;
+    }
+
     /**
      * Returns a list containing the place types that are nearby and that the framework knows.
      * 
@@ -208,13 +208,22 @@ public class VSinglePlace extends VContextType<VSinglePlace> implements Serializ
      * @param location The location to take as starting point for the calculation
      */
     public void calculateDistanceFrom(VLocation location) {
+        distance = getDistanceFrom(location);
+    }
+
+    /**
+     * Calculates the approximate distance in km from the given location to this place,
+     * without storing it in this place (see {@link #getDistance()}).
+     * @param location The location to take as starting point for the calculation
+     * @return The distance in kilometers (km), or 0 if no location is given.
+     */
+    public float getDistanceFrom(VLocation location) {
         if(location != null && location.getLatLng() != null) {
             //Result is in meters, so divide result by 1000 to get km
-            distance = ContextUtils
+            return ContextUtils
                     .distanceBetween(location.getLatLng(), this.getLatLng()) / 1000.0f;
-        } else {
-            distance = 0;
         }
+        return 0;
     }
     
     /**
@@ -4,9 +4,21 @@ import java.io.File;
 import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
+import vstore.framework.db.table_helper.FileDBHelper;
+import vstore.framework.db.table_helper.RulesDBHelper;
 import vstore.framework.error.ErrorCode;
 import vstore.framework.error.ErrorMessages;
 import vstore.framework.exceptions.DatabaseException;
@@ -17,15 +29,44 @@ import vstore.framework.file.FileManager;
  * Helper class for the internal vStore SQLite database.
  * It is used by the framework to access the database.
  * The database contains uploaded files and user-defined rules.
+ *
+ * The database runs in WAL mode, so reads do not wait for writes. All writes go through a
+ * single writer connection, serialized by {@link #acquireWriter()}. Reads use a small pool of
+ * read-only connections, see {@link #acquireReader()}.
  */
 public class DBHelper {
+    /**
+     * The levels of the SQLite "synchronous" setting. NORMAL is safe in WAL mode, except
+     * that the last transactions may be lost on a power failure.
+     */
+    public enum Synchronous { OFF, NORMAL, FULL, EXTRA }
+
     private static final String DATABASE_NAME = "vstore.db";
+    /**
+     * Maximum number of read connections.
+     */
+    private static final int MAX_READERS = 4;
+    /**
+     * How long a thread waits for a free read connection, or for a lock of the database file.
+     */
+    private static final int TIMEOUT_MS = 5000;
+
     private static File vstoreDir;
     private static String db_url;
+    private static Synchronous mSynchronous = Synchronous.NORMAL;
     
     private static Connection dbConn = null;
     private static DBHelper mInstance;
 
+    private final ReentrantLock mWriteLock = new ReentrantLock();
+    private final BlockingQueue<Connection> mIdleReaders = new LinkedBlockingQueue<>();
+    private final List<Connection> mReaders = new ArrayList<>();
+    /**
+     * The read connection the current thread holds, if any.
+     */
+    private final ThreadLocal<ReadLease> mLease = new ThreadLocal<>();
+    private final Map<Connection, StatementCache> mStatements = new ConcurrentHashMap<>();
+
     private DBHelper() throws DatabaseException 
     {
     	vstoreDir = FileManager.get().getVStoreDir();
@@ -79,6 +120,12 @@ public class DBHelper {
         try
         {
             dbConn = DriverManager.getConnection(db_url);
+            try(Statement stmt = dbConn.createStatement())
+            {
+                stmt.execute("PRAGMA journal_mode=WAL");
+                stmt.execute("PRAGMA synchronous=" + mSynchronous.name());
+                stmt.execute("PRAGMA busy_timeout=" + TIMEOUT_MS);
+            }
             if(!createTablesIfNotExist())
             {
                 close();
@@ -93,92 +140,262 @@ public class DBHelper {
     }
 
     /**
+     * Brings the database layout up to {@link DBSchema#VERSION}, see {@link #migrate(Connection)}.
      * For the database layout, you can also see {@link DBSchema}.
      * @return true, if no error occurred.
      *         false, if an error occurred.
      */
     private static synchronized boolean createTablesIfNotExist() {
     	if(dbConn == null) return false;
-    	
-    	try(Statement stmt = dbConn.createStatement()) 
+
+    	try
     	{
-	    	stmt.execute("CREATE TABLE IF NOT EXISTS " + DBSchema.FilesTable.__NAME + "(" +
-	                DBSchema.FilesTable.UUID + " TEXT PRIMARY KEY NOT NULL," +
-	                DBSchema.FilesTable.MD5_HASH + " TEXT NOT NULL," +
-	                DBSchema.FilesTable.DESCRIPTIVE_NAME + " TEXT NOT NULL," +
-	                DBSchema.FilesTable.MIME + " TEXT," +
-	                DBSchema.FilesTable.EXTENSION + " TEXT," +
-	                DBSchema.FilesTable.DATE_CREATION + " INTEGER," +
-	                DBSchema.FilesTable.SIZE + " INTEGER, " +
-	                DBSchema.FilesTable.UPLOAD_PENDING + " INTEGER, " +
-	                DBSchema.FilesTable.UPLOAD_FAILED + " INTEGER, " +
-	                DBSchema.FilesTable.PRIVATE + " INTEGER, " +
-	                DBSchema.FilesTable.NODEUUID + " TEXT, " +
-                    DBSchema.FilesTable.STORED_NODES + " TEXT," +
-	                DBSchema.FilesTable.CONTEXTJSON + " TEXT," +
-	                DBSchema.FilesTable.DELETE_PENDING + " INTEGER)");
-	
-	        stmt.execute("CREATE TABLE IF NOT EXISTS " + DBSchema.RulesTable.__NAME + "(" +
-	                DBSchema.RulesTable.ID + " TEXT PRIMARY KEY NOT NULL," +
-	                DBSchema.RulesTable.NAME + " TEXT NOT NULL," +
-	                DBSchema.RulesTable.DATE_CREATION + " INTEGER," +
-	                DBSchema.RulesTable.FILE_SIZE + " INTEGER, " +
-	                DBSchema.RulesTable.CONTEXTJSON + " TEXT NOT NULL," +
-	                DBSchema.RulesTable.SHARING_DOMAIN + " INTEGER NOT NULL," +
-	                DBSchema.RulesTable.WEEKDAYS + " TEXT," +
-	                DBSchema.RulesTable.TIME_START + " TEXT," +
-	                DBSchema.RulesTable.TIME_END + " TEXT," +
-					DBSchema.RulesTable.IS_GLOBAL + " INTEGER," +
-					DBSchema.RulesTable.STORE_MULTIPLE + " INTEGER, " +
-					DBSchema.RulesTable.REPLICATION_FACTOR + " INTEGER, " +
-					DBSchema.RulesTable.DETAIL_SCORE + " REAL)");
-	
-	        stmt.execute("CREATE TABLE IF NOT EXISTS " + DBSchema.DecisionsPerRuleTable.__NAME + "(" +
-	                DBSchema.DecisionsPerRuleTable.ID + " INTEGER PRIMARY KEY NOT NULL," +
-	                DBSchema.DecisionsPerRuleTable.RULE_ID + " TEXT NOT NULL," +
-	                DBSchema.DecisionsPerRuleTable.POSITION + " INTEGER NOT NULL," +
-	                DBSchema.DecisionsPerRuleTable.IS_SPECIFIC + " INTEGER NOT NULL," +
-	                DBSchema.DecisionsPerRuleTable.SPECIFIC_NODE_ID + " TEXT," +
-	                DBSchema.DecisionsPerRuleTable.SELECTED_TYPE + " TEXT NOT NULL," +
-	                DBSchema.DecisionsPerRuleTable.MIN_RADIUS + " REAL," +
-	                DBSchema.DecisionsPerRuleTable.MAX_RADIUS + " REAL," +
-	                DBSchema.DecisionsPerRuleTable.MIN_BW_UP + " INTEGER," +
-	                DBSchema.DecisionsPerRuleTable.MIN_BW_DOWN + " INTEGER)");
-	
-	        stmt.execute("CREATE TABLE IF NOT EXISTS " + DBSchema.MimesPerRuleTable.__NAME + "(" +
-	                DBSchema.MimesPerRuleTable.ID + " INTEGER PRIMARY KEY NOT NULL," +
-	                DBSchema.MimesPerRuleTable.RULE_ID + " TEXT NOT NULL," +
-	                DBSchema.MimesPerRuleTable.MIME + " TEXT NOT NULL)");
-	
-	        stmt.execute("CREATE TABLE IF NOT EXISTS " + DBSchema.NodesTable.__NAME + "(" +
-	                DBSchema.NodesTable.UUID + " TEXT PRIMARY KEY NOT NULL," +
-	                DBSchema.NodesTable.ADDRESS + " TEXT NOT NULL," +
-	                DBSchema.NodesTable.PORT + " INTEGER NOT NULL," +
-	                DBSchema.NodesTable.LATITUDE + " REAL NOT NULL," +
-	                DBSchema.NodesTable.LONGITUDE + " REAL NOT NULL," +
-	                DBSchema.NodesTable.TYPE + " TEXT NOT NULL," +
-	                DBSchema.NodesTable.BANDWIDTH_UP + " INTEGER," +
-	                DBSchema.NodesTable.BANDWIDTH_DOWN + " INTEGER)");
-	
-	        stmt.execute("CREATE TABLE IF NOT EXISTS " + DBSchema.CurrentDownloads.__NAME + "(" +
-	                DBSchema.CurrentDownloads.FILE_UUID + " TEXT PRIMARY KEY NOT NULL)");
-    	} 
-    	catch (SQLException e) 
+    	    migrate(dbConn);
+    	}
+    	catch (SQLException e)
     	{
     		System.out.println(e.getMessage());
     		return false;
     	}
     	return true;
     }
+
+    /**
+     * Runs all migrations of {@link DBSchema#MIGRATIONS} that were not run on the given database
+     * yet, each in its own transaction, and records them in {@link DBSchema.SchemaVersionTable}.
+     * Migrations that convert existing rows in Java run in the same transaction as their SQL.
+     *
+     * @param conn The connection to the database.
+     * @return The version of the database afterwards.
+     * @throws SQLException in case a migration failed. The failed migration is rolled back.
+     */
+    static int migrate(Connection conn) throws SQLException {
+    	try(Statement stmt = conn.createStatement())
+    	{
+    	    stmt.execute("CREATE TABLE IF NOT EXISTS " + DBSchema.SchemaVersionTable.__NAME + "(" +
+    	            DBSchema.SchemaVersionTable.VERSION + " INTEGER PRIMARY KEY NOT NULL," +
+    	            DBSchema.SchemaVersionTable.DATE_APPLIED + " INTEGER)");
+
+    	    int version = 0;
+    	    try(ResultSet rs = stmt.executeQuery("SELECT MAX(" + DBSchema.SchemaVersionTable.VERSION
+    	            + ") FROM " + DBSchema.SchemaVersionTable.__NAME))
+    	    {
+    	        if(rs.next()) { version = rs.getInt(1); }
+    	    }
+    	    if(version > DBSchema.VERSION)
+    	    {
+    	        System.out.println("Database version " + version + " is newer than "
+    	                + DBSchema.VERSION + ". Skipping migrations.");
+    	        return version;
+    	    }
+
+    	    for(; version < DBSchema.VERSION; ++version)
+    	    {
+    	        conn.setAutoCommit(false);
+    	        try
+    	        {
+    	            for(String sql : DBSchema.MIGRATIONS[version])
+    	            {
+    	                stmt.execute(sql);
+    	            }
+    	            if(version + 1 == DBSchema.BINARY_ENCODING_VERSION)
+    	            {
+    	                FileDBHelper.encodeJsonRows(conn);
+    	                RulesDBHelper.encodeJsonRows(conn);
+    	            }
+    	            stmt.execute("INSERT INTO " + DBSchema.SchemaVersionTable.__NAME + " VALUES ("
+    	                    + (version + 1) + ", " + System.currentTimeMillis() + ")");
+    	            conn.commit();
+    	        }
+    	        catch(SQLException e)
+    	        {
+    	            conn.rollback();
+    	            throw e;
+    	        }
+    	        finally
+    	        {
+    	            conn.setAutoCommit(true);
+    	        }
+    	    }
+    	    return version;
+    	}
+    }
     
+    /**
+     * Sets the "synchronous" level of the database. Applies immediately, if the database
+     * is already open.
+     *
+     * @param level The level. Default is {@link Synchronous#NORMAL}.
+     */
+    public static void setSynchronous(Synchronous level) {
+        if(level == null) { return; }
+        mSynchronous = level;
+        DBHelper db = mInstance;
+        if(db == null) { return; }
+        Connection c = db.acquireWriter();
+        try(Statement stmt = c.createStatement())
+        {
+            stmt.execute("PRAGMA synchronous=" + level.name());
+        }
+        catch(SQLException e)
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            db.releaseWriter();
+        }
+    }
+
+    /**
+     * @return The writer connection. Only use it between {@link #acquireWriter()}
+     * and {@link #releaseWriter()}.
+     */
     public final Connection getConnection() {
     	return dbConn;
     }
 
     /**
-     * Close the database connection.
+     * Waits until no other thread writes to the database and returns the writer connection.
+     * Every call has to be followed by a call of {@link #releaseWriter()}, e.g. in a finally block.
+     * A thread can acquire the writer multiple times, e.g. to run several writes in one transaction.
+     *
+     * @return The writer connection.
+     */
+    public Connection acquireWriter() {
+        mWriteLock.lock();
+        return dbConn;
+    }
+
+    /**
+     * Releases the writer connection, see {@link #acquireWriter()}.
+     */
+    public void releaseWriter() {
+        mWriteLock.unlock();
+    }
+
+    /**
+     * Returns a read connection for the current thread. Every call has to be followed by a call
+     * of {@link #releaseReader()}, e.g. in a finally block. Nested calls of the same thread
+     * return the same connection. A thread that currently holds the writer reads through the
+     * writer connection, so that it sees its own uncommitted changes. This also applies to
+     * nested calls of a thread that acquired the writer while it held a read connection.
+     *
+     * @return The read connection.
+     * @throws SQLException if no read connection could be opened or became free in time.
+     */
+    public Connection acquireReader() throws SQLException {
+        ReadLease lease = mLease.get();
+        boolean writer = mWriteLock.isHeldByCurrentThread();
+        if(lease != null)
+        {
+            lease.depth++;
+            return writer ? dbConn : lease.conn;
+        }
+        if(writer)
+        {
+            mLease.set(new ReadLease(dbConn, false));
+            return dbConn;
+        }
+
+        Connection c = mIdleReaders.poll();
+        if(c == null) { c = openReader(); }
+        if(c == null)
+        {
+            try
+            {
+                c = mIdleReaders.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            if(c == null) { throw new SQLException("No database connection available for reading"); }
+        }
+        mLease.set(new ReadLease(c, true));
+        return c;
+    }
+
+    /**
+     * Releases the read connection of the current thread, see {@link #acquireReader()}.
+     */
+    public void releaseReader() {
+        ReadLease lease = mLease.get();
+        if(lease == null) { return; }
+        if(--lease.depth > 0) { return; }
+        mLease.remove();
+        if(lease.pooled) { mIdleReaders.offer(lease.conn); }
+    }
+
+    /**
+     * Returns the prepared statement for the given query on the given connection. The statement
+     * is prepared on first use and reused afterwards, see {@link StatementCache}.
+     * Do not close the statement, but close its result sets.
+     *
+     * @param conn A connection from {@link #acquireReader()} or {@link #acquireWriter()}.
+     * @param queryId The id of the query, unique among all queries of the framework.
+     * @param sql The SQL of the query.
+     * @return The prepared statement, without parameters.
+     * @throws SQLException if the statement could not be prepared.
+     */
+    public PreparedStatement prepare(Connection conn, String queryId, String sql) throws SQLException {
+        StatementCache cache = mStatements.get(conn);
+        if(cache == null)
+        {
+            mStatements.putIfAbsent(conn, new StatementCache(conn));
+            cache = mStatements.get(conn);
+        }
+        return cache.get(queryId, sql);
+    }
+
+    /**
+     * @return A new read connection, or null if the maximum number of read connections is open.
+     */
+    private Connection openReader() throws SQLException {
+        synchronized(mReaders)
+        {
+            if(mReaders.size() >= MAX_READERS) { return null; }
+            Connection c = DriverManager.getConnection(db_url);
+            try(Statement stmt = c.createStatement())
+            {
+                stmt.execute("PRAGMA busy_timeout=" + TIMEOUT_MS);
+                stmt.execute("PRAGMA query_only=1");
+            }
+            catch(SQLException e)
+            {
+                //Older SQLite versions do not know query_only
+                System.out.println(e.getMessage());
+            }
+            mReaders.add(c);
+            return c;
+        }
+    }
+
+    /**
+     * Close the database connections.
      */
     public synchronized void close() {
+        for(StatementCache cache : mStatements.values())
+        {
+            cache.close();
+        }
+        mStatements.clear();
+        synchronized(mReaders)
+        {
+            for(Connection c : mReaders)
+            {
+                try
+                {
+                    c.close();
+                }
+                catch (SQLException e)
+                {
+                    System.out.println(e.getMessage());
+                }
+            }
+            mReaders.clear();
+            mIdleReaders.clear();
+        }
         if(dbConn != null) 
         {
             try 
@@ -191,4 +408,15 @@ public class DBHelper {
 			}
         }
     }
+
+    private static class ReadLease {
+        final Connection conn;
+        final boolean pooled;
+        int depth = 1;
+
+        ReadLease(Connection conn, boolean pooled) {
+            this.conn = conn;
+            this.pooled = pooled;
+        }
+    }
 }
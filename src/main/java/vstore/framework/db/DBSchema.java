@@ -6,6 +6,10 @@ import vstore.framework.VStore;
  * This class represents the database layout for the tables of the framework database.
  *
  * See {@link DBSchema.FilesTable}, {@link DBSchema.RulesTable}, {@link DBSchema.MimesPerRuleTable}.
+ *
+ * The layout is versioned. Each entry of {@link #MIGRATIONS} upgrades the database by one
+ * version, and the versions already applied are recorded in {@link SchemaVersionTable}.
+ * To change the layout, append a migration; never change one that was released.
  */
 @SuppressWarnings("unused")
 public class DBSchema {
@@ -29,8 +33,8 @@ public class DBSchema {
         public static final String UPLOAD_FAILED = "upload_failed"; // INTEGER
         public static final String PRIVATE = "is_private"; // INTEGER
         public static final String NODEUUID = "node_id"; // STRING
-        public static final String STORED_NODES = "stored_nodes"; // TEXT
-        public static final String CONTEXTJSON = "context_json"; // TEXT
+        public static final String STORED_NODES = "stored_nodes"; // BLOB (see NodeListCodec), TEXT (json) in old rows
+        public static final String CONTEXTJSON = "context_json"; // BLOB (see ContextCodec), TEXT (json) in old rows
         public static final String DELETE_PENDING = "delete_pending"; //INTEGER
 
 		private static final String[] COLUMNS = {UUID, DESCRIPTIVE_NAME, MIME, EXTENSION,
@@ -46,7 +50,7 @@ public class DBSchema {
         public static final String ID = "id"; // TEXT PRIMARY KEY NOT NULL
         public static final String NAME = "name"; // TEXT NOT NULL
         public static final String DATE_CREATION = "date_creation"; // INTEGER (unix timestamp in ms)
-        public static final String CONTEXTJSON = "context_json"; // TEXT NOT NULL
+        public static final String CONTEXTJSON = "context_json"; // BLOB NOT NULL (see RuleContextCodec), TEXT (json) in old rows
         public static final String SHARING_DOMAIN = "sharing_domain"; // INTEGER NOT NULL
         public static final String WEEKDAYS = "weekdays"; //TEXT
         public static final String TIME_START = "time_start"; //TEXT
@@ -127,4 +131,140 @@ public class DBSchema {
 
         public static final String FILE_UUID = "file_uuid"; // TEXT PRIMARY KEY NOT NULL
     }
+
+    /**
+     * Each row of this table is a migration of {@link #MIGRATIONS} that was applied.
+     */
+    public static final class SchemaVersionTable {
+        public static final String __NAME = "schema_version";
+
+        public static final String VERSION = "version"; // INTEGER PRIMARY KEY NOT NULL
+        public static final String DATE_APPLIED = "date_applied"; // INTEGER (unix timestamp in ms)
+    }
+
+    /**
+     * The migrations of the database layout. Migration i upgrades the database
+     * from version i to version i+1.
+     */
+    static final String[][] MIGRATIONS = {
+            //Version 1: The initial tables
+            {
+                    "CREATE TABLE IF NOT EXISTS " + FilesTable.__NAME + "(" +
+                            FilesTable.UUID + " TEXT PRIMARY KEY NOT NULL," +
+                            FilesTable.MD5_HASH + " TEXT NOT NULL," +
+                            FilesTable.DESCRIPTIVE_NAME + " TEXT NOT NULL," +
+                            FilesTable.MIME + " TEXT," +
+                            FilesTable.EXTENSION + " TEXT," +
+                            FilesTable.DATE_CREATION + " INTEGER," +
+                            FilesTable.SIZE + " INTEGER, " +
+                            FilesTable.UPLOAD_PENDING + " INTEGER, " +
+                            FilesTable.UPLOAD_FAILED + " INTEGER, " +
+                            FilesTable.PRIVATE + " INTEGER, " +
+                            FilesTable.NODEUUID + " TEXT, " +
+                            FilesTable.STORED_NODES + " TEXT," +
+                            FilesTable.CONTEXTJSON + " TEXT," +
+                            FilesTable.DELETE_PENDING + " INTEGER)",
+
+                    "CREATE TABLE IF NOT EXISTS " + RulesTable.__NAME + "(" +
+                            RulesTable.ID + " TEXT PRIMARY KEY NOT NULL," +
+                            RulesTable.NAME + " TEXT NOT NULL," +
+                            RulesTable.DATE_CREATION + " INTEGER," +
+                            RulesTable.FILE_SIZE + " INTEGER, " +
+                            RulesTable.CONTEXTJSON + " TEXT NOT NULL," +
+                            RulesTable.SHARING_DOMAIN + " INTEGER NOT NULL," +
+                            RulesTable.WEEKDAYS + " TEXT," +
+                            RulesTable.TIME_START + " TEXT," +
+                            RulesTable.TIME_END + " TEXT," +
+                            RulesTable.IS_GLOBAL + " INTEGER," +
+                            RulesTable.STORE_MULTIPLE + " INTEGER, " +
+                            RulesTable.REPLICATION_FACTOR + " INTEGER, " +
+                            RulesTable.DETAIL_SCORE + " REAL)",
+
+                    "CREATE TABLE IF NOT EXISTS " + DecisionsPerRuleTable.__NAME + "(" +
+                            DecisionsPerRuleTable.ID + " INTEGER PRIMARY KEY NOT NULL," +
+                            DecisionsPerRuleTable.RULE_ID + " TEXT NOT NULL," +
+                            DecisionsPerRuleTable.POSITION + " INTEGER NOT NULL," +
+                            DecisionsPerRuleTable.IS_SPECIFIC + " INTEGER NOT NULL," +
+                            DecisionsPerRuleTable.SPECIFIC_NODE_ID + " TEXT," +
+                            DecisionsPerRuleTable.SELECTED_TYPE + " TEXT NOT NULL," +
+                            DecisionsPerRuleTable.MIN_RADIUS + " REAL," +
+                            DecisionsPerRuleTable.MAX_RADIUS + " REAL," +
+                            DecisionsPerRuleTable.MIN_BW_UP + " INTEGER," +
+                            DecisionsPerRuleTable.MIN_BW_DOWN + " INTEGER)",
+
+                    "CREATE TABLE IF NOT EXISTS " + MimesPerRuleTable.__NAME + "(" +
+                            MimesPerRuleTable.ID + " INTEGER PRIMARY KEY NOT NULL," +
+                            MimesPerRuleTable.RULE_ID + " TEXT NOT NULL," +
+                            MimesPerRuleTable.MIME + " TEXT NOT NULL)",
+
+                    "CREATE TABLE IF NOT EXISTS " + NodesTable.__NAME + "(" +
+                            NodesTable.UUID + " TEXT PRIMARY KEY NOT NULL," +
+                            NodesTable.ADDRESS + " TEXT NOT NULL," +
+                            NodesTable.PORT + " INTEGER NOT NULL," +
+                            NodesTable.LATITUDE + " REAL NOT NULL," +
+                            NodesTable.LONGITUDE + " REAL NOT NULL," +
+                            NodesTable.TYPE + " TEXT NOT NULL," +
+                            NodesTable.BANDWIDTH_UP + " INTEGER," +
+                            NodesTable.BANDWIDTH_DOWN + " INTEGER)",
+
+                    "CREATE TABLE IF NOT EXISTS " + CurrentDownloads.__NAME + "(" +
+                            CurrentDownloads.FILE_UUID + " TEXT PRIMARY KEY NOT NULL)"
+            },
+            //Version 2: Indexes for the duplicate check, the background upload and deletion,
+            //and the rule lookups. The partial indexes only contain the few pending rows,
+            //so they stay small and cheap to update.
+            {
+                    "CREATE INDEX IF NOT EXISTS idx_files_md5_hash ON "
+                            + FilesTable.__NAME + "(" + FilesTable.MD5_HASH + ")",
+                    "CREATE INDEX IF NOT EXISTS idx_files_upload_pending ON "
+                            + FilesTable.__NAME + "(" + FilesTable.DATE_CREATION + ")"
+                            + " WHERE " + Where.FILES_TO_UPLOAD,
+                    "CREATE INDEX IF NOT EXISTS idx_files_delete_pending ON "
+                            + FilesTable.__NAME + "(" + FilesTable.DATE_CREATION + ")"
+                            + " WHERE " + Where.FILES_FOR_DELETION,
+                    "CREATE INDEX IF NOT EXISTS idx_mimes_per_rule_mime ON "
+                            + MimesPerRuleTable.__NAME + "("
+                            + MimesPerRuleTable.MIME + ", " + MimesPerRuleTable.RULE_ID + ")",
+                    "CREATE INDEX IF NOT EXISTS idx_mimes_per_rule_rule_id ON "
+                            + MimesPerRuleTable.__NAME + "(" + MimesPerRuleTable.RULE_ID + ")",
+                    "CREATE INDEX IF NOT EXISTS idx_decisions_per_rule_rule_id ON "
+                            + DecisionsPerRuleTable.__NAME + "("
+                            + DecisionsPerRuleTable.RULE_ID + ", " + DecisionsPerRuleTable.POSITION + ")"
+            },
+            //Version 3: Index for paging through the files by creation date
+            {
+                    "CREATE INDEX IF NOT EXISTS idx_files_date_creation ON "
+                            + FilesTable.__NAME + "("
+                            + FilesTable.DATE_CREATION + ", " + FilesTable.UUID + ")"
+            },
+            //Version 4: Contexts and node lists are stored in a binary format instead of json.
+            //The columns keep their names, SQLite stores blobs in text columns as they are.
+            //The existing rows are converted in Java, see BINARY_ENCODING_VERSION.
+            {
+            }
+    };
+
+    /**
+     * The version that converts the json columns of existing rows to the binary format
+     * (see {@link vstore.framework.db.codec.ContextCodec}). This cannot be done in SQL,
+     * so {@link DBHelper} runs it after the SQL of the migration.
+     */
+    static final int BINARY_ENCODING_VERSION = 4;
+
+    /**
+     * The current version of the database layout.
+     */
+    public static final int VERSION = MIGRATIONS.length;
+
+    /**
+     * Conditions of queries that have a partial index. SQLite only uses a partial index if the
+     * condition of the query contains the condition of the index literally, so queries have to
+     * use these constants instead of bound parameters.
+     */
+    public static final class Where {
+        public static final String FILES_TO_UPLOAD = FilesTable.UPLOAD_PENDING + " = 1 AND "
+                + FilesTable.UPLOAD_FAILED + " = 0 AND "
+                + FilesTable.DELETE_PENDING + " = 0";
+        public static final String FILES_FOR_DELETION = FilesTable.DELETE_PENDING + " = 1";
+    }
 }
@@ -0,0 +1,36 @@
+package vstore.framework.db;
+
+/**
+ * A position in a paginated list of files, see
+ * {@link vstore.framework.db.table_helper.FileDBHelper#getFilePage(FileFilter, DBResultOrdering, FileCursor, int)}.
+ *
+ * The position is given by the creation date and the UUID of the last file of a page
+ * (keyset pagination), so pages stay correct while files are added or removed.
+ */
+public final class FileCursor {
+    private final long mDateCreation;
+    private final String mUuid;
+
+    /**
+     * @param dateCreation The creation date of the last file of the previous page.
+     * @param uuid The UUID of the last file of the previous page.
+     */
+    public FileCursor(long dateCreation, String uuid) {
+        mDateCreation = dateCreation;
+        mUuid = uuid;
+    }
+
+    /**
+     * @return The unix timestamp of the last file of the previous page, in milliseconds.
+     */
+    public long getDateCreation() {
+        return mDateCreation;
+    }
+
+    /**
+     * @return The UUID of the last file of the previous page.
+     */
+    public String getUuid() {
+        return mUuid;
+    }
+}
@@ -0,0 +1,45 @@
+package vstore.framework.db;
+
+/**
+ * Selects which files of the local database are listed.
+ * Files that are marked for deletion are never listed.
+ */
+public enum FileFilter {
+    /**
+     * All files.
+     */
+    ALL(DBSchema.FilesTable.DELETE_PENDING + " = 0"),
+    /**
+     * Only files that still have to be uploaded.
+     */
+    PENDING_UPLOAD(DBSchema.Where.FILES_TO_UPLOAD),
+    /**
+     * Only files that are marked private.
+     */
+    PRIVATE(DBSchema.FilesTable.PRIVATE + " = 1 AND " + DBSchema.FilesTable.DELETE_PENDING + " = 0");
+
+    private final String mWhere;
+
+    FileFilter(String where) {
+        mWhere = where;
+    }
+
+    /**
+     * @return The condition of the filter in SQL.
+     */
+    public String getWhere() {
+        return mWhere;
+    }
+
+    /**
+     * @param onlyPending True, if only files with a pending upload should be listed.
+     * @param onlyPrivate True, if only private files should be listed.
+     * @return The matching filter. Pending uploads take precedence, as in
+     * {@link vstore.framework.file.threads.FetchFilesFromDBThread}.
+     */
+    public static FileFilter from(boolean onlyPending, boolean onlyPrivate) {
+        if(onlyPending) { return PENDING_UPLOAD; }
+        if(onlyPrivate) { return PRIVATE; }
+        return ALL;
+    }
+}
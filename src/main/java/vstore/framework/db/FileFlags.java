@@ -0,0 +1,33 @@
+package vstore.framework.db;
+
+/**
+ * The lifecycle flags of a file in the local database.
+ */
+public final class FileFlags {
+    private final boolean mUploadPending;
+    private final boolean mUploadFailed;
+    private final boolean mDeletePending;
+
+    /**
+     * @param uploadPending True, if the file still has to be uploaded.
+     * @param uploadFailed True, if the upload failed because of a server error.
+     * @param deletePending True, if the file is marked for deletion.
+     */
+    public FileFlags(boolean uploadPending, boolean uploadFailed, boolean deletePending) {
+        mUploadPending = uploadPending;
+        mUploadFailed = uploadFailed;
+        mDeletePending = deletePending;
+    }
+
+    public boolean isUploadPending() {
+        return mUploadPending;
+    }
+
+    public boolean isUploadFailed() {
+        return mUploadFailed;
+    }
+
+    public boolean isDeletePending() {
+        return mDeletePending;
+    }
+}
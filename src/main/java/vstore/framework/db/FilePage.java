@@ -0,0 +1,45 @@
+package vstore.framework.db;
+
+import java.util.Collections;
+import java.util.List;
+
+import vstore.framework.file.VStoreFile;
+
+/**
+ * A page of a paginated list of files.
+ */
+public final class FilePage {
+    private final List<VStoreFile> mFiles;
+    private final FileCursor mNext;
+
+    /**
+     * @param files The files of this page.
+     * @param next The position of the next page, or null if this is the last page.
+     */
+    public FilePage(List<VStoreFile> files, FileCursor next) {
+        mFiles = Collections.unmodifiableList(files);
+        mNext = next;
+    }
+
+    /**
+     * @return The files of this page.
+     */
+    public List<VStoreFile> getFiles() {
+        return mFiles;
+    }
+
+    /**
+     * @return The position to pass for requesting the next page,
+     * or null if this is the last page.
+     */
+    public FileCursor getNext() {
+        return mNext;
+    }
+
+    /**
+     * @return True, if there may be more files after this page.
+     */
+    public boolean hasMore() {
+        return mNext != null;
+    }
+}
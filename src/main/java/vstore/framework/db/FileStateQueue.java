@@ -0,0 +1,213 @@
+package vstore.framework.db;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import vstore.framework.db.table_helper.FileDBHelper;
+
+/**
+ * Collects changes of the lifecycle flags of files (upload done or failed, marked for deletion)
+ * and writes them to the database in the background, many at once in a single transaction.
+ *
+ * Changes of the same file are coalesced, only the last one is written. Changes are written at
+ * most {@link #MAX_FLUSH_DELAY_MS} after they were queued, or as soon as
+ * {@link #MAX_BATCH_SIZE} files have changed. {@link FileDBHelper} flushes the queue before it
+ * reads files, so reads always see the queued changes.
+ */
+public class FileStateQueue {
+    /**
+     * The maximum time in milliseconds a change waits in the queue.
+     */
+    public static final long MAX_FLUSH_DELAY_MS = 100;
+    /**
+     * The number of changed files after which the queue is flushed without waiting.
+     */
+    public static final int MAX_BATCH_SIZE = 256;
+    /**
+     * The time in milliseconds to wait before retrying a failed flush.
+     */
+    private static final long RETRY_DELAY_MS = 1000;
+
+    private static FileStateQueue mInstance;
+
+    private final Object mLock = new Object();
+    private Map<String, FileFlags> mPending;
+    private int mInFlight;
+    private boolean mScheduled;
+    private ScheduledExecutorService mExecutor;
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized(mLock) { mScheduled = false; }
+            flush();
+        }
+    };
+
+    private FileStateQueue() {
+        mPending = new LinkedHashMap<>();
+    }
+
+    public static synchronized void initialize() {
+        if(mInstance == null) {
+            mInstance = new FileStateQueue();
+        }
+    }
+
+    /**
+     * @return Gets the instance of the queue.
+     */
+    public static FileStateQueue get() {
+        initialize();
+        return mInstance;
+    }
+
+    /**
+     * Queues new flags for the file with the given UUID. Replaces flags that were queued for
+     * the file before and are not written yet.
+     *
+     * @param uuid The UUID of the file.
+     * @param uploadPending Set this to false, if an upload is not pending anymore.
+     * @param uploadFailed Set this to true, if an upload failed because of a server error.
+     * @param deletePending Set this to true, if the file should be marked for deletion.
+     */
+    public void setFlags(String uuid, boolean uploadPending, boolean uploadFailed, boolean deletePending) {
+        if(uuid == null) { return; }
+        synchronized(mLock)
+        {
+            //Remove first, so that the file moves to the end of the write order
+            mPending.remove(uuid);
+            mPending.put(uuid, new FileFlags(uploadPending, uploadFailed, deletePending));
+            if(mPending.size() == MAX_BATCH_SIZE)
+            {
+                schedule(0);
+            }
+            else if(!mScheduled)
+            {
+                mScheduled = true;
+                schedule(MAX_FLUSH_DELAY_MS);
+            }
+        }
+    }
+
+    /**
+     * Drops the queued flags of the given file, e.g. because the file is written or deleted
+     * directly.
+     *
+     * @param uuid The UUID of the file.
+     */
+    public void discard(String uuid) {
+        if(uuid == null) { return; }
+        synchronized(mLock)
+        {
+            mPending.remove(uuid);
+        }
+    }
+
+    /**
+     * Writes all queued flags to the database and waits until they are committed.
+     * Returns at once if nothing is queued.
+     */
+    public void flush() {
+        synchronized(mLock)
+        {
+            if(mPending.isEmpty() && mInFlight == 0) { return; }
+        }
+        DBHelper db = DBHelper.get();
+        if(db == null) { return; }
+
+        //Holding the writer while taking the batch makes sure that a flush that finds nothing
+        //to do returns only after the batch of a concurrent flush has been committed.
+        db.acquireWriter();
+        try
+        {
+            Map<String, FileFlags> batch;
+            synchronized(mLock)
+            {
+                if(mPending.isEmpty()) { return; }
+                batch = mPending;
+                mPending = new LinkedHashMap<>();
+                mInFlight++;
+            }
+            try
+            {
+                FileDBHelper.updateFlags(batch);
+            }
+            catch(SQLException e)
+            {
+                e.printStackTrace();
+                requeue(batch);
+            }
+            finally
+            {
+                synchronized(mLock) { mInFlight--; }
+            }
+        }
+        finally
+        {
+            db.releaseWriter();
+        }
+    }
+
+    /**
+     * Puts the flags of a failed batch back into the queue, unless newer flags were queued
+     * for a file in the meantime.
+     */
+    private void requeue(Map<String, FileFlags> batch) {
+        synchronized(mLock)
+        {
+            Map<String, FileFlags> pending = new LinkedHashMap<>(batch);
+            pending.putAll(mPending);
+            mPending = pending;
+            if(!mScheduled)
+            {
+                mScheduled = true;
+                schedule(RETRY_DELAY_MS);
+            }
+        }
+    }
+
+    /**
+     * Flushes the queue and stops the background writer. Flags that are queued afterwards
+     * start it again.
+     */
+    public void stop() {
+        flush();
+        synchronized(mLock)
+        {
+            if(mExecutor != null)
+            {
+                mExecutor.shutdown();
+                mExecutor = null;
+            }
+            mScheduled = false;
+        }
+    }
+
+    /**
+     * @return The number of files with queued flags.
+     */
+    public int size() {
+        synchronized(mLock) { return mPending.size(); }
+    }
+
+    private void schedule(long delayMs) {
+        if(mExecutor == null)
+        {
+            mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "vStore file state writer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        mExecutor.schedule(mFlushTask, delayMs, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,90 @@
+package vstore.framework.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The prepared statements of a single database connection, keyed by a query id.
+ *
+ * A statement is prepared on first use and then reused, so that SQLite parses each query only
+ * once. Callers must not close the returned statements, but have to close their result sets.
+ * A connection is only used by one thread at a time (see {@link DBHelper#acquireReader()} and
+ * {@link DBHelper#acquireWriter()}), so a query must not be run again while a result set
+ * of the same query is still open.
+ */
+class StatementCache {
+    /**
+     * Maximum number of statements per connection. The least recently used one is closed
+     * if there are more.
+     */
+    private static final int MAX_STATEMENTS = 32;
+
+    private final Connection mConn;
+    private final Map<String, PreparedStatement> mStatements;
+
+    StatementCache(Connection conn) {
+        mConn = conn;
+        mStatements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if(size() <= MAX_STATEMENTS) { return false; }
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @param queryId The id of the query.
+     * @param sql The SQL of the query. Only used if the statement is not cached yet.
+     * @return The prepared statement for the query, without parameters.
+     * @throws SQLException if the statement could not be prepared.
+     */
+    synchronized PreparedStatement get(String queryId, String sql) throws SQLException {
+        PreparedStatement pstmt = mStatements.get(queryId);
+        if(pstmt != null && !pstmt.isClosed())
+        {
+            try
+            {
+                pstmt.clearParameters();
+                return pstmt;
+            }
+            catch(SQLException e)
+            {
+                //The driver invalidates a statement whose execution failed, prepare it again
+                closeQuietly(pstmt);
+            }
+        }
+        pstmt = mConn.prepareStatement(sql);
+        mStatements.put(queryId, pstmt);
+        return pstmt;
+    }
+
+    /**
+     * Closes all cached statements.
+     */
+    synchronized void close() {
+        List<PreparedStatement> statements = new ArrayList<>(mStatements.values());
+        mStatements.clear();
+        for(PreparedStatement pstmt : statements)
+        {
+            closeQuietly(pstmt);
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement pstmt) {
+        try
+        {
+            pstmt.close();
+        }
+        catch(SQLException e)
+        {
+            System.out.println(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package vstore.framework.db.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Reads values written by a {@link BinaryWriter}.
+ */
+public class BinaryReader {
+    private final byte[] mData;
+    private int mPos;
+
+    /**
+     * @param data The encoded data.
+     * @param offset The position of the first value in the data.
+     */
+    public BinaryReader(byte[] data, int offset) {
+        mData = data;
+        mPos = offset;
+    }
+
+    public int readByte() throws IOException {
+        if(mPos >= mData.length) { throw new EOFException("Unexpected end of encoded data"); }
+        return mData[mPos++] & 0xFF;
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public long readVarLong() throws IOException {
+        long v = 0;
+        for(int shift = 0; shift < 64; shift += 7)
+        {
+            int b = readByte();
+            v |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0) { return v; }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+
+    public long readSignedVarLong() throws IOException {
+        long v = readVarLong();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    public int readVarInt() throws IOException {
+        return (int) readVarLong();
+    }
+
+    public int readSignedVarInt() throws IOException {
+        return (int) readSignedVarLong();
+    }
+
+    public float readFloat() throws IOException {
+        int bits = (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        return Float.intBitsToFloat(bits);
+    }
+
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readFixedLong());
+    }
+
+    public double readCoordinate() throws IOException {
+        return readSignedVarLong() / BinaryWriter.COORDINATE_SCALE;
+    }
+
+    /**
+     * @param values The constants of the enum, as returned by its values() method.
+     * @return The enum constant, or null if null was written.
+     * @throws IOException if the ordinal is unknown.
+     */
+    public <E extends Enum<E>> E readEnum(E[] values) throws IOException {
+        int i = readVarInt();
+        if(i == 0) { return null; }
+        if(i < 0 || i > values.length) { throw new IOException("Unknown enum ordinal " + (i - 1)); }
+        return values[i - 1];
+    }
+
+    public String readString() throws IOException {
+        int len = readVarInt();
+        if(len == 0) { return null; }
+        len--;
+        if(len < 0 || len > mData.length - mPos) { throw new EOFException("Unexpected end of encoded data"); }
+        String s = new String(mData, mPos, len, StandardCharsets.UTF_8);
+        mPos += len;
+        return s;
+    }
+
+    public UUID readUuid() throws IOException {
+        return new UUID(readFixedLong(), readFixedLong());
+    }
+
+    private long readFixedLong() throws IOException {
+        long v = 0;
+        for(int i = 0; i < 8; ++i)
+        {
+            v = (v << 8) | readByte();
+        }
+        return v;
+    }
+
+    /**
+     * @return True, if all data was read.
+     */
+    public boolean isAtEnd() {
+        return mPos >= mData.length;
+    }
+}
@@ -0,0 +1,130 @@
+package vstore.framework.db.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Writes values in the compact binary format of the database codecs.
+ *
+ * Integers are written as variable length integers (7 bits per byte, least significant first),
+ * signed ones zig-zag encoded so that small negative numbers stay short. Coordinates are
+ * written as fixed-point numbers with a precision of {@link #COORDINATE_SCALE}. Strings are
+ * written as UTF-8 with their length first, so that null can be told apart from "".
+ * Read the values with a {@link BinaryReader} in the same order.
+ */
+public class BinaryWriter {
+    /**
+     * Coordinates are stored in units of 1/COORDINATE_SCALE degrees (about 1 cm).
+     */
+    public static final double COORDINATE_SCALE = 1e7;
+
+    private final ByteArrayOutputStream mOut;
+
+    public BinaryWriter() {
+        mOut = new ByteArrayOutputStream(64);
+    }
+
+    public BinaryWriter writeByte(int b) {
+        mOut.write(b);
+        return this;
+    }
+
+    public BinaryWriter writeBoolean(boolean b) {
+        mOut.write(b ? 1 : 0);
+        return this;
+    }
+
+    /**
+     * Writes a non-negative number. Negative numbers take 10 bytes, use
+     * {@link #writeSignedVarLong(long)} for them.
+     */
+    public BinaryWriter writeVarLong(long v) {
+        while((v & ~0x7FL) != 0)
+        {
+            mOut.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        mOut.write((int) v);
+        return this;
+    }
+
+    public BinaryWriter writeSignedVarLong(long v) {
+        return writeVarLong((v << 1) ^ (v >> 63));
+    }
+
+    public BinaryWriter writeVarInt(int v) {
+        return writeVarLong(v & 0xFFFFFFFFL);
+    }
+
+    public BinaryWriter writeSignedVarInt(int v) {
+        return writeSignedVarLong(v);
+    }
+
+    public BinaryWriter writeFloat(float f) {
+        int bits = Float.floatToIntBits(f);
+        mOut.write(bits >>> 24);
+        mOut.write(bits >>> 16);
+        mOut.write(bits >>> 8);
+        mOut.write(bits);
+        return this;
+    }
+
+    public BinaryWriter writeDouble(double d) {
+        long bits = Double.doubleToLongBits(d);
+        for(int shift = 56; shift >= 0; shift -= 8)
+        {
+            mOut.write((int) (bits >>> shift));
+        }
+        return this;
+    }
+
+    /**
+     * Writes a latitude or longitude in degrees as a fixed-point number.
+     */
+    public BinaryWriter writeCoordinate(double degrees) {
+        return writeSignedVarLong(Math.round(degrees * COORDINATE_SCALE));
+    }
+
+    /**
+     * Writes the ordinal of the given enum constant, or null.
+     * Enums written like this must only get new constants at their end.
+     */
+    public BinaryWriter writeEnum(Enum<?> e) {
+        return writeVarInt((e == null) ? 0 : e.ordinal() + 1);
+    }
+
+    /**
+     * Writes the given string or null.
+     */
+    public BinaryWriter writeString(String s) {
+        if(s == null)
+        {
+            return writeVarInt(0);
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length + 1);
+        mOut.write(bytes, 0, bytes.length);
+        return this;
+    }
+
+    public BinaryWriter writeUuid(UUID uuid) {
+        writeFixedLong(uuid.getMostSignificantBits());
+        writeFixedLong(uuid.getLeastSignificantBits());
+        return this;
+    }
+
+    private void writeFixedLong(long v) {
+        for(int shift = 56; shift >= 0; shift -= 8)
+        {
+            mOut.write((int) (v >>> shift));
+        }
+    }
+
+    /**
+     * @return The bytes written so far.
+     */
+    public byte[] toByteArray() {
+        return mOut.toByteArray();
+    }
+}
@@ -0,0 +1,262 @@
+package vstore.framework.db.codec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import vstore.framework.context.ContextDescription;
+import vstore.framework.context.types.activity.ActivityType;
+import vstore.framework.context.types.activity.VActivity;
+import vstore.framework.context.types.location.VLatLng;
+import vstore.framework.context.types.location.VLocation;
+import vstore.framework.context.types.network.VNetwork;
+import vstore.framework.context.types.network.cellular.CellularNetwork;
+import vstore.framework.context.types.network.wifi.WiFi;
+import vstore.framework.context.types.noise.VNoise;
+import vstore.framework.context.types.place.PlaceType;
+import vstore.framework.context.types.place.VPlaces;
+import vstore.framework.context.types.place.VSinglePlace;
+
+/**
+ * Encodes the context of a file ({@link ContextDescription}) in a compact binary format for
+ * the database, instead of JSON.
+ *
+ * The first byte is the {@link #FORMAT_VERSION}, followed by a bit mask of the available
+ * context types and the values of each of them. Timestamps are stored in seconds, like the
+ * context types keep them. Coordinates are stored with a precision of about 1 cm, see
+ * {@link BinaryWriter#COORDINATE_SCALE}.
+ * To change the format, increase the version and keep reading the old one.
+ */
+public class ContextCodec {
+    /**
+     * The version of the format, written as the first byte. JSON always starts with a
+     * different byte, so encoded and JSON data can be told apart.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    private static final int HAS_LOCATION = 1;
+    private static final int HAS_PLACES = 1 << 1;
+    private static final int HAS_ACTIVITY = 1 << 2;
+    private static final int HAS_NETWORK = 1 << 3;
+    private static final int HAS_NOISE = 1 << 4;
+    private static final int HAS_WEEKDAY = 1 << 5;
+
+    private static final int HAS_WIFI = 1;
+    private static final int HAS_MOBILE = 1 << 1;
+
+    private ContextCodec() {}
+
+    /**
+     * @param data Data read from the database.
+     * @return True, if the data was written by {@link #encode(ContextDescription)}.
+     * False, if it is JSON.
+     */
+    public static boolean isEncoded(byte[] data) {
+        return data != null && data.length > 0 && data[0] == FORMAT_VERSION;
+    }
+
+    /**
+     * @param ctx The context description.
+     * @return The encoded context description.
+     */
+    public static byte[] encode(ContextDescription ctx) {
+        BinaryWriter w = new BinaryWriter();
+        w.writeByte(FORMAT_VERSION);
+
+        int mask = 0;
+        if(ctx.getLocationContext() != null) { mask |= HAS_LOCATION; }
+        if(ctx.getPlaces() != null) { mask |= HAS_PLACES; }
+        if(ctx.getActivityContext() != null) { mask |= HAS_ACTIVITY; }
+        if(ctx.getNetworkContext() != null) { mask |= HAS_NETWORK; }
+        if(ctx.getNoiseContext() != null) { mask |= HAS_NOISE; }
+        if(ctx.hasWeekdayContext()) { mask |= HAS_WEEKDAY; }
+        w.writeVarInt(mask);
+        w.writeSignedVarLong(ctx.getTimestamp() / 1000);
+
+        if((mask & HAS_LOCATION) != 0)
+        {
+            VLocation l = ctx.getLocationContext();
+            VLatLng latLng = l.getLatLng();
+            w.writeCoordinate((latLng != null) ? latLng.getLatitude() : 0);
+            w.writeCoordinate((latLng != null) ? latLng.getLongitude() : 0);
+            w.writeFloat(l.getAccuracy());
+            w.writeSignedVarLong(l.getTimestamp() / 1000);
+            w.writeString(l.getDescription());
+        }
+        if((mask & HAS_PLACES) != 0)
+        {
+            writePlaces(w, ctx.getPlaces());
+        }
+        if((mask & HAS_ACTIVITY) != 0)
+        {
+            VActivity a = ctx.getActivityContext();
+            w.writeEnum(a.getType());
+            w.writeSignedVarInt(a.getConfidence());
+            w.writeSignedVarLong(a.getTimestamp() / 1000);
+        }
+        if((mask & HAS_NETWORK) != 0)
+        {
+            writeNetwork(w, ctx.getNetworkContext());
+        }
+        if((mask & HAS_NOISE) != 0)
+        {
+            writeNoise(w, ctx.getNoiseContext());
+        }
+        if((mask & HAS_WEEKDAY) != 0)
+        {
+            w.writeVarInt(ctx.getDayOfWeek());
+        }
+        return w.toByteArray();
+    }
+
+    /**
+     * @param data The data written by {@link #encode(ContextDescription)}.
+     * @return The context description.
+     * @throws IOException if the data is malformed or of an unknown version.
+     */
+    public static ContextDescription decode(byte[] data) throws IOException {
+        if(!isEncoded(data)) { throw new IOException("Unknown context format"); }
+        BinaryReader r = new BinaryReader(data, 1);
+
+        ContextDescription ctx = new ContextDescription();
+        int mask = r.readVarInt();
+        ctx.setTimestamp(r.readSignedVarLong() * 1000);
+
+        if((mask & HAS_LOCATION) != 0)
+        {
+            VLatLng latLng = new VLatLng(r.readCoordinate(), r.readCoordinate());
+            float accuracy = r.readFloat();
+            long time = r.readSignedVarLong() * 1000;
+            ctx.setLocationContext(new VLocation(latLng, accuracy, time, r.readString()));
+        }
+        if((mask & HAS_PLACES) != 0)
+        {
+            ctx.setPlacesContext(readPlaces(r));
+        }
+        if((mask & HAS_ACTIVITY) != 0)
+        {
+            ActivityType type = r.readEnum(ActivityType.values());
+            int confidence = r.readSignedVarInt();
+            ctx.setActivityContext(new VActivity(type, confidence, r.readSignedVarLong() * 1000));
+        }
+        if((mask & HAS_NETWORK) != 0)
+        {
+            ctx.setNetworkContext(readNetwork(r));
+        }
+        if((mask & HAS_NOISE) != 0)
+        {
+            ctx.setNoiseContext(readNoise(r));
+        }
+        if((mask & HAS_WEEKDAY) != 0)
+        {
+            ctx.setDayOfWeek(r.readVarInt());
+        }
+        return ctx;
+    }
+
+    private static void writePlaces(BinaryWriter w, VPlaces places) {
+        //The places context keeps its timestamp in milliseconds
+        w.writeSignedVarLong(places.getTimestamp());
+        ArrayList<VSinglePlace> list = places.getPlaceList();
+        if(list == null)
+        {
+            w.writeVarInt(0);
+            return;
+        }
+        w.writeVarInt(list.size());
+        for(VSinglePlace p : list)
+        {
+            VLatLng latLng = p.getLatLng();
+            w.writeString(p.getId());
+            w.writeString(p.getName());
+            w.writeCoordinate((latLng != null) ? latLng.getLatitude() : 0);
+            w.writeCoordinate((latLng != null) ? latLng.getLongitude() : 0);
+            w.writeEnum(p.getPlaceType());
+            w.writeString(p.getPlaceTypeText());
+            w.writeDouble(p.getLikelihood());
+            w.writeBoolean(p.isLikely());
+        }
+    }
+
+    private static VPlaces readPlaces(BinaryReader r) throws IOException {
+        long time = r.readSignedVarLong();
+        int count = r.readVarInt();
+        ArrayList<VSinglePlace> list = new ArrayList<>();
+        for(int i = 0; i < count; ++i)
+        {
+            String id = r.readString();
+            String name = r.readString();
+            double lat = r.readCoordinate();
+            double lng = r.readCoordinate();
+            PlaceType type = r.readEnum(PlaceType.values());
+            String typeText = r.readString();
+            VSinglePlace p = new VSinglePlace(id, name, type, lat, lng, r.readDouble());
+            p.setPlaceTypeText(typeText);
+            p.setMostLikely(r.readBoolean());
+            list.add(p);
+        }
+        return new VPlaces(list, time);
+    }
+
+    static void writeNetwork(BinaryWriter w, VNetwork network) {
+        WiFi wifi = network.getWiFiContext();
+        CellularNetwork mobile = network.getMobileContext();
+        int mask = 0;
+        if(wifi != null) { mask |= HAS_WIFI; }
+        if(mobile != null) { mask |= HAS_MOBILE; }
+        w.writeVarInt(mask);
+        w.writeSignedVarLong(network.getTimestamp() / 1000);
+        if(wifi != null)
+        {
+            w.writeBoolean(wifi.isWifiConnected());
+            w.writeString(wifi.getWifiSSID());
+            w.writeSignedVarLong(wifi.getTimestamp() / 1000);
+        }
+        if(mobile != null)
+        {
+            w.writeBoolean(mobile.isMobileConnected());
+            w.writeBoolean(mobile.isMobileNetworkFast());
+            w.writeEnum(mobile.getMobileNetworkType());
+            w.writeSignedVarLong(mobile.getTimestamp() / 1000);
+        }
+    }
+
+    static VNetwork readNetwork(BinaryReader r) throws IOException {
+        int mask = r.readVarInt();
+        long time = r.readSignedVarLong() * 1000;
+        WiFi wifi = null;
+        CellularNetwork mobile = null;
+        if((mask & HAS_WIFI) != 0)
+        {
+            boolean connected = r.readBoolean();
+            wifi = new WiFi(connected, r.readString());
+            wifi.setTimestamp(r.readSignedVarLong() * 1000);
+        }
+        if((mask & HAS_MOBILE) != 0)
+        {
+            boolean connected = r.readBoolean();
+            boolean fast = r.readBoolean();
+            mobile = new CellularNetwork(connected, fast,
+                    r.readEnum(CellularNetwork.MobileType.values()));
+            mobile.setTimestamp(r.readSignedVarLong() * 1000);
+        }
+        VNetwork network = new VNetwork(wifi, mobile);
+        network.setTimestamp(time);
+        return network;
+    }
+
+    static void writeNoise(BinaryWriter w, VNoise noise) {
+        w.writeFloat(noise.getDb());
+        w.writeFloat(noise.getRMS());
+        w.writeSignedVarInt(noise.getRMSThreshold());
+        w.writeSignedVarInt(noise.getDBThreshold());
+        w.writeSignedVarLong(noise.getTimestamp() / 1000);
+    }
+
+    static VNoise readNoise(BinaryReader r) throws IOException {
+        float db = r.readFloat();
+        float rms = r.readFloat();
+        int rmsThreshold = r.readSignedVarInt();
+        int dbThreshold = r.readSignedVarInt();
+        return new VNoise(db, rms, rmsThreshold, dbThreshold, r.readSignedVarLong() * 1000);
+    }
+}
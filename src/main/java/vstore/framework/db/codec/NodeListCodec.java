@@ -0,0 +1,102 @@
+package vstore.framework.db.codec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Encodes the list of storage node identifiers a file is stored on in a compact binary format
+ * for the database, instead of a JSON array. Identifiers that are UUIDs take 16 bytes,
+ * all others are stored as strings.
+ */
+public class NodeListCodec {
+    /**
+     * The version of the format, written as the first byte.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    private static final int TAG_STRING = 0;
+    private static final int TAG_UUID = 1;
+
+    private NodeListCodec() {}
+
+    /**
+     * @param data Data read from the database.
+     * @return True, if the data was written by {@link #encode(List)}. False, if it is JSON.
+     */
+    public static boolean isEncoded(byte[] data) {
+        return data != null && data.length > 0 && data[0] == FORMAT_VERSION;
+    }
+
+    /**
+     * @param nodeIds The identifiers of the storage nodes.
+     * @return The encoded list.
+     */
+    public static byte[] encode(List<String> nodeIds) {
+        BinaryWriter w = new BinaryWriter();
+        w.writeByte(FORMAT_VERSION);
+        w.writeVarInt(nodeIds.size());
+        for(String id : nodeIds)
+        {
+            UUID uuid = toUuid(id);
+            if(uuid != null)
+            {
+                w.writeByte(TAG_UUID);
+                w.writeUuid(uuid);
+            }
+            else
+            {
+                w.writeByte(TAG_STRING);
+                w.writeString(id);
+            }
+        }
+        return w.toByteArray();
+    }
+
+    /**
+     * @param data The data written by {@link #encode(List)}.
+     * @return The identifiers of the storage nodes.
+     * @throws IOException if the data is malformed or of an unknown version.
+     */
+    public static List<String> decode(byte[] data) throws IOException {
+        if(!isEncoded(data)) { throw new IOException("Unknown node list format"); }
+        BinaryReader r = new BinaryReader(data, 1);
+        int count = r.readVarInt();
+        List<String> nodeIds = new ArrayList<>();
+        for(int i = 0; i < count; ++i)
+        {
+            int tag = r.readByte();
+            if(tag == TAG_UUID)
+            {
+                nodeIds.add(r.readUuid().toString());
+            }
+            else if(tag == TAG_STRING)
+            {
+                nodeIds.add(r.readString());
+            }
+            else
+            {
+                throw new IOException("Unknown node id tag " + tag);
+            }
+        }
+        return nodeIds;
+    }
+
+    /**
+     * @return The UUID, if the given identifier is a UUID in its canonical form
+     * (so that it is decoded to the same string). Otherwise null.
+     */
+    private static UUID toUuid(String id) {
+        if(id == null || id.length() != 36) { return null; }
+        try
+        {
+            UUID uuid = UUID.fromString(id);
+            return uuid.toString().equals(id) ? uuid : null;
+        }
+        catch(IllegalArgumentException e)
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package vstore.framework.db.codec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import vstore.framework.context.RuleContextDescription;
+import vstore.framework.context.types.activity.ActivityType;
+import vstore.framework.context.types.location.VLatLng;
+import vstore.framework.context.types.place.PlaceType;
+
+/**
+ * Encodes the context of a rule ({@link RuleContextDescription}) in a compact binary format
+ * for the database, instead of JSON. Uses the same building blocks as {@link ContextCodec}.
+ */
+public class RuleContextCodec {
+    /**
+     * The version of the format, written as the first byte.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    private static final int HAS_LOCATION = 1;
+    private static final int HAS_PLACE_TYPES = 1 << 1;
+    private static final int HAS_ACTIVITY = 1 << 2;
+    private static final int HAS_NETWORK = 1 << 3;
+    private static final int HAS_NOISE = 1 << 4;
+
+    private RuleContextCodec() {}
+
+    /**
+     * @param data Data read from the database.
+     * @return True, if the data was written by {@link #encode(RuleContextDescription)}.
+     * False, if it is JSON.
+     */
+    public static boolean isEncoded(byte[] data) {
+        return data != null && data.length > 0 && data[0] == FORMAT_VERSION;
+    }
+
+    /**
+     * @param ctx The rule context description.
+     * @return The encoded rule context description.
+     */
+    public static byte[] encode(RuleContextDescription ctx) {
+        BinaryWriter w = new BinaryWriter();
+        w.writeByte(FORMAT_VERSION);
+
+        int mask = 0;
+        if(ctx.getLocationContext() != null) { mask |= HAS_LOCATION; }
+        if(ctx.getPlaceTypes() != null) { mask |= HAS_PLACE_TYPES; }
+        if(ctx.getActivityContext() != null) { mask |= HAS_ACTIVITY; }
+        if(ctx.getNetworkContext() != null) { mask |= HAS_NETWORK; }
+        if(ctx.getNoiseContext() != null) { mask |= HAS_NOISE; }
+        w.writeVarInt(mask);
+
+        if((mask & HAS_LOCATION) != 0)
+        {
+            VLatLng l = ctx.getLocationContext();
+            w.writeCoordinate(l.getLatitude());
+            w.writeCoordinate(l.getLongitude());
+            w.writeSignedVarInt(ctx.getRadius());
+        }
+        if((mask & HAS_PLACE_TYPES) != 0)
+        {
+            List<PlaceType> types = ctx.getPlaceTypes();
+            w.writeVarInt(types.size());
+            for(PlaceType t : types)
+            {
+                w.writeEnum(t);
+            }
+        }
+        if((mask & HAS_ACTIVITY) != 0)
+        {
+            w.writeEnum(ctx.getActivityContext());
+        }
+        if((mask & HAS_NETWORK) != 0)
+        {
+            ContextCodec.writeNetwork(w, ctx.getNetworkContext());
+        }
+        if((mask & HAS_NOISE) != 0)
+        {
+            ContextCodec.writeNoise(w, ctx.getNoiseContext());
+        }
+        return w.toByteArray();
+    }
+
+    /**
+     * @param data The data written by {@link #encode(RuleContextDescription)}.
+     * @return The rule context description.
+     * @throws IOException if the data is malformed or of an unknown version.
+     */
+    public static RuleContextDescription decode(byte[] data) throws IOException {
+        if(!isEncoded(data)) { throw new IOException("Unknown rule context format"); }
+        BinaryReader r = new BinaryReader(data, 1);
+
+        RuleContextDescription ctx = new RuleContextDescription();
+        int mask = r.readVarInt();
+        if((mask & HAS_LOCATION) != 0)
+        {
+            double lat = r.readCoordinate();
+            double lng = r.readCoordinate();
+            ctx.setLocationContext(lat, lng, r.readSignedVarInt());
+        }
+        if((mask & HAS_PLACE_TYPES) != 0)
+        {
+            int count = r.readVarInt();
+            List<PlaceType> types = new ArrayList<>();
+            for(int i = 0; i < count; ++i)
+            {
+                PlaceType t = r.readEnum(PlaceType.values());
+                if(t != null) { types.add(t); }
+            }
+            ctx.setPlaceTypes(types);
+        }
+        if((mask & HAS_ACTIVITY) != 0)
+        {
+            ctx.setActivityContext(r.readEnum(ActivityType.values()));
+        }
+        if((mask & HAS_NETWORK) != 0)
+        {
+            ctx.setNetworkContext(ContextCodec.readNetwork(r));
+        }
+        if((mask & HAS_NOISE) != 0)
+        {
+            ctx.setNoiseContext(ContextCodec.readNoise(r));
+        }
+        return ctx;
+    }
+}
@@ -5,11 +5,17 @@ import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import vstore.framework.db.DBSchema;
+import vstore.framework.db.codec.ContextCodec;
+import vstore.framework.db.codec.NodeListCodec;
 import vstore.framework.file.FileManager;
 import vstore.framework.file.VStoreFile;
 
@@ -30,37 +36,83 @@ public class FileRowWrapper {
      * @return The vStoreFile object containing information about a file stored in the framework
      */
     public VStoreFile getFile() {
-    	
-    	VStoreFile f = null;
-    	
+        Row row = getRow();
+        return (row != null) ? row.toFile() : null;
+    }
+
+    /**
+     * Reads the raw column values of the current row, without parsing them.
+     *
+     * @return The row, or null if it could not be read.
+     */
+    public Row getRow() {
     	try 
     	{
-	        String uuid = mRes.getString(DBSchema.FilesTable.UUID);
-	        String md5 = mRes.getString(DBSchema.FilesTable.MD5_HASH);
-	        String descriptiveName = mRes.getString(DBSchema.FilesTable.DESCRIPTIVE_NAME);
-	        String mime = mRes.getString(DBSchema.FilesTable.MIME);
-	        String extension = mRes.getString(DBSchema.FilesTable.EXTENSION);
-	        long dateCreation = mRes.getLong(DBSchema.FilesTable.DATE_CREATION);
+    	    Row r = new Row();
+	        r.uuid = mRes.getString(DBSchema.FilesTable.UUID);
+	        r.md5 = mRes.getString(DBSchema.FilesTable.MD5_HASH);
+	        r.descriptiveName = mRes.getString(DBSchema.FilesTable.DESCRIPTIVE_NAME);
+	        r.mime = mRes.getString(DBSchema.FilesTable.MIME);
+	        r.extension = mRes.getString(DBSchema.FilesTable.EXTENSION);
+	        r.dateCreation = mRes.getLong(DBSchema.FilesTable.DATE_CREATION);
 	        //long size = mRes.getLong(DBSchema.FilesTable.SIZE);
-	        boolean uploadPending = (mRes.getInt(DBSchema.FilesTable.UPLOAD_PENDING) == 1);
-	        boolean isPrivate = (mRes.getInt(DBSchema.FilesTable.PRIVATE) == 1);
-	        String nodeUUID = mRes.getString(DBSchema.FilesTable.NODEUUID);
+	        r.uploadPending = (mRes.getInt(DBSchema.FilesTable.UPLOAD_PENDING) == 1);
+	        r.isPrivate = (mRes.getInt(DBSchema.FilesTable.PRIVATE) == 1);
+	        r.nodeUUID = mRes.getString(DBSchema.FilesTable.NODEUUID);
+	        r.moreNodes = mRes.getBytes(DBSchema.FilesTable.STORED_NODES);
+	        r.context = mRes.getBytes(DBSchema.FilesTable.CONTEXTJSON);
+	        r.deletePending = (mRes.getInt(DBSchema.FilesTable.DELETE_PENDING) == 1);
+	        return r;
+    	}
+    	catch (SQLException e) 
+    	{
+			// TODO: handle exception
+    		e.printStackTrace();
+		}
+    	return null;
+    }
 
-	        String moreNodes = mRes.getString(DBSchema.FilesTable.STORED_NODES);
-            JSONArray jMoreNodes = new JSONArray();
-            JSONParser jp = new JSONParser();
-            try {
-                jMoreNodes = (JSONArray) jp.parse(moreNodes);
-            } catch(ParseException e) {
-                e.printStackTrace();
-            }
+    /**
+     * The raw column values of a row of the files table. Turning it into a {@link VStoreFile}
+     * parses the node list and the context, so do that only when the file is needed.
+     */
+    public static class Row {
+        String uuid;
+        String md5;
+        String descriptiveName;
+        String mime;
+        String extension;
+        long dateCreation;
+        boolean uploadPending;
+        boolean isPrivate;
+        String nodeUUID;
+        byte[] moreNodes;
+        byte[] context;
+        boolean deletePending;
+
+        /**
+         * @return The UUID of the file.
+         */
+        public String getUuid() {
+            return uuid;
+        }
+
+        /**
+         * @return The unix timestamp the file was created at, in milliseconds.
+         */
+        public long getDateCreation() {
+            return dateCreation;
+        }
+
+        /**
+         * @return The file of this row, or null if the file does not exist anymore.
+         */
+        public VStoreFile toFile() {
+            List<String> nodeIds = readNodeIds(moreNodes);
 
-            String contextJson = mRes.getString(DBSchema.FilesTable.CONTEXTJSON);
-	        boolean deletePending = (mRes.getInt(DBSchema.FilesTable.DELETE_PENDING) == 1);
-	    	
 	        try 
 	        {
-	            f = new VStoreFile(uuid,
+	            VStoreFile f = new VStoreFile(uuid,
 	                    descriptiveName,
 	                    FileManager.get().getStoredFilesDir().getAbsolutePath(),
 	                    mime,
@@ -69,22 +121,47 @@ public class FileRowWrapper {
 	                    uploadPending,
 	                    isPrivate);
 	            f.setMainNodeId(nodeUUID);
-	            f.setStoredNodeIDs(jMoreNodes);
-	            f.setContextFromJson(contextJson);
+	            if(nodeIds != null) { f.setStoredNodeIds(nodeIds); }
+	            //Rows that were not converted yet still contain json
+	            if(ContextCodec.isEncoded(context))
+	            {
+	                f.setContextFromData(context);
+	            }
+	            else
+	            {
+	                f.setContextFromJson((context != null) ? new String(context, StandardCharsets.UTF_8) : "");
+	            }
 	            f.setMD5Hash(md5);
 	            f.setDeletePending(deletePending);
+	            return f;
 	        } 
-	        catch(FileNotFoundException e) 
+	        catch(FileNotFoundException e)
 	        {
-	            f = null;
+	            return null;
 	        }
-    	}
-    	catch (SQLException e) 
-    	{
-			// TODO: handle exception
-    		e.printStackTrace();
-		}
-    	
-        return f;
+        }
+
+        /**
+         * @return The node identifiers of the stored_nodes column, encoded or as json.
+         * Null, if the column is empty.
+         */
+        private static List<String> readNodeIds(byte[] data) {
+            if(data == null) { return null; }
+            List<String> nodeIds = new ArrayList<>();
+            try
+            {
+                if(NodeListCodec.isEncoded(data)) { return NodeListCodec.decode(data); }
+                JSONArray jNodes = (JSONArray) new JSONParser().parse(new String(data, StandardCharsets.UTF_8));
+                for(Object id : jNodes)
+                {
+                    nodeIds.add((String) id);
+                }
+            }
+            catch(ParseException | IOException e)
+            {
+                e.printStackTrace();
+            }
+            return nodeIds;
+        }
     }
 }
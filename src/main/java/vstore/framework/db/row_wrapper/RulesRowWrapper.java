@@ -1,11 +1,13 @@
 package vstore.framework.db.row_wrapper;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Date;
 
 import vstore.framework.db.DBSchema;
+import vstore.framework.db.codec.RuleContextCodec;
 import vstore.framework.rule.VStoreRule;
 
 /**
@@ -32,7 +34,7 @@ public class RulesRowWrapper {
         String name = mRes.getString(DBSchema.RulesTable.NAME);
         int dateCreation = mRes.getInt(DBSchema.RulesTable.DATE_CREATION);
         long filesize = mRes.getLong(DBSchema.RulesTable.FILE_SIZE);
-        String contextString = mRes.getString(DBSchema.RulesTable.CONTEXTJSON);
+        byte[] context = mRes.getBytes(DBSchema.RulesTable.CONTEXTJSON);
         int sharingDomain = mRes.getInt(DBSchema.RulesTable.SHARING_DOMAIN);
         String weekdaysStr = mRes.getString(DBSchema.RulesTable.WEEKDAYS);
         String startTimeStr = mRes.getString(DBSchema.RulesTable.TIME_START);
@@ -71,6 +73,11 @@ public class RulesRowWrapper {
             min_end = Integer.parseInt(timeEnd[1]);
         }
 
+        //Rows that were not converted yet still contain json
+        boolean isEncoded = RuleContextCodec.isEncoded(context);
+        String contextString = (!isEncoded && context != null)
+                ? new String(context, StandardCharsets.UTF_8) : null;
+
         rule = new VStoreRule(uuid,
                 name,
                 new Date(dateCreation*1000L),
@@ -84,6 +91,7 @@ public class RulesRowWrapper {
 
         //rule.setBandwidth(nodeBwDown, nodeBwUp);
         //rule.setMaxUploadDuration(maxUploadDuration);
+        if(isEncoded) { rule.setRuleContextFromData(context); }
         rule.setMinFileSize(filesize);
         rule.setDetailScore(detailScore);
         return rule;
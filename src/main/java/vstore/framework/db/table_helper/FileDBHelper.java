@@ -1,13 +1,33 @@
 package vstore.framework.db.table_helper;
 
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import vstore.framework.context.ContextDescription;
 import vstore.framework.db.DBHelper;
+import vstore.framework.db.DBResultOrdering;
 import vstore.framework.db.DBSchema;
+import vstore.framework.db.FileCursor;
+import vstore.framework.db.FileFilter;
+import vstore.framework.db.FileFlags;
+import vstore.framework.db.FilePage;
+import vstore.framework.db.FileStateQueue;
+import vstore.framework.db.codec.ContextCodec;
+import vstore.framework.db.codec.NodeListCodec;
 import vstore.framework.db.row_wrapper.FileRowWrapper;
 import vstore.framework.file.VStoreFile;
 
@@ -16,6 +36,48 @@ public class FileDBHelper {
     public static final String SORT_BY_DATE_DESCENDING = DBSchema.FilesTable.DATE_CREATION + " DESC";
     public static final String SORT_BY_DATE_ASCENDING = DBSchema.FilesTable.DATE_CREATION + " ASC";
 
+    private static final String QUERY_INSERT = "file.insert";
+    //The driver keeps an executed batch bound to its statement, so batches get their own statements
+    private static final String QUERY_INSERT_BATCH = "file.insertBatch";
+    private static final String QUERY_GET = "file.get";
+    private static final String QUERY_GET_ALL = "file.getAll.";
+    private static final String QUERY_UPDATE = "file.update";
+    private static final String QUERY_GET_TO_UPLOAD = "file.getToUpload.";
+    private static final String QUERY_COUNT_TO_UPLOAD = "file.countToUpload";
+    private static final String QUERY_GET_PRIVATE = "file.getPrivate.";
+    private static final String QUERY_GET_FOR_DELETION = "file.getForDeletion";
+    private static final String QUERY_DELETE = "file.delete";
+    private static final String QUERY_COUNT_BY_HASH = "file.countByHash";
+    private static final String QUERY_GET_HASHES = "file.getHashes.";
+    private static final String QUERY_UPDATE_FLAGS = "file.updateFlags";
+    private static final String QUERY_UPDATE_FLAGS_BATCH = "file.updateFlagsBatch";
+    private static final String QUERY_PAGE = "file.page.";
+
+    private static final String SQL_INSERT = "INSERT INTO "
+            + DBSchema.FilesTable.__NAME + " "
+            + "(" + getFieldList(false) + ") "
+            + "VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+    private static final String SQL_GET = "SELECT * FROM "
+            + DBSchema.FilesTable.__NAME
+            + " WHERE " + DBSchema.FilesTable.UUID + " = ? ";
+    private static final String SQL_UPDATE = "UPDATE " + DBSchema.FilesTable.__NAME + " "
+            + "SET " + getFieldList(true)
+            + " WHERE " + DBSchema.FilesTable.UUID + " = ? ";
+    private static final String SQL_UPDATE_FLAGS = "UPDATE " + DBSchema.FilesTable.__NAME + " SET "
+            + DBSchema.FilesTable.UPLOAD_PENDING + " = ?, "
+            + DBSchema.FilesTable.UPLOAD_FAILED + " = ?, "
+            + DBSchema.FilesTable.DELETE_PENDING + " = ?"
+            + " WHERE " + DBSchema.FilesTable.UUID + " = ? ";
+    private static final String SQL_COUNT_BY_HASH = "SELECT COUNT(*) AS rowcount FROM "
+            + DBSchema.FilesTable.__NAME + " WHERE "
+            + DBSchema.FilesTable.MD5_HASH + " = ? ";
+
+    /**
+     * The maximum number of hashes looked up with one query, below the limit of SQLite for
+     * the number of parameters of a statement.
+     */
+    private static final int MAX_HASHES_PER_QUERY = 512;
+
     private FileDBHelper() {}
 
     /**
@@ -25,39 +87,87 @@ public class FileDBHelper {
      * @throws SQLException in case something went wrong during the query.
      */
     public static void insertFile(VStoreFile f) throws SQLException {
-        String sql = "INSERT INTO " 
-        		+ DBSchema.FilesTable.__NAME + " " 
-        		+ "(" + getFieldList(false) + ") "
-				+ "VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
-
-        String ctx;
-        if(f.getContext() == null || f.getContext().getJson() == null) {
-            ctx = "";
+        DBHelper db = DBHelper.get();
+        try
+        {
+            PreparedStatement pstmt = db.prepare(db.acquireWriter(), QUERY_INSERT, SQL_INSERT);
+            bindFile(pstmt, f);
+            pstmt.execute();
         }
-        else {
-            ctx = f.getContext().getJson().toString();
+        finally
+        {
+            db.releaseWriter();
         }
+    }
 
+    /**
+     * Inserts all given files into the local sqlite database in a single transaction.
+     * If one insert fails, none of the files is inserted.
+     *
+     * @param files The files.
+     * @throws SQLException in case something went wrong during the query.
+     */
+    public static void insertFiles(List<VStoreFile> files) throws SQLException {
+        if(files == null || files.size() == 0) { return; }
+        DBHelper db = DBHelper.get();
+        Connection conn = db.acquireWriter();
+        try
+        {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            PreparedStatement pstmt = db.prepare(conn, QUERY_INSERT_BATCH, SQL_INSERT);
+            try
+            {
+                for(VStoreFile f : files)
+                {
+                    bindFile(pstmt, f);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                conn.commit();
+            }
+            catch(SQLException e)
+            {
+                pstmt.clearBatch();
+                conn.rollback();
+                throw e;
+            }
+            finally
+            {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+        finally
+        {
+            db.releaseWriter();
+        }
+    }
 
-        try(PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql)) {
-            pstmt.setString(1, f.getUuid());
-            pstmt.setString(2, f.getMD5Hash());
-            pstmt.setString(3, f.getDescriptiveName());
-            pstmt.setString(4, f.getFileType());
-            pstmt.setString(5, f.getFileExtension());
-            pstmt.setLong(6, f.getCreationDateUnix());
-            pstmt.setLong(7, f.getFileSize());
-            pstmt.setBoolean(8, f.isUploadPending());
-            pstmt.setBoolean(9, f.isUploadFailed());
-            pstmt.setBoolean(10, f.isPrivate());
-            pstmt.setString(11, f.getMainNodeId());
-            pstmt.setString(12, f.getStoredNodeIdsJson().toJSONString());
-            pstmt.setString(13, ctx);
-            pstmt.setBoolean(14, f.isDeletePending());
-
-            pstmt.execute();
-            pstmt.close();
+    /**
+     * Binds all fields of the given file to the first 14 parameters of the statement.
+     */
+    private static void bindFile(PreparedStatement pstmt, VStoreFile f) throws SQLException {
+        byte[] ctx = f.getContextData();
+
+        pstmt.setString(1, f.getUuid());
+        pstmt.setString(2, f.getMD5Hash());
+        pstmt.setString(3, f.getDescriptiveName());
+        pstmt.setString(4, f.getFileType());
+        pstmt.setString(5, f.getFileExtension());
+        pstmt.setLong(6, f.getCreationDateUnix());
+        pstmt.setLong(7, f.getFileSize());
+        pstmt.setBoolean(8, f.isUploadPending());
+        pstmt.setBoolean(9, f.isUploadFailed());
+        pstmt.setBoolean(10, f.isPrivate());
+        pstmt.setString(11, f.getMainNodeId());
+        pstmt.setBytes(12, NodeListCodec.encode(f.getStoredNodeIds()));
+        if(ctx != null) {
+            pstmt.setBytes(13, ctx);
+        }
+        else {
+            pstmt.setString(13, "");
         }
+        pstmt.setBoolean(14, f.isDeletePending());
     }
 
     /**
@@ -68,26 +178,26 @@ public class FileDBHelper {
      * @throws SQLException in case something went wrong during the query.
      */
     public static VStoreFile getFile(String uuid) throws SQLException {
-    	String sql = "SELECT * FROM "
-    			+ DBSchema.FilesTable.__NAME
-    			+ " WHERE " + DBSchema.FilesTable.UUID + " = ? ";
-    	
+        FileStateQueue.get().flush();
     	VStoreFile f = null;
-    	try(PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql)) {
-
+    	DBHelper db = DBHelper.get();
+    	try
+    	{
+            PreparedStatement pstmt = db.prepare(db.acquireReader(), QUERY_GET, SQL_GET);
             pstmt.setString(1, uuid);
-            ResultSet rs  = pstmt.executeQuery();
-
-            while (rs.next())
-            {
-                FileRowWrapper wrp = new FileRowWrapper(rs);
-                f = wrp.getFile();
-                break;
+            try(ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next())
+                {
+                    FileRowWrapper wrp = new FileRowWrapper(rs);
+                    f = wrp.getFile();
+                }
             }
-            pstmt.close();
-
             return f;
         }
+    	finally
+    	{
+    	    db.releaseReader();
+    	}
     }
 
     /**
@@ -99,33 +209,140 @@ public class FileDBHelper {
      * @throws SQLException in case something went wrong during the query.
      */
     public static List<VStoreFile> getFiles(String ordering) throws SQLException {
+        FileStateQueue.get().flush();
 		List<VStoreFile> files = new ArrayList<>();
 		String sql = "SELECT * FROM "
     			+ DBSchema.FilesTable.__NAME
     			+ " WHERE " + DBSchema.FilesTable.DELETE_PENDING + " = ? "
     			+ "ORDER BY " + ordering;
 
-		try(PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql)) {
+		DBHelper db = DBHelper.get();
+		try
+		{
+            PreparedStatement pstmt = db.prepare(db.acquireReader(), QUERY_GET_ALL + ordering, sql);
             pstmt.setInt(1, 0);
-            ResultSet rs;
-            try {
-                rs = pstmt.executeQuery();
+            try(ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next())
+                {
+                    FileRowWrapper wrp = new FileRowWrapper(rs);
+                    files.add(wrp.getFile());
+                }
             }
             catch(NullPointerException e) {
                 e.printStackTrace();
-                return files;
             }
-            while (rs.next())
+            return files;
+        }
+		finally
+		{
+		    db.releaseReader();
+		}
+    }
+    
+    /**
+     * Returns a page of the files in the local database. Pass the cursor of the returned page
+     * to get the next one. Unlike {@link #getFiles(String)}, this never holds more than one page
+     * in memory, so it can be used for very large catalogs.
+     *
+     * @param filter Which files to list.
+     * @param ordering The ordering by creation date.
+     * @param after The cursor of the previous page, or null for the first page.
+     * @param limit The maximum number of files on the page.
+     * @return The page.
+     * @throws SQLException in case something went wrong during the query.
+     */
+    public static FilePage getFilePage(FileFilter filter, DBResultOrdering ordering,
+                                       FileCursor after, int limit) throws SQLException {
+        List<FileRowWrapper.Row> rows = getRowPage(filter, ordering, after, limit);
+        List<VStoreFile> files = new ArrayList<>(rows.size());
+        for(FileRowWrapper.Row r : rows)
+        {
+            VStoreFile f = r.toFile();
+            if(f != null) { files.add(f); }
+        }
+        return new FilePage(files, nextCursor(rows, limit));
+    }
+
+    /**
+     * Iterates over the files in the local database. Files are read from the database one page
+     * at a time, and each file is only created when the iterator reaches it.
+     *
+     * If reading a page fails, the iteration ends early.
+     *
+     * @param filter Which files to list.
+     * @param ordering The ordering by creation date.
+     * @param pageSize The number of files to read from the database at once.
+     * @return The iterator.
+     */
+    public static Iterator<VStoreFile> iterateFiles(FileFilter filter, DBResultOrdering ordering,
+                                                    int pageSize) {
+        return new FileIterator(filter, ordering, pageSize);
+    }
+
+    /**
+     * Reads the raw rows of a page of files, see
+     * {@link #getFilePage(FileFilter, DBResultOrdering, FileCursor, int)}.
+     */
+    static List<FileRowWrapper.Row> getRowPage(FileFilter filter, DBResultOrdering ordering,
+                                               FileCursor after, int limit) throws SQLException {
+        FileStateQueue.get().flush();
+        boolean newestFirst = (ordering != DBResultOrdering.OLDEST_FIRST);
+        String cmp = newestFirst ? " < " : " > ";
+        String dir = newestFirst ? " DESC" : " ASC";
+        String sql = "SELECT * FROM " + DBSchema.FilesTable.__NAME
+                + " WHERE " + filter.getWhere();
+        if(after != null)
+        {
+            //The first condition lets SQLite seek to the cursor in the index instead of
+            //scanning all rows before it.
+            sql += " AND " + DBSchema.FilesTable.DATE_CREATION + cmp.trim() + "= ?"
+                    + " AND (" + DBSchema.FilesTable.DATE_CREATION + cmp + "? OR "
+                    + DBSchema.FilesTable.UUID + cmp + "?)";
+        }
+        sql += " ORDER BY " + DBSchema.FilesTable.DATE_CREATION + dir + ", "
+                + DBSchema.FilesTable.UUID + dir
+                + " LIMIT ?";
+        String queryId = QUERY_PAGE + filter.name() + "." + (newestFirst ? "desc" : "asc")
+                + ((after != null) ? ".after" : "");
+
+        List<FileRowWrapper.Row> rows = new ArrayList<>();
+        DBHelper db = DBHelper.get();
+        try
+        {
+            PreparedStatement pstmt = db.prepare(db.acquireReader(), queryId, sql);
+            int i = 1;
+            if(after != null)
             {
+                pstmt.setLong(i++, after.getDateCreation());
+                pstmt.setLong(i++, after.getDateCreation());
+                pstmt.setString(i++, after.getUuid());
+            }
+            pstmt.setInt(i, Math.max(1, limit));
+            try(ResultSet rs = pstmt.executeQuery()) {
                 FileRowWrapper wrp = new FileRowWrapper(rs);
-                files.add(wrp.getFile());
+                while (rs.next())
+                {
+                    FileRowWrapper.Row r = wrp.getRow();
+                    if(r != null) { rows.add(r); }
+                }
             }
-            pstmt.close();
-
-            return files;
         }
+        finally
+        {
+            db.releaseReader();
+        }
+        return rows;
     }
-    
+
+    /**
+     * @return The cursor after the last of the given rows, or null if the page was not full.
+     */
+    static FileCursor nextCursor(List<FileRowWrapper.Row> rows, int limit) {
+        if(rows.isEmpty() || rows.size() < Math.max(1, limit)) { return null; }
+        FileRowWrapper.Row last = rows.get(rows.size() - 1);
+        return new FileCursor(last.getDateCreation(), last.getUuid());
+    }
+
     /**
      * Updates flags of a file in the database.
      * 
@@ -142,35 +359,27 @@ public class FileDBHelper {
         f.setUploadPending(uploadPending);
         f.setUploadFailed(uploadFailed);
         f.setDeletePending(deletePending);
-        
-        String sql = "UPDATE " + DBSchema.FilesTable.__NAME + " "
-     		   + "SET " + getFieldList(true)
-     		   + " WHERE " + DBSchema.FilesTable.UUID + " = ? ";
-
-        try(PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql)) {
-            pstmt.setString(1, f.getUuid());
-            pstmt.setString(2, f.getMD5Hash());
-            pstmt.setString(3, f.getDescriptiveName());
-            pstmt.setString(4, f.getFileType());
-            pstmt.setString(5, f.getFileExtension());
-            pstmt.setLong(6, f.getCreationDateUnix());
-            pstmt.setLong(7, f.getFileSize());
-            pstmt.setBoolean(8, f.isUploadPending());
-            pstmt.setBoolean(9, f.isUploadFailed());
-            pstmt.setBoolean(10, f.isPrivate());
-            pstmt.setString(11, f.getMainNodeId());
-            pstmt.setString(12, f.getStoredNodeIdsJson().toJSONString());
-            pstmt.setString(13, f.getContext().getJson().toString());
-            pstmt.setBoolean(14, f.isDeletePending());
+        //This write replaces queued flags of the file
+        FileStateQueue.get().discard(f.getUuid());
+
+        DBHelper db = DBHelper.get();
+        try
+        {
+            PreparedStatement pstmt = db.prepare(db.acquireWriter(), QUERY_UPDATE, SQL_UPDATE);
+            bindFile(pstmt, f);
             pstmt.setString(15, f.getUuid());
             pstmt.executeUpdate();
-            pstmt.close();
+        }
+        finally
+        {
+            db.releaseWriter();
         }
     }
 
     /**
-     * Updates the upload pending flag of a file with the given id in the database.
-     * 
+     * Updates the flags of a file with the given id in the database.
+     * Only writes the flag columns, see {@link #updateFlags(String, boolean, boolean, boolean)}.
+     *
      * @param fileUUID The file id for which to update the fields.
      * @param uploadPending Set this to false, if the update is not pending anymore.
      * @param uploadFailed Set this to true, if the upload failed because of a server error.
@@ -181,8 +390,86 @@ public class FileDBHelper {
     		boolean uploadPending, 
     		boolean uploadFailed, 
     		boolean deletePending) throws SQLException {
-        VStoreFile f = getFile(fileUUID);
-        updateFile(f, uploadPending, uploadFailed, deletePending);
+        updateFlags(fileUUID, uploadPending, uploadFailed, deletePending);
+    }
+
+    /**
+     * Updates only the flags of the file with the given id in the database.
+     * To write many flag changes at once, use the {@link FileStateQueue} instead.
+     *
+     * @param fileUUID The file id for which to update the flags.
+     * @param uploadPending Set this to false, if the upload is not pending anymore.
+     * @param uploadFailed Set this to true, if the upload failed because of a server error.
+     * @param deletePending Set this to true, if the file should be marked for deletion.
+     * @throws SQLException in case something went wrong during the query.
+     */
+    public static void updateFlags(String fileUUID,
+                                   boolean uploadPending,
+                                   boolean uploadFailed,
+                                   boolean deletePending) throws SQLException {
+        //This write replaces queued flags of the file
+        FileStateQueue.get().discard(fileUUID);
+        DBHelper db = DBHelper.get();
+        try
+        {
+            PreparedStatement pstmt = db.prepare(db.acquireWriter(), QUERY_UPDATE_FLAGS, SQL_UPDATE_FLAGS);
+            bindFlags(pstmt, fileUUID, new FileFlags(uploadPending, uploadFailed, deletePending));
+            pstmt.executeUpdate();
+        }
+        finally
+        {
+            db.releaseWriter();
+        }
+    }
+
+    /**
+     * Updates only the flags of the given files in a single transaction.
+     * If one update fails, none of them is applied.
+     *
+     * @param flags The new flags per file id.
+     * @throws SQLException in case something went wrong during the query.
+     */
+    public static void updateFlags(Map<String, FileFlags> flags) throws SQLException {
+        if(flags == null || flags.isEmpty()) { return; }
+        DBHelper db = DBHelper.get();
+        Connection conn = db.acquireWriter();
+        try
+        {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            PreparedStatement pstmt = db.prepare(conn, QUERY_UPDATE_FLAGS_BATCH, SQL_UPDATE_FLAGS);
+            try
+            {
+                for(Map.Entry<String, FileFlags> e : flags.entrySet())
+                {
+                    bindFlags(pstmt, e.getKey(), e.getValue());
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                conn.commit();
+            }
+            catch(SQLException e)
+            {
+                pstmt.clearBatch();
+                conn.rollback();
+                throw e;
+            }
+            finally
+            {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+        finally
+        {
+            db.releaseWriter();
+        }
+    }
+
+    private static void bindFlags(PreparedStatement pstmt, String uuid, FileFlags flags) throws SQLException {
+        pstmt.setBoolean(1, flags.isUploadPending());
+        pstmt.setBoolean(2, flags.isUploadFailed());
+        pstmt.setBoolean(3, flags.isDeletePending());
+        pstmt.setString(4, uuid);
     }
 
     /**
@@ -193,26 +480,28 @@ public class FileDBHelper {
      * @throws SQLException in case something went wrong during the query.
      */
     public static List<VStoreFile> getFilesToUpload(String ordering) throws SQLException {
+        FileStateQueue.get().flush();
     	String sql = "SELECT * FROM "
     			+ DBSchema.FilesTable.__NAME
-    			+ " WHERE " + DBSchema.FilesTable.UPLOAD_PENDING + "= ? AND "
-                + DBSchema.FilesTable.UPLOAD_FAILED + " = ? AND "
-                + DBSchema.FilesTable.DELETE_PENDING + " = ? "
+    			+ " WHERE " + DBSchema.Where.FILES_TO_UPLOAD + " "
     			+ "ORDER BY " + ordering;
 
         List<VStoreFile> files = new ArrayList<>();
-		try(PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql)) {
-            pstmt.setInt(1, 1);
-            pstmt.setInt(2, 0);
-            pstmt.setInt(3, 0);
-
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                FileRowWrapper wrp = new FileRowWrapper(rs);
-                files.add(wrp.getFile());
+		DBHelper db = DBHelper.get();
+		try
+		{
+            PreparedStatement pstmt = db.prepare(db.acquireReader(), QUERY_GET_TO_UPLOAD + ordering, sql);
+            try(ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    FileRowWrapper wrp = new FileRowWrapper(rs);
+                    files.add(wrp.getFile());
+                }
             }
-            pstmt.close();
         }
+		finally
+		{
+		    db.releaseReader();
+		}
         return files;
     }
 
@@ -222,20 +511,24 @@ public class FileDBHelper {
      * @throws SQLException in case something went wrong during the query.
      */
     public static int getNumberOfFilesToUpload() throws SQLException {
+        FileStateQueue.get().flush();
     	String sql = "SELECT COUNT(*) AS rowcount FROM "
     			+ DBSchema.FilesTable.__NAME
-    			+ " WHERE " + DBSchema.FilesTable.UPLOAD_PENDING + "= ? AND "
-                + DBSchema.FilesTable.UPLOAD_FAILED + " = ? AND "
-                + DBSchema.FilesTable.DELETE_PENDING + " = ? ";
-
-        try(PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql)) {
-            pstmt.setInt(1, 1);
-            pstmt.setInt(2, 0);
-            pstmt.setInt(3, 0);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.first()) {
-                return rs.getInt("rowcount");
+    			+ " WHERE " + DBSchema.Where.FILES_TO_UPLOAD + " ";
+
+        DBHelper db = DBHelper.get();
+        try
+        {
+            PreparedStatement pstmt = db.prepare(db.acquireReader(), QUERY_COUNT_TO_UPLOAD, sql);
+            try(ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt("rowcount");
+                }
             }
+        }
+        finally
+        {
+            db.releaseReader();
         }
 		return 0;
     }
@@ -247,27 +540,34 @@ public class FileDBHelper {
      * @return A list of private files.
      */
     public static List<VStoreFile> getPrivateFilesOnly( String ordering) {
+        FileStateQueue.get().flush();
     	String sql = "SELECT * FROM " + DBSchema.FilesTable.__NAME
     			+ " WHERE " + DBSchema.FilesTable.PRIVATE + " = ? AND " +
                 DBSchema.FilesTable.DELETE_PENDING + " = ? "
     			+ "ORDER BY " + ordering;
 
         List<VStoreFile> files = new ArrayList<>();
-		try(PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql))
+		DBHelper db = DBHelper.get();
+		try
 		{
+	    	PreparedStatement pstmt = db.prepare(db.acquireReader(), QUERY_GET_PRIVATE + ordering, sql);
 	    	pstmt.setInt(1, 1);
 	    	pstmt.setInt(2, 0);
-	    	
-	    	ResultSet rs  = pstmt.executeQuery();
-	    	while (rs.next()) 
-	    	{
-	    		FileRowWrapper wrp = new FileRowWrapper(rs);
-	    		files.add(wrp.getFile());
+
+	    	try(ResultSet rs = pstmt.executeQuery()) {
+	    	    while (rs.next())
+	    	    {
+	    	        FileRowWrapper wrp = new FileRowWrapper(rs);
+	    	        files.add(wrp.getFile());
+	    	    }
 	    	}
-    	
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
+		finally
+		{
+		    db.releaseReader();
+		}
     	return files;
     }
 
@@ -277,25 +577,31 @@ public class FileDBHelper {
      * @return A list of files that are still pending to be deleted.
      */
     public static List<VStoreFile> getFilesForDeletion() {
+        FileStateQueue.get().flush();
     	String sql = "SELECT * FROM " + DBSchema.FilesTable.__NAME + " "
-    			+ "WHERE " + DBSchema.FilesTable.DELETE_PENDING + " = ? "
+    			+ "WHERE " + DBSchema.Where.FILES_FOR_DELETION + " "
     			+ "ORDER BY " + SORT_BY_DATE_DESCENDING;
 
         List<VStoreFile> files = new ArrayList<>();
-		try(PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql))
+		DBHelper db = DBHelper.get();
+		try
 		{
-	    	pstmt.setInt(1, 1);
-
-	    	ResultSet rs  = pstmt.executeQuery();
-	    	while (rs.next())
-	    	{
-	    		FileRowWrapper wrp = new FileRowWrapper(rs);
-	    		files.add(wrp.getFile());
+	    	PreparedStatement pstmt = db.prepare(db.acquireReader(), QUERY_GET_FOR_DELETION, sql);
+
+	    	try(ResultSet rs = pstmt.executeQuery()) {
+	    	    while (rs.next())
+	    	    {
+	    	        FileRowWrapper wrp = new FileRowWrapper(rs);
+	    	        files.add(wrp.getFile());
+	    	    }
 	    	}
-
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
+		finally
+		{
+		    db.releaseReader();
+		}
     	
     	return files;
     }
@@ -305,11 +611,14 @@ public class FileDBHelper {
      * @param uuid The UUID of the file to delete.
      */
     public static void deleteFile(String uuid) {
+        FileStateQueue.get().discard(uuid);
     	String sql = "DELETE FROM "
     				+ DBSchema.FilesTable.__NAME 
     				+ " WHERE " + DBSchema.FilesTable.UUID + " = ?";
-    	try(PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql))
+    	DBHelper db = DBHelper.get();
+    	try
 		{
+	    	PreparedStatement pstmt = db.prepare(db.acquireWriter(), QUERY_DELETE, sql);
 	    	pstmt.setString(1, uuid);
 	    	pstmt.execute();
 		} 
@@ -317,16 +626,21 @@ public class FileDBHelper {
     	{
 			e.printStackTrace();
 		}
+    	finally
+    	{
+    	    db.releaseWriter();
+    	}
     }
 
     /**
      * Sets the DELETE_PENDING flag in the database. The background service will then try to
      * delete all files marked as DELETE_PENDING in the background.
+     * The flag is written through the {@link FileStateQueue}.
      * @param uuid The UUID of the file to delete.
      * @throws SQLException in case something went wrong during the query.
      */
     public static void markForDeletion(String uuid) throws SQLException {
-    	updateFile(uuid, false, false, true);
+    	FileStateQueue.get().setFlags(uuid, false, false, true);
     }
 
     /**
@@ -348,31 +662,171 @@ public class FileDBHelper {
      * @return True, if a file with the hash is already in the database.
      */
     public static boolean isAlreadyStored(String md5_hash) {
-    	String sql = "SELECT COUNT(*) AS rowcount FROM " 
-    			+ DBSchema.FilesTable.__NAME + " WHERE "
-    			+ DBSchema.FilesTable.MD5_HASH + " = ? ";
-
-		try(PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql))
+		DBHelper db = DBHelper.get();
+		try
 		{
+	    	PreparedStatement pstmt = db.prepare(db.acquireReader(), QUERY_COUNT_BY_HASH, SQL_COUNT_BY_HASH);
 	    	pstmt.setString(1, md5_hash);
-	    	
-	    	ResultSet rs  = pstmt.executeQuery();
-            if(!rs.next()) {
-                return false;
-            }
-	    	if(rs.getInt("rowcount") > 0) 
-	    	{
-	            return true;
-	        }
-		} 
+
+	    	try(ResultSet rs = pstmt.executeQuery()) {
+	    	    if(!rs.next()) {
+	    	        return false;
+	    	    }
+	    	    if(rs.getInt("rowcount") > 0)
+	    	    {
+	    	        return true;
+	    	    }
+	    	}
+		}
+
         catch (SQLException e)
         {
 			e.printStackTrace();
 		}
+		finally
+		{
+		    db.releaseReader();
+		}
     	
         return false;
     }
 
+    /**
+     * Checks for many files at once whether they are already in the database.
+     * Same as {@link #isAlreadyStored(String)} for each hash, but with one query per
+     * {@value #MAX_HASHES_PER_QUERY} hashes.
+     *
+     * @param md5_hashes The md5 hashes to search for in the database.
+     * @return The given hashes for which a file is already in the database.
+     */
+    public static Set<String> getStoredHashes(Collection<String> md5_hashes) {
+        Set<String> stored = new HashSet<>();
+        if(md5_hashes == null || md5_hashes.size() == 0) { return stored; }
+        List<String> hashes = new ArrayList<>(new HashSet<>(md5_hashes));
+        DBHelper db = DBHelper.get();
+        try
+        {
+            Connection conn = db.acquireReader();
+            for(int from = 0; from < hashes.size(); from += MAX_HASHES_PER_QUERY)
+            {
+                List<String> chunk = hashes.subList(from, Math.min(hashes.size(), from + MAX_HASHES_PER_QUERY));
+                //Round the number of parameters up to a power of two, so that only a few
+                //statements are cached. The remaining parameters repeat the first hash.
+                int params = Math.min(MAX_HASHES_PER_QUERY, Integer.highestOneBit(chunk.size() * 2 - 1));
+                StringBuilder sql = new StringBuilder("SELECT DISTINCT " + DBSchema.FilesTable.MD5_HASH
+                        + " FROM " + DBSchema.FilesTable.__NAME
+                        + " WHERE " + DBSchema.FilesTable.MD5_HASH + " IN (");
+                for(int i = 0; i < params; ++i)
+                {
+                    sql.append((i == 0) ? "?" : ",?");
+                }
+                sql.append(")");
+                PreparedStatement pstmt = db.prepare(conn, QUERY_GET_HASHES + params, sql.toString());
+                for(int i = 0; i < params; ++i)
+                {
+                    pstmt.setString(i + 1, chunk.get((i < chunk.size()) ? i : 0));
+                }
+                try(ResultSet rs = pstmt.executeQuery()) {
+                    while(rs.next())
+                    {
+                        stored.add(rs.getString(1));
+                    }
+                }
+            }
+        }
+        catch (SQLException e)
+        {
+            e.printStackTrace();
+        }
+        finally
+        {
+            db.releaseReader();
+        }
+        return stored;
+    }
+
+    /**
+     * Converts the node list and the context of all files that still store them as json to
+     * the binary format of {@link NodeListCodec} and {@link ContextCodec}. Malformed json is
+     * left as it is, it can still be read.
+     * Runs as part of a database migration, on the connection of the migration.
+     *
+     * @param conn The connection to use.
+     * @throws SQLException in case something went wrong during the query.
+     */
+    public static void encodeJsonRows(Connection conn) throws SQLException {
+        String sql = "SELECT " + DBSchema.FilesTable.UUID + ", "
+                + DBSchema.FilesTable.STORED_NODES + ", " + DBSchema.FilesTable.CONTEXTJSON
+                + " FROM " + DBSchema.FilesTable.__NAME
+                + " WHERE typeof(" + DBSchema.FilesTable.STORED_NODES + ") = 'text'"
+                + " OR typeof(" + DBSchema.FilesTable.CONTEXTJSON + ") = 'text'";
+        //Read all rows first, so that the updates do not interfere with the query
+        List<Object[]> rows = new ArrayList<>();
+        try(PreparedStatement pstmt = conn.prepareStatement(sql);
+            ResultSet rs = pstmt.executeQuery())
+        {
+            while(rs.next())
+            {
+                rows.add(new Object[] { rs.getString(1), rs.getObject(2), rs.getObject(3) });
+            }
+        }
+
+        sql = "UPDATE " + DBSchema.FilesTable.__NAME + " SET "
+                + DBSchema.FilesTable.STORED_NODES + " = ?, "
+                + DBSchema.FilesTable.CONTEXTJSON + " = ? "
+                + "WHERE " + DBSchema.FilesTable.UUID + " = ?";
+        try(PreparedStatement pstmt = conn.prepareStatement(sql))
+        {
+            JSONParser parser = new JSONParser();
+            for(Object[] row : rows)
+            {
+                pstmt.setObject(1, encodeNodeList(parser, row[1]));
+                pstmt.setObject(2, encodeContext(parser, row[2]));
+                pstmt.setString(3, (String) row[0]);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    /**
+     * @return The encoded node list, or the given value if it is not a json array.
+     */
+    private static Object encodeNodeList(JSONParser parser, Object value) {
+        if(!(value instanceof String)) { return value; }
+        try
+        {
+            Object json = parser.parse((String) value);
+            if(!(json instanceof JSONArray)) { return value; }
+            List<String> nodeIds = new ArrayList<>();
+            for(Object id : (JSONArray) json)
+            {
+                nodeIds.add((String) id);
+            }
+            return NodeListCodec.encode(nodeIds);
+        }
+        catch(ParseException | ClassCastException e)
+        {
+            return value;
+        }
+    }
+
+    /**
+     * @return The encoded context, or the given value if it is not a json object.
+     */
+    private static Object encodeContext(JSONParser parser, Object value) {
+        if(!(value instanceof String)) { return value; }
+        try
+        {
+            if(!(parser.parse((String) value) instanceof JSONObject)) { return value; }
+        }
+        catch(ParseException e)
+        {
+            return value;
+        }
+        return ContextCodec.encode(new ContextDescription((String) value));
+    }
+
     /**
      * Workaround for simplifying the sql field list
      * @param q True, if a questionmark should be included in the list (for prepared statements)
@@ -0,0 +1,80 @@
+package vstore.framework.db.table_helper;
+
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import vstore.framework.db.DBResultOrdering;
+import vstore.framework.db.FileCursor;
+import vstore.framework.db.FileFilter;
+import vstore.framework.db.row_wrapper.FileRowWrapper;
+import vstore.framework.file.VStoreFile;
+
+/**
+ * Iterates over the files in the local database page by page,
+ * see {@link FileDBHelper#iterateFiles(FileFilter, DBResultOrdering, int)}.
+ *
+ * Only the raw rows of the current page are kept. No database connection is held between
+ * two pages, so the iteration does not block other readers or writers.
+ */
+class FileIterator implements Iterator<VStoreFile> {
+    private final FileFilter mFilter;
+    private final DBResultOrdering mOrdering;
+    private final int mPageSize;
+
+    private List<FileRowWrapper.Row> mRows;
+    private int mPos;
+    private FileCursor mCursor;
+    private boolean mLastPage;
+    private VStoreFile mNext;
+
+    FileIterator(FileFilter filter, DBResultOrdering ordering, int pageSize) {
+        mFilter = filter;
+        mOrdering = ordering;
+        mPageSize = Math.max(1, pageSize);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while(mNext == null)
+        {
+            if(mRows == null || mPos >= mRows.size())
+            {
+                if(mLastPage || !loadPage()) { return false; }
+                continue;
+            }
+            //Rows of files that do not exist anymore are skipped
+            mNext = mRows.get(mPos++).toFile();
+        }
+        return true;
+    }
+
+    @Override
+    public VStoreFile next() {
+        if(!hasNext()) { throw new NoSuchElementException(); }
+        VStoreFile f = mNext;
+        mNext = null;
+        return f;
+    }
+
+    /**
+     * @return False, if there are no more rows.
+     */
+    private boolean loadPage() {
+        try
+        {
+            mRows = FileDBHelper.getRowPage(mFilter, mOrdering, mCursor, mPageSize);
+        }
+        catch(SQLException e)
+        {
+            e.printStackTrace();
+            mLastPage = true;
+            return false;
+        }
+        mPos = 0;
+        mCursor = FileDBHelper.nextCursor(mRows, mPageSize);
+        mLastPage = (mCursor == null);
+        return !mRows.isEmpty();
+    }
+}
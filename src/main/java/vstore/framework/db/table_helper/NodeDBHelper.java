@@ -1,10 +1,11 @@
 package vstore.framework.db.table_helper;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import vstore.framework.db.DBHelper;
@@ -16,6 +17,44 @@ import vstore.framework.node.NodeInfo;
  * Helper for handling database requests for storage node settings.
  */
 public class NodeDBHelper {
+    private static final String QUERY_INSERT = "node.insert";
+    private static final String QUERY_DELETE = "node.delete";
+    private static final String QUERY_GET = "node.get";
+    private static final String QUERY_UPDATE = "node.update";
+    private static final String QUERY_GET_ALL = "node.getAll";
+    private static final String QUERY_DELETE_ALL = "node.deleteAll";
+
+    private static final String SQL_INSERT = "INSERT INTO "
+            + DBSchema.NodesTable.__NAME + " "
+            + "("
+            + DBSchema.NodesTable.UUID + ", "
+            + DBSchema.NodesTable.ADDRESS + ", "
+            + DBSchema.NodesTable.PORT + ", "
+            + DBSchema.NodesTable.LATITUDE + ", "
+            + DBSchema.NodesTable.LONGITUDE + ", "
+            + DBSchema.NodesTable.TYPE + ", "
+            + DBSchema.NodesTable.BANDWIDTH_UP + ", "
+            + DBSchema.NodesTable.BANDWIDTH_DOWN + ") "
+            + "VALUES (?,?,?,?,?,?,?,?)";
+    private static final String SQL_DELETE = "DELETE FROM "
+            + DBSchema.NodesTable.__NAME
+            + " WHERE " + DBSchema.NodesTable.UUID + " = ?";
+    private static final String SQL_GET = "SELECT * FROM "
+            + DBSchema.NodesTable.__NAME
+            + " WHERE " + DBSchema.NodesTable.UUID + " = ? ";
+    private static final String SQL_UPDATE = "UPDATE " + DBSchema.NodesTable.__NAME + " SET "
+            + DBSchema.NodesTable.UUID + " = ?, "
+            + DBSchema.NodesTable.ADDRESS + " = ?, "
+            + DBSchema.NodesTable.PORT + " = ?, "
+            + DBSchema.NodesTable.LATITUDE + " = ?, "
+            + DBSchema.NodesTable.LONGITUDE + " = ?, "
+            + DBSchema.NodesTable.TYPE + " = ?, "
+            + DBSchema.NodesTable.BANDWIDTH_UP + " = ?, "
+            + DBSchema.NodesTable.BANDWIDTH_DOWN + " = ?"
+            + " WHERE " + DBSchema.NodesTable.UUID + " = ? ";
+    private static final String SQL_GET_ALL = "SELECT * FROM " + DBSchema.NodesTable.__NAME;
+    private static final String SQL_DELETE_ALL = "DELETE FROM " + DBSchema.NodesTable.__NAME;
+
     private NodeDBHelper() {}
 
     /**
@@ -24,31 +63,68 @@ public class NodeDBHelper {
      * @throws SQLException in case something went wrong during the query.
      */
     public static void insertNode(NodeInfo node) throws SQLException {
-        String sql = "INSERT INTO "
-        		+ DBSchema.NodesTable.__NAME + " " 
-        		+ "("
-                + DBSchema.NodesTable.UUID + ", "
-                + DBSchema.NodesTable.ADDRESS + ", "
-                + DBSchema.NodesTable.PORT + ", "
-                + DBSchema.NodesTable.LATITUDE + ", "
-                + DBSchema.NodesTable.LONGITUDE + ", "
-                + DBSchema.NodesTable.TYPE + ", "
-                + DBSchema.NodesTable.BANDWIDTH_UP + ", "
-                + DBSchema.NodesTable.BANDWIDTH_DOWN + ") "
-                + "VALUES ("
-                + "'" + node.getIdentifier() + "', "
-                + "'" + node.getAddress() + "', "
-                + "'" + node.getPort() + "', "
-                + "'" + node.getLatLng().getLatitude() + "', "
-                + "'" + node.getLatLng().getLongitude() + "', "
-                + "'" + node.getNodeType().toString() + "', "
-                + "'" + node.getBandwidthUp() + "', "
-                + "'" + node.getBandwidthDown() + "')";
-        try(Statement stmt = DBHelper.get().getConnection().createStatement()) {
-            boolean result = stmt.execute(sql);
-            stmt.close();
+        DBHelper db = DBHelper.get();
+        try
+        {
+            PreparedStatement pstmt = db.prepare(db.acquireWriter(), QUERY_INSERT, SQL_INSERT);
+            bindNode(pstmt, node);
+            pstmt.execute();
         }
-}
+        finally
+        {
+            db.releaseWriter();
+        }
+    }
+
+    /**
+     * Inserts, updates and deletes the given nodes in a single transaction.
+     * If one of the changes fails, none of them is applied.
+     *
+     * @param inserts The nodes to insert.
+     * @param updates The nodes to update.
+     * @param deletes The UUIDs of the nodes to delete.
+     * @throws SQLException in case something went wrong during the query.
+     */
+    public static void applyChanges(Collection<NodeInfo> inserts, Collection<NodeInfo> updates,
+                                    Collection<String> deletes) throws SQLException {
+        if(inserts.isEmpty() && updates.isEmpty() && deletes.isEmpty()) { return; }
+        DBHelper db = DBHelper.get();
+        Connection conn = db.acquireWriter();
+        try
+        {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try
+            {
+                for(String uuid : deletes)
+                {
+                    deleteNode(uuid);
+                }
+                for(NodeInfo n : updates)
+                {
+                    updateNode(n);
+                }
+                for(NodeInfo n : inserts)
+                {
+                    insertNode(n);
+                }
+                conn.commit();
+            }
+            catch(SQLException e)
+            {
+                conn.rollback();
+                throw e;
+            }
+            finally
+            {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+        finally
+        {
+            db.releaseWriter();
+        }
+    }
 
     /**
      * Deletes the node with the given UUID from the local sqlite database.
@@ -59,14 +135,16 @@ public class NodeDBHelper {
     public static void deleteNode(String uuid) throws SQLException {
         if(uuid == null || uuid.equals("")) return;
         
-        String sql = "DELETE FROM "
-        		+ DBSchema.NodesTable.__NAME
-        		+ " WHERE " + DBSchema.NodesTable.UUID + " = ?";
-
-        try(PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql)) {
+        DBHelper db = DBHelper.get();
+        try
+        {
+            PreparedStatement pstmt = db.prepare(db.acquireWriter(), QUERY_DELETE, SQL_DELETE);
             pstmt.setString(1, uuid);
             pstmt.execute();
-            pstmt.close();
+        }
+        finally
+        {
+            db.releaseWriter();
         }
     }
 
@@ -78,23 +156,23 @@ public class NodeDBHelper {
      * @throws SQLException in case something went wrong during the query.
      */
     public static NodeInfo getNode(String uuid) throws SQLException {
-    	String sql = "SELECT * FROM "
-    			+ DBSchema.NodesTable.__NAME
-    			+ " WHERE " + DBSchema.NodesTable.UUID + " = ? ";
-    	
     	NodeInfo n = null;
-    	try(PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql)) {
-
+    	DBHelper db = DBHelper.get();
+    	try
+    	{
+            PreparedStatement pstmt = db.prepare(db.acquireReader(), QUERY_GET, SQL_GET);
             pstmt.setString(1, uuid);
-            ResultSet rs = pstmt.executeQuery();
-
-            while (rs.next()) {
-                NodeRowWrapper wrp = new NodeRowWrapper(rs);
-                n = wrp.getNode();
-                break;
+            try(ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    NodeRowWrapper wrp = new NodeRowWrapper(rs);
+                    n = wrp.getNode();
+                }
             }
-            pstmt.close();
         }
+    	finally
+    	{
+    	    db.releaseReader();
+    	}
 
         return n;
     }
@@ -106,15 +184,19 @@ public class NodeDBHelper {
      * @throws SQLException in case something went wrong during the query.
      */
     public static void updateNode(NodeInfo node) throws SQLException {
-    	String sql = "UPDATE " + DBSchema.NodesTable.__NAME + " "
-      		   + getSetClause(node)
-      		   + " WHERE " + DBSchema.NodesTable.UUID + " = ? ";
-    	
     	//Save updated node information
-    	try(PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql)) {
-            pstmt.setString(1, node.getIdentifier());
+    	DBHelper db = DBHelper.get();
+    	try
+    	{
+            PreparedStatement pstmt = db.prepare(db.acquireWriter(), QUERY_UPDATE, SQL_UPDATE);
+            bindNode(pstmt, node);
+            pstmt.setString(9, node.getIdentifier());
             pstmt.executeUpdate();
         }
+    	finally
+    	{
+    	    db.releaseWriter();
+    	}
     }
 
     /**
@@ -124,17 +206,23 @@ public class NodeDBHelper {
      * @throws SQLException in case something went wrong during the query.
      */
     public static List<NodeInfo> getNodes() throws SQLException {
-    	String sql = "SELECT * FROM " + DBSchema.NodesTable.__NAME;
         List<NodeInfo> nodes = new ArrayList<>();
-    	
-    	try(PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql)) {
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                NodeRowWrapper wrp = new NodeRowWrapper(rs);
-                nodes.add(wrp.getNode());
+
+    	DBHelper db = DBHelper.get();
+    	try
+    	{
+            PreparedStatement pstmt = db.prepare(db.acquireReader(), QUERY_GET_ALL, SQL_GET_ALL);
+            try(ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    NodeRowWrapper wrp = new NodeRowWrapper(rs);
+                    nodes.add(wrp.getNode());
+                }
             }
-            pstmt.close();
         }
+    	finally
+    	{
+    	    db.releaseReader();
+    	}
         return nodes;
     }
 
@@ -144,10 +232,29 @@ public class NodeDBHelper {
      * @throws SQLException in case something went wrong during the query.
      */
     public static void deleteAllNodes() throws SQLException {
-    	String sql = "DELETE FROM " + DBSchema.NodesTable.__NAME;
-    	try(PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql)) {
-            pstmt.execute();
+    	DBHelper db = DBHelper.get();
+    	try
+    	{
+            db.prepare(db.acquireWriter(), QUERY_DELETE_ALL, SQL_DELETE_ALL).execute();
         }
+    	finally
+    	{
+    	    db.releaseWriter();
+    	}
+    }
+
+    /**
+     * Binds all fields of the given node to the first 8 parameters of the statement.
+     */
+    private static void bindNode(PreparedStatement pstmt, NodeInfo n) throws SQLException {
+        pstmt.setString(1, n.getIdentifier());
+        pstmt.setString(2, n.getAddress());
+        pstmt.setInt(3, n.getPort());
+        pstmt.setDouble(4, n.getLatLng().getLatitude());
+        pstmt.setDouble(5, n.getLatLng().getLongitude());
+        pstmt.setString(6, n.getNodeType().name());
+        pstmt.setInt(7, n.getBandwidthUp());
+        pstmt.setInt(8, n.getBandwidthDown());
     }
 
     public static String getSetClause(NodeInfo n) {
@@ -1,19 +1,27 @@
 package vstore.framework.db.table_helper;
 
+import org.json.simple.parser.ParseException;
+
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import vstore.framework.context.RuleContextDescription;
 import vstore.framework.db.DBHelper;
 import vstore.framework.db.DBSchema;
 import vstore.framework.db.DBSchema.DecisionsPerRuleTable;
 import vstore.framework.db.DBSchema.MimesPerRuleTable;
+import vstore.framework.db.codec.RuleContextCodec;
 import vstore.framework.db.row_wrapper.RulesRowWrapper;
 import vstore.framework.node.NodeType;
 import vstore.framework.rule.DecisionLayer;
+import vstore.framework.rule.RuleIndex;
 import vstore.framework.rule.VStoreRule;
 import vstore.framework.utils.TextUtils;
 
@@ -31,6 +39,72 @@ public class RulesDBHelper {
      */
     private RulesDBHelper() { }
 
+    private static final String QUERY_INSERT = "rule.insert";
+    private static final String QUERY_UPDATE = "rule.update";
+    private static final String QUERY_GET = "rule.get";
+    private static final String QUERY_GET_ALL = "rule.getAll.";
+    private static final String QUERY_GET_MIMES = "rule.getMimes";
+    private static final String QUERY_GET_LAYERS = "rule.getLayers";
+    private static final String QUERY_GET_BY_MIME = "rule.getByMime";
+    private static final String QUERY_DELETE = "rule.delete";
+    private static final String QUERY_DELETE_MIMES = "rule.deleteMimes";
+    private static final String QUERY_DELETE_LAYERS = "rule.deleteLayers";
+    private static final String QUERY_INSERT_MIME = "rule.insertMime";
+    private static final String QUERY_INSERT_LAYER = "rule.insertLayer";
+
+    private static final String SQL_INSERT = "INSERT INTO "
+            + DBSchema.RulesTable.__NAME + " "
+            + "(" + getFieldList(false) + ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?);";
+    private static final String SQL_UPDATE = "UPDATE " + DBSchema.RulesTable.__NAME + " "
+            + "SET " + getFieldList(true)
+            + " WHERE " + DBSchema.RulesTable.ID + " = ?";
+    private static final String SQL_GET = "SELECT * FROM "
+            + DBSchema.RulesTable.__NAME
+            + " WHERE " + DBSchema.RulesTable.ID + " = ? ";
+    /**
+     * Conditions on the rule id for {@link #loadDetails(List, String, String, String)}.
+     * A subquery instead of a list of ids, so that the number of rules is not limited by the
+     * number of parameters of a statement.
+     */
+    private static final String CONDITION_RULE = "= ?";
+    private static final String CONDITION_MIME = "IN (SELECT " + MimesPerRuleTable.RULE_ID
+            + " FROM " + DBSchema.MimesPerRuleTable.__NAME
+            + " WHERE " + MimesPerRuleTable.MIME + " = ?)";
+    private static final String SQL_GET_BY_MIME = "SELECT " + DBSchema.RulesTable.__NAME + "."
+            + getFieldList(false)
+            + " FROM " + DBSchema.RulesTable.__NAME + ", " + DBSchema.MimesPerRuleTable.__NAME
+            + " WHERE " +
+            DBSchema.MimesPerRuleTable.MIME + " = ? " +
+            " AND " +
+            DBSchema.MimesPerRuleTable.RULE_ID + " = " +
+            DBSchema.RulesTable.__NAME + "." + DBSchema.RulesTable.ID;
+    private static final String SQL_DELETE = "DELETE FROM "
+            + DBSchema.RulesTable.__NAME
+            + " WHERE " + DBSchema.RulesTable.ID + " = ?";
+    private static final String SQL_DELETE_MIMES = "DELETE FROM "
+            + DBSchema.MimesPerRuleTable.__NAME
+            + " WHERE " + MimesPerRuleTable.RULE_ID + " = ?";
+    private static final String SQL_DELETE_LAYERS = "DELETE FROM "
+            + DBSchema.DecisionsPerRuleTable.__NAME
+            + " WHERE " + DecisionsPerRuleTable.RULE_ID + " = ?";
+    private static final String SQL_INSERT_MIME = "INSERT INTO " + DBSchema.MimesPerRuleTable.__NAME
+            + "("
+            + DBSchema.MimesPerRuleTable.RULE_ID + ", "
+            + DBSchema.MimesPerRuleTable.MIME + ") "
+            + "VALUES(?, ?);";
+    private static final String SQL_INSERT_LAYER = "INSERT INTO "
+            + DBSchema.DecisionsPerRuleTable.__NAME + " ("
+            + DecisionsPerRuleTable.RULE_ID + ", "
+            + DecisionsPerRuleTable.POSITION + ", "
+            + DecisionsPerRuleTable.IS_SPECIFIC + ", "
+            + DecisionsPerRuleTable.SPECIFIC_NODE_ID + ", "
+            + DecisionsPerRuleTable.SELECTED_TYPE + ", "
+            + DecisionsPerRuleTable.MIN_RADIUS + ", "
+            + DecisionsPerRuleTable.MAX_RADIUS + ", "
+            + DecisionsPerRuleTable.MIN_BW_UP + ", "
+            + DecisionsPerRuleTable.MIN_BW_DOWN + ") "
+            + "VALUES (?,?,?,?,?,?,?,?,?)";
+
     /**
      * Inserts the given decision rule into the local sqlite database. Will simply update
      * an entry, if the given id is already in the database.
@@ -38,36 +112,34 @@ public class RulesDBHelper {
      * @param rule The rule.
      * @throws SQLException in case of a database error.
      */
-    public static void insertRule(VStoreRule rule) throws SQLException {
-    	if(getRule(rule.getUUID()) != null) { updateRule(rule); return; }
-
-        String sql = "INSERT INTO "
-                + DBSchema.RulesTable.__NAME + " "
-                + "("
-            + getFieldList(false)
-            + ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?);";
+    public static void insertRule(final VStoreRule rule) throws SQLException {
+        final DBHelper db = DBHelper.get();
+        Connection conn = db.acquireWriter();
+        try
+        {
+            if(getRule(rule.getUUID()) != null) { updateRule(rule); return; }
 
-        PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql);
-        pstmt.setString(1, rule.getUUID());
-        pstmt.setString(2, rule.getName());
-        pstmt.setLong(3, rule.getCreationDateUnix());
-        pstmt.setLong(4, rule.getMinFileSize());
-        pstmt.setString(5, rule.getRuleContext().getJson().toJSONString());
-        pstmt.setInt(6, rule.getSharingDomain());
-        pstmt.setString(7, TextUtils.join(",", rule.getWeekdays()));
-        pstmt.setString(8, rule.getStartHour()+":"+rule.getStartMinutes());
-        pstmt.setString(9, rule.getEndHour()+":"+rule.getEndMinutes());
-        pstmt.setBoolean(10, rule.isGlobal());
-        pstmt.setBoolean(11, rule.isStoreMultiple());
-        pstmt.setInt(12, rule.getReplicationFactor());
-        pstmt.setFloat(13, rule.getDetailScore());
+            //Readers must not see the rule without its mime types and decision layers
+            inTransaction(conn, new Write() {
+                @Override
+                public void run(Connection conn) throws SQLException {
+                    PreparedStatement pstmt = db.prepare(conn, QUERY_INSERT, SQL_INSERT);
+                    bindRule(pstmt, rule);
+                    pstmt.execute();
 
-        pstmt.execute();
+                    //Save updated mime type information for the rule.
+                    insertRuleMimeTypes(conn, rule);
+                    //Save updated decision layers for the rule.
+                    insertDecisionLayers(conn, rule);
+                }
+            });
 
-        //Save updated mime type information for the rule.
-        insertRuleMimeTypes(rule);
-        //Save updated decision layers for the rule.
-        insertDecisionLayers(rule);
+            RuleIndex.get().putRule(getRule(rule.getUUID()));
+        }
+        finally
+        {
+            db.releaseWriter();
+        }
     }
 
     /**
@@ -76,34 +148,32 @@ public class RulesDBHelper {
      *             internal database.
      * @throws SQLException in case of a database error.
      */
-    public static void updateRule(VStoreRule rule) throws SQLException {
-        String sql = "UPDATE " + DBSchema.RulesTable.__NAME + " "
-       		   + "SET "
-                + getFieldList(true)
-       		    + " WHERE " + DBSchema.RulesTable.ID + " = ?";
-    	PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql);
-        pstmt.setString(1, rule.getUUID());
-        pstmt.setString(2, rule.getName());
-        pstmt.setLong(3, rule.getCreationDateUnix());
-        pstmt.setLong(4, rule.getMinFileSize());
-        pstmt.setString(5, rule.getRuleContext().getJson().toJSONString());
-        pstmt.setInt(6, rule.getSharingDomain());
-        pstmt.setString(7, TextUtils.join(",", rule.getWeekdays()));
-        pstmt.setString(8, rule.getStartHour()+":"+rule.getStartMinutes());
-        pstmt.setString(9, rule.getEndHour()+":"+rule.getEndMinutes());
-        pstmt.setBoolean(10, rule.isGlobal());
-        pstmt.setInt(11, rule.getReplicationFactor());
-        pstmt.setBoolean(12, rule.isStoreMultiple());
-        pstmt.setFloat(13, rule.getDetailScore());
-        pstmt.setString(14, rule.getUUID());
-
-        pstmt.executeUpdate();
+    public static void updateRule(final VStoreRule rule) throws SQLException {
+        final DBHelper db = DBHelper.get();
+        Connection conn = db.acquireWriter();
+        try
+        {
+            inTransaction(conn, new Write() {
+                @Override
+                public void run(Connection conn) throws SQLException {
+                    PreparedStatement pstmt = db.prepare(conn, QUERY_UPDATE, SQL_UPDATE);
+                    bindRule(pstmt, rule);
+                    pstmt.setString(14, rule.getUUID());
+                    pstmt.executeUpdate();
 
-        //Save updated mime type information for the rule.
-        insertRuleMimeTypes(rule);
-        //Save updated decision layers for the rule.
-        insertDecisionLayers(rule);
+                    //Save updated mime type information for the rule.
+                    insertRuleMimeTypes(conn, rule);
+                    //Save updated decision layers for the rule.
+                    insertDecisionLayers(conn, rule);
+                }
+            });
 
+            RuleIndex.get().putRule(getRule(rule.getUUID()));
+        }
+        finally
+        {
+            db.releaseWriter();
+        }
     }
 
     /**
@@ -113,23 +183,29 @@ public class RulesDBHelper {
      * @throws SQLException in case of a database error.
      */
     public static VStoreRule getRule(String uuid) throws SQLException {
-    	String sql = "SELECT * FROM "
-    			+ DBSchema.RulesTable.__NAME
-    			+ " WHERE " + DBSchema.RulesTable.ID + " = ? ";
-    	
-    	PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql);
-        pstmt.setString(1, uuid);
-        ResultSet rs  = pstmt.executeQuery();
+    	DBHelper db = DBHelper.get();
+    	Connection conn = db.acquireReader();
+    	try
+    	{
+            VStoreRule rule;
+            PreparedStatement pstmt = db.prepare(conn, QUERY_GET, SQL_GET);
+            pstmt.setString(1, uuid);
+            try(ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {return null; }
 
-        if (!rs.next()) {return null; }
+                RulesRowWrapper wrp = new RulesRowWrapper(rs);
+                rule = wrp.getRule();
+            }
 
-        RulesRowWrapper wrp = new RulesRowWrapper(rs);
-        VStoreRule rule = wrp.getRule();
-    	
-        rule.setMimeTypes(getMimetypesForRule(uuid));
-        rule.setDecisionLayers(getDecisionLayersForRule(uuid));
-        
-        return rule;
+            List<VStoreRule> rules = new ArrayList<>();
+            rules.add(rule);
+            loadDetails(rules, ".rule", CONDITION_RULE, uuid);
+            return rule;
+        }
+    	finally
+    	{
+    	    db.releaseReader();
+    	}
     }
 
     /**
@@ -150,92 +226,126 @@ public class RulesDBHelper {
     			+ DBSchema.RulesTable.__NAME
     			+ " ORDER BY " + ordering;
     	
-    	Statement stmt = DBHelper.get().getConnection().createStatement();
-    	ResultSet rs = stmt.executeQuery(sql);
-        
-        List<VStoreRule> rules = new ArrayList<>();
-        while (rs.next()) {
-            RulesRowWrapper wrp = new RulesRowWrapper(rs);
-            rules.add(wrp.getRule());
+    	DBHelper db = DBHelper.get();
+    	Connection conn = db.acquireReader();
+    	try
+    	{
+            List<VStoreRule> rules = new ArrayList<>();
+            PreparedStatement pstmt = db.prepare(conn, QUERY_GET_ALL + ordering, sql);
+            try(ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    RulesRowWrapper wrp = new RulesRowWrapper(rs);
+                    rules.add(wrp.getRule());
+                }
+            }
 
+            //Get the mime types and decision layers of all rules at once
+            loadDetails(rules, ".all", null, null);
+            return rules;
         }
-        
-        //For each rule, get the corresponding mime types from the second table.
-        //A Join operation in SQLite would not do what we want because we need them as a
-        //separate list.
-        for(VStoreRule r : rules) 
-        {
-            //Get corresponding mime types for the rule
-            r.setMimeTypes(getMimetypesForRule(r.getUUID()));
-            //Get corresponding decision layers for the rule
-            r.setDecisionLayers(getDecisionLayersForRule(r.getUUID()));
-        }
-        return rules;
+    	finally
+    	{
+    	    db.releaseReader();
+    	}
     }
 
     /**
-     * Returns a list of mime types that correspond to this rule from the database.
-     * @param ruleId The rule id for which to get the mime types.
-     * @return The list with the mime type strings.
+     * Sets the mime types and decision layers of the given rules from the other two tables.
+     * Reads them with one query per table for all rules, instead of two queries per rule.
+     * A join would not do what we want, because we need them as separate lists.
+     *
+     * @param rules The rules.
+     * @param filterId The id of the condition, used to cache the statements.
+     * @param condition A condition on the rule id that selects at least the given rules,
+     *                  or null to read the mime types and layers of all rules.
+     * @param param The parameter of the condition, or null if it has none.
      * @throws SQLException in case of a database error.
      */
-    private static List<String> getMimetypesForRule(String ruleId) throws SQLException {
-    	String sql = "SELECT * FROM "
-    			+ DBSchema.MimesPerRuleTable.__NAME
-    			+ " WHERE " + DBSchema.MimesPerRuleTable.RULE_ID + " = ?";
-    	
-    	PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql);
-        pstmt.setString(1, ruleId);
-        ResultSet rs  = pstmt.executeQuery();
-    	
-        List<String> mimes = new ArrayList<>();
-        while(rs.next()) 
+    private static void loadDetails(List<VStoreRule> rules, String filterId, String condition,
+                                    String param) throws SQLException {
+        if(rules.isEmpty()) { return; }
+        String sqlMimes = "SELECT " + MimesPerRuleTable.RULE_ID + ", " + MimesPerRuleTable.MIME
+                + " FROM " + DBSchema.MimesPerRuleTable.__NAME
+                + ((condition != null) ? " WHERE " + MimesPerRuleTable.RULE_ID + " " + condition : "")
+                + " ORDER BY " + MimesPerRuleTable.ID;
+        String sqlLayers = "SELECT * FROM " + DBSchema.DecisionsPerRuleTable.__NAME
+                + ((condition != null) ? " WHERE " + DecisionsPerRuleTable.RULE_ID + " " + condition : "")
+                + " ORDER BY " + DecisionsPerRuleTable.RULE_ID + ", " + DecisionsPerRuleTable.POSITION;
+
+        Map<String, List<String>> mimes = new HashMap<>();
+        Map<String, List<DecisionLayer>> layers = new HashMap<>();
+        DBHelper db = DBHelper.get();
+        Connection conn = db.acquireReader();
+        try
         {
-        	mimes.add(rs.getString(DBSchema.MimesPerRuleTable.MIME));
+            PreparedStatement pstmt = db.prepare(conn, QUERY_GET_MIMES + filterId, sqlMimes);
+            if(param != null) { pstmt.setString(1, param); }
+            try(ResultSet rs = pstmt.executeQuery()) {
+                while(rs.next())
+                {
+                    getList(mimes, rs.getString(MimesPerRuleTable.RULE_ID))
+                            .add(rs.getString(MimesPerRuleTable.MIME));
+                }
+            }
+
+            pstmt = db.prepare(conn, QUERY_GET_LAYERS + filterId, sqlLayers);
+            if(param != null) { pstmt.setString(1, param); }
+            try(ResultSet rs = pstmt.executeQuery()) {
+                while(rs.next())
+                {
+                    getList(layers, rs.getString(DecisionsPerRuleTable.RULE_ID))
+                            .add(readDecisionLayer(rs));
+                }
+            }
+        }
+        finally
+        {
+            db.releaseReader();
+        }
+
+        for(VStoreRule r : rules)
+        {
+            List<String> ruleMimes = mimes.get(r.getUUID());
+            if(ruleMimes != null) { r.setMimeTypes(ruleMimes); }
+            List<DecisionLayer> ruleLayers = layers.get(r.getUUID());
+            if(ruleLayers != null) { r.setDecisionLayers(ruleLayers); }
         }
-        
-        return mimes;
+    }
+
+    private static <T> List<T> getList(Map<String, List<T>> map, String key) {
+        List<T> list = map.get(key);
+        if(list == null)
+        {
+            list = new ArrayList<>();
+            map.put(key, list);
+        }
+        return list;
     }
 
     /**
-     * Returns a list of decision layers that correspond to this rule from the database.
-     * @param ruleId The rule id for which to get decision layers.
-     * @return The list with the decision layers.
-     * @throws SQLException in case of a database error.
+     * @return The decision layer at the current row of the result set.
      */
-    private static List<DecisionLayer> getDecisionLayersForRule(String ruleId) throws SQLException {
-    	String sql = "SELECT * FROM "
-    			+ DBSchema.DecisionsPerRuleTable.__NAME
-    			+ " WHERE " + DBSchema.DecisionsPerRuleTable.RULE_ID + " = ?";
-    	
-    	PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql);
-        pstmt.setString(1, ruleId);
-        ResultSet rs  = pstmt.executeQuery();
-    	
-        List<DecisionLayer> layers = new ArrayList<>();
-        if(rs.next()) {
-            do {
-                DecisionLayer d = new DecisionLayer();
-                d.isSpecific = (rs.getInt(DBSchema.DecisionsPerRuleTable.IS_SPECIFIC) == 1);
-                d.specificNodeId = rs.getString(DBSchema.DecisionsPerRuleTable.SPECIFIC_NODE_ID);
-                try {
-                    d.targetType = NodeType.valueOf(
-                            rs.getString(DBSchema.DecisionsPerRuleTable.SELECTED_TYPE));
-                } catch (IllegalArgumentException e) {
-                    d.targetType = NodeType.UNKNOWN;
-                }
-                d.minRadius = rs.getFloat(DBSchema.DecisionsPerRuleTable.MIN_RADIUS);
-                d.maxRadius = rs.getFloat(DBSchema.DecisionsPerRuleTable.MAX_RADIUS);
-                d.minBwUp = rs.getInt(DBSchema.DecisionsPerRuleTable.MIN_BW_UP);
-                d.minBwDown = rs.getInt(DBSchema.DecisionsPerRuleTable.MIN_BW_DOWN);
-                layers.add(d);
-            } while (rs.next());
+    private static DecisionLayer readDecisionLayer(ResultSet rs) throws SQLException {
+        DecisionLayer d = new DecisionLayer();
+        d.isSpecific = (rs.getInt(DBSchema.DecisionsPerRuleTable.IS_SPECIFIC) == 1);
+        d.specificNodeId = rs.getString(DBSchema.DecisionsPerRuleTable.SPECIFIC_NODE_ID);
+        try {
+            d.targetType = NodeType.valueOf(
+                    rs.getString(DBSchema.DecisionsPerRuleTable.SELECTED_TYPE));
+        } catch (IllegalArgumentException e) {
+            d.targetType = NodeType.UNKNOWN;
         }
-        return layers;
+        d.minRadius = rs.getFloat(DBSchema.DecisionsPerRuleTable.MIN_RADIUS);
+        d.maxRadius = rs.getFloat(DBSchema.DecisionsPerRuleTable.MAX_RADIUS);
+        d.minBwUp = rs.getInt(DBSchema.DecisionsPerRuleTable.MIN_BW_UP);
+        d.minBwDown = rs.getInt(DBSchema.DecisionsPerRuleTable.MIN_BW_DOWN);
+        return d;
     }
 
     /**
      * Gets all rules from the database that have the given mimetype configured.
+     * For matching, prefer {@link RuleIndex#getRulesMatchingFileType(String)}, which does not
+     * touch the database.
      * 
      * @param mimetype The mimetype to fetch rules for.
      * @return A list of all matched rules.
@@ -245,26 +355,24 @@ public class RulesDBHelper {
         List<VStoreRule> results = new ArrayList<>();
         if(mimetype == null || mimetype.equals("")) return results;
         
-        String sql = "SELECT " + DBSchema.RulesTable.__NAME + "."
-                + getFieldList(false)
-                + " FROM " + DBSchema.RulesTable.__NAME + ", " + DBSchema.MimesPerRuleTable.__NAME
-                + " WHERE " +
-                DBSchema.MimesPerRuleTable.MIME + " = ? " +
-                " AND " +
-                DBSchema.MimesPerRuleTable.RULE_ID + " = " +
-                DBSchema.RulesTable.__NAME + "." + DBSchema.RulesTable.ID;
-        
-        PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql);
-        pstmt.setString(1, mimetype);
-        ResultSet rs  = pstmt.executeQuery();
-        
-        while(rs.next()) 
+        DBHelper db = DBHelper.get();
+        try
+        {
+            PreparedStatement pstmt = db.prepare(db.acquireReader(), QUERY_GET_BY_MIME, SQL_GET_BY_MIME);
+            pstmt.setString(1, mimetype);
+            try(ResultSet rs = pstmt.executeQuery()) {
+                while(rs.next())
+                {
+                    RulesRowWrapper wrp = new RulesRowWrapper(rs);
+                    results.add(wrp.getRule());
+                }
+            }
+            //Get the mime types and decision layers of all matched rules at once
+            loadDetails(results, ".mime", CONDITION_MIME, mimetype);
+        }
+        finally
         {
-        	RulesRowWrapper wrp = new RulesRowWrapper(rs);
-            VStoreRule r = wrp.getRule();
-            //Get corresponding decision layers for the rule
-            r.setDecisionLayers(getDecisionLayersForRule(r.getUUID()));
-            results.add(r);
+            db.releaseReader();
         }
         return results;
     }
@@ -274,19 +382,30 @@ public class RulesDBHelper {
      * @param ruleUUID The UUID of the rule to delete.
      * @throws SQLException in case of a database error.
      */
-    public static void deleteRule(String ruleUUID) throws SQLException {
-    	//First, delete the rule itself from the database
-    	String sql = "DELETE FROM "
-    			+ DBSchema.RulesTable.__NAME
-    			+ " WHERE " + DBSchema.RulesTable.ID + " = ?";
-    	
-        PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql);
-        pstmt.setString(1, ruleUUID);
-        pstmt.execute();
-        
-        //Then, delete all mimetypes for this rule from the database
-        deleteMimetypes(ruleUUID);
-        deleteDecisionLayers(ruleUUID);
+    public static void deleteRule(final String ruleUUID) throws SQLException {
+        final DBHelper db = DBHelper.get();
+        try
+        {
+            inTransaction(db.acquireWriter(), new Write() {
+                @Override
+                public void run(Connection conn) throws SQLException {
+                    //First, delete the rule itself from the database
+                    PreparedStatement pstmt = db.prepare(conn, QUERY_DELETE, SQL_DELETE);
+                    pstmt.setString(1, ruleUUID);
+                    pstmt.execute();
+
+                    //Then, delete all mimetypes for this rule from the database
+                    deleteMimetypes(ruleUUID);
+                    deleteDecisionLayers(ruleUUID);
+                }
+            });
+        }
+        finally
+        {
+            db.releaseWriter();
+        }
+
+        RuleIndex.get().removeRule(ruleUUID);
     }
     
     /**
@@ -296,13 +415,17 @@ public class RulesDBHelper {
      * @throws SQLException in case of a database error.
      */
     public static void deleteMimetypes(String ruleId) throws SQLException {
-    	String sql = "DELETE FROM "
-    			+ DBSchema.MimesPerRuleTable.__NAME
-    			+ " WHERE " + MimesPerRuleTable.RULE_ID + " = ?";
-        
-    	PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql);
-        pstmt.setString(1, ruleId);
-        pstmt.execute();
+    	DBHelper db = DBHelper.get();
+    	try
+    	{
+            PreparedStatement pstmt = db.prepare(db.acquireWriter(), QUERY_DELETE_MIMES, SQL_DELETE_MIMES);
+            pstmt.setString(1, ruleId);
+            pstmt.execute();
+        }
+    	finally
+    	{
+    	    db.releaseWriter();
+    	}
     }
     
     /**
@@ -312,71 +435,58 @@ public class RulesDBHelper {
      * @throws SQLException in case of a database error.
      */
     public static void deleteDecisionLayers(String ruleId) throws SQLException {
-    	String sql = "DELETE FROM "
-    			+ DBSchema.DecisionsPerRuleTable.__NAME
-    			+ " WHERE " + DecisionsPerRuleTable.RULE_ID + " = ?";
-        
-    	PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql);
-        pstmt.setString(1, ruleId);
-        pstmt.execute();
+    	DBHelper db = DBHelper.get();
+    	try
+    	{
+            PreparedStatement pstmt = db.prepare(db.acquireWriter(), QUERY_DELETE_LAYERS, SQL_DELETE_LAYERS);
+            pstmt.setString(1, ruleId);
+            pstmt.execute();
+        }
+    	finally
+    	{
+    	    db.releaseWriter();
+    	}
     }
 
     /**
      * Inserts all mime types for the rule into the database.
      * 
+     * @param conn The connection from {@link DBHelper#acquireWriter()}.
      * @param rule The rule for which the mimetypes should be added.
      * @throws SQLException in case of a database error.
      */
-    private static void insertRuleMimeTypes(VStoreRule rule) throws SQLException {
+    private static void insertRuleMimeTypes(Connection conn, VStoreRule rule) throws SQLException {
         //First, delete all old mime type information from the table.
     	deleteMimetypes(rule.getUUID());
 
         //Then, save all mime types for this rule in the database
-        for(String mime : rule.getMimeTypes()) 
+        DBHelper db = DBHelper.get();
+        PreparedStatement pstmt = db.prepare(conn, QUERY_INSERT_MIME, SQL_INSERT_MIME);
+        for(String mime : rule.getMimeTypes())
         {
-        	String sql = "INSERT INTO " + DBSchema.MimesPerRuleTable.__NAME + 
-        			"("
-        			+ DBSchema.MimesPerRuleTable.RULE_ID + ", "
-        			+ DBSchema.MimesPerRuleTable.MIME + ") "
-        			+ "VALUES(?, ?);";
-        	
-        	PreparedStatement pstmt = DBHelper.get().getConnection().prepareStatement(sql);
-        	pstmt.setString(1, rule.getUUID());
-        	pstmt.setString(2, mime);
-
-        	pstmt.execute();
+            pstmt.setString(1, rule.getUUID());
+            pstmt.setString(2, mime);
+            pstmt.execute();
         }
     }
 
     /**
      * Inserts all decision layers for the rule into the database.
      * 
+     * @param conn The connection from {@link DBHelper#acquireWriter()}.
      * @param rule The rule for which to insert the decision layers.
      * @throws SQLException in case of a database error.
      */
-    private static void insertDecisionLayers(VStoreRule rule) throws SQLException {
+    private static void insertDecisionLayers(Connection conn, VStoreRule rule) throws SQLException {
         //First, delete all old decision layers for this rule from the table.
         deleteDecisionLayers(rule.getUUID());
         
         //Then, save all decision layers for this rule in the database
-        for(int i = 0; i < rule.getDecisionLayers().size(); ++i) 
+        DBHelper db = DBHelper.get();
+        PreparedStatement stmt = db.prepare(conn, QUERY_INSERT_LAYER, SQL_INSERT_LAYER);
+        for(int i = 0; i < rule.getDecisionLayers().size(); ++i)
         {
             DecisionLayer layer = rule.getDecisionLayer(i);
-
-            String sql = "INSERT INTO "
-                    + DBSchema.DecisionsPerRuleTable.__NAME + " ("
-                    + DecisionsPerRuleTable.RULE_ID + ", "
-                    + DecisionsPerRuleTable.POSITION + ", "
-                    + DecisionsPerRuleTable.IS_SPECIFIC + ", "
-                    + DecisionsPerRuleTable.SPECIFIC_NODE_ID + ", "
-                    + DecisionsPerRuleTable.SELECTED_TYPE + ", "
-                    + DecisionsPerRuleTable.MIN_RADIUS + ", "
-                    + DecisionsPerRuleTable.MAX_RADIUS + ", "
-                    + DecisionsPerRuleTable.MIN_BW_UP + ", "
-                    + DecisionsPerRuleTable.MIN_BW_DOWN + ") "
-                    + "VALUES (?,?,?,?,?,?,?,?,?)";
-
-            PreparedStatement stmt = DBHelper.get().getConnection().prepareStatement(sql);
             stmt.setString(1, rule.getUUID());
             stmt.setInt(2, i);
             stmt.setBoolean(3, layer.isSpecific);
@@ -390,19 +500,140 @@ public class RulesDBHelper {
         }
     }
 
+    /**
+     * Deletes all rules, with their mime types and decision layers, from the local database.
+     */
     public static void deleteAllRules() {
-        String sql1 = "DELETE * FROM " + DBSchema.RulesTable.NAME;
-        String sql2 = "DELETE * FROM " + MimesPerRuleTable.__NAME;
-        String sql3 = "DELETE * FROM " + DecisionsPerRuleTable.__NAME;
-
-        try {
-            Statement stmt = DBHelper.get().getConnection().createStatement();
-            stmt.executeQuery(sql1);
-            stmt.executeQuery(sql2);
-            stmt.executeQuery(sql3);
-        } catch(SQLException e) {
+        DBHelper db = DBHelper.get();
+        try
+        {
+            inTransaction(db.acquireWriter(), new Write() {
+                @Override
+                public void run(Connection conn) throws SQLException {
+                    try(Statement stmt = conn.createStatement())
+                    {
+                        stmt.executeUpdate("DELETE FROM " + DBSchema.RulesTable.__NAME);
+                        stmt.executeUpdate("DELETE FROM " + MimesPerRuleTable.__NAME);
+                        stmt.executeUpdate("DELETE FROM " + DecisionsPerRuleTable.__NAME);
+                    }
+                }
+            });
+        }
+        catch(SQLException e)
+        {
             e.printStackTrace();
         }
+        finally
+        {
+            db.releaseWriter();
+        }
+        RuleIndex.get().invalidate();
+    }
+
+    /**
+     * A write to the database that has to be applied as a whole.
+     */
+    private interface Write {
+        void run(Connection conn) throws SQLException;
+    }
+
+    /**
+     * Runs the given write in a transaction on the writer connection, so that readers see
+     * either all or none of its changes. If the connection is already in a transaction,
+     * the write becomes part of it.
+     *
+     * @param conn The connection from {@link DBHelper#acquireWriter()}.
+     * @param write The write.
+     * @throws SQLException in case of a database error. The transaction is rolled back.
+     */
+    private static void inTransaction(Connection conn, Write write) throws SQLException {
+        if(!conn.getAutoCommit())
+        {
+            write.run(conn);
+            return;
+        }
+        conn.setAutoCommit(false);
+        try
+        {
+            write.run(conn);
+            conn.commit();
+        }
+        catch(SQLException | RuntimeException e)
+        {
+            conn.rollback();
+            throw e;
+        }
+        finally
+        {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Converts the context of all rules that still store it as json to the binary format of
+     * {@link RuleContextCodec}. Malformed json is left as it is.
+     * Runs as part of a database migration, on the connection of the migration.
+     *
+     * @param conn The connection to use.
+     * @throws SQLException in case something went wrong during the query.
+     */
+    public static void encodeJsonRows(Connection conn) throws SQLException {
+        String sql = "SELECT " + DBSchema.RulesTable.ID + ", " + DBSchema.RulesTable.CONTEXTJSON
+                + " FROM " + DBSchema.RulesTable.__NAME
+                + " WHERE typeof(" + DBSchema.RulesTable.CONTEXTJSON + ") = 'text'";
+        //Read all rows first, so that the updates do not interfere with the query
+        List<String[]> rows = new ArrayList<>();
+        try(PreparedStatement pstmt = conn.prepareStatement(sql);
+            ResultSet rs = pstmt.executeQuery())
+        {
+            while(rs.next())
+            {
+                rows.add(new String[] { rs.getString(1), rs.getString(2) });
+            }
+        }
+
+        sql = "UPDATE " + DBSchema.RulesTable.__NAME + " SET "
+                + DBSchema.RulesTable.CONTEXTJSON + " = ? "
+                + "WHERE " + DBSchema.RulesTable.ID + " = ?";
+        try(PreparedStatement pstmt = conn.prepareStatement(sql))
+        {
+            for(String[] row : rows)
+            {
+                RuleContextDescription ctx;
+                try
+                {
+                    ctx = new RuleContextDescription(row[1]);
+                }
+                catch(ParseException | ClassCastException e)
+                {
+                    continue;
+                }
+                pstmt.setBytes(1, RuleContextCodec.encode(ctx));
+                pstmt.setString(2, row[0]);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    /**
+     * Binds all fields of the given rule to the first 13 parameters of the statement,
+     * in the order of {@link #getFieldList(boolean)}.
+     */
+    private static void bindRule(PreparedStatement pstmt, VStoreRule rule) throws SQLException {
+        pstmt.setString(1, rule.getUUID());
+        pstmt.setString(2, rule.getName());
+        pstmt.setLong(3, rule.getCreationDateUnix());
+        pstmt.setLong(4, rule.getMinFileSize());
+        pstmt.setBytes(5, rule.getRuleContextData());
+        pstmt.setInt(6, rule.getSharingDomain());
+        pstmt.setString(7, TextUtils.join(",", rule.getWeekdays()));
+        pstmt.setString(8, rule.getStartHour()+":"+rule.getStartMinutes());
+        pstmt.setString(9, rule.getEndHour()+":"+rule.getEndMinutes());
+        pstmt.setBoolean(10, rule.isGlobal());
+        pstmt.setInt(11, rule.getReplicationFactor());
+        pstmt.setBoolean(12, rule.isStoreMultiple());
+        pstmt.setFloat(13, rule.getDetailScore());
     }
 
     /**
@@ -14,6 +14,7 @@ import vstore.framework.communication.download.events.DownloadFailedEvent;
 import vstore.framework.communication.download.events.DownloadProgressEvent;
 import vstore.framework.communication.download.events.DownloadedFileReadyEvent;
 import vstore.framework.db.DBResultOrdering;
+import vstore.framework.db.FileCursor;
 import vstore.framework.db.table_helper.FileDBHelper;
 import vstore.framework.error.ErrorCode;
 import vstore.framework.error.ErrorMessages;
@@ -143,6 +144,26 @@ public class FileManager {
         fT.start();
     }
 
+    /**
+     * Fetches a page of the files uploaded (or currently uploading) from this device.
+     * The page is published in the {@link FilesReadyEvent}. To get the next page, call this
+     * again with {@link FilesReadyEvent#getNextCursor()}.
+     *
+     * @param resultOrdering The order in which to fetch the files.
+     *                       (see {@link DBResultOrdering}).
+     * @param onlyPending If true, only files that are pending to upload
+     * 				      will be returned.
+     * @param onlyPrivate If true, only files that are marked private
+     *                    will be returned.
+     * @param after The cursor of the previous page, or null for the first page.
+     * @param pageSize The maximum number of files in the page.
+     */
+    public void getLocalFileListPage(DBResultOrdering resultOrdering, boolean onlyPending,
+                                     boolean onlyPrivate, FileCursor after, int pageSize)
+    {
+        new FetchFilesFromDBThread(resultOrdering, onlyPending, onlyPrivate, after, pageSize).start();
+    }
+
     /**
      * This method returns the request address of a file's mime type from the node.
      *
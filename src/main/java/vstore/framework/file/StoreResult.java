@@ -0,0 +1,63 @@
+package vstore.framework.file;
+
+import vstore.framework.exceptions.StoreException;
+
+/**
+ * The result of storing a single file with {@link vstore.framework.VStore#storeAll}.
+ * Either contains the stored file, or the error that occurred.
+ */
+public class StoreResult {
+    private final String mFileUri;
+    private final VStoreFile mFile;
+    private final StoreException mError;
+
+    /**
+     * Constructs a result for a file that has been stored successfully.
+     * @param fileUri The path of the file as given by the application.
+     * @param file The file as stored in the framework.
+     */
+    public StoreResult(String fileUri, VStoreFile file) {
+        mFileUri = fileUri;
+        mFile = file;
+        mError = null;
+    }
+
+    /**
+     * Constructs a result for a file that could not be stored.
+     * @param fileUri The path of the file as given by the application.
+     * @param error The error that occurred.
+     */
+    public StoreResult(String fileUri, StoreException error) {
+        mFileUri = fileUri;
+        mFile = null;
+        mError = error;
+    }
+
+    /**
+     * @return The path of the file as given by the application.
+     */
+    public String getFileUri() {
+        return mFileUri;
+    }
+
+    /**
+     * @return The stored file, or null if storing failed.
+     */
+    public VStoreFile getFile() {
+        return mFile;
+    }
+
+    /**
+     * @return The error that occurred, or null if the file was stored.
+     */
+    public StoreException getError() {
+        return mError;
+    }
+
+    /**
+     * @return True, if the file has been stored.
+     */
+    public boolean isSuccessful() {
+        return mError == null && mFile != null;
+    }
+}
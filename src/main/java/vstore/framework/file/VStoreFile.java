@@ -9,7 +9,9 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
+import vstore.framework.context.ContextCache;
 import vstore.framework.context.ContextDescription;
+import vstore.framework.db.codec.ContextCodec;
 import vstore.framework.error.ErrorCode;
 import vstore.framework.error.ErrorMessages;
 import vstore.framework.exceptions.VStoreException;
@@ -26,6 +28,12 @@ public class VStoreFile implements Serializable {
 
     private String mPath;
     private ContextDescription mContext;
+    /**
+     * The context as read from the database, either as json or encoded by {@link ContextCodec}.
+     * Parsed on first access of {@link #getContext()}.
+     */
+    private String mContextJson;
+    private byte[] mContextData;
 
     private boolean mIsUploadPending;
     private boolean mIsUploadFailed;
@@ -175,9 +183,61 @@ public class VStoreFile implements Serializable {
     }
 
     /**
-     * @return The context in which this file was created (see {@link ContextDescription}).
+     * Returns the context in which this file was created.
+     *
+     * If the context was set from json or encoded data (e.g. for files read from the database),
+     * the returned description is shared with other files that have the same context and is
+     * frozen (see {@link ContextDescription#isFrozen()}): its setters throw an
+     * {@link UnsupportedOperationException}, and the objects it holds must not be modified either.
+     * To change the context of the file, modify a {@link ContextDescription#copy()} and pass it
+     * to {@link #setContext(ContextDescription)}.
+     *
+     * @return The context in which this file was created (see {@link ContextDescription}),
+     * or null if no context is set.
+     */
+    public synchronized ContextDescription getContext() {
+        if(mContext != null) { return mContext; }
+        //Files with the same context resolve to the same interned instance
+        ContextDescription ctx = null;
+        if(mContextData != null)
+        {
+            ctx = ContextCache.get().intern(mContextData);
+        }
+        else if(mContextJson != null)
+        {
+            ctx = ContextCache.get().intern(mContextJson);
+        }
+        if(ctx != null)
+        {
+            //Drop the raw context only once the parsed one is set
+            mContext = ctx;
+            mContextJson = null;
+            mContextData = null;
+        }
+        return ctx;
+    }
+
+    /**
+     * @return The context in which this file was created as a json string, or null if
+     * no context is set. Does not parse the context, if it was set from json.
      */
-    public ContextDescription getContext() { return mContext; }
+    public synchronized String getContextJson() {
+        if(mContextJson != null) { return mContextJson; }
+        ContextDescription ctx = getContext();
+        if(ctx == null || ctx.getJson() == null) { return null; }
+        return ctx.getJson().toString();
+    }
+
+    /**
+     * @return The context in which this file was created, encoded by {@link ContextCodec},
+     * or null if no context is set. Does not parse the context, if it was set from encoded data.
+     */
+    public synchronized byte[] getContextData() {
+        if(mContextData != null) { return mContextData; }
+        ContextDescription ctx = getContext();
+        if(ctx == null) { return null; }
+        return ContextCodec.encode(ctx);
+    }
 
     /**
      * @return The unix timestamp this file was created at, in milliseconds.
@@ -275,16 +335,32 @@ public class VStoreFile implements Serializable {
      * Sets the context description for this file
      * @param contextDescription The context description object (see {@link ContextDescription}).
      */
-    public void setContext(ContextDescription contextDescription) {
+    public synchronized void setContext(ContextDescription contextDescription) {
         mContext = contextDescription;
+        mContextJson = null;
+        mContextData = null;
     }
 
     /**
      * This method sets the context for this vStore file from the given json string.
+     * The string is parsed when the context is accessed the first time.
      * @param json The context as a json string.
      */
-    public void setContextFromJson(String json) {
-        mContext = new ContextDescription(json);
+    public synchronized void setContextFromJson(String json) {
+        mContext = null;
+        mContextData = null;
+        mContextJson = json;
+    }
+
+    /**
+     * Sets the context for this vStore file from the given encoded data.
+     * The data is decoded when the context is accessed the first time.
+     * @param data The context encoded by {@link ContextCodec}.
+     */
+    public synchronized void setContextFromData(byte[] data) {
+        mContext = null;
+        mContextJson = null;
+        mContextData = data;
     }
 
     /**
@@ -3,6 +3,7 @@ package vstore.framework.file.events;
 import java.util.ArrayList;
 import java.util.List;
 
+import vstore.framework.db.FileCursor;
 import vstore.framework.file.VStoreFile;
 
 /**
@@ -13,6 +14,7 @@ public class FilesReadyEvent {
     private List<VStoreFile> mFiles;
     private boolean mOnlyPendingFiles;
     private boolean mOnlyPrivateFiles;
+    private FileCursor mNextCursor;
 
     /**
      * Constructs a new FilesReadyEvent.
@@ -29,6 +31,19 @@ public class FilesReadyEvent {
         }
     }
 
+    /**
+     * Constructs a new FilesReadyEvent for a page of files.
+     * @param fileList A list containing the files of the page.
+     * @param onlyPendingFiles Set this to true, if the event contains only files that have an upload pending.
+     * @param onlyPrivateFiles Set this to true, if the event contains only private files.
+     * @param nextCursor The cursor for requesting the next page, or null if this is the last page.
+     */
+    public FilesReadyEvent(List<VStoreFile> fileList,
+                           boolean onlyPendingFiles, boolean onlyPrivateFiles, FileCursor nextCursor) {
+        this(fileList, onlyPendingFiles, onlyPrivateFiles);
+        mNextCursor = nextCursor;
+    }
+
     /**
      * @return Returns the files provided with this event.
      */
@@ -51,4 +66,12 @@ public class FilesReadyEvent {
     public boolean isOnlyPrivateFiles() {
         return mOnlyPrivateFiles;
     }
+
+    /**
+     * @return The cursor for requesting the next page of files. Null, if this event contains
+     * the last page or the full list.
+     */
+    public FileCursor getNextCursor() {
+        return mNextCursor;
+    }
 }
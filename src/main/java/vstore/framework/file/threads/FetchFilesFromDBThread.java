@@ -5,6 +5,10 @@ import org.greenrobot.eventbus.EventBus;
 import java.sql.SQLException;
 import java.util.List;
 
+import vstore.framework.db.DBResultOrdering;
+import vstore.framework.db.FileCursor;
+import vstore.framework.db.FileFilter;
+import vstore.framework.db.FilePage;
 import vstore.framework.db.table_helper.FileDBHelper;
 import vstore.framework.file.VStoreFile;
 import vstore.framework.file.events.FilesReadyEvent;
@@ -17,6 +21,9 @@ public class FetchFilesFromDBThread extends Thread {
     public String mOrdering;
     public boolean mOnlyPendingFiles;
     public boolean mOnlyPrivateFiles;
+    private DBResultOrdering mPageOrdering;
+    private FileCursor mAfter;
+    private int mPageSize;
 
     /**
      * Constructor for creating a new thread. 
@@ -32,9 +39,32 @@ public class FetchFilesFromDBThread extends Thread {
         mOnlyPendingFiles = onlyPending;
         mOnlyPrivateFiles = onlyPrivate;
     }
+
+    /**
+     * Constructor for creating a new thread that fetches a single page of files.
+     *
+     * @param ordering The order that the results should be provided in.
+     * @param onlyPending Set this to true, if only files should be fetched that have an upload pending.
+     * @param onlyPrivate Set this to true, if only private files should be fetched from the database.
+     * @param after The cursor of the previous page, or null for the first page.
+     * @param pageSize The maximum number of files to fetch.
+     */
+    public FetchFilesFromDBThread(DBResultOrdering ordering, boolean onlyPending, boolean onlyPrivate,
+                                  FileCursor after, int pageSize) {
+        mOnlyPendingFiles = onlyPending;
+        mOnlyPrivateFiles = onlyPrivate;
+        mPageOrdering = ordering;
+        mAfter = after;
+        mPageSize = Math.max(1, pageSize);
+    }
    
     @Override
     public void run() {
+        if(mPageSize > 0)
+        {
+            fetchPage();
+            return;
+        }
     	List<VStoreFile> files;
         try
         {
@@ -60,5 +90,22 @@ public class FetchFilesFromDBThread extends Thread {
         EventBus.getDefault().postSticky(
                 new FilesReadyEvent(files, mOnlyPendingFiles, mOnlyPrivateFiles));
     }
+
+    private void fetchPage() {
+        FilePage page;
+        try
+        {
+            page = FileDBHelper.getFilePage(FileFilter.from(mOnlyPendingFiles, mOnlyPrivateFiles),
+                    mPageOrdering, mAfter, mPageSize);
+        }
+        catch (SQLException e)
+        {
+            e.printStackTrace();
+            return;
+        }
+
+        EventBus.getDefault().postSticky(new FilesReadyEvent(
+                page.getFiles(), mOnlyPendingFiles, mOnlyPrivateFiles, page.getNext()));
+    }
     
 }
@@ -0,0 +1,221 @@
+package vstore.framework.matching;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import vstore.framework.context.types.location.VLatLng;
+import vstore.framework.node.NodeInfo;
+import vstore.framework.node.NodeManager;
+import vstore.framework.node.NodeType;
+import vstore.framework.rule.DecisionLayer;
+
+import static vstore.framework.node.NodeType.DEVICE_ONLY;
+import static vstore.framework.node.NodeType.UNKNOWN;
+
+/**
+ * A decision layer, compiled against one version of the node set.
+ *
+ * Which of the node selectors of {@link Matching} apply to a layer only depends on the
+ * configuration of the layer (target type, specific node, radius and bandwidth constraints).
+ * So the applying selectors are determined once, in the order in which Matching tries them,
+ * and the candidate nodes for the target type and bandwidth constraints are precomputed.
+ * For a file, only the radius around its location has to be checked.
+ */
+class CompiledDecisionLayer {
+    /**
+     * The node selectors, in the order in which they are tried.
+     */
+    enum Kind {
+        NO_NODE("noNode"),
+        SPECIFIC_NODE("specificNode"),
+        NONE_AND_CONSTRAINTS("noneAndConstraints"),
+        RANDOM_OF_TYPE("randomOfType"),
+        RADIUS_AND_BANDWIDTH("radiusAndBandwidth"),
+        BANDWIDTH("bandwidth");
+
+        private final String mName;
+
+        Kind(String name) {
+            mName = name;
+        }
+
+        /**
+         * @return The name of the selector, as used in the matching trace.
+         */
+        String getName() {
+            return mName;
+        }
+    }
+
+    private final Step[] mSteps;
+
+    private CompiledDecisionLayer(Step[] steps) {
+        mSteps = steps;
+    }
+
+    /**
+     * Compiles the given decision layer.
+     *
+     * @param layer The decision layer.
+     * @param nodes The candidate lists of the current node set.
+     * @return The compiled decision layer.
+     */
+    static CompiledDecisionLayer compile(DecisionLayer layer, NodeLists nodes) {
+        List<Step> steps = new ArrayList<>();
+
+        //No node configured (this means either DEVICE_ONLY or UNKNOWN as target type).
+        //Always decides, so no further selector is needed.
+        if(layer.targetType.equals(DEVICE_ONLY) || layer.targetType.equals(UNKNOWN))
+        {
+            steps.add(new Step(Kind.NO_NODE, layer.targetType, null, null, 0, 0));
+            return new CompiledDecisionLayer(steps.toArray(new Step[0]));
+        }
+
+        //A specific node is configured. Only applies if the node is known.
+        if(layer.isSpecific && layer.specificNodeId != null && !layer.specificNodeId.equals(""))
+        {
+            NodeInfo node = NodeManager.get().getNode(layer.specificNodeId);
+            if(node != null)
+            {
+                steps.add(new Step(Kind.SPECIFIC_NODE, layer.targetType, node, null, 0, 0));
+                return new CompiledDecisionLayer(steps.toArray(new Step[0]));
+            }
+        }
+
+        //Target type "NONE" and bandwidth constraints: nodes of any type
+        if(layer.targetType.equals(NodeType.NONE)
+                && (layer.maxRadius > 0 || layer.minBwUp > 0 || layer.minBwDown > 0)
+                && (layer.minBwUp > 0 || layer.minBwDown > 0))
+        {
+            steps.add(new Step(Kind.NONE_AND_CONSTRAINTS, layer.targetType, null,
+                    nodes.get(null, layer.minBwUp, layer.minBwDown), layer.minRadius, layer.maxRadius));
+            return new CompiledDecisionLayer(steps.toArray(new Step[0]));
+        }
+
+        //No constraints at all: random node of the configured type
+        if(layer.minRadius == 0 && layer.maxRadius == 0 && layer.minBwUp == 0 && layer.minBwDown == 0)
+        {
+            steps.add(new Step(Kind.RANDOM_OF_TYPE, layer.targetType, null,
+                    nodes.get(layer.targetType, 0, 0), 0, 0));
+            return new CompiledDecisionLayer(steps.toArray(new Step[0]));
+        }
+
+        //Radius constraints set (bandwidth is taken into account, too).
+        //Does not decide if no node is within the radius.
+        if(layer.minRadius >= 0 && layer.maxRadius > 0)
+        {
+            steps.add(new Step(Kind.RADIUS_AND_BANDWIDTH, layer.targetType, null,
+                    nodes.get(layer.targetType, layer.minBwUp, layer.minBwDown),
+                    layer.minRadius, layer.maxRadius));
+        }
+
+        //Bandwidth constraints only
+        if(layer.minBwUp > 0 || layer.minBwDown > 0)
+        {
+            steps.add(new Step(Kind.BANDWIDTH, layer.targetType, null,
+                    nodes.get(layer.targetType, layer.minBwUp, layer.minBwDown), 0, 0));
+        }
+        return new CompiledDecisionLayer(steps.toArray(new Step[0]));
+    }
+
+    /**
+     * @return The selectors that apply to this layer, in the order in which they are tried.
+     */
+    Step[] getSteps() {
+        return mSteps;
+    }
+
+    /**
+     * A node selector of a compiled decision layer.
+     */
+    static class Step {
+        final Kind kind;
+        /**
+         * The target type of the decision layer.
+         */
+        final NodeType targetType;
+        /**
+         * The specific node, only set for {@link Kind#SPECIFIC_NODE}.
+         */
+        final NodeInfo node;
+        private final List<NodeInfo> mNodes;
+        private final float mMinRadius;
+        private final float mMaxRadius;
+
+        private Step(Kind kind, NodeType targetType, NodeInfo node, List<NodeInfo> nodes,
+                     float minRadius, float maxRadius) {
+            this.kind = kind;
+            this.targetType = targetType;
+            this.node = node;
+            mNodes = nodes;
+            mMinRadius = minRadius;
+            mMaxRadius = maxRadius;
+        }
+
+        /**
+         * Returns the candidate nodes of this selector for a file at the given location.
+         *
+         * @param loc The location of the file. May be null, then no radius is checked.
+         * @return The candidate nodes. Must not be modified.
+         */
+        List<NodeInfo> getCandidates(VLatLng loc) {
+            if(mNodes == null) { return Collections.emptyList(); }
+            if(mMinRadius < 0 || mMaxRadius <= 0 || mMaxRadius <= mMinRadius || loc == null) {
+                return mNodes;
+            }
+            List<NodeInfo> filtered = new ArrayList<>();
+            for(NodeInfo n : mNodes)
+            {
+                float dist = n.getGeographicDistanceTo(loc);
+                if(dist >= mMinRadius && dist <= mMaxRadius)
+                {
+                    filtered.add(n);
+                }
+            }
+            return filtered;
+        }
+    }
+
+    /**
+     * The nodes matching a node type and bandwidth constraints, for one version of the node set.
+     * Layers with the same constraints share the same list.
+     */
+    static class NodeLists {
+        private final long mNodeVersion;
+        private final ConcurrentHashMap<String, List<NodeInfo>> mLists;
+
+        /**
+         * @param nodeVersion The version of the node set the lists are built from.
+         */
+        NodeLists(long nodeVersion) {
+            mNodeVersion = nodeVersion;
+            mLists = new ConcurrentHashMap<>();
+        }
+
+        long getNodeVersion() {
+            return mNodeVersion;
+        }
+
+        /**
+         * @param type The node type, or null for nodes of any type.
+         * @param bwUp The minimum upstream bandwidth, 0 to ignore it.
+         * @param bwDown The minimum downstream bandwidth, 0 to ignore it.
+         * @return The matching nodes. Must not be modified.
+         */
+        List<NodeInfo> get(NodeType type, int bwUp, int bwDown) {
+            String key = type + "/" + bwUp + "/" + bwDown;
+            List<NodeInfo> nodes = mLists.get(key);
+            if(nodes == null)
+            {
+                NodeManager manager = NodeManager.get();
+                nodes = Collections.unmodifiableList((type == null)
+                        ? manager.getNodesMatchingBandwidthAndRadius(bwUp, bwDown, 0, 0, null)
+                        : manager.getNodesMatchingBandwidthAndRadius(type, bwUp, bwDown, 0, 0, null));
+                mLists.put(key, nodes);
+            }
+            return nodes;
+        }
+    }
+}
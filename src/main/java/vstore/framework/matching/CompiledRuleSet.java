@@ -0,0 +1,465 @@
+package vstore.framework.matching;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import vstore.framework.context.ContextDescription;
+import vstore.framework.context.RuleContextDescription;
+import vstore.framework.context.types.activity.ActivityType;
+import vstore.framework.context.types.location.VLatLng;
+import vstore.framework.context.types.network.VNetwork;
+import vstore.framework.context.types.place.PlaceType;
+import vstore.framework.file.VStoreFile;
+import vstore.framework.node.NodeManager;
+import vstore.framework.rule.RuleIndex;
+import vstore.framework.rule.VStoreRule;
+import vstore.framework.utils.ContextUtils;
+
+/**
+ * The rules for one mime type, compiled into columns.
+ * Filtering the rules for a file is done by and-ing precomputed bitsets (one bit per rule)
+ * instead of evaluating every condition for every rule. Only conditions that depend on
+ * values of both the rule and the file (file size, time, location, network, noise) are
+ * checked per rule, and only for the rules that are still candidates.
+ *
+ * The rules are kept in the order of {@link RuleIndex}, i.e. highest detail score first.
+ */
+class CompiledRuleSet {
+    private static final int NO_TIME = -1;
+
+    /**
+     * Compiled rule sets per mime type. An entry is replaced if the rule index changed.
+     */
+    private static final ConcurrentHashMap<String, CompiledRuleSet> sCache = new ConcurrentHashMap<>();
+
+    private final long mVersion;
+    private final VStoreRule[] mRules;
+    private final int mSize;
+
+    //File size
+    private final BitSet mHasFileSize;
+    private final long[] mMinFileSize;
+    private final long[] mSizeThresholds;
+
+    //Sharing domain: index 0 = public, index 1 = private
+    private final BitSet[] mSharingDomain;
+
+    //Day and time. Index 1 = monday, ..., 7 = sunday
+    private final BitSet[] mWeekday;
+    private final BitSet mHasTimeCheck;
+    private final int[] mStartMinute;
+    private final int[] mEndMinute;
+
+    //Location
+    private final BitSet mHasLocation;
+    private final VLatLng[] mLocation;
+    private final int[] mRadius;
+    private final RuleLocationGrid mLocationGrid;
+
+    //Places. One bitset per place type, plus one for files without a likely place.
+    private final BitSet[] mPlaceType;
+    private final BitSet mNoPlaceContext;
+
+    //Network
+    private final BitSet mHasNetwork;
+    private final VNetwork[] mNetwork;
+
+    //Activity. One bitset per activity type.
+    private final BitSet[] mActivity;
+
+    //Noise
+    private final BitSet mHasNoise;
+    private final float[] mNoiseThreshold;
+    private final BitSet mWantsLoud;
+
+    //Decision layers, compiled lazily against the current node set
+    private volatile CompiledLayers mCompiledLayers;
+
+    /**
+     * Returns the compiled rules for the given mime type. Compiles them, if the rule index has
+     * changed since the last call.
+     *
+     * @param mimetype The mime type of the file.
+     * @return The compiled rule set.
+     */
+    static CompiledRuleSet forFileType(String mimetype) {
+        String key = (mimetype == null) ? "" : mimetype;
+        RuleIndex index = RuleIndex.get();
+        long version = index.getVersion();
+        CompiledRuleSet set = sCache.get(key);
+        if(set == null || set.mVersion != version)
+        {
+            set = new CompiledRuleSet(version, index.getRulesMatchingFileType(mimetype));
+            sCache.put(key, set);
+        }
+        return set;
+    }
+
+    private CompiledRuleSet(long version, List<VStoreRule> rules) {
+        mVersion = version;
+        mRules = rules.toArray(new VStoreRule[0]);
+        mSize = mRules.length;
+
+        mHasFileSize = new BitSet(mSize);
+        mMinFileSize = new long[mSize];
+        mSharingDomain = new BitSet[] { new BitSet(mSize), new BitSet(mSize) };
+        mWeekday = new BitSet[8];
+        for(int d = 1; d <= 7; ++d) { mWeekday[d] = new BitSet(mSize); }
+        mHasTimeCheck = new BitSet(mSize);
+        mStartMinute = new int[mSize];
+        mEndMinute = new int[mSize];
+        mHasLocation = new BitSet(mSize);
+        mLocation = new VLatLng[mSize];
+        mRadius = new int[mSize];
+        mLocationGrid = new RuleLocationGrid(mSize);
+        mPlaceType = new BitSet[PlaceType.values().length];
+        for(int p = 0; p < mPlaceType.length; ++p) { mPlaceType[p] = new BitSet(mSize); }
+        mNoPlaceContext = new BitSet(mSize);
+        mHasNetwork = new BitSet(mSize);
+        mNetwork = new VNetwork[mSize];
+        mActivity = new BitSet[ActivityType.values().length];
+        for(int a = 0; a < mActivity.length; ++a) { mActivity[a] = new BitSet(mSize); }
+        mHasNoise = new BitSet(mSize);
+        mNoiseThreshold = new float[mSize];
+        mWantsLoud = new BitSet(mSize);
+
+        for(int i = 0; i < mSize; ++i)
+        {
+            compileRule(i, mRules[i]);
+        }
+
+        //Distinct minimum file sizes, sorted ascending
+        long[] thresholds = new long[mHasFileSize.cardinality()];
+        int n = 0;
+        for(int i = mHasFileSize.nextSetBit(0); i >= 0; i = mHasFileSize.nextSetBit(i + 1))
+        {
+            thresholds[n++] = mMinFileSize[i];
+        }
+        Arrays.sort(thresholds);
+        int distinct = 0;
+        for(int i = 0; i < thresholds.length; ++i)
+        {
+            if(i == 0 || thresholds[i] != thresholds[i - 1]) { thresholds[distinct++] = thresholds[i]; }
+        }
+        mSizeThresholds = Arrays.copyOf(thresholds, distinct);
+    }
+
+    private void compileRule(int i, VStoreRule r) {
+        RuleContextDescription ruleCtx = r.getRuleContext();
+
+        if(r.hasFileSizeConfigured())
+        {
+            mHasFileSize.set(i);
+            mMinFileSize[i] = r.getMinFileSize();
+        }
+
+        for(int domain = 0; domain <= 1; ++domain)
+        {
+            if(ContextUtils.isIncludedInSharingDomain(domain, r.getSharingDomain()))
+            {
+                mSharingDomain[domain].set(i);
+            }
+        }
+
+        for(int d = 1; d <= 7; ++d)
+        {
+            if(r.getWeekdays().size() == 0 || r.getWeekdays().contains(d))
+            {
+                mWeekday[d].set(i);
+            }
+        }
+        if(r.getWeekdays().size() > 0 && r.hasTimeSet())
+        {
+            mHasTimeCheck.set(i);
+            mStartMinute[i] = toMinuteOfDay(r.getStartHour(), r.getStartMinutes());
+            mEndMinute[i] = toMinuteOfDay(r.getEndHour(), r.getEndMinutes());
+        }
+
+        if(r.hasLocationContext())
+        {
+            mHasLocation.set(i);
+            mLocation[i] = ruleCtx.getLocationContext();
+            mRadius[i] = ruleCtx.getRadius();
+            mLocationGrid.add(i, mLocation[i], mRadius[i]);
+        }
+
+        if(r.hasPlaceContext())
+        {
+            for(PlaceType type : ruleCtx.getPlaceTypes())
+            {
+                if(type != null) { mPlaceType[type.ordinal()].set(i); }
+            }
+        }
+        else
+        {
+            for(BitSet b : mPlaceType) { b.set(i); }
+            mNoPlaceContext.set(i);
+        }
+
+        if(r.hasNetworkContext())
+        {
+            mHasNetwork.set(i);
+            mNetwork[i] = ruleCtx.getNetworkContext();
+        }
+
+        for(ActivityType type : ActivityType.values())
+        {
+            if(!r.hasActivityContext() || type.equals(ruleCtx.getActivityContext()))
+            {
+                mActivity[type.ordinal()].set(i);
+            }
+        }
+
+        if(r.hasNoiseContext())
+        {
+            mHasNoise.set(i);
+            mNoiseThreshold[i] = ruleCtx.getNoiseContext().getDBThreshold();
+            if(!ruleCtx.getNoiseContext().isSilent()) { mWantsLoud.set(i); }
+        }
+    }
+
+    /**
+     * Returns all rules that apply to the given file, in order of their detail score
+     * (highest first).
+     *
+     * @param f The file for which the matching is currently being done
+     * @param trace The trace to record the single conditions in.
+     * @param time The time of the decision in milliseconds since the epoch.
+     * @return A new list containing the rules that apply.
+     */
+    List<VStoreRule> filter(final VStoreFile f, MatchingTrace trace, long time) {
+        List<VStoreRule> result = new ArrayList<>();
+        if(mSize == 0) { return result; }
+
+        BitSet keep = new BitSet(mSize);
+        keep.set(0, mSize);
+        ContextDescription fileCtx = f.getContext();
+        int before;
+        long t;
+
+        //Conjunction of all conditions. A cleared bit means the rule is eliminated.
+        //To add new context type conditions here: Compile the rule side into a column in
+        //compileRule and clear the bits of the rules that should be removed from the set.
+
+        //Step 1.1: Sharing domain. If a file is shared as public, every rule that applies
+        //to the private domain is removed and vice versa.
+        t = System.nanoTime();
+        before = keep.cardinality();
+        keep.and(mSharingDomain[f.isPrivate() ? 1 : 0]);
+        trace.recordFilter("sharingDomain", t, before, keep.cardinality());
+
+        //Step 1.2: Day and timespan. No days configured means day/time does not matter.
+        t = System.nanoTime();
+        before = keep.cardinality();
+        keep.and(mWeekday[ContextUtils.getDayOfWeek(time)]);
+        final int now = getMinuteOfDay(time);
+        clearIfFalse(keep, mHasTimeCheck, new RuleTest() {
+            @Override
+            public boolean test(int i) {
+                return mStartMinute[i] != NO_TIME && mEndMinute[i] != NO_TIME
+                        && mStartMinute[i] < mEndMinute[i]
+                        && now >= mStartMinute[i] && now <= mEndMinute[i];
+            }
+        });
+        trace.recordFilter("dayTime", t, before, keep.cardinality());
+
+        //Step 1.3: Place types. The type of the most likely place of the file's context must
+        //be contained in those of the rule.
+        t = System.nanoTime();
+        before = keep.cardinality();
+        if(fileCtx == null || fileCtx.getMostLikelyPlace() == null
+                || fileCtx.getMostLikelyPlace().getPlaceType() == null)
+        {
+            keep.and(mNoPlaceContext);
+        }
+        else
+        {
+            keep.and(mPlaceType[fileCtx.getMostLikelyPlace().getPlaceType().ordinal()]);
+        }
+        trace.recordFilter("places", t, before, keep.cardinality());
+
+        //Step 1.4: Activity
+        t = System.nanoTime();
+        before = keep.cardinality();
+        if(fileCtx != null && fileCtx.hasActivityContext()
+                && fileCtx.getActivityContext().getType() != null)
+        {
+            keep.and(mActivity[fileCtx.getActivityContext().getType().ordinal()]);
+        }
+        trace.recordFilter("activity", t, before, keep.cardinality());
+
+        //Step 1.5: Minimum file size
+        t = System.nanoTime();
+        before = keep.cardinality();
+        clearIfFalse(keep, mHasFileSize, new RuleTest() {
+            @Override
+            public boolean test(int i) {
+                return f.getFileSize() >= mMinFileSize[i];
+            }
+        });
+        trace.recordFilter("fileSize", t, before, keep.cardinality());
+
+        if(fileCtx != null)
+        {
+            //Step 1.6: Noise. If the rule specifies "must be silent" but it's not, we
+            //ignore the rule. If it specifies "must be loud" but it's not, we ignore the rule.
+            t = System.nanoTime();
+            before = keep.cardinality();
+            if(fileCtx.hasNoiseContext())
+            {
+                final float db = fileCtx.getNoiseContext().getDb();
+                clearIfFalse(keep, mHasNoise, new RuleTest() {
+                    @Override
+                    public boolean test(int i) {
+                        return (db > mNoiseThreshold[i]) == mWantsLoud.get(i);
+                    }
+                });
+            }
+            trace.recordFilter("noise", t, before, keep.cardinality());
+
+            //Step 1.7: Location. The file's location must be contained in the radius
+            //configured for the rule. First drop all rules whose circle does not even
+            //overlap the grid cell of the file, then check the distance of the remaining ones.
+            t = System.nanoTime();
+            before = keep.cardinality();
+            if(fileCtx.hasLocationContext() && fileCtx.getLocationContext().getLatLng() != null)
+            {
+                final VLatLng latLng = fileCtx.getLocationContext().getLatLng();
+                BitSet outside = (BitSet) mHasLocation.clone();
+                outside.andNot(mLocationGrid.getCandidates(latLng));
+                keep.andNot(outside);
+                clearIfFalse(keep, mHasLocation, new RuleTest() {
+                    @Override
+                    public boolean test(int i) {
+                        return Math.ceil(ContextUtils.distanceBetween(mLocation[i], latLng)) <= mRadius[i];
+                    }
+                });
+            }
+            trace.recordFilter("location", t, before, keep.cardinality());
+
+            //Step 1.8: Network
+            t = System.nanoTime();
+            before = keep.cardinality();
+            if(fileCtx.hasNetworkContext())
+            {
+                final VNetwork network = fileCtx.getNetworkContext();
+                clearIfFalse(keep, mHasNetwork, new RuleTest() {
+                    @Override
+                    public boolean test(int i) {
+                        return network.matches(mNetwork[i]);
+                    }
+                });
+            }
+            trace.recordFilter("network", t, before, keep.cardinality());
+        }
+
+        for(int i = keep.nextSetBit(0); i >= 0; i = keep.nextSetBit(i + 1))
+        {
+            result.add(mRules[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Runs the given test for all rules that are still kept and have the condition configured.
+     * Clears the bit of the rule if the test fails.
+     */
+    private static void clearIfFalse(BitSet keep, BitSet configured, RuleTest test) {
+        if(configured.isEmpty()) { return; }
+        BitSet candidates = (BitSet) configured.clone();
+        candidates.and(keep);
+        for(int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1))
+        {
+            if(!test.test(i)) { keep.clear(i); }
+        }
+    }
+
+    private static int toMinuteOfDay(int hour, int minutes) {
+        if(hour < 0 || hour > 23 || minutes < 0 || minutes > 59) { return NO_TIME; }
+        return hour * 60 + minutes;
+    }
+
+    private static int getMinuteOfDay(long timeMillis) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(timeMillis);
+        return cal.get(Calendar.HOUR_OF_DAY) * 60 + cal.get(Calendar.MINUTE);
+    }
+
+    /**
+     * @return The number of compiled rules.
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * @return The version of the rule index this set was compiled from.
+     */
+    long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Files in the same size bucket are treated the same by the file size condition.
+     *
+     * @param fileSize The size of a file in bytes.
+     * @return The number of distinct minimum file sizes of the rules the file size reaches.
+     */
+    int getSizeBucket(long fileSize) {
+        int pos = Arrays.binarySearch(mSizeThresholds, fileSize);
+        return (pos >= 0) ? pos + 1 : -(pos + 1);
+    }
+
+    /**
+     * @return True, if at least one rule has a time span that is checked.
+     */
+    boolean hasTimeChecks() {
+        return !mHasTimeCheck.isEmpty();
+    }
+
+    /**
+     * Returns the compiled decision layers of the given rule. The layers are compiled on first
+     * use and again whenever the node set has changed.
+     *
+     * @param rule A rule of this set.
+     * @return The compiled decision layers, in the order of the rule.
+     */
+    CompiledDecisionLayer[] getDecisionLayers(VStoreRule rule) {
+        long nodeVersion = NodeManager.get().getVersion();
+        CompiledLayers compiled = mCompiledLayers;
+        if(compiled == null || compiled.nodes.getNodeVersion() != nodeVersion)
+        {
+            compiled = new CompiledLayers(nodeVersion);
+            mCompiledLayers = compiled;
+        }
+        CompiledDecisionLayer[] layers = compiled.layers.get(rule.getUUID());
+        if(layers == null)
+        {
+            layers = new CompiledDecisionLayer[rule.getDecisionLayers().size()];
+            for(int i = 0; i < layers.length; ++i)
+            {
+                layers[i] = CompiledDecisionLayer.compile(rule.getDecisionLayer(i), compiled.nodes);
+            }
+            compiled.layers.put(rule.getUUID(), layers);
+        }
+        return layers;
+    }
+
+    private static class CompiledLayers {
+        final CompiledDecisionLayer.NodeLists nodes;
+        final ConcurrentHashMap<String, CompiledDecisionLayer[]> layers;
+
+        CompiledLayers(long nodeVersion) {
+            nodes = new CompiledDecisionLayer.NodeLists(nodeVersion);
+            layers = new ConcurrentHashMap<>();
+        }
+    }
+
+    private interface RuleTest {
+        boolean test(int i);
+    }
+}
@@ -1,24 +1,27 @@
 package vstore.framework.matching;
 
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import vstore.framework.config.ConfigManager;
 import vstore.framework.context.ContextDescription;
-import vstore.framework.context.RuleContextDescription;
+import vstore.framework.context.types.activity.ActivityType;
+import vstore.framework.context.types.location.VLatLng;
 import vstore.framework.context.types.place.VPlaces;
 import vstore.framework.context.types.place.VSinglePlace;
-import vstore.framework.db.table_helper.RulesDBHelper;
 import vstore.framework.file.VStoreFile;
 import vstore.framework.logging.LogHandler;
+import vstore.framework.node.NodeHealthTracker;
 import vstore.framework.node.NodeInfo;
 import vstore.framework.node.NodeManager;
+import vstore.framework.node.NodeSelectionStrategy;
+import vstore.framework.node.NodeSnapshot;
 import vstore.framework.node.NodeType;
-import vstore.framework.rule.DecisionLayer;
 import vstore.framework.rule.VStoreRule;
-import vstore.framework.utils.ContextUtils;
 
 import static vstore.framework.matching.NodeSelectionResult.DONE_FALSE;
 import static vstore.framework.matching.NodeSelectionResult.DONE_TRUE;
@@ -30,7 +33,6 @@ import static vstore.framework.node.NodeType.CORENET;
 import static vstore.framework.node.NodeType.DEVICE_ONLY;
 import static vstore.framework.node.NodeType.GATEWAY;
 import static vstore.framework.node.NodeType.PRIVATE_NODE;
-import static vstore.framework.node.NodeType.UNKNOWN;
 
 /**
  * This class handles the storage decision, e.g. matching a file to a storage node based on the
@@ -42,8 +44,9 @@ public class Matching {
      * Different matching modes.
      *
      * RULES_NEXT_ON_NO_MATCH = Use next more general rule if no node found for current rule
-     * RULES_THEN_FALLBACK = First tries to match using the rules. If no rule matched, will use the
-     *                       experimental fallback algorithm (currently not usable).
+     * RULES_THEN_FALL_BACK = First tries to match using the rules. If no rule yields a storage node,
+     *                        a node is chosen by the fallback algorithm from the file's context,
+     *                        unless a matching rule keeps the file on the device (DEVICE_ONLY).
      * RANDOM = A node is chosen completely randomly
      */
     public enum MatchingMode {
@@ -58,6 +61,30 @@ public class Matching {
      * Will hold the information only about the valid nodes after the matching process (no null entries).
      */
     private List<NodeInfo> mValidNodes;
+    /**
+     * The cached outcome for the file. Holds the candidate nodes of the decision layers.
+     */
+    private MatchingCache.Entry mCacheEntry;
+    /**
+     * Set, if a decision layer of a used rule has DEVICE_ONLY as target type.
+     */
+    private boolean mDeviceOnly;
+    /**
+     * Timing (and in explain mode, the outcome) of the single stages of this decision.
+     */
+    private MatchingTrace mTrace;
+    /**
+     * The matching mode of the decisions of this object.
+     */
+    private final MatchingMode mMode;
+    /**
+     * The node set all decisions of this object are made against.
+     */
+    private final NodeSnapshot mSnapshot;
+    /**
+     * The compiled rules per MIME type, read once for all decisions of this object.
+     */
+    private final Map<String, CompiledRuleSet> mRuleSets;
 
     /**
      * Make a new storage decision for the given parameters. If no rule matches, a default matching
@@ -72,7 +99,57 @@ public class Matching {
      *
      * @throws RuntimeException in case some parameters are null
      */
-    public Matching(VStoreFile f, MatchingMode mode) throws RuntimeException{
+    public Matching(VStoreFile f, MatchingMode mode) throws RuntimeException {
+        this(f, mode, System.currentTimeMillis());
+    }
+
+    /**
+     * Make a new storage decision for the given parameters, as if it was made at the given time.
+     * The time is used for the day and time conditions of the rules. This allows to replay
+     * decisions of the past, see {@link vstore.framework.matching.replay.Replay}.
+     *
+     * @param f The file to make the decision for. Must not be null and should contain a context description.
+     * @param mode The matching mode, one of the enum type {@link Matching.MatchingMode}.
+     * @param time The time of the decision in milliseconds since the epoch.
+     *
+     * @throws RuntimeException in case some parameters are null
+     */
+    public Matching(VStoreFile f, MatchingMode mode, long time) throws RuntimeException{
+        this(mode);
+        decide(f, time);
+    }
+
+    /**
+     * Prepares storage decisions for a batch of files. The rules and the node set are
+     * read once and used for all decisions made with {@link #decide(VStoreFile)}, so that
+     * all files of the batch are matched against the same nodes.
+     * The object must only be used by one thread at a time.
+     *
+     * @param mode The matching mode, one of the enum type {@link Matching.MatchingMode}.
+     */
+    public Matching(MatchingMode mode) {
+        mMode = mode;
+        mSnapshot = NodeManager.get().getSnapshot();
+        mRuleSets = new HashMap<>();
+        mDecidedNodes = new ArrayList<>();
+        mValidNodes = new ArrayList<>();
+    }
+
+    /**
+     * Makes a new storage decision for the given file. Replaces the outcome of the previous
+     * decision of this object.
+     *
+     * @param f The file to make the decision for. Must not be null and should contain a context description.
+     * @return The decided nodes, see {@link #getDecidedNodes()}.
+     *
+     * @throws RuntimeException in case the file is null
+     */
+    public List<NodeInfo> decide(VStoreFile f) throws RuntimeException {
+        decide(f, System.currentTimeMillis());
+        return getDecidedNodes();
+    }
+
+    private void decide(VStoreFile f, long time) throws RuntimeException {
         if(f == null) 
         {
             throw new RuntimeException("File must not be null.");
@@ -80,39 +157,63 @@ public class Matching {
 
         mDecidedNodes = new ArrayList<>();
         mValidNodes = new ArrayList<>();
+        mCacheEntry = null;
+        mDeviceOnly = false;
+        mTrace = new MatchingTrace(MatchingStats.get().isExplainEnabled());
+        //All node queries of this decision are answered from the snapshot of this object
+        NodeManager manager = NodeManager.get();
+        NodeSnapshot previous = manager.pinSnapshot(mSnapshot);
+        try
+        {
+            match(f, time);
+        }
+        finally
+        {
+            manager.pinSnapshot(previous);
+        }
+    }
+
+    private void match(VStoreFile f, long time) {
+        MatchingMode mode = mMode;
+        long start = System.nanoTime();
+        long t;
 
         switch(mode) 
         {
+            case RULES_THEN_FALL_BACK:
             case RULES_NEXT_ON_NO_MATCH:
-                //Get a list of all rules that could be triggered by the MIME type of the file.
-				List<VStoreRule> rules;
-				try {
-					rules = RulesDBHelper.getRulesMatchingFileType(f.getFileType());
-				} catch (SQLException e) {
-					e.printStackTrace();
-					return;
-				}
+                //Get the compiled set of all rules that could be triggered by the MIME type
+                //of the file. The rules are already sorted by detail score.
+                t = System.nanoTime();
+                CompiledRuleSet ruleSet = getRuleSet(f.getFileType());
+                mTrace.record(MatchingTrace.RULES_LOAD, t,
+                        mTrace.isExplain() ? ruleSet.size() + " rules for " + f.getFileType() : null);
 
                 //Do we have some rules that might be applicable for the MIME type?
-                if (rules.size() > 0) {
-                    //Yes. start filtering them by context
-
-                    //Step 1: Filter out all rules that do not apply to the MIME type
-                    Iterator<VStoreRule> it = rules.iterator();
-                    while (it.hasNext())
+                if (ruleSet.size() > 0) {
+                    //Yes. start filtering them by context. Consecutive files with the same
+                    //properties and context share the outcome through the matching cache.
+                    t = System.nanoTime();
+                    mCacheEntry = MatchingCache.get().getEntry(
+                            MatchingCache.buildKey(f, ruleSet, mSnapshot.getVersion(), time));
+                    List<VStoreRule> rules = mCacheEntry.rules;
+                    mTrace.record(MatchingTrace.CACHE_LOOKUP, t, (rules != null) ? "hit" : "miss");
+
+                    //Step 1: Filter out all rules that do not apply to the file and its context
+                    if(rules == null)
                     {
-                        VStoreRule r = it.next();
-                        if(!keepRuleInSet(r, f)) { it.remove(); }
+                        rules = Collections.unmodifiableList(ruleSet.filter(f, mTrace, time));
+                        mCacheEntry.rules = rules;
                     }
 
                     //Step 2: Now the rules that are remaining do all match the file's context.
                     //Only continue, if there are actually some rules remaining.
                     if (rules.size() > 0) 
                     {
-                        //Step 2.1: Sort rules by detail score. Remember all rules in a list
+                        //Step 2.1: Rules are sorted by detail score. Remember all rules in a list
                         //to choose the next more general one if no matching node is
                         //found and matching mode is RULES_NEXT_ON_NO_MATCH.
-                        List<VStoreRule> ruleList = sortRulesByScore(rules);
+                        List<VStoreRule> ruleList = rules;
 
                         VStoreRule usedRule = null;
                         //First is now the rule with the highest score
@@ -123,7 +224,7 @@ public class Matching {
                             for (VStoreRule r : ruleList) 
                             {
                                 usedRule = r;
-                                if(getNodesForRule(r, f, true)) {
+                                if(getNodesForRule(ruleSet, r, f, true)) {
                                     //Break rule evaluation if replication factor is met.
                                     //If not, find the remaining nodes with the next rules
                                     if(mValidNodes.size() >= usedRule.getReplicationFactor()) {
@@ -139,203 +240,90 @@ public class Matching {
                         {
                             //Get highest rated rule without using the next rule on no result
                             usedRule = ruleList.get(0);
-                            getNodesForRule(usedRule, f, false);
+                            getNodesForRule(ruleSet, usedRule, f, false);
                         }
                         //Log that we used this rule
                         LogHandler.logMatchingAddRule(f, usedRule, mDecidedNodes);
                     }
                 }
+
+                //No rule yielded a storage node. In fall back mode, decide without rules,
+                //unless a rule explicitly wants to keep the file on the device.
+                if(mode.equals(MatchingMode.RULES_THEN_FALL_BACK) && mValidNodes.isEmpty() && !mDeviceOnly)
+                {
+                    t = System.nanoTime();
+                    NodeInfo fallbackNode = getNodeFallback(f);
+                    if(fallbackNode != null)
+                    {
+                        mDecidedNodes.clear();
+                        mDecidedNodes.add(fallbackNode);
+                        mValidNodes.add(fallbackNode);
+                    }
+                    mTrace.record(MatchingTrace.SELECT_PREFIX + "fallback", t,
+                            (fallbackNode != null) ? fallbackNode.getIdentifier() : null);
+                }
                 break;
 
             case RANDOM:
-                NodeManager manager = NodeManager.get();
-                NodeInfo randomNode = manager.getRandomNode();
+                t = System.nanoTime();
+                NodeInfo randomNode = NodeManager.get().getRandomNode();
                 mDecidedNodes.add(randomNode);
+                mTrace.record(MatchingTrace.SELECT_PREFIX + "random", t,
+                        (randomNode != null) ? randomNode.getIdentifier() : null);
                 break;
 
             default:
                 //mDecidedNodes stays empty
                 break;
         }
+        mTrace.record(MatchingTrace.TOTAL, start,
+                mTrace.isExplain() ? mDecidedNodes.size() + " decided nodes" : null);
     }
 
     /**
-     * @param r The rule for which to check if it should be eliminated from the matching rule set
-     * @param f The file for which the matching is currently being done
-     * @return True, if the rule should be deleted from the rule set used for matching.
-     * False, if the rule should be kept in the set of rules used for matching.
-     */
-    private boolean keepRuleInSet(VStoreRule r, VStoreFile f) {
-        //Conjunction of all conditions
-        //  A single condition returns true: Rule should be kept
-        //  A single condition returns false: Rule should be eliminated
-        //  (evaluation of further conditions stops)
-
-        //Step 1.1: Eliminate rule if minimum file size is configured but does not match
-        return checkConditions_fileSize(r, f)
-                //Step 1.2: Filter by sharing domain
-                //If a file is shared as public, every rule that applies to the private domain is
-                //removed and vice versa.
-                && checkConditions_sharingDomain(r, f)
-                //Step 1.3: Filter by day and timespan
-                //Ignore any rules that do not have a matching weekday and time.
-                //No days configured means day/time does not matter.
-                && checkConditions_dayTime(r, f)
-                //Step 1.4: Filter by location
-                //If the file's location context is not contained in the radius configured for
-                //the rule, we ignore the rule.
-                && checkConditions_location(r, f)
-                //Step 1.5: Filter by place types
-                //If the place type of the most likely place of the file's context
-                //is not contained in those of the rule, we ignore the rule.
-                && checkConditions_places(r, f)
-                //Step 1.6: Filter by network
-                && checkConditions_network(r, f)
-                //Step 1.7: Filter by activity
-                //If a rule has activity context set but it does not match the file's activity,
-                //we ignore the rule.
-                && checkConditions_activity(r, f)
-                //Step 1.8: Filter by noise
-                && checkConditions_noise(r, f);
-
-        //To add new context type conditions here:
-        //Simply add a condition which returns true, if the rule should be kept in the rule
-        //set, and false if it should be removed from the set.
-    }
-
-    private boolean checkConditions_fileSize(VStoreRule r, VStoreFile f) {
-        return !((r.hasFileSizeConfigured()) && (f.getFileSize() < r.getMinFileSize()));
-    }
-    private boolean checkConditions_sharingDomain(VStoreRule r, VStoreFile f) {
-        int fileSharingDomain = (f.isPrivate() ? 1 : 0);
-        if (!ContextUtils.isIncludedInSharingDomain(fileSharingDomain, r.getSharingDomain()))
-        {
-            return false;
-        }
-        return true;
-    }
-    private boolean checkConditions_dayTime(VStoreRule r, VStoreFile f) {
-        if (r.getWeekdays().size() > 0) {
-            int day = ContextUtils.getDayOfWeek();
-            if (!r.getWeekdays().contains(day)) {
-                //Remove rule if the current day is not contained in the day list of the rule
-                return false;
-            } else if (r.hasTimeSet() && !ContextUtils.isNowBetween(r.getStartHour(),
-                    r.getStartMinutes(), r.getEndHour(), r.getEndMinutes())) {
-                //Remove rule if the current time is not in the timespan of the rule
-                return false;
-            }
-        }
-        return true;
-    }
-    private boolean checkConditions_location(VStoreRule r, VStoreFile f) {
-        ContextDescription fileCtx = f.getContext();
-        RuleContextDescription ruleCtx = r.getRuleContext();
-        if (r.hasLocationContext() && f.getContext().hasLocationContext())
-        {
-            double distance = ContextUtils.distanceBetween(ruleCtx.getLocationContext(),
-                    fileCtx.getLocationContext().getLatLng());
-            if (Math.ceil(distance) > ruleCtx.getRadius())
-            {
-                //Distance is farther away than the radius allows. Thus, this rule does
-                //not apply
-                return false;
-            }
-        }
-        return true;
-    }
-    private boolean checkConditions_places(VStoreRule r, VStoreFile f) {
-        ContextDescription fileCtx = f.getContext();
-        RuleContextDescription ruleCtx = r.getRuleContext();
-        if (r.hasPlaceContext())
-        {
-            if (fileCtx.getMostLikelyPlace() == null || !ruleCtx.getPlaceTypes().contains(
-                    fileCtx.getPlaces().getMostLikelyPlace().getPlaceType()))
-            {
-                //The type of the most likely place of the file context is not contained in
-                //the most likely place types of the defined rule context
-                return false;
-            }
-        }
-        return true;
-    }
-    private boolean checkConditions_network(VStoreRule r, VStoreFile f) {
-        //We assume that if the rule has a WiFi name set, this has next highest priority.
-        //If the rule has not WiFi set, but mobile network, than it is checked if the
-        //same type is given.
-        //So if the file context's network conditions do not meet those of the rule,
-        //we ignore the rule.
-        if (r.hasNetworkContext() && f.getContext().hasNetworkContext() &&
-                !f.getContext().getNetworkContext().matches(r.getRuleContext().getNetworkContext()))
-        {
-            return false;
-        }
-        return true;
-    }
-    private boolean checkConditions_activity(VStoreRule r, VStoreFile f) {
-        if (r.hasActivityContext() && f.getContext().hasActivityContext()
-                && !f.getContext().getActivityContext() .matches(r.getRuleContext().getActivityContext()))
-        {
-            return false;
-        }
-        return true;
-    }
-    private boolean checkConditions_noise(VStoreRule r, VStoreFile f) {
-        //If both have noise context set: Match the dB value of the file context vs the
-        //threshold of the rule. If the rule specifies "must be silent" but it's not, we
-        //ignore the rule. If it specifies "must be loud" but it's not, we ignore the rule.
-        if (r.hasNoiseContext() && f.getContext().hasNoiseContext()
-                && !r.getRuleContext().getNoiseContext().matches(f.getContext().getNoiseContext()))
-        {
-            return false;
-        }
-        return true;
-    }
-
-    /**
-     * Sorts the given list of rules based on the detail score.
-     * @param rules The list of rules to be sorted.
-     * @return A list which contains the given rules in order based on the detail score.
+     * @param mimetype The MIME type of a file.
+     * @return The compiled rules for the MIME type, the same for all decisions of this object.
      */
-    private List<VStoreRule> sortRulesByScore(List<VStoreRule> rules) {
-        ArrayList<VStoreRule> sortedRules = new ArrayList<>();
-        for (VStoreRule r : rules)
+    private CompiledRuleSet getRuleSet(String mimetype) {
+        String key = (mimetype == null) ? "" : mimetype;
+        CompiledRuleSet ruleSet = mRuleSets.get(key);
+        if(ruleSet == null)
         {
-            float score = r.getDetailScore();
-            int pos = 0;
-            //Add it sorted into the list (highest to lowest score)
-            while(pos < sortedRules.size())
-            {
-                if(sortedRules.get(pos).getDetailScore() < score) break;
-                ++pos;
-            }
-            sortedRules.add(pos, r);
+            ruleSet = CompiledRuleSet.forFileType(mimetype);
+            mRuleSets.put(key, ruleSet);
         }
-        return sortedRules;
+        return ruleSet;
     }
 
-
     /**
      * This method determines the node (or multiple storage nodes) for the given rule.
      * Will go through all decision layers and - depending on the rule configuration - will either
      * - continue until one layer yields a result or until the end is reached.
      * - or find a node for each decision layer and store the file on all of them.
      *
+     * @param ruleSet The compiled rule set the rule belongs to.
      * @param rule The rule to find a node for.
      * @param file The file to find a node for.
      * @param keepNodesAlreadyFound If set, the nodes already contained in the decidedNodes list are kept.
      *                        If set to false, the list is cleared before search.
      * @return True, if a match was found. False, if not.
      */
-    private boolean getNodesForRule(VStoreRule rule, VStoreFile file, boolean keepNodesAlreadyFound) {
+    private boolean getNodesForRule(CompiledRuleSet ruleSet, VStoreRule rule, VStoreFile file,
+                                    boolean keepNodesAlreadyFound) {
         if(!keepNodesAlreadyFound) { mDecidedNodes.clear(); }
 
         //If the rule has the "storeMultiple" flag, an entry for each decision layer is
         //put into the list mDecidedNodes.
         //If the rule does not have this flag set, only one entry will be contained in this list.
 
+        //The decision layers are compiled, so that only the node selectors that apply to
+        //a layer are tried (in the same order as always).
+        CompiledDecisionLayer[] layers = ruleSet.getDecisionLayers(rule);
+        VLatLng loc = getLatLng(file);
         NodeSelectionResult lastResult;
-        for(DecisionLayer layer : rule.getDecisionLayers())
+        long t;
+        String ruleId = rule.getUUID();
+        for(int i = 0; i < layers.length; ++i)
         {
             //Confirm that maximum replication factor is not reached yet.
             //If it is reached, return.
@@ -343,44 +331,37 @@ public class Matching {
                 return true;
             }
 
-            //Check if no node is configured (this means either DEVICE_ONLY or UNKNOWN as target type)
-            lastResult = getNodes_NoNode(rule, layer);
-            if(lastResult == DONE_TRUE) { return true; }
-            if(lastResult == DONE_FALSE) { return false; }
-            if(lastResult == NEXT_LAYER) { continue; }
-
-            //Check if a specific node is configured for this decision layer
-            lastResult = getNodes_specificNode(rule, layer);
-            if(lastResult == DONE_TRUE) { return true; }
-            if(lastResult == DONE_FALSE) { return false; }
-            if(lastResult == NEXT_LAYER) { continue; }
-
-            //Check if target type "NONE" and some constraints are configured for this decision layer
-            lastResult = getNodes_noneAndConstraints(rule, layer, file);
-            if(lastResult == DONE_TRUE) { return true; }
-            if(lastResult == DONE_FALSE) { return false; }
-            if(lastResult == NEXT_LAYER) { continue; }
-
-            //All constraints 0 on which we could select a node
-            //(--> Get random node of the configured type)
-            lastResult = getNodes_randomOfType(rule, layer);
-            if(lastResult == DONE_TRUE) { return true; }
-            if(lastResult == DONE_FALSE) { return false; }
-            if(lastResult == NEXT_LAYER) { continue; }
-
-            //Radius constraints set (will also take bandwidth into account if necessary)
-            lastResult = getNodes_radiusAndBandwidth(rule, layer, file);
-            if(lastResult == DONE_TRUE) { return true; }
-            if(lastResult == DONE_FALSE) { return false; }
-            if(lastResult == NEXT_LAYER) { continue; }
-
-            //Radius constraints not set or invalid. Thus, use bandwidth constraints.
-            lastResult = getNodes_useBandwidthConstraints(rule, layer);
+            lastResult = NEXT_TEST;
+            for(CompiledDecisionLayer.Step step : layers[i].getSteps())
+            {
+                t = System.nanoTime();
+                switch(step.kind)
+                {
+                    case NO_NODE:
+                        if(step.targetType == DEVICE_ONLY) { mDeviceOnly = true; }
+                        lastResult = getNodes_NoNode(rule);
+                        break;
+                    case SPECIFIC_NODE:
+                        lastResult = getNodes_specificNode(rule, step);
+                        break;
+                    case NONE_AND_CONSTRAINTS:
+                        lastResult = getNodes_noneAndConstraints(rule, i, step, loc);
+                        break;
+                    case RANDOM_OF_TYPE:
+                        lastResult = getNodes_randomOfType(rule, i, step);
+                        break;
+                    case RADIUS_AND_BANDWIDTH:
+                        lastResult = getNodes_radiusAndBandwidth(rule, i, step, loc);
+                        break;
+                    case BANDWIDTH:
+                        lastResult = getNodes_useBandwidthConstraints(rule, i, step);
+                        break;
+                }
+                mTrace.recordSelection(step.kind.getName(), t, ruleId, i, lastResult);
+                if(lastResult != NEXT_TEST) { break; }
+            }
             if(lastResult == DONE_TRUE) { return true; }
             if(lastResult == DONE_FALSE) { return false; }
-            if(lastResult == NEXT_LAYER) { continue; }
-
-            //For further conditions, please add them here
         }
 
         //If we found one or more valid nodes, return true
@@ -391,173 +372,257 @@ public class Matching {
         return valid;
     }
 
-    private NodeSelectionResult getNodes_NoNode(VStoreRule rule, DecisionLayer layer) {
-        //Check if no node is configured (this means either DEVICE_ONLY or UNKNOWN as target type)
-        if(layer.targetType.equals(DEVICE_ONLY) || layer.targetType.equals(UNKNOWN))
-        {
-            if(rule.isStoreMultiple()) {
-                //Store null value for this layer in the list of decided nodes, so that in the
-                //logging service it is clear what the outcomes of the layers were.
-                mDecidedNodes.add(null);
-                return NEXT_LAYER;
-            }
-            //"Single node" mode: Clear list, just to be sure
-            return DONE_FALSE;
+    private NodeSelectionResult getNodes_NoNode(VStoreRule rule) {
+        //No node is configured (this means either DEVICE_ONLY or UNKNOWN as target type)
+        if(rule.isStoreMultiple()) {
+            //Store null value for this layer in the list of decided nodes, so that in the
+            //logging service it is clear what the outcomes of the layers were.
+            mDecidedNodes.add(null);
+            return NEXT_LAYER;
         }
-        return NEXT_TEST;
+        //"Single node" mode: Clear list, just to be sure
+        return DONE_FALSE;
     }
-    private NodeSelectionResult getNodes_specificNode(VStoreRule rule, DecisionLayer layer) {
-        //Check if a specific node is configured for this decision layer
-        if(layer.isSpecific && layer.specificNodeId != null && !layer.specificNodeId.equals(""))
-        {
-            //Get information of this specific node
-            NodeInfo node = NodeManager.get().getNode(layer.specificNodeId);
-            if(node != null) {
-                //Check if rule is configured to store the file on multiple nodes,
-                //or only on one node
-                if(rule.isStoreMultiple()) {
-                    mDecidedNodes.add(node);
-                    mValidNodes.add(node);
-                    return NEXT_LAYER;
-                } else {
-                    mDecidedNodes.add(node);
-                    mValidNodes.add(node);
-                    //Done in the "single node" mode since we found our target
-                    return DONE_TRUE;
-                }
-            }
+    private NodeSelectionResult getNodes_specificNode(VStoreRule rule, CompiledDecisionLayer.Step step) {
+        //A specific node is configured for this decision layer and it is known
+        NodeInfo node = step.node;
+        //Check if rule is configured to store the file on multiple nodes,
+        //or only on one node
+        if(rule.isStoreMultiple()) {
+            mDecidedNodes.add(node);
+            mValidNodes.add(node);
+            return NEXT_LAYER;
+        } else {
+            mDecidedNodes.add(node);
+            mValidNodes.add(node);
+            //Done in the "single node" mode since we found our target
+            return DONE_TRUE;
         }
-        return NEXT_TEST;
     }
-    private NodeSelectionResult getNodes_noneAndConstraints(VStoreRule rule, DecisionLayer layer, VStoreFile file) {
-        //Check if target type "NONE" and some constraints are configured for this decision layer
-        if(layer.targetType.equals(NodeType.NONE)
-                && (layer.maxRadius > 0 || layer.minBwUp > 0 || layer.minBwDown > 0))
-        {
-            //Check if at least one value is valid (either bandwidth up and/or down)
-            if(layer.minBwUp > 0 || layer.minBwDown > 0)
-            {
-                NodeInfo node
-                        = NodeManager.get().getRandomNodeMatchingBandwidthAndRadius(
-                        layer.minBwUp, layer.minBwDown,
-                        layer.minRadius, layer.maxRadius,
-                        file.getContext().getLocationContext().getLatLng());
-
-                if(node != null) {
-                    if(rule.isStoreMultiple()) {
-                        mDecidedNodes.add(node);
-                        mValidNodes.add(node);
-                        return NEXT_LAYER;
-                    } else {
-                        mDecidedNodes.add(node);
-                        mValidNodes.add(node);
-                        //Done in the "single node" mode since we found our target
-                        return DONE_TRUE;
+    private NodeSelectionResult getNodes_noneAndConstraints(VStoreRule rule, int layerIndex,
+                                                            final CompiledDecisionLayer.Step step, final VLatLng loc) {
+        //Target type "NONE" and bandwidth constraints are configured for this decision layer
+        NodeInfo node = selectNode(
+                getCandidates(rule, layerIndex, "none", new CandidateLookup() {
+                    @Override
+                    public List<NodeInfo> find() {
+                        return step.getCandidates(loc);
                     }
-                }
-                else
-                {
-                    //Node info is not available.
-                    if(rule.isStoreMultiple()) {
-                        //Store null value for this layer in the list of decided nodes
-                        mDecidedNodes.add(null);
-                    }
-                    //In this case: in both single and multiple mode:
-                    return NEXT_LAYER;
-                }
+                }));
+
+        if(node != null) {
+            if(rule.isStoreMultiple()) {
+                mDecidedNodes.add(node);
+                mValidNodes.add(node);
+                return NEXT_LAYER;
+            } else {
+                mDecidedNodes.add(node);
+                mValidNodes.add(node);
+                //Done in the "single node" mode since we found our target
+                return DONE_TRUE;
             }
         }
-        return NEXT_TEST;
+        else
+        {
+            //Node info is not available.
+            if(rule.isStoreMultiple()) {
+                //Store null value for this layer in the list of decided nodes
+                mDecidedNodes.add(null);
+            }
+            //In this case: in both single and multiple mode:
+            return NEXT_LAYER;
+        }
     }
-    private NodeSelectionResult getNodes_randomOfType(VStoreRule rule, DecisionLayer layer) {
+    private NodeSelectionResult getNodes_randomOfType(VStoreRule rule, int layerIndex,
+                                                      final CompiledDecisionLayer.Step step) {
         //All constraints 0 on which we could select a node
         //--> Get random node of the configured type
-        if(layer.minRadius == 0 && layer.maxRadius == 0 && layer.minBwUp == 0
-                && layer.minBwDown == 0)
-        {
-            NodeInfo node
-                    = NodeManager.get().getRandomNodeOfTypes(new NodeType[] { layer.targetType});
-
-            if(node != null) {
-                if(rule.isStoreMultiple()) {
-                    mDecidedNodes.add(node);
-                    mValidNodes.add(node);
-                    return NEXT_LAYER;
-                } else {
-                    mDecidedNodes.add(node);
-                    mValidNodes.add(node);
-                    //Done in the "single node" mode since we found our target
-                    return DONE_TRUE;
-                }
-            }
-            else
-            {
-                if(rule.isStoreMultiple())
-                {
-                    mDecidedNodes.add(null);
-                }
+        NodeInfo node = selectNode(
+                getCandidates(rule, layerIndex, "type", new CandidateLookup() {
+                    @Override
+                    public List<NodeInfo> find() {
+                        return step.getCandidates(null);
+                    }
+                }));
+
+        if(node != null) {
+            if(rule.isStoreMultiple()) {
+                mDecidedNodes.add(node);
+                mValidNodes.add(node);
                 return NEXT_LAYER;
+            } else {
+                mDecidedNodes.add(node);
+                mValidNodes.add(node);
+                //Done in the "single node" mode since we found our target
+                return DONE_TRUE;
             }
         }
-        return NEXT_TEST;
-    }
-    private NodeSelectionResult getNodes_radiusAndBandwidth(VStoreRule rule, DecisionLayer layer, VStoreFile file) {
-        //Radius constraints set (will also take bandwidth into account if necessary)
-        if(layer.minRadius>=0 && layer.maxRadius>0)
+        else
         {
-            NodeInfo node = NodeManager.get().getRandomNodeOfTypeMatchingBandwidth(
-                    layer.targetType, layer.minBwUp, layer.minBwDown, layer.minRadius,
-                    layer.maxRadius, file.getContext().getLocationContext().getLatLng());
-
-            if(node != null)
+            if(rule.isStoreMultiple())
             {
-                if(rule.isStoreMultiple())
-                {
-                    mDecidedNodes.add(node);
-                    mValidNodes.add(node);
-                    return NEXT_LAYER;
-                } else {
-                    mDecidedNodes.clear();
-                    mDecidedNodes.add(node);
-                    mValidNodes.add(node);
-                    //Done in the "single node" mode since we found our target
-                    return DONE_TRUE;
-                }
-            } else {
                 mDecidedNodes.add(null);
             }
+            return NEXT_LAYER;
         }
-        return NEXT_TEST;
     }
-    private NodeSelectionResult getNodes_useBandwidthConstraints(VStoreRule rule, DecisionLayer layer) {
-        //Radius constraints not set or invalid. Thus, use bandwidth constraints.
-        if(layer.minBwUp>0 || layer.minBwDown>0)
-        {
-            NodeInfo node = NodeManager.get().getRandomNodeOfTypeMatchingBandwidth(
-                    layer.targetType, layer.minBwUp, layer.minBwDown, 0, 0, null);
+    private NodeSelectionResult getNodes_radiusAndBandwidth(VStoreRule rule, int layerIndex,
+                                                            final CompiledDecisionLayer.Step step, final VLatLng loc) {
+        //Radius constraints set (will also take bandwidth into account if necessary)
+        NodeInfo node = selectNode(
+                getCandidates(rule, layerIndex, "radius", new CandidateLookup() {
+                    @Override
+                    public List<NodeInfo> find() {
+                        return step.getCandidates(loc);
+                    }
+                }));
 
+        if(node != null)
+        {
             if(rule.isStoreMultiple())
             {
                 mDecidedNodes.add(node);
                 mValidNodes.add(node);
                 return NEXT_LAYER;
-            }
-            else
-            {
+            } else {
                 mDecidedNodes.clear();
                 mDecidedNodes.add(node);
                 mValidNodes.add(node);
                 //Done in the "single node" mode since we found our target
                 return DONE_TRUE;
             }
+        } else {
+            mDecidedNodes.add(null);
         }
         return NEXT_TEST;
     }
+    private NodeSelectionResult getNodes_useBandwidthConstraints(VStoreRule rule, int layerIndex,
+                                                                 final CompiledDecisionLayer.Step step) {
+        //Radius constraints not set or invalid. Thus, use bandwidth constraints.
+        NodeInfo node = selectNode(
+                getCandidates(rule, layerIndex, "bandwidth", new CandidateLookup() {
+                    @Override
+                    public List<NodeInfo> find() {
+                        return step.getCandidates(null);
+                    }
+                }));
+
+        if(rule.isStoreMultiple())
+        {
+            mDecidedNodes.add(node);
+            mValidNodes.add(node);
+            return NEXT_LAYER;
+        }
+        else
+        {
+            mDecidedNodes.clear();
+            mDecidedNodes.add(node);
+            mValidNodes.add(node);
+            //Done in the "single node" mode since we found our target
+            return DONE_TRUE;
+        }
+    }
+
+    /**
+     * Chooses one of the candidate nodes, using the configured node selection strategy.
+     *
+     * @param candidates The candidate nodes.
+     * @return The chosen node, or null if there are no candidates.
+     */
+    static NodeInfo selectNode(List<NodeInfo> candidates) {
+        ConfigManager config = ConfigManager.get();
+        NodeSelectionStrategy strategy = (config != null && config.getNodeSelectionStrategy() != null)
+                ? config.getNodeSelectionStrategy()
+                : NodeSelectionStrategy.RANDOM;
+        //Do not choose a node that failed its recent probes, unless all candidates did
+        List<NodeInfo> healthy = NodeHealthTracker.get().filterHealthy(candidates);
+        return NodeManager.get().getNodeFromList(healthy.isEmpty() ? candidates : healthy, strategy);
+    }
+
+    /**
+     * Chooses one of the nodes of the given types with {@link #selectNode(List)}.
+     *
+     * @param types The node types.
+     * @return The chosen node, or null if there are no nodes of the given types.
+     */
+    private static NodeInfo selectNodeOfTypes(NodeType... types) {
+        return selectNode(NodeManager.get().getNodesOfTypes(types));
+    }
+
+    /**
+     * Chooses one of the nodes of the first type in the hierarchy that has nodes,
+     * with {@link #selectNode(List)}.
+     *
+     * @param hierarchy The node types, in the order in which they are tried.
+     * @return The chosen node, or null if there are no nodes of the given types.
+     */
+    private static NodeInfo selectNodeFollowingHierarchy(NodeType... hierarchy) {
+        for(NodeType t : hierarchy)
+        {
+            NodeInfo n = selectNode(NodeManager.get().getNodesOfType(t));
+            if(n != null) { return n; }
+        }
+        return null;
+    }
+
+    /**
+     * Chooses one of the N nearest nodes of each of the given types with {@link #selectNode(List)}.
+     *
+     * @param types The node types.
+     * @param location The location to compare against.
+     * @param N The number of nearest nodes per type to choose from.
+     * @return The chosen node, or null if there are no nodes of the given types.
+     */
+    private static NodeInfo selectNearestNodeOfTypes(NodeType[] types, VLatLng location, int N) {
+        List<NodeInfo> nodes = new ArrayList<>();
+        for(NodeType t : types)
+        {
+            nodes.addAll(NodeManager.get().get_N_NearestNodesOfType(t, location, N));
+        }
+        return selectNode(nodes);
+    }
+
+    /**
+     * @param file The file.
+     * @return The location of the file, or null if the file has no location context.
+     */
+    private static VLatLng getLatLng(VStoreFile file) {
+        ContextDescription ctx = file.getContext();
+        if(ctx == null || !ctx.hasLocationContext()) { return null; }
+        return ctx.getLocationContext().getLatLng();
+    }
+
+    /**
+     * Returns the candidate nodes for a selection step of the given decision layer.
+     * Uses the matching cache if available, otherwise performs the given lookup.
+     *
+     * @param rule The rule the decision layer belongs to.
+     * @param layerIndex The index of the decision layer in the rule.
+     * @param step The name of the selection step.
+     * @param lookup The lookup to perform on a cache miss.
+     * @return The candidate nodes. Must not be modified.
+     */
+    private List<NodeInfo> getCandidates(VStoreRule rule, int layerIndex, String step,
+                                         CandidateLookup lookup) {
+        if(mCacheEntry == null) { return lookup.find(); }
+        String key = rule.getUUID() + "/" + layerIndex + "/" + step;
+        List<NodeInfo> nodes = mCacheEntry.getCandidates(key);
+        if(nodes == null)
+        {
+            nodes = lookup.find();
+            mCacheEntry.putCandidates(key, nodes);
+        }
+        return nodes;
+    }
+
+    private interface CandidateLookup {
+        List<NodeInfo> find();
+    }
 
     /**
-     * (CURRENTLY NOT USED!!!!)
      * This method determines the node for the given file without rules.
-     * This is just experimental and not finished. Currently not used.
+     * Used in the matching mode {@link MatchingMode#RULES_THEN_FALL_BACK}, if no rule yields
+     * a storage node.
      *
      * @param f The file to find a node for.
      * @return The {@link NodeInfo} of the decided node. Or null, if no decision was possible.
@@ -577,6 +642,7 @@ public class Matching {
             return null;
         }
         ContextDescription fileCtx = f.getContext();
+        if(fileCtx == null) { fileCtx = new ContextDescription(); }
         if(f.isPrivate()) 
         {
             //File is private (since we are here in the code, no "Home" rule applies)
@@ -594,10 +660,7 @@ public class Matching {
             //No location context (should happen rarely).
             //Get a random node following this hierarchy:
             //PRIVATE_NODE, CORENET, CLOUD
-            return manager.getNodeFollowingHierarchy(
-                    Arrays.asList(PRIVATE_NODE, CORENET, CLOUD),
-                    NodeManager.Mode.RANDOM,
-                    null);
+            return selectNodeFollowingHierarchy(PRIVATE_NODE, CORENET, CLOUD);
         } 
         else 
         {
@@ -607,7 +670,7 @@ public class Matching {
             //Instead, we use nearest corenet or cloud, if location context is available and
             //random corenet/cloud if no location context is available.
             if(fileCtx.hasActivityContext()
-                    )//TODO: && fileCtx.getActivityContext().getType() == DetectedActivity.IN_VEHICLE) 
+                    && fileCtx.getActivityContext().getType() == ActivityType.IN_VEHICLE)
             {
                 if(fileCtx.hasLocationContext()) 
                 {
@@ -618,26 +681,31 @@ public class Matching {
                 } 
                 else 
                 {
-                    return manager.getNodeFollowingHierarchy(
-                            Arrays.asList(CORENET, CLOUD),
-                            NodeManager.Mode.RANDOM,
-                            null);
+                    return selectNodeFollowingHierarchy(CORENET, CLOUD);
                 }
             }
             //Match based on nearby and most likely place the user is currently located at.
             VSinglePlace placeUse = null;
             if(fileCtx.hasPlacesContext()) {
                 VPlaces places = fileCtx.getPlaces();
-                //Iteratively try to get a list of the most likely places by decreasing the
-                //threshold gradually
+                //Get a list of the most likely places, using the highest threshold that is
+                //reached by at least one place. The threshold is decreased gradually.
+                List<VSinglePlace> byLikelihood = places.getPlacesByLikelihood();
                 List<VSinglePlace> filtered = new ArrayList<>();
                 float threshold = 0.3f; //Start with 30% likelihood threshold
                 float lowestAllowed = 0.05f; //5% minimum likelihood
-                while(filtered.isEmpty() && threshold > lowestAllowed) {
-                    filtered = places.filterPlaces(threshold);
+                double maxLikelihood = byLikelihood.isEmpty() ? -1 : byLikelihood.get(0).getLikelihood();
+                while(maxLikelihood < threshold && threshold > lowestAllowed) {
                     //Reduce threshold by 2 percent for next round
                     threshold -= 0.02;
                 }
+                if(threshold > lowestAllowed) {
+                    //The places reaching the threshold are at the front of the sorted list
+                    for(VSinglePlace p : byLikelihood) {
+                        if(p.getLikelihood() < threshold) { break; }
+                        filtered.add(p);
+                    }
+                }
                 //Check if we found a place.
                 if(filtered.size() > 0) {
                     placeUse = filtered.get(0);
@@ -647,12 +715,15 @@ public class Matching {
                             //Choose the place to use by selecting the closest one (if location
                             //context is available).
                             //Calculate the distance for the first place.
-                            placeUse.calculateDistanceFrom(fileCtx.getLocationContext());
+                            //The places may belong to a shared context, so the distances are
+                            //not stored in them.
+                            float placeDistance = placeUse.getDistanceFrom(fileCtx.getLocationContext());
                             for (int i = 1; i < filtered.size(); ++i) {
                                 VSinglePlace p = filtered.get(i);
-                                p.calculateDistanceFrom(fileCtx.getLocationContext());
-                                if (p.getDistance() < placeUse.getDistance()) {
+                                float distance = p.getDistanceFrom(fileCtx.getLocationContext());
+                                if (distance < placeDistance) {
                                     placeUse = p;
+                                    placeDistance = distance;
                                 }
                             }
                         } else {
@@ -679,7 +750,7 @@ public class Matching {
                                 //Construct a list of 2 nodes per type and randomly get one from those.
                                 //This is to prevent local overload of one node at an event by using
                                 //one of them randomly.
-                                NodeInfo n = manager.getNearestNodeOfTypes(
+                                NodeInfo n = selectNearestNodeOfTypes(
                                         new NodeType[] { CLOUDLET, GATEWAY },
                                         fileCtx.getLocationContext().getLatLng(),
                                         2);
@@ -692,15 +763,11 @@ public class Matching {
                                     return n;
                                 }
                                 //No corenet. Try cloud.
-                                n = manager.getNearestNodeOfType(CLOUD, fileCtx.getLocationContext().getLatLng());
-                                if(n == null) {
-                                    //No cloud node available.
-                                    //Reaching here should only happen if no nodes are configured.
-                                    return null;
-                                }
+                                //If no cloud node is available either, no nodes are configured.
+                                return manager.getNearestNodeOfType(CLOUD, fileCtx.getLocationContext().getLatLng());
                             } else {
                                 //We have a place and noise but no location, so we choose a cloudlet or gateway randomly.
-                                return manager.getRandomNodeOfTypes(new NodeType[] { CLOUDLET, GATEWAY });
+                                return selectNodeOfTypes(CLOUDLET, GATEWAY);
                             }
                         } else {
                             //Near an event but it is not loud. Thus we assume the user does not want to share at the event.
@@ -715,10 +782,9 @@ public class Matching {
                                         fileCtx.getLocationContext().getLatLng());
                             } else {
                                 //No location context, so we choose a corenet or cloud randomly.
-                                return manager.getRandomNodeOfTypes(new NodeType[] { CORENET, CLOUD });
+                                return selectNodeOfTypes(CORENET, CLOUD);
                             }
                         }
-                        break;
 
                     case POI:
                         //2. Sharing at a POI. Pick a node with fallback hierarchy of the
@@ -734,10 +800,7 @@ public class Matching {
                                     fileCtx.getLocationContext().getLatLng());
                         } else {
                             //No location context, so we change mode to random
-                            node = manager.getNodeFollowingHierarchy(
-                                    Arrays.asList(CORENET, CLOUDLET, GATEWAY, CLOUD),
-                                    NodeManager.Mode.RANDOM,
-                                    null);
+                            node = selectNodeFollowingHierarchy(CORENET, CLOUDLET, GATEWAY, CLOUD);
                         }
                         return node;
 
@@ -796,7 +859,7 @@ public class Matching {
             if(n == null) {
                 //Neither corenet, nor cloud available. So try a random cloudlet or gateway so that the file
                 //is at least stored somewhere.
-                n = manager.getRandomNodeOfTypes(new NodeType[]{CLOUDLET, GATEWAY});
+                n = selectNodeOfTypes(CLOUDLET, GATEWAY);
             }
             return n;
         }
@@ -814,4 +877,15 @@ public class Matching {
         }
         return mDecidedNodes;
     }
+
+    /**
+     * Returns the trace of this decision. It contains the single stages (loading the rules,
+     * each rule condition and each node selector with its result) only if explain mode was
+     * enabled using {@link MatchingStats#setExplainEnabled(boolean)}.
+     *
+     * @return The trace of this decision.
+     */
+    public MatchingTrace getTrace() {
+        return mTrace;
+    }
 }
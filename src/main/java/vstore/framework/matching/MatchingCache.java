@@ -0,0 +1,227 @@
+package vstore.framework.matching;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import vstore.framework.context.ContextDescription;
+import vstore.framework.context.types.location.VLatLng;
+import vstore.framework.context.types.network.VNetwork;
+import vstore.framework.file.VStoreFile;
+import vstore.framework.node.NodeInfo;
+import vstore.framework.rule.VStoreRule;
+import vstore.framework.utils.ContextUtils;
+
+/**
+ * Caches the outcome of the expensive parts of a matching decision: the ordered list of rules
+ * that apply to a file, and the candidate nodes of each decision layer.
+ * Only the final pick of a node from the candidates is redone for every file.
+ *
+ * An entry is keyed by a fingerprint of everything the rule conditions look at (mime type,
+ * sharing domain, file size bucket, day and time, usage context), plus the versions of the
+ * rule set and the node set. Entries expire after a time-to-live, and the least recently
+ * used entry is evicted once the cache is full.
+ */
+public class MatchingCache {
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    public static final long DEFAULT_TTL_MS = 60 * 1000;
+
+    private static MatchingCache instance;
+
+    private final LinkedHashMap<String, Entry> mEntries;
+    private int mMaxEntries;
+    private long mTtlMs;
+    private final AtomicLong mHits;
+    private final AtomicLong mMisses;
+
+    private MatchingCache() {
+        mMaxEntries = DEFAULT_MAX_ENTRIES;
+        mTtlMs = DEFAULT_TTL_MS;
+        mHits = new AtomicLong();
+        mMisses = new AtomicLong();
+        //Access order, so that the eldest entry is the least recently used one
+        mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > mMaxEntries;
+            }
+        };
+    }
+
+    public static synchronized void initialize() {
+        if(instance == null) {
+            instance = new MatchingCache();
+        }
+    }
+
+    /**
+     * @return Gets the instance of the matching cache.
+     */
+    public static MatchingCache get() {
+        initialize();
+        return instance;
+    }
+
+    /**
+     * Configures the size and the time-to-live of the cache.
+     * @param maxEntries The maximum number of entries. 0 disables the cache.
+     * @param ttlMs The time in milliseconds after which an entry expires.
+     */
+    public synchronized void configure(int maxEntries, long ttlMs) {
+        mMaxEntries = Math.max(0, maxEntries);
+        mTtlMs = ttlMs;
+        mEntries.clear();
+    }
+
+    /**
+     * Returns the entry for the given key. If no valid entry exists, a new entry is created.
+     * The rules of a new entry are still null and have to be set by the caller. Only an entry
+     * with rules counts as a hit.
+     *
+     * @param key The key, see {@link MatchingCache#buildKey}.
+     * @return The entry.
+     */
+    synchronized Entry getEntry(String key) {
+        long now = System.currentTimeMillis();
+        Entry e = mEntries.get(key);
+        if(e != null && now - e.created <= mTtlMs)
+        {
+            //The rules are still missing, if the decision that created the entry did not finish
+            if(e.rules != null) { mHits.incrementAndGet(); }
+            else { mMisses.incrementAndGet(); }
+            return e;
+        }
+        mMisses.incrementAndGet();
+        e = new Entry(now);
+        if(mMaxEntries > 0) { mEntries.put(key, e); }
+        return e;
+    }
+
+    /**
+     * Builds the cache key for matching the given file against the given rule set.
+     *
+     * @param f The file.
+     * @param rules The compiled rules for the mime type of the file.
+     * @param nodeVersion The current version of the node set.
+     * @param time The time of the decision in milliseconds since the epoch.
+     * @return The key.
+     */
+    static String buildKey(VStoreFile f, CompiledRuleSet rules, long nodeVersion, long time) {
+        StringBuilder b = new StringBuilder();
+        b.append(f.getFileType()).append('|')
+                .append(rules.getVersion()).append('|')
+                .append(nodeVersion).append('|')
+                .append(f.isPrivate()).append('|')
+                .append(rules.getSizeBucket(f.getFileSize())).append('|')
+                .append(ContextUtils.getDayOfWeek(time)).append('|');
+        if(rules.hasTimeChecks())
+        {
+            b.append(time / 60000);
+        }
+        b.append('|');
+
+        ContextDescription ctx = f.getContext();
+        if(ctx == null) { return b.toString(); }
+        if(ctx.hasLocationContext() && ctx.getLocationContext().getLatLng() != null)
+        {
+            VLatLng latLng = ctx.getLocationContext().getLatLng();
+            b.append(latLng.getLatitude()).append(',').append(latLng.getLongitude());
+        }
+        b.append('|');
+        if(ctx.getMostLikelyPlace() != null)
+        {
+            b.append(ctx.getMostLikelyPlace().getPlaceType());
+        }
+        b.append('|');
+        if(ctx.hasActivityContext())
+        {
+            b.append(ctx.getActivityContext().getType());
+        }
+        b.append('|');
+        if(ctx.hasNoiseContext())
+        {
+            b.append(ctx.getNoiseContext().getDb());
+        }
+        b.append('|');
+        if(ctx.hasNetworkContext())
+        {
+            VNetwork net = ctx.getNetworkContext();
+            if(net.getWiFiContext() != null)
+            {
+                b.append(net.getWiFiContext().isWifiConnected()).append(',')
+                        .append(net.getWiFiContext().getWifiSSID());
+            }
+            b.append(',');
+            if(net.getMobileContext() != null)
+            {
+                b.append(net.getMobileContext().isMobileConnected()).append(',')
+                        .append(net.getMobileContext().getMobileNetworkType());
+            }
+        }
+        return b.toString();
+    }
+
+    /**
+     * @return The number of lookups that found a valid entry with rules.
+     */
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    /**
+     * @return The number of lookups that did not find a valid entry with rules.
+     */
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    /**
+     * @return The share of lookups that found a valid entry (between 0 and 1).
+     */
+    public float getHitRatio() {
+        long hits = mHits.get();
+        long total = hits + mMisses.get();
+        return (total == 0) ? 0 : (float) hits / total;
+    }
+
+    /**
+     * Removes all entries and resets the counters.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+        mHits.set(0);
+        mMisses.set(0);
+    }
+
+    /**
+     * A cached matching outcome.
+     */
+    static class Entry {
+        final long created;
+        /**
+         * The rules that apply, in order of their detail score.
+         */
+        volatile List<VStoreRule> rules;
+        /**
+         * The candidate nodes, per rule, decision layer and selection step.
+         */
+        private final Map<String, List<NodeInfo>> mCandidates;
+
+        Entry(long created) {
+            this.created = created;
+            mCandidates = new HashMap<>();
+        }
+
+        synchronized List<NodeInfo> getCandidates(String key) {
+            return mCandidates.get(key);
+        }
+
+        synchronized void putCandidates(String key, List<NodeInfo> nodes) {
+            mCandidates.put(key, Collections.unmodifiableList(new ArrayList<>(nodes)));
+        }
+    }
+}
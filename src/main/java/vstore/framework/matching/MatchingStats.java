@@ -0,0 +1,99 @@
+package vstore.framework.matching;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import vstore.framework.utils.LatencyHistogram;
+
+/**
+ * Aggregates the duration of the single stages of all matching decisions into histograms.
+ * Also controls whether matching decisions record an explain trace
+ * (see {@link Matching#getTrace()}).
+ */
+public class MatchingStats {
+    private static MatchingStats instance;
+
+    private final ConcurrentHashMap<String, LatencyHistogram> mStages;
+    private volatile boolean mExplain;
+
+    private MatchingStats() {
+        mStages = new ConcurrentHashMap<>();
+        mExplain = false;
+    }
+
+    public static synchronized void initialize() {
+        if(instance == null) {
+            instance = new MatchingStats();
+        }
+    }
+
+    /**
+     * @return Gets the instance of the matching statistics.
+     */
+    public static MatchingStats get() {
+        initialize();
+        return instance;
+    }
+
+    /**
+     * Enables or disables the explain trace for subsequent matching decisions.
+     * @param enabled True, if every decision should record an explain trace.
+     */
+    public void setExplainEnabled(boolean enabled) {
+        mExplain = enabled;
+    }
+
+    /**
+     * @return True, if matching decisions record an explain trace.
+     */
+    public boolean isExplainEnabled() {
+        return mExplain;
+    }
+
+    /**
+     * Records the duration of a stage.
+     * @param stage The name of the stage.
+     * @param nanos The duration in nanoseconds.
+     */
+    void record(String stage, long nanos) {
+        LatencyHistogram h = mStages.get(stage);
+        if(h == null) {
+            mStages.putIfAbsent(stage, new LatencyHistogram());
+            h = mStages.get(stage);
+        }
+        h.record(nanos);
+    }
+
+    /**
+     * @param stage The name of the stage.
+     * @return The histogram for the given stage, or null if the stage was never recorded.
+     */
+    public LatencyHistogram getHistogram(String stage) {
+        return mStages.get(stage);
+    }
+
+    /**
+     * @return The histograms of all stages recorded so far, sorted by stage name.
+     */
+    public Map<String, LatencyHistogram> getHistograms() {
+        return new TreeMap<>(mStages);
+    }
+
+    /**
+     * Removes all recorded values.
+     */
+    public void reset() {
+        mStages.clear();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        for(Map.Entry<String, LatencyHistogram> e : getHistograms().entrySet())
+        {
+            b.append(e.getKey()).append(": ").append(e.getValue()).append('\n');
+        }
+        return b.toString();
+    }
+}
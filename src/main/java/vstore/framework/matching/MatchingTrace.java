@@ -0,0 +1,121 @@
+package vstore.framework.matching;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records the stages of a single matching decision. Every stage is added to the
+ * histograms of {@link MatchingStats}. If explain mode is enabled, the stages are also
+ * kept in this trace together with a short description of their outcome.
+ */
+public class MatchingTrace {
+    //Names of the stages
+    public static final String RULES_LOAD = "rules.load";
+    public static final String CACHE_LOOKUP = "cache.lookup";
+    public static final String FILTER_PREFIX = "filter.";
+    public static final String SELECT_PREFIX = "select.";
+    public static final String TOTAL = "total";
+
+    private final boolean mExplain;
+    private final List<Stage> mStages;
+
+    MatchingTrace(boolean explain) {
+        mExplain = explain;
+        mStages = new ArrayList<>();
+    }
+
+    /**
+     * Records a stage that started at the given time and ends now.
+     *
+     * @param stage The name of the stage.
+     * @param startNanos The start of the stage (from {@link System#nanoTime()}).
+     * @param outcome A short description of the outcome. Only used in explain mode.
+     */
+    void record(String stage, long startNanos, String outcome) {
+        long nanos = System.nanoTime() - startNanos;
+        MatchingStats.get().record(stage, nanos);
+        if(mExplain) {
+            mStages.add(new Stage(stage, nanos, outcome));
+        }
+    }
+
+    /**
+     * Records a rule filter stage.
+     *
+     * @param condition The name of the condition.
+     * @param startNanos The start of the stage (from {@link System#nanoTime()}).
+     * @param before The number of candidate rules before the filter.
+     * @param after The number of candidate rules after the filter.
+     */
+    void recordFilter(String condition, long startNanos, int before, int after) {
+        record(FILTER_PREFIX + condition, startNanos,
+                mExplain ? "eliminated " + (before - after) + " of " + before + " rules" : null);
+    }
+
+    /**
+     * Records a node selection stage.
+     *
+     * @param selector The name of the node selector.
+     * @param startNanos The start of the stage (from {@link System#nanoTime()}).
+     * @param ruleId The rule the decision layer belongs to.
+     * @param layer The position of the decision layer in the rule.
+     * @param result The result of the selector.
+     */
+    void recordSelection(String selector, long startNanos, String ruleId, int layer,
+                         NodeSelectionResult result) {
+        record(SELECT_PREFIX + selector, startNanos,
+                mExplain ? "rule " + ruleId + ", layer " + layer + ": " + result : null);
+    }
+
+    /**
+     * @return True, if this trace keeps the single stages.
+     */
+    boolean isExplain() {
+        return mExplain;
+    }
+
+    /**
+     * @return The recorded stages in order. Empty, if explain mode was disabled.
+     */
+    public List<Stage> getStages() {
+        return Collections.unmodifiableList(mStages);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        for(Stage s : mStages)
+        {
+            b.append(s).append('\n');
+        }
+        return b.toString();
+    }
+
+    /**
+     * A single stage of a matching decision.
+     */
+    public static class Stage {
+        private final String mName;
+        private final long mNanos;
+        private final String mOutcome;
+
+        Stage(String name, long nanos, String outcome) {
+            mName = name;
+            mNanos = nanos;
+            mOutcome = outcome;
+        }
+
+        public String getName() { return mName; }
+
+        public long getNanos() { return mNanos; }
+
+        public String getOutcome() { return mOutcome; }
+
+        @Override
+        public String toString() {
+            return mName + " (" + (mNanos / 1000) + "us)"
+                    + ((mOutcome != null) ? ": " + mOutcome : "");
+        }
+    }
+}
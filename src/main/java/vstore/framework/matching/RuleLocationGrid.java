@@ -0,0 +1,109 @@
+package vstore.framework.matching;
+
+import java.util.BitSet;
+import java.util.HashMap;
+
+import vstore.framework.context.types.location.VLatLng;
+
+/**
+ * A uniform latitude/longitude grid over the circles of location-scoped rules.
+ * Every rule is registered in all cells its circle (or rather its bounding box) overlaps.
+ * A lookup for a location thus returns a small superset of the rules whose circle contains
+ * the location, and only those have to be checked with the exact distance.
+ *
+ * Rules with a very large radius (or crossing the antimeridian or a pole) are not put into
+ * cells, but are always returned as candidates.
+ */
+class RuleLocationGrid {
+    /**
+     * Edge length of a cell in degrees (about 1.1km in latitude direction).
+     */
+    private static final double CELL_SIZE_DEG = 0.01;
+    /**
+     * Meters per degree on a great circle, as used by ContextUtils#distanceBetween.
+     */
+    private static final double METERS_PER_DEG = 60 * 1.15077945 * 1609.34;
+    /**
+     * Rules covering more cells than this are always returned as candidates.
+     */
+    private static final int MAX_CELLS_PER_RULE = 4096;
+
+    private final int mSize;
+    private final HashMap<Long, BitSet> mCells;
+    private final BitSet mAlways;
+
+    /**
+     * @param size The number of rules in the compiled rule set.
+     */
+    RuleLocationGrid(int size) {
+        mSize = size;
+        mCells = new HashMap<>();
+        mAlways = new BitSet(size);
+    }
+
+    /**
+     * Registers the circle of the rule with the given index.
+     *
+     * @param i The index of the rule.
+     * @param center The center of the circle.
+     * @param radius The radius of the circle in meters.
+     */
+    void add(int i, VLatLng center, int radius) {
+        //Add some slack, so that rounding never drops a rule that lies on the border
+        double r = Math.max(radius, 0) * 1.01 + 10;
+        double dLat = r / METERS_PER_DEG;
+        double minLat = center.getLatitude() - dLat;
+        double maxLat = center.getLatitude() + dLat;
+        if(minLat < -90 || maxLat > 90) { mAlways.set(i); return; }
+
+        double cos = Math.cos(Math.toRadians(Math.max(Math.abs(minLat), Math.abs(maxLat))));
+        if(cos < 0.01) { mAlways.set(i); return; }
+        double dLng = r / (METERS_PER_DEG * cos);
+        double minLng = center.getLongitude() - dLng;
+        double maxLng = center.getLongitude() + dLng;
+        if(minLng < -180 || maxLng > 180) { mAlways.set(i); return; }
+
+        long latFrom = cell(minLat), latTo = cell(maxLat);
+        long lngFrom = cell(minLng), lngTo = cell(maxLng);
+        if((latTo - latFrom + 1) * (lngTo - lngFrom + 1) > MAX_CELLS_PER_RULE)
+        {
+            mAlways.set(i);
+            return;
+        }
+        for(long la = latFrom; la <= latTo; ++la)
+        {
+            for(long ln = lngFrom; ln <= lngTo; ++ln)
+            {
+                Long key = key(la, ln);
+                BitSet b = mCells.get(key);
+                if(b == null) {
+                    b = new BitSet(mSize);
+                    mCells.put(key, b);
+                }
+                b.set(i);
+            }
+        }
+    }
+
+    /**
+     * Returns the rules whose circle might contain the given location.
+     * The returned bitset is a new instance.
+     *
+     * @param latLng The location of the file.
+     * @return The candidate rules.
+     */
+    BitSet getCandidates(VLatLng latLng) {
+        BitSet result = (BitSet) mAlways.clone();
+        BitSet b = mCells.get(key(cell(latLng.getLatitude()), cell(latLng.getLongitude())));
+        if(b != null) { result.or(b); }
+        return result;
+    }
+
+    private static long cell(double deg) {
+        return (long) Math.floor(deg / CELL_SIZE_DEG);
+    }
+
+    private static long key(long latCell, long lngCell) {
+        return (latCell << 32) ^ (lngCell & 0xFFFFFFFFL);
+    }
+}
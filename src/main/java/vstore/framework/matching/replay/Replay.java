@@ -0,0 +1,303 @@
+package vstore.framework.matching.replay;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import vstore.framework.config.ConfigParser;
+import vstore.framework.db.DBHelper;
+import vstore.framework.db.table_helper.RulesDBHelper;
+import vstore.framework.error.ErrorCode;
+import vstore.framework.exceptions.VStoreException;
+import vstore.framework.file.FileManager;
+import vstore.framework.file.VStoreFile;
+import vstore.framework.matching.Matching;
+import vstore.framework.matching.Matching.MatchingMode;
+import vstore.framework.matching.MatchingCache;
+import vstore.framework.node.NodeInfo;
+import vstore.framework.node.NodeManager;
+import vstore.framework.node.NodeType;
+import vstore.framework.rule.RuleIndex;
+import vstore.framework.rule.VStoreRule;
+import vstore.framework.utils.LatencyHistogram;
+
+/**
+ * Replays recorded store events against a rule set and a node list, to predict the placement
+ * and the decision latency of a configuration before it is rolled out.
+ *
+ * Every event is decided by a regular {@link Matching} at the time it was recorded, i.e. day
+ * and time conditions of the rules see the time of the event instead of the current time.
+ * The events are decided in parallel, nothing is uploaded and no node is contacted.
+ *
+ * A replay replaces the rules and nodes in the database of the framework. Thus, the framework
+ * has to be initialized with a separate base directory, see {@link #main(String[])}.
+ */
+public class Replay {
+    private final List<VStoreRule> mRules;
+    private final List<NodeInfo> mNodes;
+    private int mThreads;
+    private MatchingMode mMode;
+
+    /**
+     * @param rules The rules to replay the events with.
+     * @param nodes The nodes to replay the events with.
+     */
+    public Replay(List<VStoreRule> rules, List<NodeInfo> nodes) {
+        mRules = (rules != null) ? new ArrayList<>(rules) : new ArrayList<VStoreRule>();
+        mNodes = (nodes != null) ? new ArrayList<>(nodes) : new ArrayList<NodeInfo>();
+        mThreads = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Creates a replay of the rules and nodes of a configuration file, as it is downloaded
+     * by the {@link vstore.framework.config.ConfigManager}. Rules marked for deletion are skipped.
+     *
+     * @param strConfig The configuration file in json notation.
+     * @return The replay.
+     * @throws ParseException in case parsing failed.
+     */
+    public static Replay fromConfig(String strConfig) throws ParseException {
+        JSONObject j = (JSONObject) new JSONParser().parse(strConfig);
+        List<NodeInfo> nodes = ConfigParser.parseNodeListJson(j);
+
+        List<VStoreRule> rules = new ArrayList<>();
+        JSONArray jRules = (JSONArray) j.get("rules");
+        if(jRules != null)
+        {
+            for(Object o : jRules)
+            {
+                JSONObject rule = (JSONObject) o;
+                if(Boolean.TRUE.equals(rule.get("delete"))) { continue; }
+                try
+                {
+                    rules.add(new VStoreRule(rule));
+                }
+                catch(RuntimeException ex)
+                {
+                    //Ignore the rule if the provided data was not sufficient.
+                    ex.printStackTrace();
+                }
+            }
+        }
+        return new Replay(rules, nodes);
+    }
+
+    /**
+     * Creates a replay of the rules and nodes that are currently configured in the framework.
+     * Has to be called before another replay replaces them.
+     *
+     * @return The replay.
+     * @throws SQLException in case of a database error.
+     */
+    public static Replay fromCurrent() throws SQLException {
+        return new Replay(RulesDBHelper.getRules(null),
+                new ArrayList<>(NodeManager.get().getNodeList().values()));
+    }
+
+    /**
+     * @param threads The number of threads to decide the events with. Default is the number
+     *                of available processors.
+     */
+    public void setThreads(int threads) {
+        mThreads = Math.max(1, threads);
+    }
+
+    /**
+     * @param mode The matching mode to decide all events with, or null to use the mode
+     *             each event was recorded with (default).
+     */
+    public void setMatchingMode(MatchingMode mode) {
+        mMode = mode;
+    }
+
+    /**
+     * Replaces the rules and nodes of the framework with the ones of this replay and decides
+     * the given events.
+     *
+     * @param events The store events, e.g. from {@link StoreEvent#readFromFile(File)}.
+     * @return The report, with the decisions in the order of the given events.
+     * @throws VStoreException If the rules or nodes cannot be installed, or a decision failed.
+     */
+    public ReplayReport run(List<StoreEvent> events) throws VStoreException {
+        install();
+        MatchingCache.get().clear();
+
+        final File dir = new File(FileManager.get().getStoredFilesDir(), "replay");
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(mThreads);
+        try
+        {
+            List<Future<ReplayReport.Decision>> futures = new ArrayList<>(events.size());
+            for(final StoreEvent e : events)
+            {
+                futures.add(executor.submit(new Callable<ReplayReport.Decision>() {
+                    @Override
+                    public ReplayReport.Decision call() throws VStoreException {
+                        return decide(e, dir);
+                    }
+                }));
+            }
+
+            List<ReplayReport.Decision> decisions = new ArrayList<>(events.size());
+            LatencyHistogram latency = new LatencyHistogram();
+            for(Future<ReplayReport.Decision> f : futures)
+            {
+                ReplayReport.Decision d = f.get();
+                latency.record(d.getLatencyNanos());
+                decisions.add(d);
+            }
+            return new ReplayReport(decisions, latency, System.currentTimeMillis() - start);
+        }
+        catch(InterruptedException | ExecutionException e)
+        {
+            throw new VStoreException(ErrorCode.REQUEST_NOT_STARTED, "Replay failed: " + e.getMessage());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private ReplayReport.Decision decide(StoreEvent e, File dir) throws VStoreException {
+        VStoreFile f = e.toFile(dir);
+        MatchingMode mode = (mMode != null) ? mMode : e.getMatchingMode();
+
+        long t = System.nanoTime();
+        Matching m = new Matching(f, mode, e.getTime());
+        long latency = System.nanoTime() - t;
+
+        List<String> ids = new ArrayList<>();
+        NodeType type = null;
+        //Without decided nodes the file stays on the device
+        List<NodeInfo> decided = m.getDecidedNodes();
+        if(decided == null) { decided = Collections.emptyList(); }
+        for(NodeInfo n : decided)
+        {
+            if(n == null) { continue; }
+            ids.add(n.getIdentifier());
+            if(type == null) { type = n.getNodeType(); }
+        }
+        return new ReplayReport.Decision(e, ids, (type != null) ? type : NodeType.DEVICE_ONLY, latency);
+    }
+
+    /**
+     * Replaces the rules and nodes in the database with the ones of this replay.
+     */
+    private void install() throws VStoreException {
+        NodeManager manager = NodeManager.get();
+        manager.clearNodes();
+        for(NodeInfo n : mNodes)
+        {
+            manager.addNode(n);
+        }
+        manager.refreshNodes();
+
+        DBHelper db = DBHelper.get();
+        //Do not rebuild the rule index on every single change
+        RuleIndex.get().invalidate();
+        try
+        {
+            //Hold the writer for the whole transaction
+            Connection c = db.acquireWriter();
+            c.setAutoCommit(false);
+            try
+            {
+                deleteRules(RulesDBHelper.getRules(null));
+                for(VStoreRule r : mRules)
+                {
+                    RulesDBHelper.insertRule(r);
+                }
+                c.commit();
+            }
+            finally
+            {
+                c.setAutoCommit(true);
+            }
+        }
+        catch(SQLException e)
+        {
+            throw new VStoreException(ErrorCode.DB_LOCAL_ERROR, "Installing the rules failed: " + e.getMessage());
+        }
+        finally
+        {
+            db.releaseWriter();
+        }
+        RuleIndex.get().rebuild();
+    }
+
+    private static void deleteRules(Collection<VStoreRule> rules) throws SQLException {
+        for(VStoreRule r : rules)
+        {
+            RulesDBHelper.deleteRule(r.getUUID());
+        }
+    }
+
+    /**
+     * Runs a replay from the command line. The framework is initialized in a temporary
+     * directory, so the replay does not touch any existing vStore data.
+     *
+     * @param args First parameter: File with one log entry in json notation per line.
+     *             Second parameter: Candidate configuration file.
+     *             Optional third parameter: Current configuration file. If missing, the candidate
+     *             is compared to the decisions that were recorded in the logs.
+     */
+    public static void main(String[] args) {
+        if(args.length < 2 || args.length > 3) {
+            System.out.println("Error: Please supply the log file, the candidate configuration "
+                    + "and optionally the current configuration!");
+            return;
+        }
+
+        try
+        {
+            File baseDir = Files.createTempDirectory("vstore-replay").toFile();
+            baseDir.deleteOnExit();
+            FileManager.initialize(baseDir);
+            DBHelper.initialize();
+
+            List<StoreEvent> events = StoreEvent.readFromFile(new File(args[0]));
+            System.out.println("Replaying " + events.size() + " store events.");
+
+            ReplayReport baseline = (args.length == 3)
+                    ? fromConfig(readFile(args[2])).run(events)
+                    : ReplayReport.fromRecorded(events);
+            ReplayReport candidate = fromConfig(readFile(args[1])).run(events);
+
+            System.out.println("Baseline:\n" + baseline);
+            System.out.println("Candidate:\n" + candidate);
+            Map<String, ReplayReport.Decision[]> diff = candidate.diff(baseline);
+            System.out.println("Changed decisions: " + diff.size() + " of " + events.size());
+            for(Map.Entry<String, ReplayReport.Decision[]> e : diff.entrySet())
+            {
+                System.out.println(e.getKey() + ": " + e.getValue()[0] + " -> " + e.getValue()[1]);
+            }
+        }
+        catch(IOException | ParseException | VStoreException e)
+        {
+            e.printStackTrace();
+            System.err.println("Error while replaying the store events.");
+        }
+    }
+
+    private static String readFile(String path) throws IOException {
+        return new String(Files.readAllBytes(new File(path).toPath()), StandardCharsets.UTF_8);
+    }
+}
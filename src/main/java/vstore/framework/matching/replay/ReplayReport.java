@@ -0,0 +1,186 @@
+package vstore.framework.matching.replay;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import vstore.framework.node.NodeType;
+import vstore.framework.utils.LatencyHistogram;
+
+/**
+ * The result of a replay: the decision for each store event, how often each node and each node
+ * type was decided for, and how long the decisions took.
+ *
+ * Two reports of the same events can be compared with {@link #diff(ReplayReport)}, e.g. the
+ * replay of a candidate rule set against the decisions that were originally recorded
+ * ({@link #fromRecorded(List)}).
+ */
+public class ReplayReport {
+    private final List<Decision> mDecisions;
+    private final Map<String, Integer> mPerNode;
+    private final Map<NodeType, Integer> mPerType;
+    private final LatencyHistogram mLatency;
+    private final long mWallTimeMs;
+
+    ReplayReport(List<Decision> decisions, LatencyHistogram latency, long wallTimeMs) {
+        mDecisions = Collections.unmodifiableList(decisions);
+        mLatency = latency;
+        mWallTimeMs = wallTimeMs;
+        mPerNode = new TreeMap<>();
+        mPerType = new TreeMap<>();
+        for(Decision d : decisions)
+        {
+            for(String id : d.getNodeIds())
+            {
+                Integer c = mPerNode.get(id);
+                mPerNode.put(id, (c == null) ? 1 : c + 1);
+            }
+            Integer c = mPerType.get(d.getNodeType());
+            mPerType.put(d.getNodeType(), (c == null) ? 1 : c + 1);
+        }
+    }
+
+    /**
+     * Creates a report of the decisions that were recorded in the logs.
+     *
+     * @param events The store events.
+     * @return The report. It does not contain latencies.
+     */
+    public static ReplayReport fromRecorded(List<StoreEvent> events) {
+        List<Decision> decisions = new ArrayList<>();
+        for(StoreEvent e : events)
+        {
+            List<String> ids = new ArrayList<>();
+            if(!e.getRecordedNodeId().equals("")) { ids.add(e.getRecordedNodeId()); }
+            decisions.add(new Decision(e, ids, e.getRecordedNodeType(), 0));
+        }
+        return new ReplayReport(decisions, new LatencyHistogram(), 0);
+    }
+
+    /**
+     * @return The decisions, in the order of the events.
+     */
+    public List<Decision> getDecisions() {
+        return mDecisions;
+    }
+
+    /**
+     * @return How often each node was decided for, by node identifier.
+     */
+    public Map<String, Integer> getDecisionsPerNode() {
+        return Collections.unmodifiableMap(mPerNode);
+    }
+
+    /**
+     * @return How many files were decided to be stored on each node type.
+     * Files that stay on the device are counted for DEVICE_ONLY.
+     */
+    public Map<NodeType, Integer> getDecisionsPerType() {
+        return Collections.unmodifiableMap(mPerType);
+    }
+
+    /**
+     * @return The latencies of the single decisions.
+     */
+    public LatencyHistogram getLatency() {
+        return mLatency;
+    }
+
+    /**
+     * @return The time the whole replay took in milliseconds.
+     */
+    public long getWallTimeMs() {
+        return mWallTimeMs;
+    }
+
+    /**
+     * Compares the decisions of this report to the decisions of another report of the same
+     * events. Events are matched by file identifier.
+     *
+     * @param baseline The report to compare to.
+     * @return The decisions of this report that differ from the baseline, by file identifier,
+     * each with the baseline decision.
+     */
+    public Map<String, Decision[]> diff(ReplayReport baseline) {
+        Map<String, Decision> base = new LinkedHashMap<>();
+        for(Decision d : baseline.getDecisions())
+        {
+            base.put(d.getEvent().getFileId(), d);
+        }
+        Map<String, Decision[]> changed = new LinkedHashMap<>();
+        for(Decision d : mDecisions)
+        {
+            Decision b = base.get(d.getEvent().getFileId());
+            if(b == null) { continue; }
+            if(!d.getNodeType().equals(b.getNodeType()) || !d.getPrimaryNodeId().equals(b.getPrimaryNodeId()))
+            {
+                changed.put(d.getEvent().getFileId(), new Decision[] { b, d });
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return A short summary of the report.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Decisions: ").append(mDecisions.size())
+                .append(" (").append(mWallTimeMs).append(" ms)\n");
+        sb.append("Per type: ").append(mPerType).append("\n");
+        sb.append("Per node: ").append(mPerNode).append("\n");
+        sb.append("Latency: ").append(mLatency);
+        return sb.toString();
+    }
+
+    /**
+     * The decision for one store event.
+     */
+    public static class Decision {
+        private final StoreEvent mEvent;
+        private final List<String> mNodeIds;
+        private final NodeType mNodeType;
+        private final long mLatencyNanos;
+
+        Decision(StoreEvent event, List<String> nodeIds, NodeType nodeType, long latencyNanos) {
+            mEvent = event;
+            mNodeIds = Collections.unmodifiableList(nodeIds);
+            mNodeType = nodeType;
+            mLatencyNanos = latencyNanos;
+        }
+
+        /**
+         * @return The store event the decision was made for.
+         */
+        public StoreEvent getEvent() { return mEvent; }
+
+        /**
+         * @return The identifiers of the decided nodes. Empty, if the file stays on the device.
+         */
+        public List<String> getNodeIds() { return mNodeIds; }
+
+        /**
+         * @return The identifier of the first decided node, or an empty string.
+         */
+        public String getPrimaryNodeId() { return mNodeIds.isEmpty() ? "" : mNodeIds.get(0); }
+
+        /**
+         * @return The type of the first decided node, or DEVICE_ONLY.
+         */
+        public NodeType getNodeType() { return mNodeType; }
+
+        /**
+         * @return How long the decision took in nanoseconds.
+         */
+        public long getLatencyNanos() { return mLatencyNanos; }
+
+        @Override
+        public String toString() {
+            return mNodeType + (mNodeIds.isEmpty() ? "" : " " + mNodeIds);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package vstore.framework.matching.replay;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import vstore.framework.exceptions.VStoreException;
+import vstore.framework.file.MetaData;
+import vstore.framework.file.VStoreFile;
+import vstore.framework.logging.LoggingType;
+import vstore.framework.logging.LogsForUpload;
+import vstore.framework.matching.Matching.MatchingMode;
+import vstore.framework.node.NodeType;
+import vstore.framework.utils.JsonUtils;
+
+/**
+ * A store operation as captured by the {@link vstore.framework.logging.LoggingService}:
+ * the metadata and usage context of the file, the time of the decision, and the node that
+ * was decided for at that time.
+ */
+public class StoreEvent {
+    private final String mFileId;
+    private final String mFileType;
+    private final String mExtension;
+    private final long mFileSize;
+    private final boolean mIsPrivate;
+    private final String mContextJson;
+    private final long mTime;
+    private final MatchingMode mMatchingMode;
+    private final String mRecordedNodeId;
+    private final NodeType mRecordedNodeType;
+
+    private StoreEvent(JSONObject j) {
+        mFileId = JsonUtils.getStringFromJson("fileId", j, "");
+        mFileType = JsonUtils.getStringFromJson("filetype", j, "");
+        mExtension = JsonUtils.getStringFromJson("extension", j, "");
+        mFileSize = getLong(j, "fileSize", 0);
+        mIsPrivate = Boolean.TRUE.equals(j.get("isPrivate"));
+        mContextJson = JsonUtils.getStringFromJson("fileContext", j, "{}");
+        //The decision was made when the upload started. Older entries only have the creation date.
+        mTime = getLong(j, "uploadStartTime", getLong(j, "dateCreation", 0));
+
+        MatchingMode mode;
+        try {
+            mode = MatchingMode.valueOf(JsonUtils.getStringFromJson("matchingMode", j, ""));
+        } catch(IllegalArgumentException e) {
+            mode = MatchingMode.RULES_NEXT_ON_NO_MATCH;
+        }
+        mMatchingMode = mode;
+
+        mRecordedNodeId = JsonUtils.getStringFromJson("nodeId", j, "");
+        NodeType type;
+        try {
+            type = NodeType.valueOf(JsonUtils.getStringFromJson("nodeType", j, ""));
+        } catch(IllegalArgumentException e) {
+            type = NodeType.DEVICE_ONLY;
+        }
+        mRecordedNodeType = type;
+    }
+
+    private static long getLong(JSONObject j, String key, long defaultVal) {
+        Object o = j.get(key);
+        return (o instanceof Number) ? ((Number) o).longValue() : defaultVal;
+    }
+
+    /**
+     * Creates a store event from a log entry.
+     *
+     * @param j The log entry, as written by the logging service. Either the store log itself,
+     *          or an entry of the log upload file ({"type": "STORE", "value": "..."}).
+     * @return The store event, or null if the entry is not a store log.
+     */
+    public static StoreEvent fromLogEntry(JSONObject j) {
+        if(j == null) { return null; }
+        if(j.containsKey("type") && j.containsKey("value"))
+        {
+            if(!LoggingType.STORE.name().equals(j.get("type"))) { return null; }
+            try
+            {
+                j = (JSONObject) new JSONParser().parse((String) j.get("value"));
+            }
+            catch(ParseException | ClassCastException e)
+            {
+                e.printStackTrace();
+                return null;
+            }
+        }
+        if(!j.containsKey("fileId") || !j.containsKey("filetype")) { return null; }
+        return new StoreEvent(j);
+    }
+
+    /**
+     * Reads the store events from the logs of this device that have not been uploaded yet.
+     *
+     * @return The store events, ordered by time.
+     */
+    public static List<StoreEvent> readFromLogs() {
+        List<StoreEvent> events = new ArrayList<>();
+        JSONParser p = new JSONParser();
+        for(Map.Entry<String, ?> e : LogsForUpload.getAll().entrySet())
+        {
+            try
+            {
+                StoreEvent evt = fromLogEntry((JSONObject) p.parse((String) e.getValue()));
+                if(evt != null) { events.add(evt); }
+            }
+            catch(ParseException | ClassCastException ex)
+            {
+                ex.printStackTrace();
+            }
+        }
+        sortByTime(events);
+        return events;
+    }
+
+    /**
+     * Reads store events from a file that contains one log entry in JSON notation per line,
+     * e.g. exported from the log storage server. Lines that are not store logs are skipped.
+     *
+     * @param f The file.
+     * @return The store events, ordered by time.
+     * @throws IOException If the file cannot be read.
+     */
+    public static List<StoreEvent> readFromFile(File f) throws IOException {
+        List<StoreEvent> events = new ArrayList<>();
+        JSONParser p = new JSONParser();
+        try (BufferedReader r = new BufferedReader(
+                new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8)))
+        {
+            String line;
+            while((line = r.readLine()) != null)
+            {
+                if(line.trim().isEmpty()) { continue; }
+                try
+                {
+                    StoreEvent evt = fromLogEntry((JSONObject) p.parse(line));
+                    if(evt != null) { events.add(evt); }
+                }
+                catch(ParseException | ClassCastException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        }
+        sortByTime(events);
+        return events;
+    }
+
+    private static void sortByTime(List<StoreEvent> events) {
+        Collections.sort(events, new Comparator<StoreEvent>() {
+            @Override
+            public int compare(StoreEvent a, StoreEvent b) {
+                return Long.compare(a.getTime(), b.getTime());
+            }
+        });
+    }
+
+    /**
+     * Creates a file that carries the metadata and context of this event, to make a new
+     * decision for it. The file gets a new identifier, so that the decision is not mixed up
+     * with the logs of the original file. It does not exist on disk.
+     *
+     * @param dir The directory the file pretends to be in.
+     * @return The file.
+     * @throws VStoreException If the file cannot be created.
+     */
+    public VStoreFile toFile(File dir) throws VStoreException {
+        String uuid = UUID.randomUUID().toString();
+        MetaData meta = new MetaData(uuid + "." + mExtension, mFileSize, mFileType);
+        meta.setFileExtension(mExtension);
+        meta.setCreationDate(mTime);
+        VStoreFile f = new VStoreFile(uuid, new File(dir, uuid + "." + mExtension), meta);
+        f.setPrivate(mIsPrivate);
+        f.setContextFromJson(mContextJson);
+        return f;
+    }
+
+    public String getFileId() { return mFileId; }
+    public String getFileType() { return mFileType; }
+    public String getExtension() { return mExtension; }
+    public long getFileSize() { return mFileSize; }
+    public boolean isPrivate() { return mIsPrivate; }
+    public String getContextJson() { return mContextJson; }
+
+    /**
+     * @return The time of the decision in milliseconds since the epoch.
+     */
+    public long getTime() { return mTime; }
+
+    /**
+     * @return The matching mode the decision was made with.
+     */
+    public MatchingMode getMatchingMode() { return mMatchingMode; }
+
+    /**
+     * @return The identifier of the node that was decided for, or an empty string.
+     */
+    public String getRecordedNodeId() { return mRecordedNodeId; }
+
+    /**
+     * @return The type of the node that was decided for. DEVICE_ONLY if the file was not uploaded.
+     */
+    public NodeType getRecordedNodeType() { return mRecordedNodeType; }
+}
@@ -0,0 +1,116 @@
+package vstore.framework.node;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import vstore.framework.context.types.location.VLatLng;
+import vstore.framework.utils.ContextUtils;
+
+/**
+ * Precomputed candidates for the nearest node of a type, per cell of a latitude/longitude grid.
+ *
+ * For a cell, only the nodes that can be the nearest node to some location in the cell are kept:
+ * if d is the distance from the cell center to the nearest node and h is the distance from the
+ * center to the farthest corner, the nearest node to any location in the cell is at most
+ * d + 2h away from the center. A lookup thus only compares the distances to a few nodes.
+ *
+ * The cells are computed on first use. A table belongs to one {@link NodeSnapshot}.
+ */
+class NearestNodeTable {
+    /**
+     * Edge length of a cell in degrees (about 1.1km in latitude direction).
+     */
+    private static final double CELL_SIZE_DEG = 0.01;
+    /**
+     * Cells are not used near the poles, where they degenerate.
+     */
+    private static final double MAX_ABS_LATITUDE = 89;
+    /**
+     * If more cells than this are computed for a type, the cells of the type are dropped.
+     */
+    private static final int MAX_CELLS_PER_TYPE = 4096;
+
+    private final NodeSnapshot mSnapshot;
+    private final ConcurrentHashMap<Long, List<NodeInfo>>[] mCells;
+
+    /**
+     * @param snapshot The node set to compute the candidates for.
+     */
+    @SuppressWarnings("unchecked")
+    NearestNodeTable(NodeSnapshot snapshot) {
+        mSnapshot = snapshot;
+        mCells = new ConcurrentHashMap[NodeType.values().length];
+        for(int i = 0; i < mCells.length; ++i)
+        {
+            mCells[i] = new ConcurrentHashMap<>();
+        }
+    }
+
+    /**
+     * Returns the nodes of the given type that can be the nearest one to the given location,
+     * in the order of the node list.
+     *
+     * @param type The node type.
+     * @param location The location.
+     * @return The candidates, or null if the location is not covered by the table.
+     */
+    List<NodeInfo> getCandidates(NodeType type, VLatLng location) {
+        if(location == null || Math.abs(location.getLatitude()) > MAX_ABS_LATITUDE) { return null; }
+        long latCell = cell(location.getLatitude());
+        long lngCell = cell(location.getLongitude());
+        Long key = (latCell << 32) ^ (lngCell & 0xFFFFFFFFL);
+
+        ConcurrentHashMap<Long, List<NodeInfo>> cells = mCells[type.ordinal()];
+        List<NodeInfo> candidates = cells.get(key);
+        if(candidates == null)
+        {
+            candidates = computeCandidates(mSnapshot.getNodesOfType(type), latCell, lngCell);
+            if(cells.size() >= MAX_CELLS_PER_TYPE) { cells.clear(); }
+            cells.put(key, candidates);
+        }
+        return candidates;
+    }
+
+    private static List<NodeInfo> computeCandidates(Collection<NodeInfo> nodes, long latCell, long lngCell) {
+        double minLat = latCell * CELL_SIZE_DEG;
+        double minLng = lngCell * CELL_SIZE_DEG;
+        VLatLng center = new VLatLng(minLat + CELL_SIZE_DEG / 2, minLng + CELL_SIZE_DEG / 2);
+
+        //Farthest distance of a location in the cell from the center
+        double h = 0;
+        for(int i = 0; i <= 1; ++i)
+        {
+            for(int j = 0; j <= 1; ++j)
+            {
+                VLatLng corner = new VLatLng(minLat + i * CELL_SIZE_DEG, minLng + j * CELL_SIZE_DEG);
+                h = Math.max(h, ContextUtils.distanceBetween(center, corner));
+            }
+        }
+
+        double nearest = Double.MAX_VALUE;
+        for(NodeInfo n : nodes)
+        {
+            if(n.getLatLng() == null) { continue; }
+            nearest = Math.min(nearest, ContextUtils.distanceBetween(center, n.getLatLng()));
+        }
+        //Add some slack, so that rounding never drops the nearest node
+        double bound = (nearest + 2 * h) * 1.01 + 10;
+
+        List<NodeInfo> candidates = new ArrayList<>();
+        for(NodeInfo n : nodes)
+        {
+            //Nodes without a location are always considered, like in a full scan
+            if(n.getLatLng() == null || ContextUtils.distanceBetween(center, n.getLatLng()) <= bound)
+            {
+                candidates.add(n);
+            }
+        }
+        return candidates;
+    }
+
+    private static long cell(double deg) {
+        return (long) Math.floor(deg / CELL_SIZE_DEG);
+    }
+}
@@ -0,0 +1,152 @@
+package vstore.framework.node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The nodes of every type, sorted by upstream and by downstream bandwidth.
+ *
+ * A minimum bandwidth resolves to a suffix of the sorted arrays, found by binary search. If both
+ * bandwidths are constrained, only the shorter suffix is walked and checked for the other one.
+ * The arrays are never modified after construction, so results can be returned as views.
+ *
+ * An index belongs to one {@link NodeSnapshot}.
+ */
+class NodeBandwidthIndex {
+    private final List<NodeInfo>[] mByUp;
+    private final int[][] mUp;
+    private final List<NodeInfo>[] mByDown;
+    private final int[][] mDown;
+
+    /**
+     * @param snapshot The node set to index.
+     */
+    @SuppressWarnings("unchecked")
+    NodeBandwidthIndex(NodeSnapshot snapshot) {
+        int types = NodeType.values().length;
+        mByUp = new List[types];
+        mUp = new int[types][];
+        mByDown = new List[types];
+        mDown = new int[types][];
+        for(NodeType t : NodeType.values())
+        {
+            NodeInfo[] byUp = snapshot.getNodesOfType(t).toArray(new NodeInfo[0]);
+            Arrays.sort(byUp, new Comparator<NodeInfo>() {
+                @Override
+                public int compare(NodeInfo a, NodeInfo b) {
+                    return Integer.compare(a.getBandwidthUp(), b.getBandwidthUp());
+                }
+            });
+            NodeInfo[] byDown = byUp.clone();
+            Arrays.sort(byDown, new Comparator<NodeInfo>() {
+                @Override
+                public int compare(NodeInfo a, NodeInfo b) {
+                    return Integer.compare(a.getBandwidthDown(), b.getBandwidthDown());
+                }
+            });
+
+            int[] up = new int[byUp.length];
+            int[] down = new int[byDown.length];
+            for(int i = 0; i < byUp.length; ++i)
+            {
+                up[i] = byUp[i].getBandwidthUp();
+                down[i] = byDown[i].getBandwidthDown();
+            }
+            mByUp[t.ordinal()] = Collections.unmodifiableList(Arrays.asList(byUp));
+            mUp[t.ordinal()] = up;
+            mByDown[t.ordinal()] = Collections.unmodifiableList(Arrays.asList(byDown));
+            mDown[t.ordinal()] = down;
+        }
+    }
+
+    /**
+     * Returns the nodes of the given type that have at least the given bandwidths.
+     *
+     * @param t The node type.
+     * @param minUp The minimum upstream bandwidth. 0 to ignore it.
+     * @param minDown The minimum downstream bandwidth. 0 to ignore it.
+     * @return An unmodifiable list of the matching nodes.
+     */
+    List<NodeInfo> getMatching(NodeType t, float minUp, float minDown) {
+        int i = t.ordinal();
+        int size = mUp[i].length;
+        int fromUp = (minUp == 0) ? 0 : firstAtLeast(mUp[i], minUp);
+        int fromDown = (minDown == 0) ? 0 : firstAtLeast(mDown[i], minDown);
+
+        if(minDown == 0) { return mByUp[i].subList(fromUp, size); }
+        if(minUp == 0) { return mByDown[i].subList(fromDown, size); }
+
+        //Walk the shorter suffix and check the other bandwidth
+        List<NodeInfo> result = new ArrayList<>();
+        if(size - fromUp <= size - fromDown)
+        {
+            for(NodeInfo n : mByUp[i].subList(fromUp, size))
+            {
+                if(n.getBandwidthDown() >= minDown) { result.add(n); }
+            }
+        }
+        else
+        {
+            for(NodeInfo n : mByDown[i].subList(fromDown, size))
+            {
+                if(n.getBandwidthUp() >= minUp) { result.add(n); }
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Returns the nodes of the given type that can receive a file of the given size within
+     * the given number of seconds, according to their upstream bandwidth.
+     *
+     * @param t The node type.
+     * @param filesize The file size in bytes.
+     * @param seconds The maximum upload duration.
+     * @return An unmodifiable list of the matching nodes.
+     */
+    List<NodeInfo> getByUploadTime(NodeType t, long filesize, int seconds) {
+        int i = t.ordinal();
+        List<NodeInfo> byUp = mByUp[i];
+        int[] up = mUp[i];
+        if(filesize <= 0)
+        {
+            //Duration does not grow with the bandwidth, check all nodes
+            List<NodeInfo> result = new ArrayList<>();
+            for(int k = 0; k < up.length; ++k)
+            {
+                if(fitsUploadTime(up[k], filesize, seconds)) { result.add(byUp.get(k)); }
+            }
+            return Collections.unmodifiableList(result);
+        }
+
+        //The faster the node, the shorter the upload. Find the slowest node that is fast enough.
+        int lo = 0, hi = up.length;
+        while(lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if(fitsUploadTime(up[mid], filesize, seconds)) { hi = mid; }
+            else { lo = mid + 1; }
+        }
+        return byUp.subList(lo, up.length);
+    }
+
+    private static boolean fitsUploadTime(int bandwidthUp, long filesize, int seconds) {
+        //Filesize in MByte divided by bandwidth in MByte/s
+        float duration = filesize / (1024.0f*1024.0f) / (bandwidthUp / 8.0f);
+        return !(Math.ceil(duration) > seconds);
+    }
+
+    private static int firstAtLeast(int[] sorted, float min) {
+        int lo = 0, hi = sorted.length;
+        while(lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if(sorted[mid] >= min) { hi = mid; }
+            else { lo = mid + 1; }
+        }
+        return lo;
+    }
+}
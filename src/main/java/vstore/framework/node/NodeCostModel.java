@@ -0,0 +1,256 @@
+package vstore.framework.node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import vstore.framework.context.ContextDescription;
+import vstore.framework.context.ContextManager;
+import vstore.framework.context.types.location.VLatLng;
+
+/**
+ * Ranks the storage nodes holding a replica of a file by the estimated time to download
+ * the file from them.
+ *
+ * The estimate is the time until the first byte arrives plus the transfer time, which grows
+ * with the downloads already running from the node and with its recent share of failed
+ * downloads. Measurements of previous downloads ({@link NodeLoadTracker}) and probes
+ * ({@link NodeHealthTracker}) are preferred. Until a node is measured, the time until the first
+ * byte is estimated from its geographic distance to the current location and its type, and the
+ * transfer rate from its configured bandwidth. Unhealthy nodes are always ranked last.
+ *
+ * Rankings are cached for a short time per node set and location cell, so that downloads of
+ * many files stored on the same nodes are ranked only once. A cached ranking is not used
+ * anymore once a download or probe has changed the measurements it was computed from.
+ */
+public class NodeCostModel {
+    /**
+     * File size in bytes assumed for ranking, if the size of the file is not known yet.
+     */
+    public static final long DEFAULT_FILE_SIZE = 1024 * 1024;
+    /**
+     * How much a node with an error rate of 1 costs more than a node without errors.
+     */
+    private static final double ERROR_PENALTY = 4;
+    /**
+     * Round trip time per kilometer of distance in milliseconds (signals in fiber travel
+     * about 200 km per millisecond).
+     */
+    private static final double RTT_MS_PER_KM = 0.01;
+    /**
+     * Size of a location cell in degrees (about 5 km in latitude).
+     */
+    private static final double CELL_DEG = 0.05;
+    private static final long CACHE_TTL_MS = 10 * 1000;
+    private static final int CACHE_MAX_ENTRIES = 64;
+
+    private static NodeCostModel mInstance;
+
+    private final Map<String, CachedRanking> mCache;
+
+    private NodeCostModel() {
+        mCache = new LinkedHashMap<String, CachedRanking>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedRanking> eldest) {
+                return size() > CACHE_MAX_ENTRIES;
+            }
+        };
+    }
+
+    public static synchronized void initialize() {
+        if(mInstance == null) {
+            mInstance = new NodeCostModel();
+        }
+    }
+
+    /**
+     * @return Gets the instance of the cost model.
+     */
+    public static NodeCostModel get() {
+        initialize();
+        return mInstance;
+    }
+
+    /**
+     * Ranks the given nodes for downloading a file of unknown size from the current location.
+     *
+     * @param nodes The nodes holding a replica of the file.
+     * @return A new list of the nodes, the one with the lowest estimated download time first.
+     */
+    public List<NodeInfo> rank(List<NodeInfo> nodes) {
+        VLatLng location = getCurrentLocation();
+        String key = buildKey(nodes, location);
+        long now = System.currentTimeMillis();
+        synchronized(mCache)
+        {
+            CachedRanking cached = mCache.get(key);
+            if(cached != null && now - cached.created <= CACHE_TTL_MS) {
+                return new ArrayList<>(cached.nodes);
+            }
+        }
+
+        List<NodeInfo> ranked = rank(nodes, location, DEFAULT_FILE_SIZE);
+        synchronized(mCache)
+        {
+            mCache.put(key, new CachedRanking(now, ranked));
+        }
+        return new ArrayList<>(ranked);
+    }
+
+    /**
+     * Ranks the given nodes for downloading a file of the given size. Not cached.
+     *
+     * @param nodes The nodes holding a replica of the file.
+     * @param location The location of this device, or null if unknown.
+     * @param fileSize The size of the file in bytes.
+     * @return A new list of the nodes, the one with the lowest estimated download time first.
+     */
+    public List<NodeInfo> rank(List<NodeInfo> nodes, VLatLng location, long fileSize) {
+        final NodeHealthTracker health = NodeHealthTracker.get();
+        final Map<NodeInfo, Double> costs = new HashMap<>();
+        List<NodeInfo> ranked = new ArrayList<>();
+        for(NodeInfo n : nodes)
+        {
+            if(n == null) { continue; }
+            costs.put(n, estimateCost(n, location, fileSize));
+            ranked.add(n);
+        }
+        Collections.sort(ranked, new Comparator<NodeInfo>() {
+            @Override
+            public int compare(NodeInfo a, NodeInfo b) {
+                boolean healthyA = health.isHealthy(a.getIdentifier());
+                boolean healthyB = health.isHealthy(b.getIdentifier());
+                if(healthyA != healthyB) { return healthyA ? -1 : 1; }
+                return Double.compare(costs.get(a), costs.get(b));
+            }
+        });
+        return ranked;
+    }
+
+    /**
+     * Estimates the time to download a file from the given node.
+     *
+     * @param n The node.
+     * @param location The location of this device, or null if unknown.
+     * @param fileSize The size of the file in bytes.
+     * @return The estimated download time in milliseconds.
+     */
+    public double estimateCost(NodeInfo n, VLatLng location, long fileSize) {
+        String id = n.getIdentifier();
+        NodeLoadTracker load = NodeLoadTracker.get();
+
+        double firstByte = load.getDownloadFirstByte(id);
+        if(firstByte == 0) { firstByte = NodeHealthTracker.get().getRtt(id); }
+        if(firstByte == 0) { firstByte = estimateRtt(n, location); }
+
+        double throughput = load.getDownloadThroughput(id);
+        if(throughput == 0) { throughput = estimateThroughput(n); }
+
+        double transfer = Math.max(0, fileSize) / throughput * (load.getDownloadsInFlight(id) + 1);
+        return (firstByte + transfer) * (1 + ERROR_PENALTY * load.getDownloadErrorRate(id));
+    }
+
+    /**
+     * @return The estimated round trip time to the node in milliseconds, from its type and
+     * its distance to the given location.
+     */
+    private static double estimateRtt(NodeInfo n, VLatLng location) {
+        double rtt;
+        switch(n.getNodeType()) {
+            case CLOUDLET:
+                rtt = 5;
+                break;
+            case GATEWAY:
+                rtt = 10;
+                break;
+            case CORENET:
+                rtt = 30;
+                break;
+            default:
+                rtt = 60;
+                break;
+        }
+        float km = n.getGeographicDistanceTo(location);
+        if(km != Float.MAX_VALUE && km >= 0) { rtt += km * RTT_MS_PER_KM; }
+        return rtt;
+    }
+
+    /**
+     * @return The estimated download throughput from the node in bytes per millisecond,
+     * from its configured downstream bandwidth or, if not configured, its type.
+     */
+    private static double estimateThroughput(NodeInfo n) {
+        int mbits = n.getBandwidthDown();
+        if(mbits <= 0)
+        {
+            switch(n.getNodeType()) {
+                case CLOUDLET:
+                    mbits = 100;
+                    break;
+                case GATEWAY:
+                case CORENET:
+                    mbits = 50;
+                    break;
+                default:
+                    mbits = 20;
+                    break;
+            }
+        }
+        //1 MBit/s are 125 bytes per millisecond
+        return mbits * 125.0;
+    }
+
+    private static VLatLng getCurrentLocation() {
+        ContextDescription ctx = ContextManager.get().getCurrentContext();
+        if(ctx == null || !ctx.hasLocationContext()) { return null; }
+        return ctx.getLocationContext().getLatLng();
+    }
+
+    private static String buildKey(List<NodeInfo> nodes, VLatLng location) {
+        List<String> ids = new ArrayList<>();
+        for(NodeInfo n : nodes)
+        {
+            if(n != null) { ids.add(n.getIdentifier()); }
+        }
+        Collections.sort(ids);
+        StringBuilder b = new StringBuilder();
+        b.append(NodeManager.get().getVersion()).append('|')
+                .append(NodeLoadTracker.get().getDownloadVersion()).append('|')
+                .append(NodeHealthTracker.get().getVersion()).append('|');
+        if(location != null)
+        {
+            b.append((long) Math.floor(location.getLatitude() / CELL_DEG)).append(',')
+                    .append((long) Math.floor(location.getLongitude() / CELL_DEG));
+        }
+        b.append('|');
+        for(String id : ids)
+        {
+            b.append(id).append(',');
+        }
+        return b.toString();
+    }
+
+    /**
+     * Forgets all cached rankings.
+     */
+    public void clear() {
+        synchronized(mCache)
+        {
+            mCache.clear();
+        }
+    }
+
+    private static class CachedRanking {
+        final long created;
+        final List<NodeInfo> nodes;
+
+        CachedRanking(long created, List<NodeInfo> nodes) {
+            this.created = created;
+            this.nodes = nodes;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package vstore.framework.node;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import vstore.framework.utils.LatencyHistogram;
+
+/**
+ * Keeps track of the health of each storage node, as measured by the
+ * {@link vstore.framework.communication.NodeProber}: the round trip time, the throughput of a
+ * small transfer and the number of consecutive failed probes.
+ *
+ * Round trip time and throughput are exponentially weighted moving averages, so that recent
+ * probes count more than old ones. Percentiles of the round trip time are kept in a histogram.
+ * A node is unhealthy after {@link #FAILURE_THRESHOLD} consecutive failed probes and healthy
+ * again after the next successful one. Nodes that were never probed are considered healthy.
+ */
+public class NodeHealthTracker {
+    /**
+     * Weight of a new sample in the moving averages.
+     */
+    private static final double ALPHA = 0.2;
+    /**
+     * Number of consecutive failed probes after which a node is considered unhealthy.
+     */
+    public static final int FAILURE_THRESHOLD = 3;
+
+    private static NodeHealthTracker mInstance;
+
+    private final ConcurrentHashMap<String, NodeHealth> mHealth;
+    /**
+     * Increased with every change of the health information.
+     */
+    private final AtomicLong mVersion;
+
+    private NodeHealthTracker() {
+        mHealth = new ConcurrentHashMap<>();
+        mVersion = new AtomicLong();
+    }
+
+    public static synchronized void initialize() {
+        if(mInstance == null) {
+            mInstance = new NodeHealthTracker();
+        }
+    }
+
+    /**
+     * @return Gets the instance of the health tracker.
+     */
+    public static NodeHealthTracker get() {
+        initialize();
+        return mInstance;
+    }
+
+    private NodeHealth getHealth(String nodeId) {
+        NodeHealth h = mHealth.get(nodeId);
+        if(h == null)
+        {
+            mHealth.putIfAbsent(nodeId, new NodeHealth());
+            h = mHealth.get(nodeId);
+        }
+        return h;
+    }
+
+    /**
+     * Call this when a probe of the given node has succeeded.
+     *
+     * @param nodeId The identifier of the node.
+     * @param rttNanos The round trip time until the first byte of the reply, in nanoseconds.
+     * @param bytes The number of bytes received.
+     * @param elapsedNanos The duration of the whole transfer in nanoseconds.
+     */
+    public void probeSucceeded(String nodeId, long rttNanos, long bytes, long elapsedNanos) {
+        if(nodeId == null) { return; }
+        NodeHealth h = getHealth(nodeId);
+        synchronized(h) {
+            double rttMs = rttNanos / 1e6;
+            h.rtt = (h.probes == 0) ? rttMs : (1 - ALPHA) * h.rtt + ALPHA * rttMs;
+            h.rttHistogram.record(rttNanos);
+            if(bytes > 0 && elapsedNanos > 0)
+            {
+                double throughput = bytes / (elapsedNanos / 1e6);
+                h.throughput = (h.throughput == 0) ? throughput
+                        : (1 - ALPHA) * h.throughput + ALPHA * throughput;
+            }
+            h.probes++;
+            h.consecutiveFailures = 0;
+            h.lastProbe = System.currentTimeMillis();
+        }
+        mVersion.incrementAndGet();
+    }
+
+    /**
+     * Call this when a probe of the given node has failed or timed out.
+     *
+     * @param nodeId The identifier of the node.
+     */
+    public void probeFailed(String nodeId) {
+        if(nodeId == null) { return; }
+        NodeHealth h = getHealth(nodeId);
+        synchronized(h) {
+            h.consecutiveFailures++;
+            h.lastProbe = System.currentTimeMillis();
+        }
+        mVersion.incrementAndGet();
+    }
+
+    /**
+     * @param nodeId The identifier of the node.
+     * @return False, if the last {@link #FAILURE_THRESHOLD} probes of the node have failed.
+     * True otherwise, also if the node was never probed.
+     */
+    public boolean isHealthy(String nodeId) {
+        NodeHealth h = mHealth.get(nodeId);
+        if(h == null) { return true; }
+        synchronized(h) { return h.consecutiveFailures < FAILURE_THRESHOLD; }
+    }
+
+    /**
+     * @param nodeId The identifier of the node.
+     * @return The recent round trip time to the node in milliseconds,
+     * or 0 if no probe has succeeded yet.
+     */
+    public double getRtt(String nodeId) {
+        NodeHealth h = mHealth.get(nodeId);
+        if(h == null) { return 0; }
+        synchronized(h) { return h.rtt; }
+    }
+
+    /**
+     * @param nodeId The identifier of the node.
+     * @param percentile The percentile between 0 and 100.
+     * @return An approximation of the given percentile of all measured round trip times to the
+     * node in milliseconds, or 0 if no probe has succeeded yet.
+     */
+    public double getRttPercentile(String nodeId, double percentile) {
+        NodeHealth h = mHealth.get(nodeId);
+        if(h == null) { return 0; }
+        return h.rttHistogram.getPercentile(percentile) / 1e6;
+    }
+
+    /**
+     * @param nodeId The identifier of the node.
+     * @return The recent probe throughput from the node in bytes per millisecond,
+     * or 0 if it was not measured yet.
+     */
+    public double getThroughput(String nodeId) {
+        NodeHealth h = mHealth.get(nodeId);
+        if(h == null) { return 0; }
+        synchronized(h) { return h.throughput; }
+    }
+
+    /**
+     * @param nodeId The identifier of the node.
+     * @return The number of probes of the node that have failed since the last successful one.
+     */
+    public int getConsecutiveFailures(String nodeId) {
+        NodeHealth h = mHealth.get(nodeId);
+        if(h == null) { return 0; }
+        synchronized(h) { return h.consecutiveFailures; }
+    }
+
+    /**
+     * @param nodeId The identifier of the node.
+     * @return The time of the last probe of the node in milliseconds since the epoch,
+     * or 0 if the node was never probed.
+     */
+    public long getLastProbe(String nodeId) {
+        NodeHealth h = mHealth.get(nodeId);
+        if(h == null) { return 0; }
+        synchronized(h) { return h.lastProbe; }
+    }
+
+    /**
+     * @param nodes The nodes.
+     * @return A new list with the healthy nodes of the given list, in the same order.
+     */
+    public List<NodeInfo> filterHealthy(List<NodeInfo> nodes) {
+        List<NodeInfo> healthy = new ArrayList<>();
+        if(nodes == null) { return healthy; }
+        for(NodeInfo n : nodes)
+        {
+            if(n != null && isHealthy(n.getIdentifier())) { healthy.add(n); }
+        }
+        return healthy;
+    }
+
+    /**
+     * Returns the node with the lowest recent round trip time among the healthy nodes of the
+     * given list. Nodes that were never probed successfully come after all measured ones.
+     *
+     * @param nodes The nodes.
+     * @return The fastest healthy node. If no node is healthy, the first node of the list.
+     * Null, if the list is empty.
+     */
+    public NodeInfo getFastest(List<NodeInfo> nodes) {
+        if(nodes == null || nodes.isEmpty()) { return null; }
+        NodeInfo fastest = null;
+        double fastestRtt = 0;
+        for(NodeInfo n : nodes)
+        {
+            if(n == null || !isHealthy(n.getIdentifier())) { continue; }
+            double rtt = getRtt(n.getIdentifier());
+            if(fastest == null || (rtt > 0 && (fastestRtt == 0 || rtt < fastestRtt)))
+            {
+                fastest = n;
+                fastestRtt = rtt;
+            }
+        }
+        return (fastest != null) ? fastest : nodes.get(0);
+    }
+
+    /**
+     * Forgets the health information of the given node.
+     * @param nodeId The identifier of the node.
+     */
+    public void remove(String nodeId) {
+        if(nodeId == null) { return; }
+        mHealth.remove(nodeId);
+        mVersion.incrementAndGet();
+    }
+
+    /**
+     * Forgets all collected health information.
+     */
+    public void clear() {
+        mHealth.clear();
+        mVersion.incrementAndGet();
+    }
+
+    /**
+     * @return A number that increases with every change of the health information, so that
+     * results computed from it (see {@link NodeCostModel}) can be recognized as outdated.
+     */
+    public long getVersion() {
+        return mVersion.get();
+    }
+
+    private static class NodeHealth {
+        final LatencyHistogram rttHistogram = new LatencyHistogram();
+        long probes;
+        double rtt;
+        double throughput;
+        int consecutiveFailures;
+        long lastProbe;
+    }
+}
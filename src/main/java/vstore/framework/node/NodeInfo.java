@@ -68,6 +68,8 @@ public class NodeInfo implements Serializable {
             		&& node.containsKey("type") && node.containsKey("location")) 
             {
                 mAddress = (String)node.get("url");
+                //The master node may already know the identifier of the node
+                mUUID = JsonUtils.getStringFromJson("uuid", node, null);
                 mPort = JsonUtils.getIntFromJson("port", node, 0);
                 try 
                 {
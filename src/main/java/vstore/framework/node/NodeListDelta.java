@@ -0,0 +1,126 @@
+package vstore.framework.node;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import vstore.framework.config.ConfigParser;
+import vstore.framework.utils.JsonUtils;
+
+/**
+ * The changes of the node list on the master node since a version known to this device.
+ *
+ * The master node replies to a node list request either with the changes only
+ * ({ version: 13, delta: true, nodes: [...], removed: ["uuid", ...] }), or with the full list
+ * ({ version: 13, nodes: [...] }), e.g. by older master nodes. A full list replaces the known
+ * nodes, see {@link NodeManager#applyNodeList}. If the node list did not change, the master node
+ * replies with "304 Not Modified".
+ */
+public class NodeListDelta {
+    /**
+     * Version if the master node did not send one.
+     */
+    public static final long NO_VERSION = -1;
+
+    private final long mVersion;
+    private final String mETag;
+    private final boolean mNotModified;
+    private final boolean mFull;
+    private final List<NodeInfo> mChanged;
+    private final List<String> mRemoved;
+
+    private NodeListDelta(long version, String etag, boolean notModified, boolean full,
+                          List<NodeInfo> changed, List<String> removed) {
+        mVersion = version;
+        mETag = etag;
+        mNotModified = notModified;
+        mFull = full;
+        mChanged = Collections.unmodifiableList(changed);
+        mRemoved = Collections.unmodifiableList(removed);
+    }
+
+    /**
+     * @param version The version that was sent in the request.
+     * @param etag The ETag that was sent in the request.
+     * @return A delta without changes, for a "304 Not Modified" reply.
+     */
+    public static NodeListDelta notModified(long version, String etag) {
+        return new NodeListDelta(version, etag, true, false,
+                new ArrayList<NodeInfo>(), new ArrayList<String>());
+    }
+
+    /**
+     * Parses the reply of the master node.
+     *
+     * @param j The reply in json notation.
+     * @param etag The ETag header of the reply, or null.
+     * @return The delta. Null, if a full list was sent without the nodes.
+     */
+    public static NodeListDelta fromJson(JSONObject j, String etag) {
+        List<NodeInfo> changed = ConfigParser.parseNodeListJson(j);
+        boolean full = !JsonUtils.getBoolFromJson("delta", j, false);
+        //A full list without nodes would remove all known nodes
+        if(full && changed == null) { return null; }
+        List<String> removed = new ArrayList<>();
+        JSONArray jRemoved = JsonUtils.getJSONArrayFromJson("removed", j, null);
+        if(jRemoved != null)
+        {
+            for(Object o : jRemoved)
+            {
+                if(o instanceof String) { removed.add((String) o); }
+            }
+        }
+        return new NodeListDelta(
+                JsonUtils.getLongFromJson("version", j, NO_VERSION),
+                etag,
+                false,
+                full,
+                (changed != null) ? changed : new ArrayList<NodeInfo>(),
+                removed);
+    }
+
+    /**
+     * @return The version of the node list on the master node, or {@link #NO_VERSION}.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return The ETag of the node list on the master node, or null.
+     */
+    public String getETag() {
+        return mETag;
+    }
+
+    /**
+     * @return True, if the node list did not change since the known version.
+     */
+    public boolean isNotModified() {
+        return mNotModified;
+    }
+
+    /**
+     * @return True, if the master node sent the full node list instead of the changes.
+     */
+    public boolean isFull() {
+        return mFull;
+    }
+
+    /**
+     * @return The nodes that were added or changed. For a full list, all nodes.
+     */
+    public List<NodeInfo> getChanged() {
+        return mChanged;
+    }
+
+    /**
+     * @return The identifiers of the nodes that were removed.
+     */
+    public List<String> getRemoved() {
+        return mRemoved;
+    }
+}
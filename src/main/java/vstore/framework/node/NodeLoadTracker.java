@@ -0,0 +1,277 @@
+package vstore.framework.node;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the current load of each storage node, as observed by this device:
+ * the number of uploads queued for or running on the node, the recent upload throughput
+ * and the recent share of failed uploads. The same is kept for downloads, together with the
+ * recent time until the first byte of a download arrived.
+ *
+ * Throughput and error rate are exponentially weighted moving averages, so that recent
+ * uploads count more than old ones.
+ */
+public class NodeLoadTracker {
+    /**
+     * Weight of a new sample in the moving averages.
+     */
+    private static final double ALPHA = 0.2;
+    /**
+     * How much a node with an error rate of 1 is considered more loaded than a node without errors.
+     */
+    private static final double ERROR_PENALTY = 4;
+
+    private static NodeLoadTracker mInstance;
+
+    private final ConcurrentHashMap<String, NodeLoad> mLoads;
+    /**
+     * Increased with every change of the download information.
+     */
+    private final AtomicLong mDownloadVersion;
+
+    private NodeLoadTracker() {
+        mLoads = new ConcurrentHashMap<>();
+        mDownloadVersion = new AtomicLong();
+    }
+
+    public static synchronized void initialize() {
+        if(mInstance == null) {
+            mInstance = new NodeLoadTracker();
+        }
+    }
+
+    /**
+     * @return Gets the instance of the load tracker.
+     */
+    public static NodeLoadTracker get() {
+        initialize();
+        return mInstance;
+    }
+
+    private NodeLoad getLoad(String nodeId) {
+        NodeLoad l = mLoads.get(nodeId);
+        if(l == null)
+        {
+            mLoads.putIfAbsent(nodeId, new NodeLoad());
+            l = mLoads.get(nodeId);
+        }
+        return l;
+    }
+
+    /**
+     * Call this when an upload to the given node has been enqueued.
+     * @param nodeId The identifier of the node.
+     */
+    public void uploadQueued(String nodeId) {
+        if(nodeId == null) { return; }
+        NodeLoad l = getLoad(nodeId);
+        synchronized(l) { l.inFlight++; }
+    }
+
+    /**
+     * Call this when an enqueued upload to the given node will not be done.
+     * @param nodeId The identifier of the node.
+     */
+    public void uploadCancelled(String nodeId) {
+        if(nodeId == null) { return; }
+        NodeLoad l = getLoad(nodeId);
+        synchronized(l) {
+            if(l.inFlight > 0) { l.inFlight--; }
+        }
+    }
+
+    /**
+     * Call this when an upload to the given node has finished.
+     *
+     * @param nodeId The identifier of the node.
+     * @param bytes The number of bytes uploaded.
+     * @param elapsedMs The duration of the upload in milliseconds.
+     * @param success True, if the upload was successful.
+     */
+    public void uploadFinished(String nodeId, long bytes, long elapsedMs, boolean success) {
+        if(nodeId == null) { return; }
+        NodeLoad l = getLoad(nodeId);
+        synchronized(l) {
+            if(l.inFlight > 0) { l.inFlight--; }
+            l.errorRate = (1 - ALPHA) * l.errorRate + ALPHA * (success ? 0 : 1);
+            if(success && bytes > 0 && elapsedMs > 0)
+            {
+                double throughput = (double) bytes / elapsedMs;
+                l.throughput = (l.throughput == 0) ? throughput
+                        : (1 - ALPHA) * l.throughput + ALPHA * throughput;
+            }
+        }
+    }
+
+    /**
+     * @param nodeId The identifier of the node.
+     * @return The number of uploads currently queued for or running on the node.
+     */
+    public int getInFlight(String nodeId) {
+        NodeLoad l = mLoads.get(nodeId);
+        if(l == null) { return 0; }
+        synchronized(l) { return l.inFlight; }
+    }
+
+    /**
+     * @param nodeId The identifier of the node.
+     * @return The recent upload throughput to the node in bytes per millisecond,
+     * or 0 if no upload has succeeded yet.
+     */
+    public double getThroughput(String nodeId) {
+        NodeLoad l = mLoads.get(nodeId);
+        if(l == null) { return 0; }
+        synchronized(l) { return l.throughput; }
+    }
+
+    /**
+     * @param nodeId The identifier of the node.
+     * @return The recent share of failed uploads to the node (between 0 and 1).
+     */
+    public double getErrorRate(String nodeId) {
+        NodeLoad l = mLoads.get(nodeId);
+        if(l == null) { return 0; }
+        synchronized(l) { return l.errorRate; }
+    }
+
+    /**
+     * Call this when a download from the given node is started.
+     * @param nodeId The identifier of the node.
+     */
+    public void downloadStarted(String nodeId) {
+        if(nodeId == null) { return; }
+        NodeLoad l = getLoad(nodeId);
+        synchronized(l) { l.dlInFlight++; }
+        mDownloadVersion.incrementAndGet();
+    }
+
+    /**
+     * Call this when a download from the given node has finished.
+     *
+     * @param nodeId The identifier of the node.
+     * @param bytes The number of bytes downloaded.
+     * @param firstByteMs The time until the reply of the node arrived in milliseconds,
+     *                    or 0 if there was no reply.
+     * @param elapsedMs The duration of the download in milliseconds.
+     * @param success True, if the download was successful.
+     */
+    public void downloadFinished(String nodeId, long bytes, long firstByteMs, long elapsedMs, boolean success) {
+        if(nodeId == null) { return; }
+        NodeLoad l = getLoad(nodeId);
+        synchronized(l) {
+            if(l.dlInFlight > 0) { l.dlInFlight--; }
+            l.dlErrorRate = (1 - ALPHA) * l.dlErrorRate + ALPHA * (success ? 0 : 1);
+            if(firstByteMs > 0)
+            {
+                l.dlFirstByte = (l.dlFirstByte == 0) ? firstByteMs
+                        : (1 - ALPHA) * l.dlFirstByte + ALPHA * firstByteMs;
+            }
+            //The first byte is not part of the transfer rate
+            long transferMs = elapsedMs - firstByteMs;
+            if(success && bytes > 0 && transferMs > 0)
+            {
+                double throughput = (double) bytes / transferMs;
+                l.dlThroughput = (l.dlThroughput == 0) ? throughput
+                        : (1 - ALPHA) * l.dlThroughput + ALPHA * throughput;
+            }
+        }
+        mDownloadVersion.incrementAndGet();
+    }
+
+    /**
+     * @param nodeId The identifier of the node.
+     * @return The number of downloads currently running from the node.
+     */
+    public int getDownloadsInFlight(String nodeId) {
+        NodeLoad l = mLoads.get(nodeId);
+        if(l == null) { return 0; }
+        synchronized(l) { return l.dlInFlight; }
+    }
+
+    /**
+     * @param nodeId The identifier of the node.
+     * @return The recent download throughput from the node in bytes per millisecond,
+     * or 0 if no download has succeeded yet.
+     */
+    public double getDownloadThroughput(String nodeId) {
+        NodeLoad l = mLoads.get(nodeId);
+        if(l == null) { return 0; }
+        synchronized(l) { return l.dlThroughput; }
+    }
+
+    /**
+     * @param nodeId The identifier of the node.
+     * @return The recent time until the reply to a download request arrived in milliseconds,
+     * or 0 if it was not measured yet.
+     */
+    public double getDownloadFirstByte(String nodeId) {
+        NodeLoad l = mLoads.get(nodeId);
+        if(l == null) { return 0; }
+        synchronized(l) { return l.dlFirstByte; }
+    }
+
+    /**
+     * @param nodeId The identifier of the node.
+     * @return The recent share of failed downloads from the node (between 0 and 1).
+     */
+    public double getDownloadErrorRate(String nodeId) {
+        NodeLoad l = mLoads.get(nodeId);
+        if(l == null) { return 0; }
+        synchronized(l) { return l.dlErrorRate; }
+    }
+
+    /**
+     * @return A number that increases with every change of the download information, so that
+     * results computed from it (see {@link NodeCostModel}) can be recognized as outdated.
+     */
+    public long getDownloadVersion() {
+        return mDownloadVersion.get();
+    }
+
+    /**
+     * Compares the load of two nodes.
+     * The load of a node is the number of uploads in flight (plus the new one), increased by
+     * its error rate. If the throughput of both nodes is known, the load is divided by it,
+     * which estimates how long the new upload will take.
+     *
+     * @param a The first node.
+     * @param b The second node.
+     * @return A negative number if a is less loaded than b, a positive number if b is less
+     * loaded than a, or 0 if both are loaded equally.
+     */
+    public int compareLoad(NodeInfo a, NodeInfo b) {
+        double loadA = getLoadFactor(a.getIdentifier());
+        double loadB = getLoadFactor(b.getIdentifier());
+        double throughputA = getThroughput(a.getIdentifier());
+        double throughputB = getThroughput(b.getIdentifier());
+        if(throughputA > 0 && throughputB > 0)
+        {
+            loadA /= throughputA;
+            loadB /= throughputB;
+        }
+        return Double.compare(loadA, loadB);
+    }
+
+    private double getLoadFactor(String nodeId) {
+        return (getInFlight(nodeId) + 1) * (1 + ERROR_PENALTY * getErrorRate(nodeId));
+    }
+
+    /**
+     * Forgets all collected load information.
+     */
+    public void clear() {
+        mLoads.clear();
+        mDownloadVersion.incrementAndGet();
+    }
+
+    private static class NodeLoad {
+        int inFlight;
+        double throughput;
+        double errorRate;
+        int dlInFlight;
+        double dlThroughput;
+        double dlFirstByte;
+        double dlErrorRate;
+    }
+}
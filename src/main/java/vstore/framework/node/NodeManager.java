@@ -1,23 +1,33 @@
 package vstore.framework.node;
 
-import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.apache.commons.lang3.tuple.Pair;
 import org.greenrobot.eventbus.EventBus;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import vstore.framework.communication.master_node.MasterNode;
 import vstore.framework.communication.threads.FetchNodeIdentifierCallable;
+import vstore.framework.config.ConfigConstants;
+import vstore.framework.config.ConfigPrefFile;
 import vstore.framework.context.types.location.VLatLng;
 import vstore.framework.db.table_helper.NodeDBHelper;
 import vstore.framework.utils.ContextUtils;
@@ -26,6 +36,9 @@ import vstore.framework.utils.ContextUtils;
  * This class is responsible for managing information about the storage nodes for the
  * vStore framework.
  * The storage node list is currently just a hard-coded list of nodes.
+ *
+ * The nodes are held in an immutable {@link NodeSnapshot}. Queries read the current snapshot
+ * without locking. Changes are serialized, build the next snapshot and publish it as a whole.
  */
 public class NodeManager {
     /**
@@ -35,25 +48,42 @@ public class NodeManager {
      */
     public enum Mode { RANDOM, NEAREST }
 
-    private static NodeManager mInstance;
     /**
-     * This hash-map stores a hash-map for each node type.
+     * Default time between two synchronizations of the node list with the master node.
      */
-    private HashMap<NodeType, HashMap<String, NodeInfo>> mNodes;
-
-    private int mNodeCount;
+    public static final long DEFAULT_SYNC_INTERVAL_MS = 15 * 60 * 1000;
+    private static final long MIN_SYNC_INTERVAL_MS = 10 * 1000;
+    /**
+     * Maximum share of the interval by which a periodic synchronization is delayed or advanced.
+     */
+    private static final double SYNC_JITTER = 0.2;
+    /**
+     * Maximum number of nodes contacted in parallel to get their identifiers.
+     */
+    private static final int MAX_RESOLVE_THREADS = 4;
+    /**
+     * The maximum time {@link #stopPeriodicSync()} waits for a running synchronization.
+     */
+    private static final long SYNC_SHUTDOWN_TIMEOUT_MS = 5000;
 
-    Random mRnd;
+    private static NodeManager mInstance;
+    /**
+     * The current nodes. Replaced whenever the set of nodes or their configuration changes.
+     */
+    private final AtomicReference<NodeSnapshot> mSnapshot;
+    /**
+     * The snapshot the queries of a thread are answered from, if the thread pinned one.
+     */
+    private final ThreadLocal<NodeSnapshot> mPinned = new ThreadLocal<>();
+    /**
+     * Guards the stored version of the node list of the master node.
+     */
+    private final Object mSyncLock = new Object();
+    private ScheduledExecutorService mSyncScheduler;
+    private long mSyncIntervalMs = DEFAULT_SYNC_INTERVAL_MS;
 
     private NodeManager() {
-        mRnd = new Random();
-        mNodes = new HashMap<>();
-        for(NodeType t : NodeType.values()) 
-        {
-            //Create a hash-map for each type.
-            mNodes.put(t, new HashMap<String, NodeInfo>());
-        }
-        mNodeCount = 0;
+        mSnapshot = new AtomicReference<>(new NodeSnapshot(0, Collections.<NodeInfo>emptyList()));
         refreshNodes();
     }
 
@@ -73,10 +103,40 @@ public class NodeManager {
         return mInstance;
     }
 
+    /**
+     * @return The current nodes. The snapshot never changes, so all queries on it see
+     * the same node set.
+     */
+    public NodeSnapshot getSnapshot() {
+        return current();
+    }
+
+    /**
+     * Answers all node queries of the calling thread from the given snapshot, until another
+     * snapshot (or null) is pinned. Changes of the node set made in the meantime are not
+     * visible to the thread, so that a batch of decisions sees one node set.
+     * @param snapshot The snapshot to pin, or null to see the current nodes again.
+     * @return The snapshot that was pinned before, or null.
+     */
+    public NodeSnapshot pinSnapshot(NodeSnapshot snapshot) {
+        NodeSnapshot previous = mPinned.get();
+        if(snapshot == null) { mPinned.remove(); }
+        else { mPinned.set(snapshot); }
+        return previous;
+    }
+
+    /**
+     * @return The snapshot pinned by the calling thread, or the current nodes.
+     */
+    private NodeSnapshot current() {
+        NodeSnapshot pinned = mPinned.get();
+        return (pinned != null) ? pinned : mSnapshot.get();
+    }
+
     /**
      * Refreshes the node list by reading all nodes from the database.
      */
-    public void refreshNodes() {
+    public synchronized void refreshNodes() {
     	List<NodeInfo> nodes;
     	try 
 		{
@@ -86,159 +146,428 @@ public class NodeManager {
 			e.printStackTrace();
 			return;
 		}
-		for(HashMap<String, NodeInfo> map : mNodes.values()) 
-        {
-            map.clear();
-        }
-        mNodeCount = 0;
-        for(NodeInfo n : nodes) 
-        {
-            mNodes.get(n.getNodeType()).put(n.getIdentifier(), n);
-            mNodeCount++;
-        }
+        NodeSnapshot next = new NodeSnapshot(mSnapshot.get().getVersion() + 1, nodes);
+        //Build the spatial index before the snapshot is published
+        next.getSpatialIndex();
+        mSnapshot.set(next);
     }
 
     /**
-     * Downloads only the storage node information from the master node.
+     * Synchronizes the storage node information with the master node, in the background
+     * or blocking. See {@link #syncNodesFromMaster()}.
+     * The changes are written to the database and published as a new snapshot, the caller
+     * does not need to store the returned nodes.
      * @param block Set this to true, if the download should block.
      *              Set this to false, if it should not block.
      *              In the latter case, this function will return null since the result is not known yet.
      *              Will also return null in case an error occurred.
      *
-     * @return If the block-parameter is true, a list of the retrieved NodeInfos will be returned.
+     * @return If the block-parameter is true, a list of all nodes after the synchronization.
      * Null in other cases, since the task is running in the background.
      */
     public List<NodeInfo> downloadNodeInfoFromMaster(boolean block) {
         //Try to download node information on new thread.
         ExecutorService executor = Executors.newFixedThreadPool(1);
-        FutureTask<List<NodeInfo>> futureTask = new FutureTask<>(MasterNode::getStorageNodeList);
+        FutureTask<Boolean> futureTask = new FutureTask<>(this::syncNodesFromMaster);
         executor.execute(futureTask);
+        executor.shutdown();
 
         if(!block) { return null; }
         try {
-            return futureTask.get();
+            if(futureTask.get()) {
+                return new ArrayList<>(mSnapshot.get().getNodes().values());
+            }
         }
         catch (InterruptedException | ExecutionException e)
         {
             e.printStackTrace();
-            NodeInformationDownloadFailedEvent evt = new NodeInformationDownloadFailedEvent();
-            EventBus.getDefault().post(evt);
         }
         return null;
     }
 
     /**
-     * Adds a new storage node to the node manager.
-     * Once the connection to the node has been confirmed, and once the node has replied with its
-     * UUID and type, it will be persisted to the local framework database.
-     * This method will block until the node has replied or will timeout after 5 seconds.
+     * Asks the master node for the changes of the node list since the last synchronization
+     * and applies them in one transaction. Blocks while contacting the master node.
      *
-     * @param n The NodeInfo of the new storage node to add.
-     * @return The final configuration of the node, if the node has replied and was successfully added to the framework.
-     * Null, if the node did not reply or if a timeout occurred.
+     * @return True, if the node list is in sync with the master node.
      */
-    public NodeInfo addNode(NodeInfo n) {
-        if (n == null) { return null; }
-        if (n.getIdentifier() == null || "".equals(n.getIdentifier())
-                || n.getNodeType().equals(NodeType.UNKNOWN))
+    public boolean syncNodesFromMaster() {
+        long version;
+        String etag;
+        synchronized(mSyncLock)
         {
-            //UUID or node-type is unknown, thus we need to contact the node.
-            if(n.getAddress() != null && !n.getAddress().equals("") && n.getPort() != 0)
-            {
-                //Try to contact node. Will block while doing this.
-                ExecutorService executor = Executors.newFixedThreadPool(1);
-                FetchNodeIdentifierCallable myCallable = new FetchNodeIdentifierCallable(n);
-                FutureTask<NodeReply> futureTask = new FutureTask<>(myCallable);
-                executor.execute(futureTask);
-
-                NodeReply nodeReply = null;
-                try {
-                    nodeReply = futureTask.get();
-                } catch (InterruptedException | ExecutionException e) {
-                    e.printStackTrace();
+            version = getSyncVersion();
+            etag = ConfigPrefFile.getString(ConfigConstants.NODE_LIST_ETAG_KEY, "");
+        }
+        NodeListDelta delta = MasterNode.getStorageNodeListDelta(version, "".equals(etag) ? null : etag);
+        if(delta == null)
+        {
+            EventBus.getDefault().post(new NodeInformationDownloadFailedEvent());
+            return false;
+        }
+        if(delta.isNotModified()) { return true; }
+
+        boolean applied = delta.isFull() ? applyNodeList(delta.getChanged())
+                : applyNodeChanges(delta.getChanged(), delta.getRemoved());
+        if(!applied) { return false; }
+        synchronized(mSyncLock)
+        {
+            ConfigPrefFile.putString(ConfigConstants.NODE_LIST_VERSION_KEY, Long.toString(delta.getVersion()));
+            ConfigPrefFile.putString(ConfigConstants.NODE_LIST_ETAG_KEY,
+                    (delta.getETag() != null) ? delta.getETag() : "");
+        }
+        return true;
+    }
+
+    private static long getSyncVersion() {
+        try
+        {
+            return Long.parseLong(ConfigPrefFile.getString(ConfigConstants.NODE_LIST_VERSION_KEY, ""));
+        }
+        catch(NumberFormatException e)
+        {
+            return NodeListDelta.NO_VERSION;
+        }
+    }
+
+    /**
+     * Forgets the version of the node list known from the master node, so that the next
+     * synchronization downloads the full list.
+     */
+    private void resetSyncVersion() {
+        synchronized(mSyncLock)
+        {
+            ConfigPrefFile.deleteEntry(ConfigConstants.NODE_LIST_VERSION_KEY);
+            ConfigPrefFile.deleteEntry(ConfigConstants.NODE_LIST_ETAG_KEY);
+        }
+    }
+
+    /**
+     * Starts synchronizing the node list with the master node periodically in the background.
+     * Every delay is randomized by up to {@link #SYNC_JITTER} of the interval, so that devices
+     * do not contact the master node at the same time.
+     *
+     * @param intervalMs The average time between two synchronizations in milliseconds.
+     */
+    public void startPeriodicSync(long intervalMs) {
+        stopPeriodicSync();
+        synchronized(this)
+        {
+            if(mSyncScheduler != null) { return; }
+            mSyncIntervalMs = Math.max(MIN_SYNC_INTERVAL_MS, intervalMs);
+            //A daemon thread, so that the application can exit without calling stopPeriodicSync
+            mSyncScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "vStore node sync");
+                    t.setDaemon(true);
+                    return t;
                 }
+            });
+            schedulePeriodicSync(mSyncScheduler);
+        }
+    }
 
-                if(nodeReply == null)
+    /**
+     * Stops the periodic synchronization of the node list, and waits until a synchronization
+     * that is running has finished.
+     */
+    public void stopPeriodicSync() {
+        ScheduledExecutorService scheduler;
+        synchronized(this)
+        {
+            if(mSyncScheduler == null) { return; }
+            scheduler = mSyncScheduler;
+            mSyncScheduler = null;
+        }
+        scheduler.shutdownNow();
+        //Wait outside of the lock, a running synchronization needs it to apply the changes
+        try
+        {
+            scheduler.awaitTermination(SYNC_SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void schedulePeriodicSync(final ScheduledExecutorService scheduler) {
+        long jitter = (long) (mSyncIntervalMs * SYNC_JITTER);
+        long delay = mSyncIntervalMs + ThreadLocalRandom.current().nextLong(-jitter, jitter + 1);
+        try
+        {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try
+                    {
+                        syncNodesFromMaster();
+                    }
+                    catch(RuntimeException e)
+                    {
+                        e.printStackTrace();
+                    }
+                    schedulePeriodicSync(scheduler);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        catch(RejectedExecutionException e)
+        {
+            //Periodic synchronization has been stopped
+        }
+    }
+
+    /**
+     * Adds, updates and removes the given nodes in one database transaction and publishes
+     * the result as one new snapshot. Nodes that do not differ from the known ones are not
+     * written. Nodes without identifier or type are contacted first, see {@link #addNode}.
+     *
+     * @param changed The nodes to add or update.
+     * @param removed The identifiers of the nodes to remove.
+     * @return True, if the changes were applied.
+     */
+    public boolean applyNodeChanges(Collection<NodeInfo> changed, Collection<String> removed) {
+        return applyNodeChanges(changed, removed, false);
+    }
+
+    /**
+     * Replaces the known nodes with the given full node list, like {@link #applyNodeChanges}.
+     * Known nodes that are not in the list are removed.
+     *
+     * @param nodes All nodes.
+     * @return True, if the node list was applied.
+     */
+    public boolean applyNodeList(Collection<NodeInfo> nodes) {
+        return applyNodeChanges(nodes, Collections.<String>emptyList(), true);
+    }
+
+    private boolean applyNodeChanges(Collection<NodeInfo> changed, Collection<String> removed, boolean full) {
+        List<NodeInfo> resolved = resolveIdentities(changed);
+        synchronized(this)
+        {
+            NodeSnapshot current = mSnapshot.get();
+            if(full)
+            {
+                //Remove all known nodes that are missing in the full list. A listed node that
+                //did not reply to the identity request is kept.
+                Set<String> listed = new HashSet<>();
+                for(NodeInfo n : changed)
                 {
-                    return null;
+                    if(n != null && n.getIdentifier() != null) { listed.add(n.getIdentifier()); }
                 }
-                else
+                for(NodeInfo n : resolved) { listed.add(n.getIdentifier()); }
+                List<String> missing = new ArrayList<>(removed);
+                for(String uuid : current.getNodes().keySet())
                 {
-                    n.setUUID(nodeReply.getNodeId());
-                    n.setNodeType(nodeReply.getNodeType());
-                    //Node will be added to the node manager below
+                    if(!listed.contains(uuid)) { missing.add(uuid); }
                 }
+                removed = missing;
+            }
+            Map<String, NodeInfo> upserts = new LinkedHashMap<>();
+            for(NodeInfo n : resolved)
+            {
+                if(!isUnchanged(current.getNode(n.getIdentifier()), n)) {
+                    upserts.put(n.getIdentifier(), n);
+                }
+            }
+            List<NodeInfo> inserts = new ArrayList<>();
+            List<NodeInfo> updates = new ArrayList<>();
+            for(NodeInfo n : upserts.values())
+            {
+                if(current.getNode(n.getIdentifier()) != null) { updates.add(n); }
+                else { inserts.add(n); }
+            }
+            List<String> deletes = new ArrayList<>();
+            for(String uuid : removed)
+            {
+                if(current.getNode(uuid) != null && !upserts.containsKey(uuid)) { deletes.add(uuid); }
+            }
+            if(upserts.isEmpty() && deletes.isEmpty()) { return true; }
+
+            try
+            {
+                NodeDBHelper.applyChanges(inserts, updates, deletes);
+            }
+            catch (SQLException e)
+            {
+                e.printStackTrace();
+                return false;
+            }
+            NodeSnapshot next = current.apply(upserts.values(), deletes);
+            //Build the spatial index before the snapshot is published
+            next.getSpatialIndex();
+            mSnapshot.set(next);
+            for(String uuid : deletes)
+            {
+                NodeHealthTracker.get().remove(uuid);
             }
         }
+        return true;
+    }
+
+    private static boolean isUnchanged(NodeInfo known, NodeInfo n) {
+        if(known == null) { return false; }
+        VLatLng a = known.getLatLng();
+        VLatLng b = n.getLatLng();
+        boolean sameLocation = (a == null) ? (b == null)
+                : (b != null && a.getLatitude() == b.getLatitude() && a.getLongitude() == b.getLongitude());
+        return sameLocation
+                && known.getNodeType() == n.getNodeType()
+                && known.getPort() == n.getPort()
+                && known.getBandwidthUp() == n.getBandwidthUp()
+                && known.getBandwidthDown() == n.getBandwidthDown()
+                && (known.getAddress() == null ? n.getAddress() == null : known.getAddress().equals(n.getAddress()));
+    }
+
+    /**
+     * Contacts the nodes of which identifier or type are unknown, in parallel.
+     *
+     * @param nodes The nodes.
+     * @return The nodes with known identifier and type. Nodes that did not reply are left out.
+     */
+    private static List<NodeInfo> resolveIdentities(Collection<NodeInfo> nodes) {
+        List<NodeInfo> resolved = new ArrayList<>();
+        List<NodeInfo> unknown = new ArrayList<>();
+        for(NodeInfo n : nodes)
+        {
+            if(n == null) { continue; }
+            if(isIdentified(n)) { resolved.add(n); }
+            else { unknown.add(n); }
+        }
+        if(unknown.isEmpty()) { return resolved; }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(unknown.size(), MAX_RESOLVE_THREADS));
         try
         {
-            //If node is already contained in the list, update its information
-            if (mNodes.get(n.getNodeType()).containsKey(n.getIdentifier()))
+            List<Future<NodeInfo>> futures = new ArrayList<>();
+            for(final NodeInfo n : unknown)
             {
-                NodeDBHelper.updateNode(n);
+                futures.add(executor.submit(new Callable<NodeInfo>() {
+                    @Override
+                    public NodeInfo call() {
+                        return resolveIdentity(n);
+                    }
+                }));
             }
-            else
+            for(Future<NodeInfo> f : futures)
             {
-                NodeDBHelper.insertNode(n);
+                NodeInfo n = f.get();
+                if(n != null) { resolved.add(n); }
             }
-            mNodes.get(n.getNodeType()).put(n.getIdentifier(), n);
-            mNodeCount++;
         }
-        catch (SQLException e)
+        catch(InterruptedException | ExecutionException e)
         {
             e.printStackTrace();
-            return null;
         }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        return resolved;
+    }
+
+    private static boolean isIdentified(NodeInfo n) {
+        return n.getIdentifier() != null && !"".equals(n.getIdentifier())
+                && !n.getNodeType().equals(NodeType.UNKNOWN);
+    }
+
+    /**
+     * Contacts the given node to get its identifier and type. Blocks until the node has replied.
+     *
+     * @param n The node.
+     * @return The node with identifier and type, or null if the node did not reply.
+     */
+    private static NodeInfo resolveIdentity(NodeInfo n) {
+        if(n.getAddress() == null || n.getAddress().equals("") || n.getPort() == 0) { return n; }
+        NodeReply nodeReply = null;
+        try {
+            nodeReply = new FetchNodeIdentifierCallable(n).call();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        if(nodeReply == null) { return null; }
+        n.setUUID(nodeReply.getNodeId());
+        n.setNodeType(nodeReply.getNodeType());
         return n;
     }
 
     /**
-     * @param uuid Returns the node info for the node with the given UUID
-     * @return The node info or null, if node cannot be found.
+     * Adds a new storage node to the node manager.
+     * Once the connection to the node has been confirmed, and once the node has replied with its
+     * UUID and type, it will be persisted to the local framework database.
+     * This method will block until the node has replied or will timeout after 5 seconds.
+     *
+     * @param n The NodeInfo of the new storage node to add.
+     * @return The final configuration of the node, if the node has replied and was successfully added to the framework.
+     * Null, if the node did not reply or if a timeout occurred.
      */
-    public NodeInfo getNode(String uuid) {
-        if(mNodes != null && uuid != null) 
+    public NodeInfo addNode(NodeInfo n) {
+        if (n == null) { return null; }
+        if (!isIdentified(n))
         {
-            for(HashMap<String, NodeInfo> map : mNodes.values()) 
+            //UUID or node-type is unknown, thus we need to contact the node.
+            //Will block while doing this.
+            n = resolveIdentity(n);
+            if(n == null) { return null; }
+        }
+        synchronized(this)
+        {
+            try
             {
-                if(map.containsKey(uuid)) 
+                //If node is already contained in the list, update its information
+                NodeSnapshot current = mSnapshot.get();
+                if (current.getNode(n.getIdentifier()) != null)
+                {
+                    NodeDBHelper.updateNode(n);
+                }
+                else
                 {
-                    return map.get(uuid);
+                    NodeDBHelper.insertNode(n);
                 }
+                mSnapshot.set(current.with(n));
+            }
+            catch (SQLException e)
+            {
+                e.printStackTrace();
+                return null;
             }
         }
-        return null;
+        return n;
     }
 
     /**
-     * @return A mapping of "Node ID" -- "Node info" containing all nodes currently in the manager.
+     * @param uuid Returns the node info for the node with the given UUID
+     * @return The node info or null, if node cannot be found.
+     */
+    public NodeInfo getNode(String uuid) {
+        return current().getNode(uuid);
+    }
+
+    /**
+     * @return An unmodifiable mapping of "Node ID" -- "Node info" containing all nodes
+     * currently in the manager.
      */
     public final Map<String, NodeInfo> getNodeList() {
-        HashMap<String, NodeInfo> result = new HashMap<>();
-        for(HashMap<String, NodeInfo> map : mNodes.values()) {
-            result.putAll(map);
-        }
-        return result;
+        return current().getNodes();
     }
 
     /**
      * Deletes a node from the node manager and the database.
      * @param uuid The UUID of the node to delete.
      */
-    public void deleteNode(String uuid) {
-        for(HashMap<String, NodeInfo> map : mNodes.values()) 
+    public synchronized void deleteNode(String uuid) {
+        NodeSnapshot current = mSnapshot.get();
+        if (current.getNode(uuid) == null) { return; }
+        try
         {
-            if (!map.containsKey(uuid)) continue;
-            
-            try 
-            {
-            	NodeDBHelper.deleteNode(uuid);
-	            map.remove(uuid);
-            } 
-            catch (SQLException e)
-            {
-				e.printStackTrace();
-			}
+            NodeDBHelper.deleteNode(uuid);
+            mSnapshot.set(current.without(uuid));
+            NodeHealthTracker.get().remove(uuid);
+        }
+        catch (SQLException e)
+        {
+            e.printStackTrace();
         }
     }
 
@@ -246,14 +575,13 @@ public class NodeManager {
      * Updates the configuration for the given node and saves it to the database.
      * @param n The updated node information
      */
-    public void updateNode(NodeInfo n) {
+    public synchronized void updateNode(NodeInfo n) {
+        NodeSnapshot current = mSnapshot.get();
+        if (current.getNode(n.getIdentifier()) == null) { return; }
     	try
     	{
-	        for(HashMap<String, NodeInfo> map : mNodes.values())
-	        {
-	            if (!map.containsKey(n.getIdentifier())) continue;
-	            NodeDBHelper.updateNode(n);
-	        }
+            NodeDBHelper.updateNode(n);
+            mSnapshot.set(current.with(n));
     	}
     	catch(SQLException e)
     	{
@@ -264,29 +592,28 @@ public class NodeManager {
     /**
      * Deletes all nodes from the node manager and the database.
      */
-    public void clearNodes() {
-        for(HashMap<String, NodeInfo> map : mNodes.values()) 
-        {
-            map.clear();
-        }
+    public synchronized void clearNodes() {
         try
     	{
 	        NodeDBHelper.deleteAllNodes();
-	        mNodeCount = 0;
     	}
         catch(SQLException e)
     	{
     		e.printStackTrace();
     	}
+        NodeSnapshot current = mSnapshot.get();
+        mSnapshot.set(new NodeSnapshot(current.getVersion() + 1, Collections.<NodeInfo>emptyList()));
+        //The next synchronization has to download all nodes again
+        resetSyncVersion();
     }
 
     /**
      * Returns a list with nodes of the given NodeType.
      * @param type The NodeType to look for in the nodes list.
-     * @return A list of nodes that are of the given NodeType.
+     * @return An unmodifiable list of nodes that are of the given NodeType.
      */
     public List<NodeInfo> getNodesOfType(NodeType type) {
-        return new ArrayList<>(mNodes.get(type).values());
+        return current().getNodesOfType(type);
     }
 
     /**
@@ -296,9 +623,15 @@ public class NodeManager {
      * @return The {@link NodeInfo} of the nearest node that is of the given type.
      */
     public NodeInfo getNearestNodeOfType(NodeType type, VLatLng location) {
+        //Only look at the nodes that can be the nearest ones in the grid cell of the location
+        NodeSnapshot snapshot = current();
+        Collection<NodeInfo> candidates = snapshot.getNearestNodeTable().getCandidates(type, location);
+        if(candidates == null) {
+            return snapshot.getSpatialIndex().getNearest(type, location);
+        }
         double distance = Double.MAX_VALUE;
         NodeInfo node = null;
-        for(NodeInfo n : mNodes.get(type).values()) 
+        for(NodeInfo n : candidates) 
         {
             double nodeDist = ContextUtils.distanceBetween(n.getLatLng(), location);
             if(nodeDist < distance) 
@@ -316,41 +649,16 @@ public class NodeManager {
      * @param type The node type to get N nearest nodes for.
      * @param location The location to compare against.
      * @param N The number of nodes N that should be contained in the result.
-     * @return A list containing N or less nodes of the given type that are closest.
+     * @return A list containing N or less nodes of the given type that are closest, nearest first.
+     * Nodes without a location are considered farthest away.
      */
     public List<NodeInfo> get_N_NearestNodesOfType(NodeType type, VLatLng location, int N) {
-        List<NodeInfo> nodes = getNodesOfType(type);
-        if(nodes.size() <= N) 
+        NodeSnapshot snapshot = current();
+        if(snapshot.getNodesOfType(type).size() <= N)
         {
-            return nodes;
+            return snapshot.getNodesOfType(type);
         }
-        Map<Integer, Pair<Integer, Float>> nearestPos = new HashMap<>();
-        for(int i = 0; i<nodes.size(); i++) 
-        {
-            NodeInfo node = nodes.get(i);
-            float newDist = ContextUtils.distanceBetween(node.getLatLng(), location);
-            if(nearestPos.size() < N) 
-            {
-                //First N values will be simply put into the list.
-                nearestPos.put(i, new ImmutablePair<Integer, Float>(i, newDist));
-            } else {
-                //Then we need to check.
-                for(int j=0; j<nearestPos.size(); ++j) 
-                {
-                    if(newDist < nearestPos.get(j).getRight()) 
-                    {
-                        nearestPos.put(j, new ImmutablePair<Integer, Float>(i, newDist));
-                        break;
-                    }
-                }
-            }
-        }
-        List<NodeInfo> result = new ArrayList<>();
-        for(int i=0; i<nearestPos.size(); i++) 
-        {
-            result.add(nodes.get(nearestPos.get(i).getLeft()));
-        }
-        return result;
+        return snapshot.getSpatialIndex().getNearest(type, location, N);
     }
 
     /**
@@ -409,14 +717,8 @@ public class NodeManager {
      * Or null, if no node of the given type was found.
      */
     public NodeInfo getFirstNodeOfType(NodeType type) {
-        if(mNodes.get(type).size() > 0) 
-        {
-            for(NodeInfo n : mNodes.get(type).values()) 
-            {
-                return n;
-            }
-        }
-        return null;
+        List<NodeInfo> nodes = current().getNodesOfType(type);
+        return (nodes.size() > 0) ? nodes.get(0) : null;
     }
 
     /**
@@ -442,11 +744,49 @@ public class NodeManager {
         if(listSize > 0) 
         {
             //Get a random number and return the corresponding node information
-            return nodes.get(mRnd.nextInt(nodes.size()));
+            return nodes.get(ThreadLocalRandom.current().nextInt(listSize));
         }
         return null;
     }
 
+    /**
+     * Returns a node from the given list using the given strategy.
+     *
+     * @param nodes The list of nodes.
+     * @param strategy The strategy, see {@link NodeSelectionStrategy}.
+     * @return A node information from the given list, or null if the list is empty.
+     */
+    public NodeInfo getNodeFromList(List<NodeInfo> nodes, NodeSelectionStrategy strategy) {
+        if(strategy == NodeSelectionStrategy.LEAST_LOADED_OF_TWO) {
+            return getLeastLoadedOfTwoFromList(nodes);
+        }
+        return getRandomNodeFromList(nodes);
+    }
+
+    /**
+     * Picks two different random nodes from the given list and returns the one that is less
+     * loaded, according to {@link NodeLoadTracker}. This spreads the uploads much more evenly
+     * than a single random pick, while only looking at two nodes.
+     *
+     * @param nodes The list of nodes.
+     * @return A node information from the given list, or null if the list is empty.
+     */
+    public NodeInfo getLeastLoadedOfTwoFromList(List<NodeInfo> nodes) {
+        int listSize = nodes.size();
+        if(listSize < 2) {
+            return getRandomNodeFromList(nodes);
+        }
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        int i = rnd.nextInt(listSize);
+        int j = rnd.nextInt(listSize - 1);
+        if(j >= i) { ++j; }
+        NodeInfo a = nodes.get(i);
+        NodeInfo b = nodes.get(j);
+        if(a == null) { return b; }
+        if(b == null) { return a; }
+        return (NodeLoadTracker.get().compareLoad(b, a) < 0) ? b : a;
+    }
+
     /**
      * Returns the nearest node from the given list
      * 
@@ -481,11 +821,15 @@ public class NodeManager {
      * Or null, if no nodes are available
      */
     public NodeInfo getRandomNode() {
-        if(getNodeCount() > 0) 
+        NodeSnapshot snapshot = current();
+        if(snapshot.size() > 0)
         {
-            List<NodeInfo> nodes = new ArrayList<>(getNodeList().values());
-            //Return the corresponding node information
-            return nodes.get(mRnd.nextInt(nodes.size()));
+            //Walk to a random position instead of copying all nodes
+            int pos = ThreadLocalRandom.current().nextInt(snapshot.size());
+            for(NodeInfo n : snapshot.getNodes().values())
+            {
+                if(pos-- == 0) { return n; }
+            }
         }
         return null;
     }
@@ -497,11 +841,11 @@ public class NodeManager {
      * @return The list of nodes for the given types.
      */
     public List<NodeInfo> getNodesOfTypes(NodeType[] types) {
+        NodeSnapshot snapshot = current();
         List<NodeInfo> result = new ArrayList<>();
         for(NodeType t : types) 
         {
-            HashMap<String, NodeInfo> nodesOfType = mNodes.get(t);
-            result.addAll(nodesOfType.values());
+            result.addAll(snapshot.getNodesOfType(t));
         }
         return result;
     }
@@ -550,68 +894,28 @@ public class NodeManager {
      * @param min_radius The minimum radius from which to search for matching nodes. Set to 0 to search from here.
      * @param max_radius The upper radius limit.
      * @param loc The location around which the radius must match.
-     * @return A list of node infos that match the parameters.
+     * @return An unmodifiable list of node infos that match the parameters.
      */
     public List<NodeInfo> getNodesMatchingBandwidthAndRadius(NodeType t, float bw_up, float bw_down, float min_radius,
                                                    float max_radius, VLatLng loc) {
-        List<NodeInfo> found = new ArrayList<>();
-
-        //Add all nodes immediately if bandwidth parameters are both 0.
-        if (bw_up == 0 && bw_down == 0) 
-        {
-            found.addAll(mNodes.get(t).values());
-        } 
-        else
-        //Up is zero, so only match by downstream bandwidth
-        if (bw_up == 0) 
-        {
-            for (NodeInfo n : mNodes.get(t).values()) 
-            {
-                if (n.getBandwidthDown() >= bw_down) 
-                {
-                    found.add(n);
-                }
-            }
-        } 
-        else
-        //Down is zero, so only match by upstream bandwidth
-        if (bw_down == 0) 
-        {
-            for (NodeInfo n : mNodes.get(t).values()) 
-            {
-                if (n.getBandwidthUp() >= bw_up) 
-                {
-                    found.add(n);
-                }
-            }
-        } 
-        else
-        //Both are not zero, so match both
-        {
-            for (NodeInfo n : mNodes.get(t).values()) 
-            {
-                if (n.getBandwidthDown() >= bw_down
-                        && n.getBandwidthUp() >= bw_up) 
-                {
-                    found.add(n);
-                }
-            }
-        }
-
-        //Filter all by radius if necessary
-        if (min_radius >= 0 && max_radius > 0 && max_radius > min_radius && loc != null) 
+        //Filter by radius first if necessary, only the nodes in the area have to be checked
+        NodeSnapshot snapshot = current();
+        if (min_radius >= 0 && max_radius > 0 && max_radius > min_radius && loc != null)
         {
             List<NodeInfo> filteredSet = new ArrayList<>();
-            //Calculate distance for each node
-            for(NodeInfo n : found) {
-                if(n.getGeographicDistanceTo(loc) >= min_radius && n.getGeographicDistanceTo(loc) <= max_radius)
+            for(NodeInfo n : snapshot.getSpatialIndex().getWithinDistance(t, loc, min_radius, max_radius))
+            {
+                float dist = n.getGeographicDistanceTo(loc);
+                if(dist >= min_radius && dist <= max_radius
+                        && n.getBandwidthUp() >= bw_up && n.getBandwidthDown() >= bw_down)
                 {
                     filteredSet.add(n);
                 }
             }
-            return filteredSet;
+            return Collections.unmodifiableList(filteredSet);
         }
-        return found;
+        //Only the nodes above the minimum bandwidths are looked at
+        return snapshot.getBandwidthIndex().getMatching(t, bw_up, bw_down);
     }
 
     /**
@@ -653,12 +957,27 @@ public class NodeManager {
      */
     public NodeInfo getRandomNodeMatchingBandwidthAndRadius(float bw_up, float bw_down,
                                                             float min_radius, float max_radius, VLatLng loc) {
+        return getRandomNodeFromList(getNodesMatchingBandwidthAndRadius(bw_up, bw_down, min_radius, max_radius, loc));
+    }
+
+    /**
+     * Finds all nodes of any type that meet the required bandwidth and radius constraints.
+     *
+     * @param bw_up The upstream bandwidth. Set it to 0 to ignore it.
+     * @param bw_down The downstream bandwidth. Set it to 0 to ignore it.
+     * @param min_radius The minimum radius from which to search for matching nodes. Set to 0 to search from here.
+     * @param max_radius The upper radius limit.
+     * @param loc The location around which the radius must match.
+     * @return A list of node infos that match the parameters.
+     */
+    public List<NodeInfo> getNodesMatchingBandwidthAndRadius(float bw_up, float bw_down,
+                                                             float min_radius, float max_radius, VLatLng loc) {
         List<NodeInfo> results = new ArrayList<>();
         for(NodeType t : NodeType.values()) 
         {
             results.addAll(getNodesMatchingBandwidthAndRadius(t, bw_up, bw_down, min_radius, max_radius, loc));
         }
-        return getRandomNodeFromList(results);
+        return results;
     }
 
     /**
@@ -677,14 +996,49 @@ public class NodeManager {
      */
     public NodeInfo getRandomNodeOfTypeWithinRadius(NodeType[] types, VLatLng loc, float radius, float max,
                                                     float multiplier, NodeType fallback) {
+        NodeSnapshot snapshot = current();
         List<NodeInfo> nodes = new ArrayList<>();
-        for (NodeType t : types) 
+        for (NodeType t : types)
         {
-            nodes.addAll(mNodes.get(t).values());
+            nodes.addAll(snapshot.getNodesOfType(t));
         }
-        if(nodes.size() > 0) 
+        if(nodes.size() == 0)
         {
-            return getRandomNodeFromListWithinRadius(nodes, loc, radius, max, multiplier, fallback);
+            return null;
+        }
+        NodeSpatialIndex index = snapshot.getSpatialIndex();
+        List<NodeInfo> results = new ArrayList<>();
+        while (results.size() == 0)
+        {
+            //Only the nodes in the area of the radius have to be checked
+            for (NodeType t : types)
+            {
+                for (NodeInfo n : index.getWithinDistance(t, loc, 0, radius))
+                {
+                    if (n.getGeographicDistanceTo(loc) <= radius)
+                    {
+                        results.add(n);
+                    }
+                }
+            }
+            //Increasing by step if nothing found and max not reached yet.
+            if(results.size() == 0 && radius < max && max > 0)
+            {
+                radius *= multiplier;
+            }
+            else
+            {
+                break;
+            }
+        }
+        if(results.size() > 0)
+        {
+            //Return a random one
+            return getRandomNodeFromList(results);
+        }
+        if(fallback != null)
+        {
+            return getRandomNodeOfTypeFromList(nodes, fallback);
         }
         return null;
     }
@@ -735,11 +1089,11 @@ public class NodeManager {
         if(results.size() > 0) 
         {
             //Return a random one
-            return results.get((new Random()).nextInt(results.size()));
+            return results.get(ThreadLocalRandom.current().nextInt(results.size()));
         }
         if(fallback != null) 
         {
-            return getRandomNodeOfTypeFromList(results, fallback);
+            return getRandomNodeOfTypeFromList(nodes, fallback);
         }
         return null;
     }
@@ -751,20 +1105,10 @@ public class NodeManager {
      * @param t The Node type
      * @param filesize The file size in bytes that needs to be uploaded
      * @param seconds The maximum upload duration
-     * @return A list containing all nodes of the type that match the constraints.
+     * @return An unmodifiable list containing all nodes of the type that match the constraints.
      */
     public List<NodeInfo> getNodesByUploadTime(NodeType t, long filesize, int seconds) {
-        Collection<NodeInfo> nodes = mNodes.get(t).values();
-        for(NodeInfo n : nodes) 
-        {
-            //Filesize in MByte divided by bandwidth in MByte/s
-            float duration = filesize / (1024.0f*1024.0f) / (n.getBandwidthUp() / 8.0f);
-            if(Math.ceil(duration) > seconds) 
-            {
-                nodes.remove(n);
-            }
-        }
-        return new ArrayList<>(nodes);
+        return current().getBandwidthIndex().getByUploadTime(t, filesize, seconds);
     }
 
     /**
@@ -805,7 +1149,15 @@ public class NodeManager {
     }
 
     public int getNodeCount() {
-        return mNodeCount;
+        return current().size();
+    }
+
+    /**
+     * @return The current version of the node set. Changes whenever a node is added,
+     * updated or removed. Same as the version of {@link #getSnapshot()}.
+     */
+    public long getVersion() {
+        return current().getVersion();
     }
 
 }
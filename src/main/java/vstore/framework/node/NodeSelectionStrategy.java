@@ -0,0 +1,9 @@
+package vstore.framework.node;
+
+/**
+ * This enum contains the possible strategies to choose one node from a list of candidate nodes.
+ * RANDOM picks a node uniformly at random.
+ * LEAST_LOADED_OF_TWO picks two random nodes and uses the one that is less loaded,
+ * according to {@link NodeLoadTracker}.
+ */
+public enum NodeSelectionStrategy { RANDOM, LEAST_LOADED_OF_TWO }
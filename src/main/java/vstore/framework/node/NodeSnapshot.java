@@ -0,0 +1,179 @@
+package vstore.framework.node;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable view of all storage nodes known to the {@link NodeManager} at one point in time.
+ *
+ * The node manager never modifies a snapshot. Every change builds the next snapshot with a
+ * higher version and publishes it as a whole, so a reader always sees a consistent node set
+ * without locking, even while the nodes are refreshed. Structures derived from the node set
+ * (e.g. the spatial index) are computed once per snapshot, on first use.
+ */
+public final class NodeSnapshot {
+    private final long mVersion;
+    private final Map<String, NodeInfo> mById;
+    private final Map<NodeType, Map<String, NodeInfo>> mByType;
+    private final Map<NodeType, List<NodeInfo>> mListByType;
+
+    private volatile NearestNodeTable mNearestNodeTable;
+    private volatile NodeSpatialIndex mSpatialIndex;
+    private volatile NodeBandwidthIndex mBandwidthIndex;
+
+    /**
+     * @param version The version of the node set.
+     * @param nodes The nodes. If more than one node has the same identifier, the last one is used.
+     */
+    NodeSnapshot(long version, Collection<NodeInfo> nodes) {
+        mVersion = version;
+        Map<String, NodeInfo> byId = new LinkedHashMap<>();
+        for(NodeInfo n : nodes)
+        {
+            if(n == null || n.getIdentifier() == null) { continue; }
+            byId.remove(n.getIdentifier());
+            byId.put(n.getIdentifier(), n);
+        }
+
+        Map<NodeType, Map<String, NodeInfo>> byType = new EnumMap<>(NodeType.class);
+        Map<NodeType, List<NodeInfo>> listByType = new EnumMap<>(NodeType.class);
+        for(NodeType t : NodeType.values())
+        {
+            byType.put(t, new LinkedHashMap<String, NodeInfo>());
+        }
+        for(NodeInfo n : byId.values())
+        {
+            byType.get(n.getNodeType()).put(n.getIdentifier(), n);
+        }
+        for(NodeType t : NodeType.values())
+        {
+            listByType.put(t, Collections.unmodifiableList(new ArrayList<>(byType.get(t).values())));
+            byType.put(t, Collections.unmodifiableMap(byType.get(t)));
+        }
+        mById = Collections.unmodifiableMap(byId);
+        mByType = Collections.unmodifiableMap(byType);
+        mListByType = Collections.unmodifiableMap(listByType);
+    }
+
+    /**
+     * Builds the next snapshot, with the given node added or replaced.
+     *
+     * @param n The node.
+     * @return The new snapshot.
+     */
+    NodeSnapshot with(NodeInfo n) {
+        List<NodeInfo> nodes = new ArrayList<>(mById.values());
+        nodes.add(n);
+        return new NodeSnapshot(mVersion + 1, nodes);
+    }
+
+    /**
+     * Builds the next snapshot, without the node with the given identifier.
+     *
+     * @param uuid The identifier of the node.
+     * @return The new snapshot.
+     */
+    NodeSnapshot without(String uuid) {
+        Map<String, NodeInfo> nodes = new LinkedHashMap<>(mById);
+        nodes.remove(uuid);
+        return new NodeSnapshot(mVersion + 1, nodes.values());
+    }
+
+    /**
+     * Builds the next snapshot, with the given nodes added or replaced and the given nodes removed.
+     *
+     * @param changed The nodes to add or replace.
+     * @param removed The identifiers of the nodes to remove.
+     * @return The new snapshot.
+     */
+    NodeSnapshot apply(Collection<NodeInfo> changed, Collection<String> removed) {
+        Map<String, NodeInfo> nodes = new LinkedHashMap<>(mById);
+        for(String uuid : removed)
+        {
+            nodes.remove(uuid);
+        }
+        List<NodeInfo> next = new ArrayList<>(nodes.values());
+        next.addAll(changed);
+        return new NodeSnapshot(mVersion + 1, next);
+    }
+
+    /**
+     * @return The version of the node set. Every change of the nodes results in a snapshot
+     * with a higher version.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return The number of nodes.
+     */
+    public int size() {
+        return mById.size();
+    }
+
+    /**
+     * @param uuid The identifier of the node.
+     * @return The node, or null if it is not contained in this snapshot.
+     */
+    public NodeInfo getNode(String uuid) {
+        return (uuid != null) ? mById.get(uuid) : null;
+    }
+
+    /**
+     * @return An unmodifiable mapping of "Node ID" -- "Node info" of all nodes.
+     */
+    public Map<String, NodeInfo> getNodes() {
+        return mById;
+    }
+
+    /**
+     * @param type The node type.
+     * @return An unmodifiable list of the nodes of the given type.
+     */
+    public List<NodeInfo> getNodesOfType(NodeType type) {
+        return mListByType.get(type);
+    }
+
+    /**
+     * @return An unmodifiable mapping of the nodes per type.
+     */
+    Map<NodeType, Map<String, NodeInfo>> getNodesByType() {
+        return mByType;
+    }
+
+    NearestNodeTable getNearestNodeTable() {
+        NearestNodeTable table = mNearestNodeTable;
+        if(table == null)
+        {
+            table = new NearestNodeTable(this);
+            mNearestNodeTable = table;
+        }
+        return table;
+    }
+
+    NodeSpatialIndex getSpatialIndex() {
+        NodeSpatialIndex index = mSpatialIndex;
+        if(index == null)
+        {
+            index = new NodeSpatialIndex(mByType);
+            mSpatialIndex = index;
+        }
+        return index;
+    }
+
+    NodeBandwidthIndex getBandwidthIndex() {
+        NodeBandwidthIndex index = mBandwidthIndex;
+        if(index == null)
+        {
+            index = new NodeBandwidthIndex(this);
+            mBandwidthIndex = index;
+        }
+        return index;
+    }
+}
@@ -0,0 +1,265 @@
+package vstore.framework.node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import vstore.framework.context.types.location.VLatLng;
+
+/**
+ * A k-d tree over the locations of the nodes, one tree per node type.
+ *
+ * Locations are mapped to points on the unit sphere. The straight-line (chord) distance
+ * between two such points grows with the great-circle distance, so nearest neighbours and
+ * distance ranges can be searched in the tree with euclidean distances only. Range queries
+ * return a small superset, callers check the exact distance.
+ *
+ * Nodes without a location are not put into a tree. An index belongs to one {@link NodeSnapshot}.
+ */
+class NodeSpatialIndex {
+    /**
+     * Meters per degree on a great circle, as used by ContextUtils#distanceBetween.
+     */
+    private static final double METERS_PER_DEG = 60 * 1.15077945 * 1609.34;
+    private static final double EARTH_RADIUS_M = METERS_PER_DEG * 180 / Math.PI;
+
+    private final Tree[] mTrees;
+    private final List<NodeInfo>[] mUnlocated;
+
+    /**
+     * @param nodes The nodes per type.
+     */
+    @SuppressWarnings("unchecked")
+    NodeSpatialIndex(Map<NodeType, ? extends Map<String, NodeInfo>> nodes) {
+        mTrees = new Tree[NodeType.values().length];
+        mUnlocated = new List[NodeType.values().length];
+        for(NodeType t : NodeType.values())
+        {
+            List<NodeInfo> located = new ArrayList<>();
+            List<NodeInfo> unlocated = new ArrayList<>();
+            Map<String, NodeInfo> ofType = nodes.get(t);
+            if(ofType != null)
+            {
+                for(NodeInfo n : ofType.values())
+                {
+                    if(n.getLatLng() != null) { located.add(n); }
+                    else { unlocated.add(n); }
+                }
+            }
+            mTrees[t.ordinal()] = new Tree(located);
+            mUnlocated[t.ordinal()] = Collections.unmodifiableList(unlocated);
+        }
+    }
+
+    /**
+     * Returns the nearest node of the given type. Nodes without a location are only returned,
+     * if no node of the type has a location.
+     *
+     * @param type The node type.
+     * @param location The location.
+     * @return The nearest node, or null if there is no node of the type.
+     */
+    NodeInfo getNearest(NodeType type, VLatLng location) {
+        List<NodeInfo> nearest = getNearest(type, location, 1);
+        return nearest.isEmpty() ? null : nearest.get(0);
+    }
+
+    /**
+     * Returns the n nearest nodes of the given type, nearest first. Nodes without a location
+     * are considered farthest away.
+     *
+     * @param type The node type.
+     * @param location The location.
+     * @param n The number of nodes.
+     * @return A list with at most n nodes.
+     */
+    List<NodeInfo> getNearest(NodeType type, VLatLng location, int n) {
+        List<NodeInfo> result = new ArrayList<>();
+        if(n <= 0) { return result; }
+        if(location != null) {
+            result.addAll(mTrees[type.ordinal()].nearest(toPoint(location), n));
+        }
+        List<NodeInfo> unlocated = mUnlocated[type.ordinal()];
+        for(int i = 0; i < unlocated.size() && result.size() < n; ++i)
+        {
+            result.add(unlocated.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the located nodes of the given type that can be between min and max kilometers
+     * away from the given location. The result may contain a few nodes slightly outside of the
+     * range, the exact distance has to be checked by the caller.
+     *
+     * @param type The node type.
+     * @param location The location.
+     * @param minKm The minimum distance in kilometers.
+     * @param maxKm The maximum distance in kilometers.
+     * @return The candidates.
+     */
+    List<NodeInfo> getWithinDistance(NodeType type, VLatLng location, float minKm, float maxKm) {
+        List<NodeInfo> result = new ArrayList<>();
+        if(location == null || maxKm < 0) { return result; }
+        //Add some slack, so that rounding never drops a node on the border
+        double min = chord(Math.max(0, minKm * 0.99 - 0.01));
+        double max = chord(maxKm * 1.01 + 0.01);
+        mTrees[type.ordinal()].range(toPoint(location), min * min, max * max, result);
+        return result;
+    }
+
+    /**
+     * @param type The node type.
+     * @return The nodes of the type without a location.
+     */
+    List<NodeInfo> getUnlocated(NodeType type) {
+        return mUnlocated[type.ordinal()];
+    }
+
+    private static double chord(double km) {
+        double angle = Math.min(Math.PI, km * 1000 / EARTH_RADIUS_M);
+        return 2 * Math.sin(angle / 2);
+    }
+
+    private static double[] toPoint(VLatLng loc) {
+        double lat = Math.toRadians(loc.getLatitude());
+        double lng = Math.toRadians(loc.getLongitude());
+        double cos = Math.cos(lat);
+        return new double[] { cos * Math.cos(lng), cos * Math.sin(lng), Math.sin(lat) };
+    }
+
+    /**
+     * A static k-d tree. The nodes are stored in tree order: the median of a range is the
+     * root of the subtree over that range, split along axis (depth % 3).
+     */
+    private static class Tree {
+        private final NodeInfo[] mNodes;
+        private final double[][] mPoints;
+
+        Tree(Collection<NodeInfo> nodes) {
+            int size = nodes.size();
+            mNodes = nodes.toArray(new NodeInfo[0]);
+            mPoints = new double[size][];
+            for(int i = 0; i < size; ++i)
+            {
+                mPoints[i] = toPoint(mNodes[i].getLatLng());
+            }
+            Integer[] order = new Integer[size];
+            for(int i = 0; i < size; ++i) { order[i] = i; }
+            build(order, 0, size, 0);
+
+            NodeInfo[] nodesInOrder = new NodeInfo[size];
+            double[][] pointsInOrder = new double[size][];
+            for(int i = 0; i < size; ++i)
+            {
+                nodesInOrder[i] = mNodes[order[i]];
+                pointsInOrder[i] = mPoints[order[i]];
+            }
+            System.arraycopy(nodesInOrder, 0, mNodes, 0, size);
+            System.arraycopy(pointsInOrder, 0, mPoints, 0, size);
+        }
+
+        private void build(Integer[] order, int from, int to, int depth) {
+            if(to - from <= 1) { return; }
+            final int axis = depth % 3;
+            Arrays.sort(order, from, to, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Double.compare(mPoints[a][axis], mPoints[b][axis]);
+                }
+            });
+            int mid = (from + to) >>> 1;
+            build(order, from, mid, depth + 1);
+            build(order, mid + 1, to, depth + 1);
+        }
+
+        List<NodeInfo> nearest(double[] p, int n) {
+            //Max-heap of the best candidates so far, the farthest on top
+            PriorityQueue<Candidate> best = new PriorityQueue<>(Math.min(n, Math.max(1, mNodes.length)),
+                    new Comparator<Candidate>() {
+                        @Override
+                        public int compare(Candidate a, Candidate b) {
+                            return Double.compare(b.dist, a.dist);
+                        }
+                    });
+            nearest(p, n, 0, mNodes.length, 0, best);
+
+            Candidate[] sorted = best.toArray(new Candidate[0]);
+            Arrays.sort(sorted, new Comparator<Candidate>() {
+                @Override
+                public int compare(Candidate a, Candidate b) {
+                    return Double.compare(a.dist, b.dist);
+                }
+            });
+            List<NodeInfo> result = new ArrayList<>(sorted.length);
+            for(Candidate c : sorted) { result.add(mNodes[c.index]); }
+            return result;
+        }
+
+        private void nearest(double[] p, int n, int from, int to, int depth, PriorityQueue<Candidate> best) {
+            if(from >= to) { return; }
+            int mid = (from + to) >>> 1;
+            int axis = depth % 3;
+
+            double d = dist2(p, mPoints[mid]);
+            if(best.size() < n) {
+                best.add(new Candidate(mid, d));
+            } else if(d < best.peek().dist) {
+                best.poll();
+                best.add(new Candidate(mid, d));
+            }
+
+            double diff = p[axis] - mPoints[mid][axis];
+            boolean left = diff < 0;
+            nearest(p, n, left ? from : mid + 1, left ? mid : to, depth + 1, best);
+            //Only descend into the other half, if it can contain a nearer point
+            if(best.size() < n || diff * diff < best.peek().dist) {
+                nearest(p, n, left ? mid + 1 : from, left ? to : mid, depth + 1, best);
+            }
+        }
+
+        void range(double[] p, double min2, double max2, List<NodeInfo> result) {
+            range(p, min2, max2, 0, mNodes.length, 0, result);
+        }
+
+        private void range(double[] p, double min2, double max2, int from, int to, int depth,
+                           List<NodeInfo> result) {
+            if(from >= to) { return; }
+            int mid = (from + to) >>> 1;
+            int axis = depth % 3;
+
+            double d = dist2(p, mPoints[mid]);
+            if(d >= min2 && d <= max2) { result.add(mNodes[mid]); }
+
+            double diff = p[axis] - mPoints[mid][axis];
+            if(diff < 0 || diff * diff <= max2) {
+                range(p, min2, max2, from, mid, depth + 1, result);
+            }
+            if(diff >= 0 || diff * diff <= max2) {
+                range(p, min2, max2, mid + 1, to, depth + 1, result);
+            }
+        }
+
+        private static double dist2(double[] a, double[] b) {
+            double dx = a[0] - b[0];
+            double dy = a[1] - b[1];
+            double dz = a[2] - b[2];
+            return dx * dx + dy * dy + dz * dz;
+        }
+    }
+
+    private static class Candidate {
+        final int index;
+        final double dist;
+
+        Candidate(int index, double dist) {
+            this.index = index;
+            this.dist = dist;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package vstore.framework.rule;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import vstore.framework.db.table_helper.RulesDBHelper;
+
+/**
+ * In-memory index of all decision rules, keyed by the mime types the rules are configured for.
+ * It avoids querying and rebuilding the rules from the database for every file that is matched.
+ *
+ * A rule can be configured for a concrete mime type (e.g. "image/jpeg"), for a whole
+ * family (e.g. "image/*") or for all types ("*&#47;*"). The rule lists of every bucket are
+ * kept sorted by detail score (highest first).
+ *
+ * The index is loaded lazily from the database on first use and is patched by the
+ * {@link RulesDBHelper} whenever a rule is inserted, updated or deleted.
+ */
+public class RuleIndex {
+    private static final String WILDCARD = "*";
+
+    private static RuleIndex instance;
+
+    /**
+     * All rules currently known, by their UUID.
+     */
+    private Map<String, VStoreRule> mRules;
+    /**
+     * Immutable snapshot of the mime type buckets. Replaced as a whole on every change.
+     */
+    private volatile Map<String, List<VStoreRule>> mByMime;
+    /**
+     * Incremented on every change of the indexed rules.
+     */
+    private volatile long mVersion;
+
+    private RuleIndex() {
+        mRules = new LinkedHashMap<>();
+    }
+
+    public static synchronized void initialize() {
+        if(instance == null) {
+            instance = new RuleIndex();
+        }
+    }
+
+    /**
+     * @return Gets the instance of the rule index.
+     */
+    public static RuleIndex get() {
+        initialize();
+        return instance;
+    }
+
+    /**
+     * Returns all rules that could be triggered by the given mime type, sorted by detail
+     * score (highest first). This includes rules configured for the mime type family
+     * (e.g. "image/*") and for all mime types.
+     *
+     * The returned list is a copy and can be modified by the caller. The rule objects
+     * themselves are shared with the index and must not be modified.
+     *
+     * @param mimetype The mime type of the file.
+     * @return A list of the rules, or an empty list.
+     */
+    public List<VStoreRule> getRulesMatchingFileType(String mimetype) {
+        List<VStoreRule> results = new ArrayList<>();
+        if(mimetype == null || mimetype.equals("")) { return results; }
+
+        Map<String, List<VStoreRule>> byMime = getBuckets();
+        String mime = normalize(mimetype);
+        List<VStoreRule> exact = byMime.get(mime);
+        List<VStoreRule> family = byMime.get(getFamily(mime));
+        List<VStoreRule> all = byMime.get(WILDCARD + "/" + WILDCARD);
+
+        if(exact != null) { results.addAll(exact); }
+        if(family == null && all == null) { return results; }
+
+        //Merge the buckets. A rule can be contained in more than one of them.
+        if(family != null) { addAbsent(results, family); }
+        if(all != null) { addAbsent(results, all); }
+        sortByScore(results);
+        return results;
+    }
+
+    /**
+     * Adds or replaces the given rule in the index.
+     * @param rule The rule as it is stored in the database.
+     */
+    public synchronized void putRule(VStoreRule rule) {
+        if(rule == null || rule.getUUID() == null) { return; }
+        if(mByMime == null) { return; }
+        mRules.put(rule.getUUID(), rule);
+        mByMime = buildBuckets(mRules.values());
+        ++mVersion;
+    }
+
+    /**
+     * Removes the rule with the given UUID from the index.
+     * @param ruleUUID The UUID of the rule.
+     */
+    public synchronized void removeRule(String ruleUUID) {
+        if(ruleUUID == null || mByMime == null) { return; }
+        if(mRules.remove(ruleUUID) != null) {
+            mByMime = buildBuckets(mRules.values());
+            ++mVersion;
+        }
+    }
+
+    /**
+     * Drops the index. It will be reloaded from the database on next use.
+     */
+    public synchronized void invalidate() {
+        mRules.clear();
+        mByMime = null;
+        ++mVersion;
+    }
+
+    /**
+     * Reloads all rules from the database.
+     */
+    public synchronized void rebuild() {
+        List<VStoreRule> rules;
+        try
+        {
+            rules = RulesDBHelper.getRules(null);
+        }
+        catch(SQLException e)
+        {
+            e.printStackTrace();
+            return;
+        }
+        mRules.clear();
+        for(VStoreRule r : rules)
+        {
+            mRules.put(r.getUUID(), r);
+        }
+        mByMime = buildBuckets(mRules.values());
+        ++mVersion;
+    }
+
+    /**
+     * @return The current version of the rule set. Changes whenever a rule is added,
+     * updated or removed.
+     */
+    public long getVersion() {
+        getBuckets();
+        return mVersion;
+    }
+
+    private Map<String, List<VStoreRule>> getBuckets() {
+        Map<String, List<VStoreRule>> byMime = mByMime;
+        if(byMime != null) { return byMime; }
+        synchronized(this) {
+            if(mByMime == null) { rebuild(); }
+            return (mByMime != null) ? mByMime : Collections.<String, List<VStoreRule>>emptyMap();
+        }
+    }
+
+    private static Map<String, List<VStoreRule>> buildBuckets(Iterable<VStoreRule> rules) {
+        Map<String, List<VStoreRule>> byMime = new HashMap<>();
+        for(VStoreRule r : rules)
+        {
+            if(r.getMimeTypes() == null) { continue; }
+            for(String m : r.getMimeTypes())
+            {
+                if(m == null || m.trim().equals("")) { continue; }
+                List<VStoreRule> bucket = byMime.get(normalize(m));
+                if(bucket == null) {
+                    bucket = new ArrayList<>();
+                    byMime.put(normalize(m), bucket);
+                }
+                if(!bucket.contains(r)) { bucket.add(r); }
+            }
+        }
+        for(Map.Entry<String, List<VStoreRule>> e : byMime.entrySet())
+        {
+            sortByScore(e.getValue());
+            e.setValue(Collections.unmodifiableList(e.getValue()));
+        }
+        return Collections.unmodifiableMap(byMime);
+    }
+
+    private static void addAbsent(List<VStoreRule> target, List<VStoreRule> source) {
+        for(VStoreRule r : source)
+        {
+            if(!target.contains(r)) { target.add(r); }
+        }
+    }
+
+    private static void sortByScore(List<VStoreRule> rules) {
+        //Stable sort, highest detail score first
+        Collections.sort(rules, new Comparator<VStoreRule>() {
+            @Override
+            public int compare(VStoreRule r1, VStoreRule r2) {
+                return Float.compare(r2.getDetailScore(), r1.getDetailScore());
+            }
+        });
+    }
+
+    private static String normalize(String mimetype) {
+        return mimetype.trim().toLowerCase();
+    }
+
+    private static String getFamily(String mimetype) {
+        int slash = mimetype.indexOf('/');
+        String family = (slash < 0) ? mimetype : mimetype.substring(0, slash);
+        return family + "/" + WILDCARD;
+    }
+}
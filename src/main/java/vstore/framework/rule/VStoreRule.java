@@ -5,6 +5,8 @@ import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -14,6 +16,7 @@ import java.util.UUID;
 import vstore.framework.context.RuleContextDescription;
 import vstore.framework.context.types.place.PlaceConstants;
 import vstore.framework.context.types.place.PlaceType;
+import vstore.framework.db.codec.RuleContextCodec;
 import vstore.framework.utils.JsonUtils;
 import vstore.framework.utils.NumberUtils;
 import vstore.framework.utils.TextUtils;
@@ -39,6 +42,17 @@ public class VStoreRule {
      * The context belonging to this rule.
      */
     private RuleContextDescription mContext;
+    /**
+     * The context as read from the database, either as json or encoded by
+     * {@link RuleContextCodec}. Parsed on first access of {@link #getRuleContext()}.
+     */
+    private String mContextJson;
+    private byte[] mContextData;
+    /**
+     * True, if the json or encoded context could not be parsed. The raw context is kept,
+     * so that it is not lost when the rule is stored again.
+     */
+    private boolean mContextMalformed;
     /**
      * A list of mime types this rule should be applied to.
      */
@@ -256,11 +270,8 @@ public class VStoreRule {
         setName(name);
         setCreationDate(creationDate);
         setDecisionLayers(new ArrayList<>());
-        try {
-			setRuleContext(new RuleContextDescription(jsonContext));
-		} catch (ParseException e) {
-			e.printStackTrace();
-		}
+        //The context is parsed only when it is needed
+        mContextJson = jsonContext;
         setMimeTypes(new ArrayList<>());
         setMinFileSize(0);
         setSharingDomain(sharingDomain);
@@ -346,12 +357,52 @@ public class VStoreRule {
     }
 
     /**
-     * @return The rule context description for this rule.
+     * @return The rule context description for this rule. Null, if the rule has no context
+     * or if its context could not be parsed (see {@link #isRuleContextMalformed()}).
      */
-    public RuleContextDescription getRuleContext() {
+    public synchronized RuleContextDescription getRuleContext() {
+        if(mContext != null || mContextMalformed) { return mContext; }
+        if(mContextJson == null && mContextData == null) { return null; }
+        try {
+            mContext = (mContextData != null)
+                    ? RuleContextCodec.decode(mContextData)
+                    : new RuleContextDescription(mContextJson);
+        } catch (ParseException | IOException e) {
+            e.printStackTrace();
+            //Keep the raw context and do not try again on every access
+            mContextMalformed = true;
+            return null;
+        }
+        //Drop the raw context only once the parsed one is set
+        mContextJson = null;
+        mContextData = null;
         return mContext;
     }
 
+    /**
+     * @return True, if the context of this rule could not be parsed.
+     */
+    public synchronized boolean isRuleContextMalformed() {
+        getRuleContext();
+        return mContextMalformed;
+    }
+
+    /**
+     * @return The rule context encoded by {@link RuleContextCodec}, or null if no context is set.
+     * Does not parse the context, if it was set from encoded data. A context that could not be
+     * parsed is returned as it was read, so that it is not lost.
+     */
+    public synchronized byte[] getRuleContextData() {
+        if(mContextData != null) { return mContextData; }
+        RuleContextDescription ctx = getRuleContext();
+        if(ctx == null)
+        {
+            return (mContextMalformed && mContextJson != null)
+                    ? mContextJson.getBytes(StandardCharsets.UTF_8) : null;
+        }
+        return RuleContextCodec.encode(ctx);
+    }
+
     /**
      * @return A list of mime types that trigger this rule.
      */
@@ -449,8 +500,23 @@ public class VStoreRule {
      * Sets the context for this rule.
      * @param context The context (see {@link RuleContextDescription}).
      */
-    public void setRuleContext(RuleContextDescription context) {
+    public synchronized void setRuleContext(RuleContextDescription context) {
         mContext = context;
+        mContextJson = null;
+        mContextData = null;
+        mContextMalformed = false;
+    }
+
+    /**
+     * Sets the context for this rule from the given encoded data.
+     * The data is decoded when the context is accessed the first time.
+     * @param data The context encoded by {@link RuleContextCodec}.
+     */
+    public synchronized void setRuleContextFromData(byte[] data) {
+        mContext = null;
+        mContextJson = null;
+        mContextData = data;
+        mContextMalformed = false;
     }
 
     /**
@@ -664,23 +730,26 @@ public class VStoreRule {
      * @return True, if this rule has location context configured.
      */
     public boolean hasLocationContext() {
-        return mContext != null && mContext.hasLocationContext();
+        RuleContextDescription ctx = getRuleContext();
+        return ctx != null && ctx.hasLocationContext();
     }
 
     /**
      * @return True, if this rule has place type context configured.
      */
     public boolean hasPlaceContext() {
-        return (mContext != null) && (mContext.getPlaceTypes() != null)
-                && (mContext.getPlaceTypes().size() > 0) && mContext.hasPlaceContext();
+        RuleContextDescription ctx = getRuleContext();
+        return (ctx != null) && (ctx.getPlaceTypes() != null)
+                && (ctx.getPlaceTypes().size() > 0) && ctx.hasPlaceContext();
     }
 
     /**
      * @return True, if this rule has activity context configured.
      */
     public boolean hasActivityContext() {
-        if(mContext != null) {
-            return mContext.hasActivityContext();
+        RuleContextDescription ctx = getRuleContext();
+        if(ctx != null) {
+            return ctx.hasActivityContext();
         }
         return false;
     }
@@ -689,22 +758,24 @@ public class VStoreRule {
      * @return True, if this rule has network context configured.
      */
     public boolean hasNetworkContext() {
-        return mContext != null && mContext.hasNetworkContext();
+        RuleContextDescription ctx = getRuleContext();
+        return ctx != null && ctx.hasNetworkContext();
     }
 
     /**
      * @return True, if this rule has noise context configured.
      */
     public boolean hasNoiseContext() {
-        if(mContext == null) { return false; }
-        return mContext.hasNoiseContext();
+        RuleContextDescription ctx = getRuleContext();
+        if(ctx == null) { return false; }
+        return ctx.hasNoiseContext();
     }
 
     /**
      * @return True, if this rule has weekday context configured.
      */
     public boolean hasWeekdayContext() {
-        if(mContext == null) { return false; }
+        if(getRuleContext() == null) { return false; }
         return (mWeekdays != null) && (mWeekdays.size() > 0);
     }
 
@@ -712,7 +783,8 @@ public class VStoreRule {
      * @return True, if this rule has a context set.
      */
     public boolean hasContext() {
-        return mContext != null && !mContext.getJson().toString().equals("{}");
+        RuleContextDescription ctx = getRuleContext();
+        return ctx != null && !ctx.getJson().toString().equals("{}");
     }
 
     /**
@@ -736,8 +808,9 @@ public class VStoreRule {
      * Clears the location context from this rule.
      */
     public void clearLocationContext() {
-        if(mContext != null) {
-            mContext.clearLocationContext();
+        RuleContextDescription ctx = getRuleContext();
+        if(ctx != null) {
+            ctx.clearLocationContext();
         }
     }
 
@@ -745,8 +818,9 @@ public class VStoreRule {
      * Clears the place context from this rule.
      */
     public void clearPlaceContext() {
-        if(mContext != null) {
-            mContext.clearPlaceContext();
+        RuleContextDescription ctx = getRuleContext();
+        if(ctx != null) {
+            ctx.clearPlaceContext();
         }
     }
 
@@ -754,8 +828,9 @@ public class VStoreRule {
      * Clears the activity context from this rule.
      */
     public void clearActivityContext() {
-        if(mContext != null) {
-            mContext.clearActivityContext();
+        RuleContextDescription ctx = getRuleContext();
+        if(ctx != null) {
+            ctx.clearActivityContext();
         }
     }
 
@@ -763,8 +838,9 @@ public class VStoreRule {
      * Clears the network context from this rule.
      */
     public void clearNetworkContext() {
-        if(mContext != null) {
-            mContext.clearNetworkContext();
+        RuleContextDescription ctx = getRuleContext();
+        if(ctx != null) {
+            ctx.clearNetworkContext();
         }
     }
 
@@ -772,8 +848,9 @@ public class VStoreRule {
      * Clears the noise context from this rule.
      */
     public void clearNoiseContext() {
-        if(mContext != null) {
-            mContext.clearNoiseContext();
+        RuleContextDescription ctx = getRuleContext();
+        if(ctx != null) {
+            ctx.clearNoiseContext();
         }
     }
 
@@ -33,9 +33,11 @@ public class ContextUtils {
         double lon2 = Math.toRadians(two.getLongitude());
         
         // Great circle distance in radians, using law of cosines formula
-        double angle = Math.acos(Math.sin(lat1) * Math.sin(lat2)
-                               + Math.cos(lat1) * Math.cos(lat2) 
-                                 * Math.cos(lon1 - lon2));
+        double cos = Math.sin(lat1) * Math.sin(lat2)
+                   + Math.cos(lat1) * Math.cos(lat2) 
+                     * Math.cos(lon1 - lon2);
+        // Rounding can push the cosine of (almost) equal points above 1, acos would return NaN
+        double angle = Math.acos(Math.max(-1, Math.min(1, cos)));
         
         // each degree on a great circle of Earth is 60 nautical miles
         double nauticalMiles = 60 * Math.toDegrees(angle);
@@ -104,7 +106,16 @@ public class ContextUtils {
      * @return The current day of the week (1=monday and 7=sunday).
      */
     public static int getDayOfWeek() {
+        return getDayOfWeek(System.currentTimeMillis());
+    }
+
+    /**
+     * @param timeMillis A point in time in milliseconds since the epoch.
+     * @return The day of the week at the given time (1 = monday, ..., 7 = sunday).
+     */
+    public static int getDayOfWeek(long timeMillis) {
         Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timeMillis);
         int day = calendar.get(Calendar.DAY_OF_WEEK);
         //Fix the day number (Calendar API starts with 1 = sunday, but vStore uses 1 = monday)
         if (day == Calendar.SUNDAY) {
@@ -0,0 +1,128 @@
+package vstore.framework.utils;
+
+/**
+ * A simple histogram for latency values in nanoseconds.
+ * Values are counted in buckets with exponentially growing bounds (powers of two),
+ * so percentiles are approximations with a relative error of at most a factor of two.
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private final long[] mBuckets;
+    private long mCount;
+    private long mSum;
+    private long mMin;
+    private long mMax;
+
+    public LatencyHistogram() {
+        mBuckets = new long[BUCKETS];
+        reset();
+    }
+
+    /**
+     * Adds a value to the histogram.
+     * @param nanos The latency in nanoseconds. Negative values are counted as 0.
+     */
+    public synchronized void record(long nanos) {
+        if(nanos < 0) { nanos = 0; }
+        mBuckets[bucketOf(nanos)]++;
+        mCount++;
+        mSum += nanos;
+        if(nanos < mMin) { mMin = nanos; }
+        if(nanos > mMax) { mMax = nanos; }
+    }
+
+    /**
+     * @return The number of recorded values.
+     */
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return The sum of all recorded values in nanoseconds.
+     */
+    public synchronized long getSum() {
+        return mSum;
+    }
+
+    /**
+     * @return The mean of the recorded values in nanoseconds, or 0 if nothing was recorded.
+     */
+    public synchronized double getMean() {
+        return (mCount == 0) ? 0 : (double) mSum / mCount;
+    }
+
+    /**
+     * @return The smallest recorded value in nanoseconds, or 0 if nothing was recorded.
+     */
+    public synchronized long getMin() {
+        return (mCount == 0) ? 0 : mMin;
+    }
+
+    /**
+     * @return The largest recorded value in nanoseconds, or 0 if nothing was recorded.
+     */
+    public synchronized long getMax() {
+        return mMax;
+    }
+
+    /**
+     * Returns an approximation of the given percentile. The upper bound of the bucket
+     * containing the percentile is returned (capped by the maximum recorded value).
+     *
+     * @param percentile The percentile between 0 and 100.
+     * @return The approximated value in nanoseconds, or 0 if nothing was recorded.
+     */
+    public synchronized long getPercentile(double percentile) {
+        if(mCount == 0) { return 0; }
+        long rank = (long) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100.0 * mCount);
+        if(rank < 1) { rank = 1; }
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; ++i)
+        {
+            seen += mBuckets[i];
+            if(seen >= rank)
+            {
+                return Math.min(upperBoundOf(i), mMax);
+            }
+        }
+        return mMax;
+    }
+
+    /**
+     * @return A copy of the bucket counts. Bucket i counts values below 2^i nanoseconds
+     * (and at least 2^(i-1)).
+     */
+    public synchronized long[] getBuckets() {
+        return mBuckets.clone();
+    }
+
+    /**
+     * Removes all recorded values.
+     */
+    public synchronized void reset() {
+        for(int i = 0; i < BUCKETS; ++i) { mBuckets[i] = 0; }
+        mCount = 0;
+        mSum = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "count=" + mCount
+                + ", mean=" + (long) getMean() + "ns"
+                + ", p50=" + getPercentile(50) + "ns"
+                + ", p99=" + getPercentile(99) + "ns"
+                + ", max=" + getMax() + "ns";
+    }
+
+    private static int bucketOf(long nanos) {
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+    }
+
+    private static long upperBoundOf(int bucket) {
+        return (bucket >= 63) ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+}
@@ -0,0 +1,217 @@
+package vstore.framework;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import vstore.framework.communication.NodeProber;
+import vstore.framework.db.DBHelper;
+import vstore.framework.db.DBSchema;
+import vstore.framework.db.TestDatabase;
+import vstore.framework.db.table_helper.FileDBHelper;
+import vstore.framework.error.ErrorCode;
+import vstore.framework.file.FileManager;
+import vstore.framework.file.StoreResult;
+import vstore.framework.file.VStoreFile;
+import vstore.framework.node.NodeHealthTracker;
+import vstore.framework.node.NodeManager;
+
+/**
+ * Stores batches of files with {@link VStore#storeAll(java.util.Collection, boolean)}.
+ * No nodes and rules are configured, so all files stay on the device.
+ */
+public class VStoreTests {
+
+    private static File sSourceDir;
+
+    @BeforeClass
+    public static void initialize() throws Exception {
+        TestDatabase.open();
+        sSourceDir = Files.createTempDirectory("vstore-sources").toFile();
+        sSourceDir.deleteOnExit();
+        //The master node cannot be reached
+        VStore.initialize(sSourceDir, new URL("http://127.0.0.1:1"));
+        NodeManager.get().stopPeriodicSync();
+        NodeProber.get().stop();
+    }
+
+    @AfterClass
+    public static void shutdown() {
+        NodeHealthTracker.get().clear();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        TestDatabase.clear();
+        NodeManager.get().clearNodes();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        allowInserts();
+        TestDatabase.clear();
+    }
+
+    /**
+     * Creates a file to store with the given content.
+     * @return The absolute path of the file.
+     */
+    private static String source(String name, String content) throws IOException {
+        File f = new File(sSourceDir, name);
+        Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        f.deleteOnExit();
+        return f.getAbsolutePath();
+    }
+
+    /**
+     * @return The names of the files in the directory of the stored files.
+     */
+    private static Set<String> storedCopies() {
+        String[] names = FileManager.get().getStoredFilesDir().list();
+        return new HashSet<>(Arrays.asList((names != null) ? names : new String[0]));
+    }
+
+    private static Set<String> storedUuids() throws SQLException {
+        Set<String> uuids = new HashSet<>();
+        for(VStoreFile f : FileDBHelper.getFiles(FileDBHelper.SORT_BY_DATE_ASCENDING))
+        {
+            uuids.add(f.getUuid());
+        }
+        return uuids;
+    }
+
+    /**
+     * Makes every insert into the files table fail on the writer connection.
+     */
+    private static void failInserts() throws SQLException {
+        DBHelper db = DBHelper.get();
+        Connection conn = db.acquireWriter();
+        try(Statement stmt = conn.createStatement())
+        {
+            stmt.execute("CREATE TEMP TRIGGER fail_inserts BEFORE INSERT ON " + DBSchema.FilesTable.__NAME
+                    + " BEGIN SELECT RAISE(ABORT, 'insert failed for the test'); END");
+        }
+        finally
+        {
+            db.releaseWriter();
+        }
+    }
+
+    private static void allowInserts() throws SQLException {
+        DBHelper db = DBHelper.get();
+        Connection conn = db.acquireWriter();
+        try(Statement stmt = conn.createStatement())
+        {
+            stmt.execute("DROP TRIGGER IF EXISTS temp.fail_inserts");
+        }
+        finally
+        {
+            db.releaseWriter();
+        }
+    }
+
+    @Test
+    public void storeAllTest() throws Throwable {
+        Set<String> before = storedCopies();
+        List<String> uris = new ArrayList<>();
+        for(int i = 0; i < 20; ++i)
+        {
+            uris.add(source("file_" + i + ".txt", "content " + i));
+        }
+
+        List<StoreResult> results = VStore.getInstance().storeAll(uris, false);
+
+        Assert.assertEquals(uris.size(), results.size());
+        Set<String> uuids = new HashSet<>();
+        Set<String> copies = new HashSet<>();
+        for(int i = 0; i < uris.size(); ++i)
+        {
+            StoreResult r = results.get(i);
+            Assert.assertTrue(r.isSuccessful());
+            Assert.assertEquals(uris.get(i), r.getFileUri());
+            Assert.assertFalse(r.getFile().isUploadPending());
+            uuids.add(r.getFile().getUuid());
+            copies.add(new File(r.getFile().getFullPath()).getName());
+        }
+        Assert.assertEquals(uuids, storedUuids());
+        Set<String> after = storedCopies();
+        after.removeAll(before);
+        Assert.assertEquals(copies, after);
+    }
+
+    @Test
+    public void duplicatesTest() throws Throwable {
+        String stored = source("stored.txt", "stored before");
+        Assert.assertTrue(VStore.getInstance().storeAll(Collections.singletonList(stored), false)
+                .get(0).isSuccessful());
+        Set<String> before = storedCopies();
+
+        //The second file has the same content as the first one, the third one is stored already
+        List<String> uris = Arrays.asList(
+                source("first.txt", "same content"),
+                source("second.txt", "same content"),
+                stored,
+                source("other.txt", "other content"));
+        List<StoreResult> results = VStore.getInstance().storeAll(uris, false);
+
+        Assert.assertTrue(results.get(0).isSuccessful());
+        Assert.assertEquals(ErrorCode.FILE_ALREADY_EXISTS, results.get(1).getError().getErrCode());
+        Assert.assertEquals(ErrorCode.FILE_ALREADY_EXISTS, results.get(2).getError().getErrCode());
+        Assert.assertTrue(results.get(3).isSuccessful());
+        Assert.assertEquals(3, storedUuids().size());
+        //Only the copies of the two new files are left
+        Set<String> after = storedCopies();
+        after.removeAll(before);
+        Assert.assertEquals(new HashSet<>(Arrays.asList(
+                new File(results.get(0).getFile().getFullPath()).getName(),
+                new File(results.get(3).getFile().getFullPath()).getName())), after);
+    }
+
+    @Test
+    public void failedInsertDeletesCopiesTest() throws Throwable {
+        List<String> uris = new ArrayList<>();
+        for(int i = 0; i < 10; ++i)
+        {
+            uris.add(source("failing_" + i + ".txt", "failing content " + i));
+        }
+        Set<String> before = storedCopies();
+        failInserts();
+
+        List<StoreResult> results = VStore.getInstance().storeAll(uris, false);
+
+        Assert.assertEquals(uris.size(), results.size());
+        for(StoreResult r : results)
+        {
+            Assert.assertFalse(r.isSuccessful());
+            Assert.assertEquals(ErrorCode.DB_LOCAL_ERROR, r.getError().getErrCode());
+        }
+        Assert.assertTrue(storedUuids().isEmpty());
+        Assert.assertEquals(before, storedCopies());
+
+        //The same files can be stored once the database works again
+        allowInserts();
+        for(StoreResult r : VStore.getInstance().storeAll(uris, false))
+        {
+            Assert.assertTrue(r.isSuccessful());
+        }
+        Assert.assertEquals(uris.size(), storedUuids().size());
+    }
+}
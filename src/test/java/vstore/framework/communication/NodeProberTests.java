@@ -0,0 +1,184 @@
+package vstore.framework.communication;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import vstore.framework.node.NodeHealthTracker;
+import vstore.framework.node.NodeInfo;
+import vstore.framework.node.NodeType;
+
+public class NodeProberTests {
+
+    private HttpServer server;
+    private volatile int status;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    @Before
+    public void startStubNode() throws IOException {
+        status = 200;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/uuid", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int now = running.incrementAndGet();
+                maxRunning.accumulateAndGet(now, Math::max);
+                try
+                {
+                    Thread.sleep(50);
+                    byte[] reply = "{\"uuid\":\"stub\"}".getBytes(StandardCharsets.UTF_8);
+                    exchange.sendResponseHeaders(status, reply.length);
+                    try (OutputStream out = exchange.getResponseBody())
+                    {
+                        out.write(reply);
+                    }
+                }
+                catch(InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                finally
+                {
+                    running.decrementAndGet();
+                }
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        NodeHealthTracker.get().clear();
+    }
+
+    @After
+    public void stopStubNode() {
+        server.stop(0);
+        NodeHealthTracker.get().clear();
+    }
+
+    private NodeInfo stubNode(String uuid) {
+        return new NodeInfo(uuid, "127.0.0.1", server.getAddress().getPort(), NodeType.CLOUDLET, null);
+    }
+
+    private NodeProber prober(int maxConcurrent) {
+        return new NodeProber(NodeHealthTracker.get(), NodeProber.MIN_INTERVAL_MS, maxConcurrent, 1000);
+    }
+
+    @Test
+    public void successfulProbeRecordsStatsTest() {
+        NodeInfo node = stubNode("node_ok");
+        NodeProber prober = prober(1);
+
+        Assert.assertTrue(prober.probe(node));
+        Assert.assertTrue(prober.probe(node));
+
+        NodeHealthTracker tracker = NodeHealthTracker.get();
+        Assert.assertTrue(tracker.isHealthy("node_ok"));
+        Assert.assertTrue(tracker.getRtt("node_ok") > 0);
+        Assert.assertTrue(tracker.getRttPercentile("node_ok", 50) > 0);
+        Assert.assertTrue(tracker.getThroughput("node_ok") > 0);
+        Assert.assertEquals(0, tracker.getConsecutiveFailures("node_ok"));
+    }
+
+    @Test
+    public void consecutiveFailuresMarkNodeUnhealthyTest() {
+        NodeInfo node = stubNode("node_failing");
+        NodeProber prober = prober(1);
+        NodeHealthTracker tracker = NodeHealthTracker.get();
+
+        status = 500;
+        for(int i = 0; i < NodeHealthTracker.FAILURE_THRESHOLD - 1; ++i)
+        {
+            Assert.assertFalse(prober.probe(node));
+            Assert.assertTrue(tracker.isHealthy("node_failing"));
+        }
+        Assert.assertFalse(prober.probe(node));
+        Assert.assertFalse(tracker.isHealthy("node_failing"));
+
+        List<NodeInfo> nodes = new ArrayList<>();
+        nodes.add(node);
+        nodes.add(stubNode("node_unknown"));
+        Assert.assertEquals(1, tracker.filterHealthy(nodes).size());
+        Assert.assertEquals("node_unknown", tracker.getFastest(nodes).getIdentifier());
+
+        //A single successful probe makes the node healthy again
+        status = 200;
+        Assert.assertTrue(prober.probe(node));
+        Assert.assertTrue(tracker.isHealthy("node_failing"));
+    }
+
+    @Test
+    public void unreachableNodeFailsTest() throws IOException {
+        //Take a free port that nobody listens on
+        int port;
+        try (ServerSocket socket = new ServerSocket(0))
+        {
+            port = socket.getLocalPort();
+        }
+        NodeInfo node = new NodeInfo("node_down", "127.0.0.1", port, NodeType.CLOUDLET, null);
+        Assert.assertFalse(prober(1).probe(node));
+        Assert.assertEquals(1, NodeHealthTracker.get().getConsecutiveFailures("node_down"));
+    }
+
+    @Test
+    public void probeConcurrencyIsBoundedTest() {
+        List<NodeInfo> nodes = new ArrayList<>();
+        for(int i = 0; i < 12; ++i)
+        {
+            nodes.add(stubNode("node_" + i));
+        }
+        prober(3).probeAll(nodes);
+
+        Assert.assertTrue(maxRunning.get() <= 3);
+        for(NodeInfo n : nodes)
+        {
+            Assert.assertTrue(NodeHealthTracker.get().getRtt(n.getIdentifier()) > 0);
+        }
+    }
+
+    @Test
+    public void proberBoundsSettingsTest() {
+        NodeProber p = new NodeProber(NodeHealthTracker.get(), 0, 1000, 1000);
+        Assert.assertEquals(NodeProber.MIN_INTERVAL_MS, p.getIntervalMs());
+        Assert.assertEquals(NodeProber.MAX_CONCURRENT, p.getMaxConcurrent());
+    }
+
+    @Test
+    public void proberThreadsDoNotKeepJvmAliveTest() throws InterruptedException {
+        NodeProber p = prober(2);
+        p.start();
+        try
+        {
+            Thread scheduler = null;
+            for(int i = 0; i < 100 && scheduler == null; ++i)
+            {
+                for(Thread t : Thread.getAllStackTraces().keySet())
+                {
+                    if(t.getName().equals("vStore node prober")) { scheduler = t; }
+                }
+                if(scheduler == null) { Thread.sleep(10); }
+            }
+            Assert.assertNotNull(scheduler);
+            Assert.assertTrue(scheduler.isDaemon());
+        }
+        finally
+        {
+            p.stop();
+        }
+        Assert.assertFalse(p.isRunning());
+    }
+}
@@ -0,0 +1,91 @@
+package vstore.framework.db;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.UUID;
+
+import vstore.framework.db.table_helper.FileDBHelper;
+import vstore.framework.file.VStoreFile;
+
+public class DBHelperTests {
+
+    private static final long DATE = 1531152679000L;
+
+    @BeforeClass
+    public static void openDatabase() throws Exception {
+        TestDatabase.open();
+    }
+
+    @Before
+    public void clearDatabase() throws SQLException {
+        TestDatabase.clear();
+    }
+
+    @Test
+    public void writerReadsOwnChangesTest() throws Exception {
+        DBHelper db = DBHelper.get();
+        VStoreFile f = TestDatabase.createFile(UUID.randomUUID().toString(), DATE);
+
+        Connection conn = db.acquireWriter();
+        try
+        {
+            conn.setAutoCommit(false);
+            FileDBHelper.insertFile(f);
+            Assert.assertSame(conn, db.acquireReader());
+            db.releaseReader();
+            Assert.assertNotNull(FileDBHelper.getFile(f.getUuid()));
+            conn.rollback();
+        }
+        finally
+        {
+            conn.setAutoCommit(true);
+            db.releaseWriter();
+        }
+        Assert.assertNull(FileDBHelper.getFile(f.getUuid()));
+    }
+
+    @Test
+    public void writerAcquiredWhileReadingTest() throws Exception {
+        DBHelper db = DBHelper.get();
+        VStoreFile f = TestDatabase.createFile(UUID.randomUUID().toString(), DATE);
+
+        Connection reader = db.acquireReader();
+        try
+        {
+            Connection conn = db.acquireWriter();
+            try
+            {
+                Assert.assertNotSame(conn, reader);
+                conn.setAutoCommit(false);
+                FileDBHelper.insertFile(f);
+                //The nested reads of the thread go to the writer and see the uncommitted row
+                Assert.assertSame(conn, db.acquireReader());
+                db.releaseReader();
+                Assert.assertNotNull(FileDBHelper.getFile(f.getUuid()));
+                conn.commit();
+            }
+            finally
+            {
+                conn.setAutoCommit(true);
+                db.releaseWriter();
+            }
+            //Without the writer, the thread reads through its own read connection again
+            Assert.assertSame(reader, db.acquireReader());
+            db.releaseReader();
+            Assert.assertNotNull(FileDBHelper.getFile(f.getUuid()));
+        }
+        finally
+        {
+            db.releaseReader();
+        }
+        //The read connection went back to the pool
+        Connection again = db.acquireReader();
+        db.releaseReader();
+        Assert.assertNotSame(db.getConnection(), again);
+    }
+}
@@ -0,0 +1,268 @@
+package vstore.framework.db;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import vstore.framework.context.ContextDescription;
+import vstore.framework.context.RuleContextDescription;
+import vstore.framework.context.types.activity.ActivityType;
+import vstore.framework.context.types.location.VLatLng;
+import vstore.framework.context.types.location.VLocation;
+import vstore.framework.context.types.place.PlaceType;
+import vstore.framework.db.codec.ContextCodec;
+import vstore.framework.db.codec.NodeListCodec;
+import vstore.framework.db.codec.RuleContextCodec;
+import vstore.framework.db.table_helper.FileDBHelper;
+
+public class DBSchemaTests {
+
+    private File mDir;
+    private Connection mConn;
+
+    @Before
+    public void openDatabase() throws Exception {
+        mDir = Files.createTempDirectory("vstore-schema-test").toFile();
+        mConn = DriverManager.getConnection("jdbc:sqlite:" + new File(mDir, "vstore.db"));
+    }
+
+    @After
+    public void closeDatabase() throws SQLException {
+        mConn.close();
+        File[] files = mDir.listFiles();
+        if(files != null)
+        {
+            for(File f : files) { f.delete(); }
+        }
+        mDir.delete();
+    }
+
+    private List<Long> query(String sql) throws SQLException {
+        List<Long> values = new ArrayList<>();
+        try(Statement stmt = mConn.createStatement();
+            ResultSet rs = stmt.executeQuery(sql))
+        {
+            while(rs.next()) { values.add(rs.getLong(1)); }
+        }
+        return values;
+    }
+
+    private String queryPlan(String sql) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try(Statement stmt = mConn.createStatement();
+            ResultSet rs = stmt.executeQuery("EXPLAIN QUERY PLAN " + sql))
+        {
+            while(rs.next()) { plan.append(rs.getString("detail")).append('\n'); }
+        }
+        return plan.toString();
+    }
+
+    @Test
+    public void versionZeroDatabaseIsUpgradedOnceTest() throws SQLException {
+        //A database of the versions before the layout was versioned: the tables of the first
+        //migration with some rows, but no version table
+        try(Statement stmt = mConn.createStatement())
+        {
+            for(String sql : DBSchema.MIGRATIONS[0]) { stmt.execute(sql); }
+            stmt.execute("INSERT INTO " + DBSchema.NodesTable.__NAME
+                    + " VALUES ('node_1', 'http://10.0.0.1', 50000, 50.2, 3.6, 'CLOUDLET', 10, 20)");
+            stmt.execute("INSERT INTO " + DBSchema.MimesPerRuleTable.__NAME
+                    + " (" + DBSchema.MimesPerRuleTable.RULE_ID + ", " + DBSchema.MimesPerRuleTable.MIME
+                    + ") VALUES ('rule_1', 'image/jpeg')");
+        }
+
+        Assert.assertEquals(DBSchema.VERSION, DBHelper.migrate(mConn));
+
+        List<Long> versions = query("SELECT " + DBSchema.SchemaVersionTable.VERSION + " FROM "
+                + DBSchema.SchemaVersionTable.__NAME + " ORDER BY " + DBSchema.SchemaVersionTable.VERSION);
+        Assert.assertEquals(DBSchema.VERSION, versions.size());
+        for(int i = 0; i < versions.size(); ++i)
+        {
+            Assert.assertEquals(i + 1, versions.get(i).longValue());
+        }
+        for(String index : new String[] { "idx_files_md5_hash", "idx_files_upload_pending",
+                "idx_files_delete_pending", "idx_mimes_per_rule_mime", "idx_mimes_per_rule_rule_id",
+                "idx_decisions_per_rule_rule_id", "idx_files_date_creation" })
+        {
+            Assert.assertEquals(index, 1, query("SELECT COUNT(*) FROM sqlite_master WHERE type = 'index'"
+                    + " AND name = '" + index + "'").get(0).longValue());
+        }
+        Assert.assertEquals(1, query("SELECT COUNT(*) FROM " + DBSchema.NodesTable.__NAME).get(0).longValue());
+        Assert.assertEquals(1, query("SELECT COUNT(*) FROM " + DBSchema.MimesPerRuleTable.__NAME).get(0).longValue());
+
+        //Opening the database again does not run any migration
+        List<Long> applied = query("SELECT " + DBSchema.SchemaVersionTable.DATE_APPLIED + " FROM "
+                + DBSchema.SchemaVersionTable.__NAME + " ORDER BY " + DBSchema.SchemaVersionTable.VERSION);
+        Assert.assertEquals(DBSchema.VERSION, DBHelper.migrate(mConn));
+        Assert.assertEquals(applied, query("SELECT " + DBSchema.SchemaVersionTable.DATE_APPLIED + " FROM "
+                + DBSchema.SchemaVersionTable.__NAME + " ORDER BY " + DBSchema.SchemaVersionTable.VERSION));
+    }
+
+    @Test
+    public void newerDatabaseIsNotMigratedTest() throws SQLException {
+        DBHelper.migrate(mConn);
+        try(Statement stmt = mConn.createStatement())
+        {
+            stmt.execute("INSERT INTO " + DBSchema.SchemaVersionTable.__NAME + " VALUES ("
+                    + (DBSchema.VERSION + 1) + ", 0)");
+        }
+        Assert.assertEquals(DBSchema.VERSION + 1, DBHelper.migrate(mConn));
+    }
+
+    @Test
+    public void partialIndexesAreUsedTest() throws SQLException {
+        DBHelper.migrate(mConn);
+        String files = DBSchema.FilesTable.__NAME;
+
+        //The queries of FileDBHelper, which use the conditions of DBSchema.Where
+        Assert.assertTrue(queryPlan("SELECT * FROM " + files
+                + " WHERE " + DBSchema.Where.FILES_TO_UPLOAD
+                + " ORDER BY " + FileDBHelper.SORT_BY_DATE_DESCENDING)
+                .contains("idx_files_upload_pending"));
+        Assert.assertTrue(queryPlan("SELECT COUNT(*) AS rowcount FROM " + files
+                + " WHERE " + DBSchema.Where.FILES_TO_UPLOAD)
+                .contains("idx_files_upload_pending"));
+        Assert.assertTrue(queryPlan("SELECT * FROM " + files
+                + " WHERE " + DBSchema.Where.FILES_FOR_DELETION
+                + " ORDER BY " + FileDBHelper.SORT_BY_DATE_DESCENDING)
+                .contains("idx_files_delete_pending"));
+
+        //A bound parameter instead of the literal condition cannot use the partial index
+        Assert.assertFalse(queryPlan("SELECT * FROM " + files
+                + " WHERE " + DBSchema.FilesTable.DELETE_PENDING + " = ?")
+                .contains("idx_files_delete_pending"));
+    }
+
+    private String typeOf(String table, String column, String idColumn, String id) throws SQLException {
+        try(PreparedStatement pstmt = mConn.prepareStatement("SELECT typeof(" + column + ") FROM "
+                + table + " WHERE " + idColumn + " = ?"))
+        {
+            pstmt.setString(1, id);
+            try(ResultSet rs = pstmt.executeQuery())
+            {
+                rs.next();
+                return rs.getString(1);
+            }
+        }
+    }
+
+    private byte[] bytesOf(String table, String column, String idColumn, String id) throws SQLException {
+        try(PreparedStatement pstmt = mConn.prepareStatement("SELECT " + column + " FROM "
+                + table + " WHERE " + idColumn + " = ?"))
+        {
+            pstmt.setString(1, id);
+            try(ResultSet rs = pstmt.executeQuery())
+            {
+                rs.next();
+                return rs.getBytes(1);
+            }
+        }
+    }
+
+    private void insertFile(String uuid, String nodesJson, String contextJson) throws SQLException {
+        try(PreparedStatement pstmt = mConn.prepareStatement("INSERT INTO " + DBSchema.FilesTable.__NAME
+                + " (" + DBSchema.FilesTable.UUID + ", " + DBSchema.FilesTable.MD5_HASH + ", "
+                + DBSchema.FilesTable.DESCRIPTIVE_NAME + ", " + DBSchema.FilesTable.STORED_NODES + ", "
+                + DBSchema.FilesTable.CONTEXTJSON + ") VALUES (?, 'md5', 'name', ?, ?)"))
+        {
+            pstmt.setString(1, uuid);
+            pstmt.setString(2, nodesJson);
+            pstmt.setString(3, contextJson);
+            pstmt.execute();
+        }
+    }
+
+    private void insertRule(String id, String contextJson) throws SQLException {
+        try(PreparedStatement pstmt = mConn.prepareStatement("INSERT INTO " + DBSchema.RulesTable.__NAME
+                + " (" + DBSchema.RulesTable.ID + ", " + DBSchema.RulesTable.NAME + ", "
+                + DBSchema.RulesTable.CONTEXTJSON + ", " + DBSchema.RulesTable.SHARING_DOMAIN
+                + ") VALUES (?, 'name', ?, 0)"))
+        {
+            pstmt.setString(1, id);
+            pstmt.setString(2, contextJson);
+            pstmt.execute();
+        }
+    }
+
+    @Test
+    public void versionThreeRowsAreEncodedTest() throws Exception {
+        //A database of version 3, which stores contexts and node lists as json
+        try(Statement stmt = mConn.createStatement())
+        {
+            stmt.execute("CREATE TABLE " + DBSchema.SchemaVersionTable.__NAME + "("
+                    + DBSchema.SchemaVersionTable.VERSION + " INTEGER PRIMARY KEY NOT NULL,"
+                    + DBSchema.SchemaVersionTable.DATE_APPLIED + " INTEGER)");
+            for(int version = 0; version < 3; ++version)
+            {
+                for(String sql : DBSchema.MIGRATIONS[version]) { stmt.execute(sql); }
+                stmt.execute("INSERT INTO " + DBSchema.SchemaVersionTable.__NAME
+                        + " VALUES (" + (version + 1) + ", 0)");
+            }
+        }
+        ContextDescription ctx = new ContextDescription();
+        ctx.setTimestamp(1531152679000L);
+        ctx.setLocationContext(new VLocation(new VLatLng(-33.8688197, -151.2092955), 5f, 1531152679000L, "Sydney"));
+        ctx.setDayOfWeek(2);
+        String nodeId = UUID.randomUUID().toString();
+        insertFile("file_json", "[\"" + nodeId + "\", \"node-7\"]", ctx.getJson().toJSONString());
+        insertFile("file_empty", null, null);
+        insertFile("file_malformed", "not json", "{\"location\":");
+
+        insertRule("rule_json", "{\"location\" : { \"lat\" : -22.9068467, \"lng\" : -43.1728965 },"
+                + " \"radius\" : 500, \"placetypes\" : [\"" + PlaceType.values()[1].name() + "\"],"
+                + " \"activity\" : \"" + ActivityType.values()[1].name() + "\"}");
+        insertRule("rule_malformed", "{\"location\":");
+
+        Assert.assertEquals(DBSchema.VERSION, DBHelper.migrate(mConn));
+
+        String files = DBSchema.FilesTable.__NAME;
+        String fileId = DBSchema.FilesTable.UUID;
+        Assert.assertEquals("blob", typeOf(files, DBSchema.FilesTable.CONTEXTJSON, fileId, "file_json"));
+        Assert.assertEquals("blob", typeOf(files, DBSchema.FilesTable.STORED_NODES, fileId, "file_json"));
+        byte[] context = bytesOf(files, DBSchema.FilesTable.CONTEXTJSON, fileId, "file_json");
+        Assert.assertTrue(ContextCodec.isEncoded(context));
+        Assert.assertEquals(ctx.getJson(), ContextCodec.decode(context).getJson());
+        Assert.assertEquals(Arrays.asList(nodeId, "node-7"),
+                NodeListCodec.decode(bytesOf(files, DBSchema.FilesTable.STORED_NODES, fileId, "file_json")));
+
+        //Empty and malformed values are left as they are
+        Assert.assertEquals("null", typeOf(files, DBSchema.FilesTable.CONTEXTJSON, fileId, "file_empty"));
+        Assert.assertEquals("null", typeOf(files, DBSchema.FilesTable.STORED_NODES, fileId, "file_empty"));
+        Assert.assertEquals("text", typeOf(files, DBSchema.FilesTable.CONTEXTJSON, fileId, "file_malformed"));
+        Assert.assertEquals("text", typeOf(files, DBSchema.FilesTable.STORED_NODES, fileId, "file_malformed"));
+
+        String rules = DBSchema.RulesTable.__NAME;
+        String ruleId = DBSchema.RulesTable.ID;
+        Assert.assertEquals("blob", typeOf(rules, DBSchema.RulesTable.CONTEXTJSON, ruleId, "rule_json"));
+        RuleContextDescription decoded = RuleContextCodec.decode(
+                bytesOf(rules, DBSchema.RulesTable.CONTEXTJSON, ruleId, "rule_json"));
+        Assert.assertEquals(-22.9068467, decoded.getLocationContext().getLatitude(), 0);
+        Assert.assertEquals(-43.1728965, decoded.getLocationContext().getLongitude(), 0);
+        Assert.assertEquals(500, decoded.getRadius());
+        Assert.assertEquals(Arrays.asList(PlaceType.values()[1]), decoded.getPlaceTypes());
+        Assert.assertEquals(ActivityType.values()[1], decoded.getActivityContext());
+        Assert.assertNull(decoded.getNoiseContext());
+        Assert.assertEquals("text", typeOf(rules, DBSchema.RulesTable.CONTEXTJSON, ruleId, "rule_malformed"));
+
+        //The conversion is recorded like every other migration and not run again
+        List<Long> versions = query("SELECT " + DBSchema.SchemaVersionTable.VERSION + " FROM "
+                + DBSchema.SchemaVersionTable.__NAME);
+        Assert.assertEquals(DBSchema.VERSION, versions.size());
+        Assert.assertEquals(DBSchema.VERSION, DBHelper.migrate(mConn));
+        Assert.assertArrayEquals(context, bytesOf(files, DBSchema.FilesTable.CONTEXTJSON, fileId, "file_json"));
+    }
+}
@@ -0,0 +1,201 @@
+package vstore.framework.db;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+
+import vstore.framework.db.table_helper.FileDBHelper;
+import vstore.framework.file.VStoreFile;
+
+public class FileStateQueueTests {
+
+    private static final long DATE = 1531152679000L;
+
+    @BeforeClass
+    public static void openDatabase() throws Exception {
+        TestDatabase.open();
+    }
+
+    @Before
+    public void clearDatabase() throws SQLException {
+        FileStateQueue.get().flush();
+        TestDatabase.clear();
+    }
+
+    /**
+     * Stores a new file with the upload pending flag set.
+     *
+     * @return The UUID of the file.
+     */
+    private static String storeFile() throws Exception {
+        VStoreFile f = TestDatabase.createFile(UUID.randomUUID().toString(), DATE);
+        f.setUploadPending(true);
+        FileDBHelper.insertFile(f);
+        return f.getUuid();
+    }
+
+    /**
+     * Reads the flags of the file directly from the database, without flushing the queue.
+     *
+     * @return upload pending, upload failed and delete pending.
+     */
+    private static boolean[] readFlags(String uuid) throws SQLException {
+        DBHelper db = DBHelper.get();
+        Connection conn = db.acquireReader();
+        try(Statement stmt = conn.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT "
+                    + DBSchema.FilesTable.UPLOAD_PENDING + ", "
+                    + DBSchema.FilesTable.UPLOAD_FAILED + ", "
+                    + DBSchema.FilesTable.DELETE_PENDING + " FROM " + DBSchema.FilesTable.__NAME
+                    + " WHERE " + DBSchema.FilesTable.UUID + " = '" + uuid + "'"))
+        {
+            Assert.assertTrue(rs.next());
+            return new boolean[] { rs.getBoolean(1), rs.getBoolean(2), rs.getBoolean(3) };
+        }
+        finally
+        {
+            db.releaseReader();
+        }
+    }
+
+    /**
+     * Makes every update of the flags of the given file fail on the writer connection.
+     */
+    private static void failUpdatesOf(String uuid) throws SQLException {
+        DBHelper db = DBHelper.get();
+        Connection conn = db.acquireWriter();
+        try(Statement stmt = conn.createStatement())
+        {
+            stmt.execute("CREATE TEMP TRIGGER fail_flags BEFORE UPDATE ON " + DBSchema.FilesTable.__NAME
+                    + " WHEN NEW." + DBSchema.FilesTable.UUID + " = '" + uuid + "'"
+                    + " BEGIN SELECT RAISE(ABORT, 'update failed for the test'); END");
+        }
+        finally
+        {
+            db.releaseWriter();
+        }
+    }
+
+    private static void allowUpdates() throws SQLException {
+        DBHelper db = DBHelper.get();
+        Connection conn = db.acquireWriter();
+        try(Statement stmt = conn.createStatement())
+        {
+            stmt.execute("DROP TRIGGER IF EXISTS temp.fail_flags");
+        }
+        finally
+        {
+            db.releaseWriter();
+        }
+    }
+
+    @Test
+    public void repeatedUpdatesAreCoalescedTest() throws Exception {
+        String uuid = storeFile();
+        FileStateQueue queue = FileStateQueue.get();
+        DBHelper db = DBHelper.get();
+
+        //Holding the writer keeps the background flush from taking the queued flags
+        db.acquireWriter();
+        try
+        {
+            queue.setFlags(uuid, true, true, false);
+            queue.setFlags(uuid, false, true, false);
+            queue.setFlags(uuid, false, false, true);
+            Assert.assertEquals(1, queue.size());
+        }
+        finally
+        {
+            db.releaseWriter();
+        }
+        queue.flush();
+
+        Assert.assertEquals(0, queue.size());
+        Assert.assertArrayEquals(new boolean[] { false, false, true }, readFlags(uuid));
+    }
+
+    @Test
+    public void failedBatchIsRequeuedTest() throws Exception {
+        String failing = storeFile();
+        String other = storeFile();
+        FileStateQueue queue = FileStateQueue.get();
+        DBHelper db = DBHelper.get();
+
+        failUpdatesOf(failing);
+        try
+        {
+            db.acquireWriter();
+            try
+            {
+                queue.setFlags(failing, false, true, false);
+                queue.setFlags(other, false, false, false);
+                queue.flush();
+
+                //The batch is rolled back as a whole and kept for the next flush
+                Assert.assertEquals(2, queue.size());
+                Assert.assertArrayEquals(new boolean[] { true, false, false }, readFlags(failing));
+                Assert.assertArrayEquals(new boolean[] { true, false, false }, readFlags(other));
+
+                //Newer flags replace the requeued ones
+                queue.setFlags(failing, false, false, true);
+            }
+            finally
+            {
+                db.releaseWriter();
+            }
+        }
+        finally
+        {
+            allowUpdates();
+        }
+        queue.flush();
+
+        Assert.assertEquals(0, queue.size());
+        Assert.assertArrayEquals(new boolean[] { false, false, true }, readFlags(failing));
+        Assert.assertArrayEquals(new boolean[] { false, false, false }, readFlags(other));
+    }
+
+    @Test
+    public void readsSeeQueuedFlagsTest() throws Exception {
+        String uuid = storeFile();
+        FileStateQueue.get().setFlags(uuid, false, false, true);
+
+        Assert.assertTrue(FileDBHelper.getFile(uuid).isDeletePending());
+        Assert.assertEquals(0, FileStateQueue.get().size());
+
+        //A direct write after the batch replaces the flags
+        FileDBHelper.updateFlags(uuid, true, false, false);
+        Assert.assertArrayEquals(new boolean[] { true, false, false }, readFlags(uuid));
+    }
+
+    @Test
+    public void stopWritesQueuedFlagsTest() throws Exception {
+        String first = storeFile();
+        String second = storeFile();
+        FileStateQueue queue = FileStateQueue.get();
+        DBHelper db = DBHelper.get();
+
+        db.acquireWriter();
+        try
+        {
+            queue.setFlags(first, false, false, false);
+            queue.setFlags(second, false, true, false);
+        }
+        finally
+        {
+            db.releaseWriter();
+        }
+        queue.stop();
+
+        Assert.assertEquals(0, queue.size());
+        Assert.assertArrayEquals(new boolean[] { false, false, false }, readFlags(first));
+        Assert.assertArrayEquals(new boolean[] { false, true, false }, readFlags(second));
+    }
+}
@@ -0,0 +1,210 @@
+package vstore.framework.db;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the statements of the {@link StatementCache} with statements prepared for every
+ * execution, as the database helpers did it before the cache existed.
+ */
+public class StatementCacheTests {
+
+    private static final int MAX_STATEMENTS = 32;
+
+    private Connection mConn;
+    private StatementCache mCache;
+
+    @Before
+    public void setUp() throws SQLException {
+        mConn = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try(Statement stmt = mConn.createStatement())
+        {
+            stmt.execute("CREATE TABLE test (id INTEGER PRIMARY KEY, value TEXT)");
+        }
+        mCache = new StatementCache(mConn);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        mCache.close();
+        mConn.close();
+    }
+
+    private static String sql(int query) {
+        return "SELECT value, " + query + " FROM test WHERE id >= ? ORDER BY id";
+    }
+
+    /**
+     * @return The rows of the result, with the values of all columns.
+     */
+    private static List<String> rows(PreparedStatement pstmt) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try(ResultSet rs = pstmt.executeQuery())
+        {
+            int columns = rs.getMetaData().getColumnCount();
+            while(rs.next())
+            {
+                StringBuilder row = new StringBuilder();
+                for(int i = 1; i <= columns; ++i) { row.append(rs.getString(i)).append('|'); }
+                rows.add(row.toString());
+            }
+        }
+        return rows;
+    }
+
+    private PreparedStatement insert(int id, String value) throws SQLException {
+        PreparedStatement pstmt = mCache.get("insert", "INSERT INTO test (id, value) VALUES (?, ?)");
+        pstmt.setInt(1, id);
+        pstmt.setString(2, value);
+        pstmt.executeUpdate();
+        return pstmt;
+    }
+
+    /**
+     * Records the use of a statement in the model of the cache and checks that the least
+     * recently used statement was closed, if the cache is full.
+     */
+    private static void use(Map<String, PreparedStatement> lru, String queryId, PreparedStatement pstmt)
+            throws SQLException {
+        PreparedStatement known = lru.get(queryId);
+        if(known != null)
+        {
+            //A cached statement is reused, until it is the least recently used one
+            Assert.assertSame(known, pstmt);
+        }
+        lru.put(queryId, pstmt);
+        if(lru.size() > MAX_STATEMENTS)
+        {
+            Map.Entry<String, PreparedStatement> eldest = lru.entrySet().iterator().next();
+            lru.remove(eldest.getKey());
+            Assert.assertTrue(eldest.getValue().isClosed());
+        }
+    }
+
+    @Test
+    public void statementsMatchPreparedStatementsTest() throws SQLException {
+        Random random = new Random(61);
+        //The statements the cache holds, least recently used first
+        Map<String, PreparedStatement> lru = new LinkedHashMap<>(16, 0.75f, true);
+        int id = 0;
+        for(int op = 0; op < 2000; ++op)
+        {
+            if(random.nextInt(10) == 0)
+            {
+                use(lru, "insert", insert(id, "value_" + id));
+                ++id;
+                continue;
+            }
+            int query = random.nextInt(MAX_STATEMENTS + 16);
+            int minId = random.nextInt(id + 1);
+            PreparedStatement cached = mCache.get("query_" + query, sql(query));
+            use(lru, "query_" + query, cached);
+            cached.setInt(1, minId);
+
+            try(PreparedStatement baseline = mConn.prepareStatement(sql(query)))
+            {
+                baseline.setInt(1, minId);
+                Assert.assertEquals(rows(baseline), rows(cached));
+            }
+        }
+        for(PreparedStatement pstmt : lru.values())
+        {
+            Assert.assertFalse(pstmt.isClosed());
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedStatementIsClosedTest() throws SQLException {
+        List<PreparedStatement> statements = new ArrayList<>();
+        for(int i = 0; i < MAX_STATEMENTS; ++i)
+        {
+            statements.add(mCache.get("query_" + i, sql(i)));
+        }
+        //Using the first statement makes the second one the least recently used
+        Assert.assertSame(statements.get(0), mCache.get("query_0", sql(0)));
+        mCache.get("query_" + MAX_STATEMENTS, sql(MAX_STATEMENTS));
+
+        Assert.assertFalse(statements.get(0).isClosed());
+        Assert.assertTrue(statements.get(1).isClosed());
+        for(int i = 2; i < MAX_STATEMENTS; ++i)
+        {
+            Assert.assertFalse(statements.get(i).isClosed());
+        }
+        //An evicted statement is prepared again
+        PreparedStatement again = mCache.get("query_1", sql(1));
+        Assert.assertNotSame(statements.get(1), again);
+        again.setInt(1, 0);
+        Assert.assertTrue(rows(again).isEmpty());
+    }
+
+    @Test
+    public void statementIsUsableAfterFailedExecutionTest() throws SQLException {
+        insert(1, "a");
+        try
+        {
+            insert(1, "b");
+            Assert.fail();
+        }
+        catch(SQLException e)
+        {
+            //Primary key constraint
+        }
+        insert(2, "b");
+
+        //abs() of the smallest integer fails with an integer overflow
+        String sql = "SELECT abs(?)";
+        PreparedStatement pstmt = mCache.get("abs", sql);
+        pstmt.setLong(1, Long.MIN_VALUE);
+        try
+        {
+            rows(pstmt);
+            Assert.fail();
+        }
+        catch(SQLException e)
+        {
+            //Integer overflow
+        }
+        pstmt = mCache.get("abs", sql);
+        pstmt.setLong(1, -5);
+        Assert.assertEquals("5|", rows(pstmt).get(0));
+
+        PreparedStatement get = mCache.get("get", "SELECT value FROM test WHERE id = ?");
+        get.setInt(1, 2);
+        Assert.assertEquals("b|", rows(get).get(0));
+    }
+
+    @Test
+    public void closedStatementIsPreparedAgainTest() throws SQLException {
+        PreparedStatement pstmt = mCache.get("query_0", sql(0));
+        pstmt.close();
+        PreparedStatement again = mCache.get("query_0", sql(0));
+        Assert.assertNotSame(pstmt, again);
+        Assert.assertFalse(again.isClosed());
+        again.setInt(1, 0);
+        Assert.assertTrue(rows(again).isEmpty());
+    }
+
+    @Test
+    public void closeTest() throws SQLException {
+        PreparedStatement a = mCache.get("query_0", sql(0));
+        PreparedStatement b = mCache.get("query_1", sql(1));
+        mCache.close();
+        Assert.assertTrue(a.isClosed());
+        Assert.assertTrue(b.isClosed());
+        Assert.assertNotSame(a, mCache.get("query_0", sql(0)));
+    }
+}
@@ -0,0 +1,82 @@
+package vstore.framework.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Date;
+
+import vstore.framework.file.FileManager;
+import vstore.framework.file.VStoreFile;
+
+/**
+ * Opens the database of the framework in a temporary directory for the tests.
+ * The database is shared by all tests of a test run, so tests clear it before they start.
+ */
+public class TestDatabase {
+
+    private static final String[] TABLES = {
+            DBSchema.FilesTable.__NAME,
+            DBSchema.RulesTable.__NAME,
+            DBSchema.MimesPerRuleTable.__NAME,
+            DBSchema.DecisionsPerRuleTable.__NAME,
+            DBSchema.NodesTable.__NAME,
+            DBSchema.CurrentDownloads.__NAME
+    };
+
+    private TestDatabase() {}
+
+    /**
+     * Opens the database, if it is not open yet.
+     */
+    public static synchronized void open() throws Exception {
+        if(DBHelper.get() != null) { return; }
+        if(FileManager.get() == null)
+        {
+            File baseDir = Files.createTempDirectory("vstore-test").toFile();
+            baseDir.deleteOnExit();
+            FileManager.initialize(baseDir);
+        }
+        DBHelper.initialize();
+    }
+
+    /**
+     * Deletes all rows of all tables.
+     */
+    public static void clear() throws SQLException {
+        DBHelper db = DBHelper.get();
+        Connection conn = db.acquireWriter();
+        try(Statement stmt = conn.createStatement())
+        {
+            for(String table : TABLES)
+            {
+                stmt.executeUpdate("DELETE FROM " + table);
+            }
+        }
+        finally
+        {
+            db.releaseWriter();
+        }
+    }
+
+    /**
+     * Creates an empty file in the directory of the stored files, so that it can be read
+     * back from the database. The file is not inserted into the database.
+     *
+     * @param uuid The UUID of the file.
+     * @param dateCreation The creation date of the file in milliseconds.
+     * @return The file.
+     */
+    public static VStoreFile createFile(String uuid, long dateCreation) throws IOException {
+        File dir = FileManager.get().getStoredFilesDir();
+        File f = new File(dir, uuid + ".txt");
+        f.createNewFile();
+        f.deleteOnExit();
+        VStoreFile file = new VStoreFile(uuid, "test.txt", dir.getAbsolutePath(), "application/txt",
+                "txt", new Date(dateCreation), false, false);
+        file.setMD5Hash(uuid);
+        return file;
+    }
+}
@@ -0,0 +1,144 @@
+package vstore.framework.db.codec;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import vstore.framework.context.ContextDescription;
+import vstore.framework.context.RuleContextDescription;
+import vstore.framework.context.types.activity.ActivityType;
+import vstore.framework.context.types.activity.VActivity;
+import vstore.framework.context.types.location.VLatLng;
+import vstore.framework.context.types.location.VLocation;
+import vstore.framework.context.types.network.VNetwork;
+import vstore.framework.context.types.network.cellular.CellularNetwork;
+import vstore.framework.context.types.network.wifi.WiFi;
+import vstore.framework.context.types.noise.VNoise;
+import vstore.framework.context.types.place.PlaceType;
+import vstore.framework.context.types.place.VPlaces;
+import vstore.framework.context.types.place.VSinglePlace;
+
+public class ContextCodecTests {
+
+    private static final long NOW = 1531152679000L;
+
+    private static ContextDescription fullContext() {
+        ContextDescription ctx = new ContextDescription();
+        ctx.setTimestamp(NOW);
+        //South-western hemisphere, so that both coordinates are negative
+        ctx.setLocationContext(new VLocation(new VLatLng(-33.8688197, -151.2092955), 12.5f, NOW, "Sydney"));
+        ArrayList<VSinglePlace> places = new ArrayList<>();
+        VSinglePlace p = new VSinglePlace("place_1", "Caf\u00e9 \u2615", PlaceType.values()[1], -33.8, 151.2, 0.73);
+        p.setPlaceTypeText("cafe");
+        p.setMostLikely(true);
+        places.add(p);
+        ctx.setPlacesContext(new VPlaces(places, NOW));
+        ctx.setActivityContext(new VActivity(ActivityType.values()[2], 88, NOW));
+        WiFi wifi = new WiFi(true, "vstore");
+        wifi.setTimestamp(NOW);
+        CellularNetwork mobile = new CellularNetwork(true, false, CellularNetwork.MobileType.NET_4G);
+        mobile.setTimestamp(NOW);
+        VNetwork network = new VNetwork(wifi, mobile);
+        network.setTimestamp(NOW);
+        ctx.setNetworkContext(network);
+        ctx.setNoiseContext(new VNoise(-20.5f, 300f, 1000, -25, NOW));
+        ctx.setDayOfWeek(4);
+        return ctx;
+    }
+
+    @Test
+    public void fullContextRoundTripTest() throws IOException {
+        ContextDescription ctx = fullContext();
+        ContextDescription decoded = ContextCodec.decode(ContextCodec.encode(ctx));
+
+        Assert.assertEquals(ctx.getJson(), decoded.getJson());
+        Assert.assertEquals(-33.8688197, decoded.getLocationContext().getLatLng().getLatitude(), 0);
+        Assert.assertEquals(-151.2092955, decoded.getLocationContext().getLatLng().getLongitude(), 0);
+        Assert.assertEquals("Caf\u00e9 \u2615", decoded.getPlacesList().get(0).getName());
+        Assert.assertEquals(-25, decoded.getNoiseContext().getDBThreshold());
+        Assert.assertEquals(4, decoded.getDayOfWeek());
+    }
+
+    @Test
+    public void absentFieldsRoundTripTest() throws IOException {
+        ContextDescription empty = ContextCodec.decode(ContextCodec.encode(new ContextDescription()));
+        Assert.assertFalse(empty.hasLocationContext());
+        Assert.assertNull(empty.getPlaces());
+        Assert.assertNull(empty.getActivityContext());
+        Assert.assertNull(empty.getNetworkContext());
+        Assert.assertNull(empty.getNoiseContext());
+        Assert.assertFalse(empty.hasWeekdayContext());
+
+        //Null values inside of the available context types
+        ContextDescription ctx = new ContextDescription();
+        ctx.setTimestamp(NOW);
+        ctx.setLocationContext(new VLocation(new VLatLng(0, -0.1275), 0f, NOW, null));
+        ctx.setPlacesContext(new VPlaces(new ArrayList<VSinglePlace>(), NOW));
+        VNetwork network = new VNetwork(new WiFi(false, null), null);
+        network.setTimestamp(NOW);
+        ctx.setNetworkContext(network);
+
+        ContextDescription decoded = ContextCodec.decode(ContextCodec.encode(ctx));
+        Assert.assertEquals(ctx.getJson(), decoded.getJson());
+        Assert.assertNull(decoded.getLocationContext().getDescription());
+        Assert.assertTrue(decoded.getPlacesList().isEmpty());
+        Assert.assertNull(decoded.getNetworkContext().getWiFiContext().getWifiSSID());
+        Assert.assertNull(decoded.getNetworkContext().getMobileContext());
+        Assert.assertNull(decoded.getActivityContext());
+    }
+
+    @Test
+    public void jsonIsNotTakenForEncodedDataTest() {
+        byte[] json = fullContext().getJson().toJSONString().getBytes(StandardCharsets.UTF_8);
+        Assert.assertFalse(ContextCodec.isEncoded(json));
+        Assert.assertFalse(RuleContextCodec.isEncoded(json));
+        Assert.assertFalse(ContextCodec.isEncoded(new byte[0]));
+        Assert.assertFalse(ContextCodec.isEncoded(null));
+        Assert.assertTrue(ContextCodec.isEncoded(ContextCodec.encode(new ContextDescription())));
+        try
+        {
+            ContextCodec.decode(json);
+            Assert.fail("Expected json to be rejected");
+        }
+        catch(IOException e)
+        {
+            //Expected
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedDataFailsTest() throws IOException {
+        byte[] data = ContextCodec.encode(fullContext());
+        ContextCodec.decode(Arrays.copyOf(data, data.length - 3));
+    }
+
+    @Test
+    public void ruleContextRoundTripTest() throws IOException {
+        RuleContextDescription ctx = new RuleContextDescription();
+        ctx.setLocationContext(-22.9068467, -43.1728965, 500);
+        ctx.addPlaceType(PlaceType.values()[3]);
+        ctx.addPlaceType(PlaceType.values()[4]);
+        ctx.setActivityContext(ActivityType.values()[1]);
+        ctx.setNoiseContext(new VNoise(-10f, 0f, 0, -30, NOW));
+
+        RuleContextDescription decoded = RuleContextCodec.decode(RuleContextCodec.encode(ctx));
+        Assert.assertEquals(-22.9068467, decoded.getLocationContext().getLatitude(), 0);
+        Assert.assertEquals(-43.1728965, decoded.getLocationContext().getLongitude(), 0);
+        Assert.assertEquals(500, decoded.getRadius());
+        Assert.assertEquals(ctx.getPlaceTypes(), decoded.getPlaceTypes());
+        Assert.assertEquals(ctx.getActivityContext(), decoded.getActivityContext());
+        Assert.assertNull(decoded.getNetworkContext());
+        Assert.assertEquals(-30, decoded.getNoiseContext().getDBThreshold());
+
+        RuleContextDescription empty = RuleContextCodec.decode(RuleContextCodec.encode(new RuleContextDescription()));
+        Assert.assertNull(empty.getLocationContext());
+        Assert.assertNull(empty.getPlaceTypes());
+        Assert.assertNull(empty.getActivityContext());
+        Assert.assertNull(empty.getNetworkContext());
+        Assert.assertNull(empty.getNoiseContext());
+    }
+}
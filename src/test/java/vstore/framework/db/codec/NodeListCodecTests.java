@@ -0,0 +1,56 @@
+package vstore.framework.db.codec;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+public class NodeListCodecTests {
+
+    @Test
+    public void canonicalUuidsTest() throws IOException {
+        List<String> ids = Arrays.asList(UUID.randomUUID().toString(), UUID.randomUUID().toString());
+        byte[] data = NodeListCodec.encode(ids);
+
+        Assert.assertEquals(ids, NodeListCodec.decode(data));
+        //Version, count, and a tag and 16 bytes per identifier
+        Assert.assertEquals(2 + 2 * 17, data.length);
+    }
+
+    @Test
+    public void nonCanonicalIdsTest() throws IOException {
+        String uuid = UUID.randomUUID().toString();
+        //Identifiers that are not in the canonical form of a UUID are stored as strings,
+        //so that they are decoded to exactly the same string
+        List<String> ids = Arrays.asList(uuid.toUpperCase(), uuid.replace("-", ""),
+                "node-7", "", null, "{" + uuid + "}", uuid);
+        Assert.assertEquals(ids, NodeListCodec.decode(NodeListCodec.encode(ids)));
+    }
+
+    @Test
+    public void emptyListTest() throws IOException {
+        byte[] data = NodeListCodec.encode(Collections.<String>emptyList());
+        Assert.assertTrue(NodeListCodec.isEncoded(data));
+        Assert.assertTrue(NodeListCodec.decode(data).isEmpty());
+    }
+
+    @Test
+    public void jsonIsNotTakenForEncodedDataTest() {
+        Assert.assertFalse(NodeListCodec.isEncoded("[]".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertFalse(NodeListCodec.isEncoded("[\"node-7\"]".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertFalse(NodeListCodec.isEncoded(new byte[0]));
+        Assert.assertFalse(NodeListCodec.isEncoded(null));
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownTagFailsTest() throws IOException {
+        byte[] data = NodeListCodec.encode(Collections.singletonList("node-7"));
+        data[2] = 9;
+        NodeListCodec.decode(data);
+    }
+}
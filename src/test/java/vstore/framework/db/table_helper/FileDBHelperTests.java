@@ -0,0 +1,226 @@
+package vstore.framework.db.table_helper;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import vstore.framework.db.DBResultOrdering;
+import vstore.framework.db.FileCursor;
+import vstore.framework.db.FileFilter;
+import vstore.framework.db.FilePage;
+import vstore.framework.db.TestDatabase;
+import vstore.framework.file.VStoreFile;
+
+public class FileDBHelperTests {
+
+    private static final long BASE_DATE = 1531152679000L;
+
+    @BeforeClass
+    public static void openDatabase() throws Exception {
+        TestDatabase.open();
+    }
+
+    @Before
+    public void clearDatabase() throws SQLException {
+        TestDatabase.clear();
+    }
+
+    /**
+     * Stores the given number of files, with only a few distinct creation dates,
+     * so that most of the files share their creation date with others.
+     *
+     * @return The stored files, in the order of the given ordering.
+     */
+    private static List<VStoreFile> storeFiles(int count, int distinctDates, DBResultOrdering ordering)
+            throws IOException, SQLException {
+        Random random = new Random(count);
+        List<VStoreFile> files = new ArrayList<>();
+        for(int i = 0; i < count; ++i)
+        {
+            files.add(TestDatabase.createFile(UUID.randomUUID().toString(),
+                    BASE_DATE + 1000 * random.nextInt(distinctDates)));
+        }
+        FileDBHelper.insertFiles(files);
+
+        Comparator<VStoreFile> byKey = new Comparator<VStoreFile>() {
+            @Override
+            public int compare(VStoreFile a, VStoreFile b) {
+                int c = Long.compare(a.getCreationDateUnix(), b.getCreationDateUnix());
+                return (c != 0) ? c : a.getUuid().compareTo(b.getUuid());
+            }
+        };
+        Collections.sort(files, (ordering == DBResultOrdering.OLDEST_FIRST) ? byKey : Collections.reverseOrder(byKey));
+        return files;
+    }
+
+    private static List<String> uuids(List<VStoreFile> files) {
+        List<String> uuids = new ArrayList<>();
+        for(VStoreFile f : files) { uuids.add(f.getUuid()); }
+        return uuids;
+    }
+
+    private static List<String> walkPages(DBResultOrdering ordering, int limit) throws SQLException {
+        List<String> seen = new ArrayList<>();
+        FileCursor cursor = null;
+        do
+        {
+            FilePage page = FileDBHelper.getFilePage(FileFilter.ALL, ordering, cursor, limit);
+            Assert.assertTrue(page.getFiles().size() <= limit);
+            seen.addAll(uuids(page.getFiles()));
+            cursor = page.getNext();
+        }
+        while(cursor != null);
+        return seen;
+    }
+
+    @Test
+    public void pagesWithDuplicateDatesTest() throws Exception {
+        List<VStoreFile> files = storeFiles(23, 4, DBResultOrdering.NEWEST_FIRST);
+        List<String> expected = uuids(files);
+
+        for(int limit : new int[] { 1, 4, 5, 23, 50 })
+        {
+            List<String> seen = walkPages(DBResultOrdering.NEWEST_FIRST, limit);
+            Assert.assertEquals("limit " + limit, expected, seen);
+            Assert.assertEquals(seen.size(), new HashSet<>(seen).size());
+        }
+
+        Collections.reverse(expected);
+        for(int limit : new int[] { 1, 4, 5, 23, 50 })
+        {
+            Assert.assertEquals("limit " + limit, expected, walkPages(DBResultOrdering.OLDEST_FIRST, limit));
+        }
+    }
+
+    @Test
+    public void emptyLastPageTest() throws Exception {
+        FilePage empty = FileDBHelper.getFilePage(FileFilter.ALL, DBResultOrdering.NEWEST_FIRST, null, 4);
+        Assert.assertTrue(empty.getFiles().isEmpty());
+        Assert.assertFalse(empty.hasMore());
+
+        //Two full pages: the second one cannot know that it is the last one
+        List<String> expected = uuids(storeFiles(8, 2, DBResultOrdering.NEWEST_FIRST));
+        FilePage first = FileDBHelper.getFilePage(FileFilter.ALL, DBResultOrdering.NEWEST_FIRST, null, 4);
+        FilePage second = FileDBHelper.getFilePage(FileFilter.ALL, DBResultOrdering.NEWEST_FIRST, first.getNext(), 4);
+        FilePage last = FileDBHelper.getFilePage(FileFilter.ALL, DBResultOrdering.NEWEST_FIRST, second.getNext(), 4);
+
+        Assert.assertEquals(expected.subList(0, 4), uuids(first.getFiles()));
+        Assert.assertEquals(expected.subList(4, 8), uuids(second.getFiles()));
+        Assert.assertTrue(second.hasMore());
+        Assert.assertTrue(last.getFiles().isEmpty());
+        Assert.assertFalse(last.hasMore());
+    }
+
+    @Test
+    public void filesAddedBetweenPagesTest() throws Exception {
+        List<String> expected = uuids(storeFiles(10, 3, DBResultOrdering.OLDEST_FIRST));
+        FilePage first = FileDBHelper.getFilePage(FileFilter.ALL, DBResultOrdering.OLDEST_FIRST, null, 5);
+
+        //A file older than the cursor does not shift the following pages
+        FileDBHelper.insertFile(TestDatabase.createFile(UUID.randomUUID().toString(), BASE_DATE - 1000));
+        FilePage second = FileDBHelper.getFilePage(FileFilter.ALL, DBResultOrdering.OLDEST_FIRST, first.getNext(), 5);
+
+        Assert.assertEquals(expected.subList(0, 5), uuids(first.getFiles()));
+        Assert.assertEquals(expected.subList(5, 10), uuids(second.getFiles()));
+    }
+
+    @Test
+    public void iterateFilesTest() throws Exception {
+        List<String> expected = uuids(storeFiles(12, 3, DBResultOrdering.NEWEST_FIRST));
+        for(int pageSize : new int[] { 1, 5, 6, 12, 100 })
+        {
+            List<String> seen = new ArrayList<>();
+            Iterator<VStoreFile> it = FileDBHelper.iterateFiles(FileFilter.ALL, DBResultOrdering.NEWEST_FIRST, pageSize);
+            while(it.hasNext()) { seen.add(it.next().getUuid()); }
+            Assert.assertEquals("page size " + pageSize, expected, seen);
+        }
+    }
+
+    @Test
+    public void rowPagesTest() throws Exception {
+        Set<String> expected = new HashSet<>(uuids(storeFiles(9, 2, DBResultOrdering.NEWEST_FIRST)));
+        Set<String> seen = new HashSet<>();
+        FileCursor cursor = null;
+        int pages = 0;
+        do
+        {
+            List<vstore.framework.db.row_wrapper.FileRowWrapper.Row> rows =
+                    FileDBHelper.getRowPage(FileFilter.ALL, DBResultOrdering.NEWEST_FIRST, cursor, 3);
+            for(vstore.framework.db.row_wrapper.FileRowWrapper.Row r : rows)
+            {
+                Assert.assertTrue(seen.add(r.getUuid()));
+            }
+            cursor = FileDBHelper.nextCursor(rows, 3);
+            ++pages;
+        }
+        while(cursor != null);
+        Assert.assertEquals(expected, seen);
+        //Three full pages and the empty one after them
+        Assert.assertEquals(4, pages);
+    }
+
+    @Test
+    public void insertFilesIsAtomicTest() throws Exception {
+        VStoreFile existing = TestDatabase.createFile(UUID.randomUUID().toString(), BASE_DATE);
+        FileDBHelper.insertFile(existing);
+
+        //The last row of the batch violates the primary key, none of the rows is inserted
+        List<VStoreFile> batch = new ArrayList<>();
+        for(int i = 0; i < 5; ++i)
+        {
+            batch.add(TestDatabase.createFile(UUID.randomUUID().toString(), BASE_DATE + i));
+        }
+        batch.add(existing);
+        try
+        {
+            FileDBHelper.insertFiles(batch);
+            Assert.fail("The batch must not be inserted");
+        }
+        catch(SQLException e)
+        {
+            //Expected
+        }
+        Assert.assertEquals(Collections.singletonList(existing.getUuid()),
+                uuids(FileDBHelper.getFiles(FileDBHelper.SORT_BY_DATE_ASCENDING)));
+
+        //Without the conflicting row, all rows are inserted
+        batch.remove(existing);
+        FileDBHelper.insertFiles(batch);
+        Assert.assertEquals(6, FileDBHelper.getFiles(FileDBHelper.SORT_BY_DATE_ASCENDING).size());
+    }
+
+    @Test
+    public void storedHashesTest() throws Exception {
+        //More hashes than fit into one query
+        List<VStoreFile> files = storeFiles(700, 10, DBResultOrdering.NEWEST_FIRST);
+        Random random = new Random(5);
+        for(int count : new int[] { 0, 1, 3, 64, 511, 512, 513, 1400 })
+        {
+            List<String> hashes = new ArrayList<>();
+            for(int i = 0; i < count; ++i)
+            {
+                hashes.add(random.nextBoolean() ? files.get(random.nextInt(files.size())).getMD5Hash()
+                        : UUID.randomUUID().toString());
+            }
+            Set<String> expected = new HashSet<>();
+            for(String hash : hashes)
+            {
+                if(FileDBHelper.isAlreadyStored(hash)) { expected.add(hash); }
+            }
+            Assert.assertEquals("count " + count, expected, FileDBHelper.getStoredHashes(hashes));
+        }
+    }
+}
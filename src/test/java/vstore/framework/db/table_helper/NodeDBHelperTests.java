@@ -0,0 +1,95 @@
+package vstore.framework.db.table_helper;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import vstore.framework.context.types.location.VLatLng;
+import vstore.framework.db.TestDatabase;
+import vstore.framework.node.NodeInfo;
+import vstore.framework.node.NodeType;
+
+public class NodeDBHelperTests {
+
+    @BeforeClass
+    public static void openDatabase() throws Exception {
+        TestDatabase.open();
+    }
+
+    @Before
+    public void clearDatabase() throws SQLException {
+        TestDatabase.clear();
+    }
+
+    private static NodeInfo node(String uuid, int bandwidthUp) {
+        NodeInfo n = new NodeInfo(uuid, "10.0.0.1", 50000, NodeType.CLOUDLET, new VLatLng(50.2, -3.6));
+        n.setBandwidthUp(bandwidthUp);
+        n.setBandwidthDown(bandwidthUp * 2);
+        return n;
+    }
+
+    private static Map<String, NodeInfo> nodesById() throws SQLException {
+        Map<String, NodeInfo> nodes = new HashMap<>();
+        for(NodeInfo n : NodeDBHelper.getNodes())
+        {
+            nodes.put(n.getIdentifier(), n);
+        }
+        return nodes;
+    }
+
+    @Test
+    public void applyDeltaTest() throws SQLException {
+        NodeDBHelper.insertNode(node("node_keep", 10));
+        NodeDBHelper.insertNode(node("node_update", 10));
+        NodeDBHelper.insertNode(node("node_remove", 10));
+
+        List<NodeInfo> inserts = Collections.singletonList(node("node_add", 30));
+        List<NodeInfo> updates = Collections.singletonList(node("node_update", 20));
+        NodeDBHelper.applyChanges(inserts, updates, Collections.singletonList("node_remove"));
+
+        Map<String, NodeInfo> nodes = nodesById();
+        Assert.assertEquals(3, nodes.size());
+        Assert.assertEquals(10, nodes.get("node_keep").getBandwidthUp());
+        Assert.assertEquals(20, nodes.get("node_update").getBandwidthUp());
+        Assert.assertEquals(40, nodes.get("node_update").getBandwidthDown());
+        Assert.assertEquals(30, nodes.get("node_add").getBandwidthUp());
+        Assert.assertFalse(nodes.containsKey("node_remove"));
+    }
+
+    @Test
+    public void failedDeltaIsRolledBackTest() throws SQLException {
+        NodeDBHelper.insertNode(node("node_update", 10));
+        NodeDBHelper.insertNode(node("node_remove", 10));
+
+        //The second insert violates the primary key, so none of the changes may be applied
+        List<NodeInfo> inserts = Arrays.asList(node("node_add", 30), node("node_update", 30));
+        List<NodeInfo> updates = Collections.singletonList(node("node_update", 20));
+        try
+        {
+            NodeDBHelper.applyChanges(inserts, updates, Collections.singletonList("node_remove"));
+            Assert.fail("Expected the duplicate node to fail the delta");
+        }
+        catch(SQLException e)
+        {
+            //Expected
+        }
+
+        Map<String, NodeInfo> nodes = nodesById();
+        Assert.assertEquals(2, nodes.size());
+        Assert.assertEquals(10, nodes.get("node_update").getBandwidthUp());
+        Assert.assertTrue(nodes.containsKey("node_remove"));
+        Assert.assertFalse(nodes.containsKey("node_add"));
+
+        //The writer is usable again after the rollback
+        NodeDBHelper.insertNode(node("node_add", 30));
+        Assert.assertEquals(3, NodeDBHelper.getNodes().size());
+    }
+}
@@ -0,0 +1,256 @@
+package vstore.framework.matching;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import vstore.framework.context.types.location.VLatLng;
+import vstore.framework.db.TestDatabase;
+import vstore.framework.node.NodeInfo;
+import vstore.framework.node.NodeManager;
+import vstore.framework.node.NodeType;
+import vstore.framework.rule.DecisionLayer;
+
+/**
+ * Compares the steps of a {@link CompiledDecisionLayer} with the node selectors that matching
+ * tried one by one for a decision layer before the layers were compiled: which selectors
+ * apply to the layer, in which order, and which candidate nodes they choose from.
+ */
+public class CompiledDecisionLayerTests {
+
+    private static final NodeType[] TYPES = {
+            NodeType.CLOUDLET, NodeType.GATEWAY, NodeType.CORENET, NodeType.CLOUD, NodeType.PRIVATE_NODE
+    };
+    private static final NodeType[] TARGET_TYPES = NodeType.values();
+    private static final int[] BANDWIDTHS = { 0, 0, 10, 50, 100 };
+    //In kilometers, as the distance of a node
+    private static final float[] RADIUS = { -1, 0, 0, 0.2f, 0.5f, 1, 2, 5 };
+    private static final double METERS_PER_DEG = 60 * 1.15077945 * 1609.34;
+    private static final double LAT = 50.77;
+    private static final double LNG = 6.08;
+    private static final int ROUNDS = 30;
+    private static final int LAYERS = 100;
+
+    @BeforeClass
+    public static void openDatabase() throws Exception {
+        TestDatabase.open();
+    }
+
+    @Before
+    public void setUp() {
+        NodeManager.get().clearNodes();
+    }
+
+    @After
+    public void tearDown() {
+        NodeManager.get().clearNodes();
+    }
+
+    /**
+     * @return A location within a few kilometers of the others, so that the radius borders of
+     * the layers fall between the nodes.
+     */
+    private static VLatLng randomLocation(Random random) {
+        return new VLatLng(LAT + (random.nextDouble() * 2 - 1) * 0.03, LNG + (random.nextDouble() * 2 - 1) * 0.05);
+    }
+
+    /**
+     * @return A location at about the given distance from the center.
+     */
+    private static VLatLng atDistance(Random random, VLatLng center, double meters) {
+        double bearing = random.nextDouble() * 2 * Math.PI;
+        double lat = center.getLatitude() + meters * Math.cos(bearing) / METERS_PER_DEG;
+        double lng = center.getLongitude()
+                + meters * Math.sin(bearing) / (METERS_PER_DEG * Math.cos(Math.toRadians(center.getLatitude())));
+        return new VLatLng(lat, lng);
+    }
+
+    private static List<NodeInfo> randomNodes(Random random, int round) {
+        List<NodeInfo> nodes = new ArrayList<>();
+        int count = random.nextInt(60);
+        for(int i = 0; i < count; ++i)
+        {
+            NodeInfo n = new NodeInfo("node_" + round + "_" + i, "10.0.0.1", 50000,
+                    TYPES[random.nextInt(TYPES.length)], randomLocation(random));
+            n.setBandwidthUp(BANDWIDTHS[random.nextInt(BANDWIDTHS.length)]);
+            n.setBandwidthDown(BANDWIDTHS[random.nextInt(BANDWIDTHS.length)]);
+            nodes.add(n);
+        }
+        return nodes;
+    }
+
+    private static DecisionLayer randomLayer(Random random, List<NodeInfo> nodes) {
+        DecisionLayer layer = new DecisionLayer();
+        layer.targetType = TARGET_TYPES[random.nextInt(TARGET_TYPES.length)];
+        if(random.nextInt(4) == 0)
+        {
+            layer.isSpecific = true;
+            //Sometimes a node that is not known
+            layer.specificNodeId = (!nodes.isEmpty() && random.nextBoolean())
+                    ? nodes.get(random.nextInt(nodes.size())).getIdentifier() : "unknown_node";
+        }
+        layer.minRadius = RADIUS[random.nextInt(RADIUS.length)];
+        layer.maxRadius = RADIUS[random.nextInt(RADIUS.length)];
+        layer.minBwUp = BANDWIDTHS[random.nextInt(BANDWIDTHS.length)];
+        layer.minBwDown = BANDWIDTHS[random.nextInt(BANDWIDTHS.length)];
+        return layer;
+    }
+
+    /**
+     * The nodes of the type (or of any type) matching the constraints, with a plain scan over
+     * all nodes.
+     */
+    private static Set<String> scan(List<NodeInfo> nodes, NodeType type, int bwUp, int bwDown,
+                                    float minRadius, float maxRadius, VLatLng loc) {
+        boolean radius = minRadius >= 0 && maxRadius > 0 && maxRadius > minRadius && loc != null;
+        Set<String> result = new HashSet<>();
+        for(NodeInfo n : nodes)
+        {
+            if(type != null && n.getNodeType() != type) { continue; }
+            if(n.getBandwidthUp() < bwUp || n.getBandwidthDown() < bwDown) { continue; }
+            if(radius)
+            {
+                float dist = n.getGeographicDistanceTo(loc);
+                if(dist < minRadius || dist > maxRadius) { continue; }
+            }
+            result.add(n.getIdentifier());
+        }
+        return result;
+    }
+
+    /**
+     * The selectors that matching tried for the layer before compilation, with their candidates.
+     * A selector that does not apply to the layer is left out. The list ends with the first
+     * selector that always decides the layer.
+     */
+    private static List<String> baseline(DecisionLayer layer, List<NodeInfo> nodes, VLatLng loc) {
+        List<String> steps = new ArrayList<>();
+        if(layer.targetType.equals(NodeType.DEVICE_ONLY) || layer.targetType.equals(NodeType.UNKNOWN))
+        {
+            steps.add("noNode " + layer.targetType);
+            return steps;
+        }
+        if(layer.isSpecific && layer.specificNodeId != null && !layer.specificNodeId.equals(""))
+        {
+            for(NodeInfo n : nodes)
+            {
+                if(n.getIdentifier().equals(layer.specificNodeId))
+                {
+                    steps.add("specificNode " + n.getIdentifier());
+                    return steps;
+                }
+            }
+        }
+        if(layer.targetType.equals(NodeType.NONE)
+                && (layer.maxRadius > 0 || layer.minBwUp > 0 || layer.minBwDown > 0))
+        {
+            if(layer.minBwUp > 0 || layer.minBwDown > 0)
+            {
+                steps.add("noneAndConstraints " + new TreeSet<>(scan(nodes, null, layer.minBwUp,
+                        layer.minBwDown, layer.minRadius, layer.maxRadius, loc)));
+                return steps;
+            }
+        }
+        if(layer.minRadius == 0 && layer.maxRadius == 0 && layer.minBwUp == 0 && layer.minBwDown == 0)
+        {
+            steps.add("randomOfType " + new TreeSet<>(scan(nodes, layer.targetType, 0, 0, 0, 0, null)));
+            return steps;
+        }
+        if(layer.minRadius >= 0 && layer.maxRadius > 0)
+        {
+            steps.add("radiusAndBandwidth " + new TreeSet<>(scan(nodes, layer.targetType,
+                    layer.minBwUp, layer.minBwDown, layer.minRadius, layer.maxRadius, loc)));
+        }
+        if(layer.minBwUp > 0 || layer.minBwDown > 0)
+        {
+            steps.add("bandwidth " + new TreeSet<>(scan(nodes, layer.targetType,
+                    layer.minBwUp, layer.minBwDown, 0, 0, null)));
+        }
+        return steps;
+    }
+
+    private static List<String> compiled(CompiledDecisionLayer layer, VLatLng loc) {
+        List<String> steps = new ArrayList<>();
+        for(CompiledDecisionLayer.Step step : layer.getSteps())
+        {
+            switch(step.kind)
+            {
+                case NO_NODE:
+                    steps.add(step.kind.getName() + " " + step.targetType);
+                    break;
+                case SPECIFIC_NODE:
+                    steps.add(step.kind.getName() + " " + step.node.getIdentifier());
+                    break;
+                default:
+                    Set<String> ids = new TreeSet<>();
+                    for(NodeInfo n : step.getCandidates(loc)) { ids.add(n.getIdentifier()); }
+                    steps.add(step.kind.getName() + " " + ids);
+                    break;
+            }
+        }
+        return steps;
+    }
+
+    @Test
+    public void stepsMatchSelectorsTest() {
+        Random random = new Random(31);
+        NodeManager manager = NodeManager.get();
+        int radiusChecks = 0;
+        for(int round = 0; round < ROUNDS; ++round)
+        {
+            List<NodeInfo> nodes = randomNodes(random, round);
+            manager.clearNodes();
+            Assert.assertTrue(manager.applyNodeChanges(nodes, Collections.<String>emptyList()));
+            CompiledDecisionLayer.NodeLists lists = new CompiledDecisionLayer.NodeLists(manager.getVersion());
+
+            for(int i = 0; i < LAYERS; ++i)
+            {
+                DecisionLayer layer = randomLayer(random, nodes);
+                CompiledDecisionLayer c = CompiledDecisionLayer.compile(layer, lists);
+                for(int k = 0; k < 5; ++k)
+                {
+                    VLatLng loc;
+                    if(k == 0)
+                    {
+                        //Without a location, no radius is checked. The baseline failed in this case.
+                        loc = null;
+                    }
+                    else if(k == 1 && !nodes.isEmpty())
+                    {
+                        //At the location of a node, which is at the border of a minimum radius of 0
+                        loc = nodes.get(random.nextInt(nodes.size())).getLatLng();
+                    }
+                    else if(k == 2 && !nodes.isEmpty())
+                    {
+                        //Close to the border of the maximum radius around a node
+                        loc = atDistance(random, nodes.get(random.nextInt(nodes.size())).getLatLng(),
+                                layer.maxRadius * 1000 * (0.98 + random.nextDouble() * 0.04));
+                    }
+                    else
+                    {
+                        loc = randomLocation(random);
+                    }
+                    List<String> expected = baseline(layer, nodes, loc);
+                    Assert.assertEquals(expected, compiled(c, loc));
+                    if(loc != null && layer.minRadius >= 0 && layer.maxRadius > layer.minRadius
+                            && expected.get(0).startsWith("radius") && !expected.get(0).endsWith("[]"))
+                    {
+                        ++radiusChecks;
+                    }
+                }
+            }
+        }
+        //Enough decisions have to depend on the radius
+        Assert.assertTrue(radiusChecks > ROUNDS * LAYERS / 10);
+    }
+}
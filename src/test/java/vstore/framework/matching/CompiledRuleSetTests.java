@@ -0,0 +1,294 @@
+package vstore.framework.matching;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import vstore.framework.context.ContextDescription;
+import vstore.framework.context.RuleContextDescription;
+import vstore.framework.context.types.activity.ActivityType;
+import vstore.framework.context.types.activity.VActivity;
+import vstore.framework.context.types.location.VLatLng;
+import vstore.framework.context.types.location.VLocation;
+import vstore.framework.context.types.network.VNetwork;
+import vstore.framework.context.types.network.cellular.CellularNetwork;
+import vstore.framework.context.types.network.wifi.WiFi;
+import vstore.framework.context.types.noise.VNoise;
+import vstore.framework.context.types.place.PlaceType;
+import vstore.framework.context.types.place.VPlaces;
+import vstore.framework.context.types.place.VSinglePlace;
+import vstore.framework.db.TestDatabase;
+import vstore.framework.db.table_helper.RulesDBHelper;
+import vstore.framework.file.VStoreFile;
+import vstore.framework.rule.RuleIndex;
+import vstore.framework.rule.VStoreRule;
+import vstore.framework.utils.ContextUtils;
+
+/**
+ * Compares the rules kept by a {@link CompiledRuleSet} with the rule by rule evaluation of
+ * the conditions, as matching did it before the rules were compiled.
+ */
+public class CompiledRuleSetTests {
+
+    private static final String MIME_TYPE = "image/png";
+    private static final String[] RULE_MIME_TYPES = { "image/png", "image/*", "*/*" };
+    private static final int RULES = 300;
+    private static final int FILES = 400;
+    private static final double LAT = 50.77;
+    private static final double LNG = 6.08;
+    private static final int[] RADIUS = { 0, 100, 1000, 3000, 10000 };
+    private static final long[] MIN_FILE_SIZE = { 0, 1, 1000, 5000 };
+    private static final int[][] TIMES = {
+            { 0, 0, 0, 0 }, { -1, -1, -1, -1 }, { 8, 0, 18, 0 }, { 18, 0, 8, 0 }, { 0, 0, 23, 59 }, { 25, 0, 26, 0 }
+    };
+    private static final String[] SSIDS = { "home", "work", "%" };
+
+    @BeforeClass
+    public static void openDatabase() throws Exception {
+        TestDatabase.open();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        TestDatabase.clear();
+        RuleIndex.get().invalidate();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestDatabase.clear();
+        RuleIndex.get().invalidate();
+    }
+
+    private static <T> T pick(Random random, T[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static VLatLng randomLocation(Random random) {
+        return new VLatLng(LAT + (random.nextDouble() * 2 - 1) * 0.05, LNG + (random.nextDouble() * 2 - 1) * 0.05);
+    }
+
+    private static VNetwork randomNetwork(Random random) {
+        CellularNetwork.MobileType[] types = CellularNetwork.MobileType.values();
+        return new VNetwork(new WiFi(random.nextBoolean(), pick(random, SSIDS)),
+                new CellularNetwork(random.nextBoolean(), random.nextBoolean(), pick(random, types)));
+    }
+
+    /**
+     * Creates a rule that has each condition with a probability of one half. Thus, many rules
+     * do not have a condition of a given type.
+     */
+    private static VStoreRule randomRule(Random random, List<VLatLng> ruleLocations) {
+        VStoreRule r = new VStoreRule();
+        r.setMimeTypes(Collections.singletonList(pick(random, RULE_MIME_TYPES)));
+        r.setMinFileSize(MIN_FILE_SIZE[random.nextInt(MIN_FILE_SIZE.length)]);
+        r.setSharingDomain(random.nextInt(3) - 1);
+        List<Integer> weekdays = new ArrayList<>();
+        if(random.nextBoolean())
+        {
+            for(int d = 1; d <= 7; ++d)
+            {
+                if(random.nextInt(3) == 0) { weekdays.add(d); }
+            }
+        }
+        r.setWeekdays(weekdays);
+        int[] time = TIMES[random.nextInt(TIMES.length)];
+        r.setTimeStart(time[0], time[1]);
+        r.setTimeEnd(time[2], time[3]);
+
+        RuleContextDescription ctx = new RuleContextDescription();
+        if(random.nextBoolean())
+        {
+            VLatLng loc = randomLocation(random);
+            ruleLocations.add(loc);
+            ctx.setLocationContext(loc.getLatitude(), loc.getLongitude(), RADIUS[random.nextInt(RADIUS.length)]);
+        }
+        if(random.nextBoolean())
+        {
+            List<PlaceType> types = new ArrayList<>();
+            for(PlaceType t : PlaceType.values())
+            {
+                if(random.nextInt(3) == 0) { types.add(t); }
+            }
+            ctx.setPlaceTypes(types);
+        }
+        if(random.nextBoolean()) { ctx.setActivityContext(pick(random, ActivityType.values())); }
+        if(random.nextBoolean()) { ctx.setNetworkContext(randomNetwork(random)); }
+        if(random.nextBoolean())
+        {
+            ctx.setNoiseContext(new VNoise(random.nextBoolean() ? -60 : -5, 0, 0,
+                    -10 - 15 * random.nextInt(3)));
+        }
+        r.setRuleContext(ctx);
+        return r;
+    }
+
+    private static VStoreFile randomFile(Random random, List<VLatLng> ruleLocations) throws Exception {
+        VStoreFile f = TestDatabase.createFile(UUID.randomUUID().toString(), System.currentTimeMillis());
+        f.getMetaData().setFileSize(MIN_FILE_SIZE[random.nextInt(MIN_FILE_SIZE.length)] + random.nextInt(2) - 1);
+        f.setPrivate(random.nextBoolean());
+
+        long now = System.currentTimeMillis();
+        ContextDescription ctx = new ContextDescription();
+        if(random.nextInt(4) != 0)
+        {
+            //At the center of a rule sometimes, to get distances of 0
+            VLatLng loc = (random.nextInt(4) == 0 && !ruleLocations.isEmpty())
+                    ? ruleLocations.get(random.nextInt(ruleLocations.size()))
+                    : randomLocation(random);
+            ctx.setLocationContext(new VLocation(loc, 10, now, ""));
+        }
+        if(random.nextBoolean())
+        {
+            ArrayList<VSinglePlace> places = new ArrayList<>();
+            int count = random.nextInt(4);
+            for(int i = 0; i < count; ++i)
+            {
+                VLatLng loc = randomLocation(random);
+                VSinglePlace p = new VSinglePlace("place_" + i, "Place", pick(random, PlaceType.values()),
+                        loc.getLatitude(), loc.getLongitude(), random.nextDouble());
+                p.setMostLikely(random.nextBoolean());
+                places.add(p);
+            }
+            ctx.setPlacesContext(new VPlaces(places, now));
+        }
+        if(random.nextBoolean()) { ctx.setActivityContext(new VActivity(pick(random, ActivityType.values()), 90, now)); }
+        if(random.nextBoolean()) { ctx.setNetworkContext(randomNetwork(random)); }
+        if(random.nextBoolean())
+        {
+            ctx.setNoiseContext(new VNoise(-80 + random.nextInt(81), 0, 0, VNoise.DEFAULT_TRESHOLD_DB, now));
+        }
+        f.setContext(ctx);
+        return f;
+    }
+
+    /**
+     * @return A random point in time of the week after the 2nd of july 2018 (a monday).
+     */
+    private static long randomTime(Random random) {
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(2018, Calendar.JULY, 2);
+        return cal.getTimeInMillis() + random.nextInt(7 * 24 * 60) * 60000L;
+    }
+
+    /**
+     * The conditions of a rule, evaluated one by one.
+     */
+    private static boolean keepRuleInSet(VStoreRule r, VStoreFile f, long time) {
+        ContextDescription fileCtx = f.getContext();
+        RuleContextDescription ruleCtx = r.getRuleContext();
+
+        if(r.hasFileSizeConfigured() && f.getFileSize() < r.getMinFileSize()) { return false; }
+
+        if(!ContextUtils.isIncludedInSharingDomain(f.isPrivate() ? 1 : 0, r.getSharingDomain())) { return false; }
+
+        if(r.getWeekdays().size() > 0)
+        {
+            if(!r.getWeekdays().contains(ContextUtils.getDayOfWeek(time))) { return false; }
+            if(r.hasTimeSet() && !ContextUtils.isDateBetween(new Date(time), r.getStartHour(),
+                    r.getStartMinutes(), r.getEndHour(), r.getEndMinutes()))
+            {
+                return false;
+            }
+        }
+
+        if(r.hasLocationContext() && fileCtx.hasLocationContext())
+        {
+            double distance = ContextUtils.distanceBetween(ruleCtx.getLocationContext(),
+                    fileCtx.getLocationContext().getLatLng());
+            if(Math.ceil(distance) > ruleCtx.getRadius()) { return false; }
+        }
+
+        if(r.hasPlaceContext())
+        {
+            if(fileCtx.getMostLikelyPlace() == null
+                    || !ruleCtx.getPlaceTypes().contains(fileCtx.getPlaces().getMostLikelyPlace().getPlaceType()))
+            {
+                return false;
+            }
+        }
+
+        if(r.hasNetworkContext() && fileCtx.hasNetworkContext()
+                && !fileCtx.getNetworkContext().matches(ruleCtx.getNetworkContext()))
+        {
+            return false;
+        }
+
+        if(r.hasActivityContext() && fileCtx.hasActivityContext()
+                && !fileCtx.getActivityContext().matches(ruleCtx.getActivityContext()))
+        {
+            return false;
+        }
+
+        if(r.hasNoiseContext() && fileCtx.hasNoiseContext()
+                && !ruleCtx.getNoiseContext().matches(fileCtx.getNoiseContext()))
+        {
+            return false;
+        }
+        return true;
+    }
+
+    @Test
+    public void filterMatchesConditionsTest() throws Exception {
+        Random random = new Random(2);
+        List<VLatLng> ruleLocations = new ArrayList<>();
+        for(int i = 0; i < RULES; ++i)
+        {
+            RulesDBHelper.insertRule(randomRule(random, ruleLocations));
+        }
+        RuleIndex.get().invalidate();
+
+        CompiledRuleSet ruleSet = CompiledRuleSet.forFileType(MIME_TYPE);
+        List<VStoreRule> rules = RuleIndex.get().getRulesMatchingFileType(MIME_TYPE);
+        Assert.assertEquals(RULES, ruleSet.size());
+
+        int kept = 0;
+        for(int i = 0; i < FILES; ++i)
+        {
+            VStoreFile f = randomFile(random, ruleLocations);
+            long time = randomTime(random);
+            List<VStoreRule> expected = new ArrayList<>();
+            for(VStoreRule r : rules)
+            {
+                if(keepRuleInSet(r, f, time)) { expected.add(r); }
+            }
+            Assert.assertEquals(expected, ruleSet.filter(f, new MatchingTrace(false), time));
+            kept += expected.size();
+        }
+        //Make sure that the conditions do not eliminate (nearly) all rules
+        Assert.assertTrue(kept > FILES);
+    }
+
+    @Test
+    public void filterWithoutConditionsTest() throws Exception {
+        VStoreRule plain = new VStoreRule();
+        plain.setMimeTypes(Collections.singletonList(MIME_TYPE));
+        RulesDBHelper.insertRule(plain);
+        RuleIndex.get().invalidate();
+
+        //A rule without any condition applies to files with any context and without a context
+        Random random = new Random(3);
+        CompiledRuleSet ruleSet = CompiledRuleSet.forFileType(MIME_TYPE);
+        for(int i = 0; i < 50; ++i)
+        {
+            VStoreFile f = randomFile(random, new ArrayList<VLatLng>());
+            Assert.assertEquals(1, ruleSet.filter(f, new MatchingTrace(false), randomTime(random)).size());
+        }
+        VStoreFile f = TestDatabase.createFile(UUID.randomUUID().toString(), System.currentTimeMillis());
+        f.setContext(new ContextDescription());
+        Assert.assertEquals(1, ruleSet.filter(f, new MatchingTrace(false), randomTime(random)).size());
+
+        Assert.assertEquals(0, CompiledRuleSet.forFileType("video/mp4").size());
+    }
+}
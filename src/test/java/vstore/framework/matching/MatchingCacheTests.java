@@ -0,0 +1,110 @@
+package vstore.framework.matching;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import vstore.framework.rule.VStoreRule;
+
+public class MatchingCacheTests {
+
+    @Before
+    public void setUp() {
+        MatchingCache.get().configure(MatchingCache.DEFAULT_MAX_ENTRIES, MatchingCache.DEFAULT_TTL_MS);
+        MatchingCache.get().clear();
+    }
+
+    @After
+    public void tearDown() {
+        MatchingCache.get().configure(MatchingCache.DEFAULT_MAX_ENTRIES, MatchingCache.DEFAULT_TTL_MS);
+        MatchingCache.get().clear();
+    }
+
+    /**
+     * Looks up the given key and sets the rules of a new entry, as a decision does it.
+     *
+     * @return True, if the lookup was a hit.
+     */
+    private static boolean lookup(String key) {
+        MatchingCache.Entry e = MatchingCache.get().getEntry(key);
+        if(e.rules != null) { return true; }
+        e.rules = Collections.<VStoreRule>emptyList();
+        return false;
+    }
+
+    @Test
+    public void countersTest() {
+        MatchingCache cache = MatchingCache.get();
+        Assert.assertEquals(0, cache.getHitRatio(), 0);
+
+        Assert.assertFalse(lookup("a"));
+        Assert.assertTrue(lookup("a"));
+        Assert.assertTrue(lookup("a"));
+        Assert.assertFalse(lookup("b"));
+        Assert.assertEquals(2, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(0.5f, cache.getHitRatio(), 0);
+
+        cache.clear();
+        Assert.assertEquals(0, cache.getHitCount());
+        Assert.assertEquals(0, cache.getMissCount());
+        Assert.assertFalse(lookup("a"));
+    }
+
+    @Test
+    public void entryWithoutRulesIsNoHitTest() {
+        MatchingCache cache = MatchingCache.get();
+        //The decision that created the entry did not set the rules
+        MatchingCache.Entry first = cache.getEntry("a");
+        MatchingCache.Entry second = cache.getEntry("a");
+        Assert.assertSame(first, second);
+        Assert.assertEquals(0, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+
+        second.rules = Collections.<VStoreRule>emptyList();
+        Assert.assertSame(first, cache.getEntry("a"));
+        Assert.assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void expiredEntryTest() throws Exception {
+        MatchingCache cache = MatchingCache.get();
+        cache.configure(MatchingCache.DEFAULT_MAX_ENTRIES, 50);
+        Assert.assertFalse(lookup("a"));
+        Assert.assertTrue(lookup("a"));
+
+        Thread.sleep(100);
+        Assert.assertFalse(lookup("a"));
+        Assert.assertTrue(lookup("a"));
+        Assert.assertEquals(2, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvictedTest() {
+        MatchingCache cache = MatchingCache.get();
+        cache.configure(2, MatchingCache.DEFAULT_TTL_MS);
+        Assert.assertFalse(lookup("a"));
+        Assert.assertFalse(lookup("b"));
+        //Using "a" makes "b" the least recently used entry
+        Assert.assertTrue(lookup("a"));
+        Assert.assertFalse(lookup("c"));
+
+        Assert.assertTrue(lookup("a"));
+        Assert.assertTrue(lookup("c"));
+        Assert.assertFalse(lookup("b"));
+    }
+
+    @Test
+    public void disabledCacheTest() {
+        MatchingCache cache = MatchingCache.get();
+        cache.configure(0, MatchingCache.DEFAULT_TTL_MS);
+        Assert.assertFalse(lookup("a"));
+        Assert.assertFalse(lookup("a"));
+        Assert.assertEquals(0, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+    }
+}
@@ -0,0 +1,464 @@
+package vstore.framework.matching;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import vstore.framework.context.ContextDescription;
+import vstore.framework.context.types.activity.ActivityType;
+import vstore.framework.context.types.activity.VActivity;
+import vstore.framework.context.types.location.VLatLng;
+import vstore.framework.context.types.location.VLocation;
+import vstore.framework.context.types.noise.VNoise;
+import vstore.framework.context.types.place.PlaceType;
+import vstore.framework.context.types.place.VPlaces;
+import vstore.framework.context.types.place.VSinglePlace;
+import vstore.framework.db.TestDatabase;
+import vstore.framework.db.table_helper.RulesDBHelper;
+import vstore.framework.file.VStoreFile;
+import vstore.framework.node.NodeHealthTracker;
+import vstore.framework.node.NodeInfo;
+import vstore.framework.node.NodeManager;
+import vstore.framework.node.NodeType;
+import vstore.framework.rule.DecisionLayer;
+import vstore.framework.rule.RuleIndex;
+import vstore.framework.rule.VStoreRule;
+
+public class MatchingTests {
+
+    private static final String FALLBACK_STAGE = MatchingTrace.SELECT_PREFIX + "fallback";
+    private static final VLatLng LOCATION = new VLatLng(50.77, 6.08);
+    private static final VLatLng FAR_AWAY = new VLatLng(52.52, 13.40);
+
+    @BeforeClass
+    public static void openDatabase() throws Exception {
+        TestDatabase.open();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        TestDatabase.clear();
+        RuleIndex.get().invalidate();
+        MatchingCache.get().clear();
+        MatchingStats.get().setExplainEnabled(true);
+
+        //Without rules, the fallback stores a shared file on the core net
+        NodeManager manager = NodeManager.get();
+        manager.clearNodes();
+        Assert.assertTrue(manager.applyNodeChanges(Arrays.asList(
+                node("node_corenet", NodeType.CORENET),
+                node("node_cloudlet", NodeType.CLOUDLET)),
+                Collections.<String>emptyList()));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        MatchingStats.get().setExplainEnabled(false);
+        NodeManager.get().clearNodes();
+        NodeHealthTracker.get().clear();
+        TestDatabase.clear();
+        RuleIndex.get().invalidate();
+    }
+
+    private static NodeInfo node(String uuid, NodeType type) {
+        return node(uuid, type, LOCATION);
+    }
+
+    private static NodeInfo node(String uuid, NodeType type, VLatLng location) {
+        return new NodeInfo(uuid, "10.0.0.1", 50000, type, location);
+    }
+
+    /**
+     * Replaces the known nodes with the given ones.
+     */
+    private static void useNodes(NodeInfo... nodes) {
+        NodeManager manager = NodeManager.get();
+        manager.clearNodes();
+        Assert.assertTrue(manager.applyNodeChanges(Arrays.asList(nodes), Collections.<String>emptyList()));
+    }
+
+    /**
+     * @return A shared file with a location context.
+     */
+    private static VStoreFile file() throws Exception {
+        VStoreFile f = TestDatabase.createFile(UUID.randomUUID().toString(), System.currentTimeMillis());
+        ContextDescription ctx = new ContextDescription();
+        ctx.setLocationContext(new VLocation(LOCATION, 10, System.currentTimeMillis(), ""));
+        f.setContext(ctx);
+        return f;
+    }
+
+    /**
+     * @return A shared file with the given context, that is decided for by the fallback.
+     */
+    private static VStoreFile file(VLatLng location, ActivityType activity, Boolean loud,
+                                   VSinglePlace... places) throws Exception {
+        VStoreFile f = TestDatabase.createFile(UUID.randomUUID().toString(), System.currentTimeMillis());
+        long now = System.currentTimeMillis();
+        ContextDescription ctx = new ContextDescription();
+        if(location != null) { ctx.setLocationContext(new VLocation(location, 10, now, "")); }
+        if(activity != null) { ctx.setActivityContext(new VActivity(activity, 90, now)); }
+        if(loud != null) { ctx.setNoiseContext(new VNoise(loud ? -5 : -60, 0, 0, VNoise.DEFAULT_TRESHOLD_DB, now)); }
+        if(places.length > 0) { ctx.setPlacesContext(new VPlaces(new ArrayList<>(Arrays.asList(places)), now)); }
+        f.setContext(ctx);
+        return f;
+    }
+
+    private static VSinglePlace place(PlaceType type, VLatLng location, double likelihood) {
+        return new VSinglePlace("place_" + type, type.name(), type, location.getLatitude(),
+                location.getLongitude(), likelihood);
+    }
+
+    /**
+     * @return The identifier of the node the fallback decided for, or null.
+     */
+    private static String fallback(VStoreFile f) {
+        Matching m = new Matching(f, Matching.MatchingMode.RULES_THEN_FALL_BACK);
+        Assert.assertTrue(usedFallback(m));
+        List<NodeInfo> decided = m.getDecidedNodes();
+        if(decided == null) { return null; }
+        Assert.assertEquals(1, decided.size());
+        return decided.get(0).getIdentifier();
+    }
+
+    private static void insertRule(NodeType... layerTypes) throws SQLException {
+        VStoreRule r = new VStoreRule(UUID.randomUUID().toString(), "Rule", new Date(1531152679000L), "{}", -1,
+                null, 0, 0, 23, 59, false, true, layerTypes.length);
+        r.setMimeTypes(Collections.singletonList("application/txt"));
+        for(NodeType t : layerTypes)
+        {
+            DecisionLayer layer = new DecisionLayer();
+            layer.targetType = t;
+            r.addDecisionLayer(layer);
+        }
+        RulesDBHelper.insertRule(r);
+    }
+
+    private static List<String> decidedIds(Matching m) {
+        List<String> ids = new ArrayList<>();
+        for(NodeInfo n : m.getDecidedNodes())
+        {
+            ids.add((n != null) ? n.getIdentifier() : null);
+        }
+        return ids;
+    }
+
+    private static void makeUnhealthy(String nodeId) {
+        for(int i = 0; i < NodeHealthTracker.FAILURE_THRESHOLD; ++i)
+        {
+            NodeHealthTracker.get().probeFailed(nodeId);
+        }
+    }
+
+    private static boolean usedFallback(Matching m) {
+        for(MatchingTrace.Stage s : m.getTrace().getStages())
+        {
+            if(s.getName().equals(FALLBACK_STAGE)) { return true; }
+        }
+        return false;
+    }
+
+    @Test
+    public void fallbackWithoutRulesTest() throws Exception {
+        Matching m = new Matching(file(), Matching.MatchingMode.RULES_THEN_FALL_BACK);
+        Assert.assertTrue(usedFallback(m));
+        Assert.assertEquals(Collections.singletonList("node_corenet"), decidedIds(m));
+
+        //Without fallback, the file stays on the device
+        m = new Matching(file(), Matching.MatchingMode.RULES_NEXT_ON_NO_MATCH);
+        Assert.assertFalse(usedFallback(m));
+        Assert.assertNull(m.getDecidedNodes());
+    }
+
+    @Test
+    public void noFallbackIfRuleYieldsNodeTest() throws Exception {
+        insertRule(NodeType.CLOUDLET);
+
+        Matching m = new Matching(file(), Matching.MatchingMode.RULES_THEN_FALL_BACK);
+        Assert.assertFalse(usedFallback(m));
+        Assert.assertEquals(Collections.singletonList("node_cloudlet"), decidedIds(m));
+    }
+
+    @Test
+    public void fallbackIfRuleYieldsNoNodeTest() throws Exception {
+        //No gateway is known, so the matching rule does not yield a node
+        insertRule(NodeType.GATEWAY);
+
+        Matching m = new Matching(file(), Matching.MatchingMode.RULES_THEN_FALL_BACK);
+        Assert.assertTrue(usedFallback(m));
+        Assert.assertEquals(Collections.singletonList("node_corenet"), decidedIds(m));
+    }
+
+    @Test
+    public void noFallbackIfRuleKeepsFileOnDeviceTest() throws Exception {
+        insertRule(NodeType.DEVICE_ONLY);
+
+        Matching m = new Matching(file(), Matching.MatchingMode.RULES_THEN_FALL_BACK);
+        Assert.assertFalse(usedFallback(m));
+        Assert.assertEquals(Collections.singletonList(null), decidedIds(m));
+    }
+
+    @Test
+    public void fallbackPrivateFileTest() throws Exception {
+        useNodes(node("node_cloudlet", NodeType.CLOUDLET),
+                node("node_corenet", NodeType.CORENET, FAR_AWAY),
+                node("node_private", NodeType.PRIVATE_NODE, FAR_AWAY));
+        VStoreFile f = file(LOCATION, null, true, place(PlaceType.EVENT, LOCATION, 0.9));
+        f.setPrivate(true);
+        //Private files are never stored on cloudlets or gateways, even at a loud event
+        Assert.assertEquals("node_private", fallback(f));
+        f = file(null, null, null);
+        f.setPrivate(true);
+        Assert.assertEquals("node_private", fallback(f));
+
+        useNodes(node("node_cloudlet", NodeType.CLOUDLET),
+                node("node_corenet", NodeType.CORENET, FAR_AWAY),
+                node("node_cloud", NodeType.CLOUD));
+        f = file(LOCATION, null, null);
+        f.setPrivate(true);
+        Assert.assertEquals("node_corenet", fallback(f));
+
+        useNodes(node("node_cloudlet", NodeType.CLOUDLET));
+        f = file(LOCATION, null, null);
+        f.setPrivate(true);
+        Assert.assertNull(fallback(f));
+    }
+
+    @Test
+    public void fallbackInVehicleTest() throws Exception {
+        useNodes(node("node_cloudlet", NodeType.CLOUDLET),
+                node("node_corenet", NodeType.CORENET, FAR_AWAY),
+                node("node_cloud", NodeType.CLOUD));
+        VSinglePlace event = place(PlaceType.EVENT, LOCATION, 0.9);
+        //In a vehicle, the user only passes by the event
+        Assert.assertEquals("node_corenet", fallback(file(LOCATION, ActivityType.IN_VEHICLE, true, event)));
+        Assert.assertEquals("node_corenet", fallback(file(null, ActivityType.IN_VEHICLE, true, event)));
+        //Other activities do not skip the places
+        Assert.assertEquals("node_cloudlet", fallback(file(LOCATION, ActivityType.WALKING, true, event)));
+        Assert.assertEquals("node_cloudlet", fallback(file(LOCATION, ActivityType.STILL, true, event)));
+
+        useNodes(node("node_cloudlet", NodeType.CLOUDLET), node("node_cloud", NodeType.CLOUD));
+        Assert.assertEquals("node_cloud", fallback(file(LOCATION, ActivityType.IN_VEHICLE, true, event)));
+    }
+
+    @Test
+    public void fallbackLoudEventTest() throws Exception {
+        VSinglePlace event = place(PlaceType.EVENT, LOCATION, 0.9);
+        useNodes(node("node_cloudlet", NodeType.CLOUDLET, FAR_AWAY),
+                node("node_corenet", NodeType.CORENET),
+                node("node_cloud", NodeType.CLOUD));
+        Assert.assertEquals("node_cloudlet", fallback(file(LOCATION, null, true, event)));
+        Assert.assertEquals("node_cloudlet", fallback(file(null, null, true, event)));
+
+        useNodes(node("node_corenet", NodeType.CORENET, FAR_AWAY), node("node_cloud", NodeType.CLOUD));
+        Assert.assertEquals("node_corenet", fallback(file(LOCATION, null, true, event)));
+
+        //Only the cloud is left
+        useNodes(node("node_cloud", NodeType.CLOUD, FAR_AWAY));
+        Assert.assertEquals("node_cloud", fallback(file(LOCATION, null, true, event)));
+    }
+
+    @Test
+    public void fallbackQuietEventTest() throws Exception {
+        VSinglePlace event = place(PlaceType.EVENT, LOCATION, 0.9);
+        useNodes(node("node_cloudlet", NodeType.CLOUDLET),
+                node("node_corenet", NodeType.CORENET, FAR_AWAY),
+                node("node_cloud", NodeType.CLOUD));
+        Assert.assertEquals("node_corenet", fallback(file(LOCATION, null, false, event)));
+        Assert.assertEquals("node_corenet", fallback(file(LOCATION, null, null, event)));
+
+        useNodes(node("node_cloudlet", NodeType.CLOUDLET), node("node_cloud", NodeType.CLOUD, FAR_AWAY));
+        Assert.assertEquals("node_cloud", fallback(file(LOCATION, null, false, event)));
+        Assert.assertEquals("node_cloud", fallback(file(null, null, false, event)));
+    }
+
+    @Test
+    public void fallbackPoiTest() throws Exception {
+        VSinglePlace poi = place(PlaceType.POI, LOCATION, 0.9);
+        useNodes(node("node_cloudlet", NodeType.CLOUDLET),
+                node("node_corenet", NodeType.CORENET, FAR_AWAY),
+                node("node_cloud", NodeType.CLOUD));
+        Assert.assertEquals("node_corenet", fallback(file(LOCATION, null, true, poi)));
+        Assert.assertEquals("node_corenet", fallback(file(null, null, true, poi)));
+
+        useNodes(node("node_gateway", NodeType.GATEWAY),
+                node("node_cloudlet", NodeType.CLOUDLET, FAR_AWAY),
+                node("node_cloud", NodeType.CLOUD));
+        Assert.assertEquals("node_cloudlet", fallback(file(LOCATION, null, true, poi)));
+    }
+
+    @Test
+    public void fallbackUnknownPlaceTest() throws Exception {
+        useNodes(node("node_cloudlet", NodeType.CLOUDLET),
+                node("node_corenet", NodeType.CORENET, FAR_AWAY),
+                node("node_cloud", NodeType.CLOUD, FAR_AWAY));
+        Assert.assertEquals("node_corenet", fallback(file(LOCATION, null, true)));
+        Assert.assertEquals("node_corenet", fallback(file(LOCATION, null, true,
+                place(PlaceType.UNKNOWN, LOCATION, 0.9))));
+        //Places below the lowest likelihood are ignored
+        Assert.assertEquals("node_corenet", fallback(file(LOCATION, null, true,
+                place(PlaceType.EVENT, LOCATION, 0.01))));
+
+        //Without location context or without corenet and cloud, a cloudlet or gateway is used
+        Assert.assertEquals("node_cloudlet", fallback(file(null, null, true)));
+        useNodes(node("node_cloudlet", NodeType.CLOUDLET, FAR_AWAY));
+        Assert.assertEquals("node_cloudlet", fallback(file(LOCATION, null, true)));
+    }
+
+    @Test
+    public void fallbackChoosesPlaceTest() throws Exception {
+        useNodes(node("node_cloudlet", NodeType.CLOUDLET),
+                node("node_corenet", NodeType.CORENET, FAR_AWAY));
+        //Of the likely places, the nearest one is used
+        VSinglePlace nearEvent = place(PlaceType.EVENT, LOCATION, 0.4);
+        VSinglePlace farPoi = place(PlaceType.POI, FAR_AWAY, 0.6);
+        Assert.assertEquals("node_cloudlet", fallback(file(LOCATION, null, true, farPoi, nearEvent)));
+        VSinglePlace farEvent = place(PlaceType.EVENT, FAR_AWAY, 0.6);
+        VSinglePlace nearPoi = place(PlaceType.POI, LOCATION, 0.4);
+        Assert.assertEquals("node_corenet", fallback(file(LOCATION, null, true, farEvent, nearPoi)));
+
+        //Without location, the most likely place is used
+        Assert.assertEquals("node_corenet", fallback(file(null, null, true, farPoi, nearEvent)));
+        Assert.assertEquals("node_cloudlet", fallback(file(null, null, true, farEvent, nearPoi)));
+
+        //The threshold is lowered until a place reaches it
+        Assert.assertEquals("node_cloudlet", fallback(file(LOCATION, null, true,
+                place(PlaceType.EVENT, LOCATION, 0.1))));
+    }
+
+    @Test
+    public void fallbackDoesNotModifySharedContextTest() throws Exception {
+        useNodes(node("node_cloudlet", NodeType.CLOUDLET),
+                node("node_corenet", NodeType.CORENET, FAR_AWAY));
+        VStoreFile source = file(LOCATION, null, true, place(PlaceType.POI, FAR_AWAY, 0.6),
+                place(PlaceType.EVENT, LOCATION, 0.4));
+        //Files read from the database share one frozen context
+        VStoreFile f = TestDatabase.createFile(UUID.randomUUID().toString(), System.currentTimeMillis());
+        f.setContextFromJson(source.getContextJson());
+        ContextDescription shared = f.getContext();
+        Assert.assertTrue(shared.isFrozen());
+        int weekday = shared.getDayOfWeek();
+
+        Assert.assertEquals("node_cloudlet", fallback(f));
+        for(VSinglePlace p : shared.getPlacesList())
+        {
+            Assert.assertEquals(0, p.getDistance(), 0);
+        }
+        try
+        {
+            shared.setDayOfWeek(weekday % 7 + 1);
+            Assert.fail();
+        }
+        catch(UnsupportedOperationException e)
+        {
+            //A copy can be modified and set instead
+            ContextDescription ctx = shared.copy();
+            ctx.setDayOfWeek(weekday % 7 + 1);
+            f.setContext(ctx);
+        }
+        Assert.assertEquals(weekday % 7 + 1, f.getContext().getDayOfWeek());
+        Assert.assertEquals(weekday, shared.getDayOfWeek());
+    }
+
+    @Test
+    public void fallbackWithoutNodesTest() throws Exception {
+        NodeManager.get().clearNodes();
+        Assert.assertNull(fallback(file(LOCATION, null, true, place(PlaceType.EVENT, LOCATION, 0.9))));
+    }
+
+    @Test
+    public void batchUsesOneNodeSetTest() throws Exception {
+        insertRule(NodeType.CLOUDLET);
+        Matching batch = new Matching(Matching.MatchingMode.RULES_NEXT_ON_NO_MATCH);
+        Assert.assertEquals("node_cloudlet", batch.decide(file()).get(0).getIdentifier());
+
+        //Nodes changed during the batch are not seen by the following decisions of the batch
+        useNodes(node("node_other_cloudlet", NodeType.CLOUDLET));
+        Assert.assertEquals("node_cloudlet", batch.decide(file()).get(0).getIdentifier());
+        Assert.assertEquals(Collections.singletonList("node_cloudlet"), decidedIds(batch));
+        //Outside of the decisions, the current nodes are seen again
+        Assert.assertNull(NodeManager.get().getNode("node_cloudlet"));
+
+        Matching next = new Matching(Matching.MatchingMode.RULES_NEXT_ON_NO_MATCH);
+        Assert.assertEquals("node_other_cloudlet", next.decide(file()).get(0).getIdentifier());
+    }
+
+    @Test
+    public void selectNodeMatchesBaselineTest() {
+        Random random = new Random(41);
+        for(int round = 0; round < 200; ++round)
+        {
+            NodeHealthTracker.get().clear();
+            List<NodeInfo> candidates = new ArrayList<>();
+            Set<String> healthy = new HashSet<>();
+            Set<String> all = new HashSet<>();
+            int count = random.nextInt(6);
+            for(int i = 0; i < count; ++i)
+            {
+                NodeInfo n = node("node_" + round + "_" + i, NodeType.CLOUDLET);
+                candidates.add(n);
+                all.add(n.getIdentifier());
+                if(random.nextInt(3) == 0) { makeUnhealthy(n.getIdentifier()); }
+                else { healthy.add(n.getIdentifier()); }
+            }
+            //The baseline chose uniformly among all candidates. Now the unhealthy candidates
+            //are left out, unless all candidates are unhealthy.
+            Set<String> expected = healthy.isEmpty() ? all : healthy;
+            Set<String> chosen = new HashSet<>();
+            for(int k = 0; k < 100; ++k)
+            {
+                NodeInfo n = Matching.selectNode(candidates);
+                if(candidates.isEmpty())
+                {
+                    Assert.assertNull(n);
+                    continue;
+                }
+                Assert.assertTrue(n.getIdentifier(), expected.contains(n.getIdentifier()));
+                chosen.add(n.getIdentifier());
+            }
+            if(!candidates.isEmpty()) { Assert.assertEquals(expected, chosen); }
+        }
+    }
+
+    @Test
+    public void fallbackAvoidsUnhealthyNodesTest() throws Exception {
+        useNodes(node("node_cloudlet", NodeType.CLOUDLET),
+                node("node_gateway", NodeType.GATEWAY),
+                node("node_corenet", NodeType.CORENET),
+                node("node_other_corenet", NodeType.CORENET),
+                node("node_private", NodeType.PRIVATE_NODE),
+                node("node_other_private", NodeType.PRIVATE_NODE));
+        makeUnhealthy("node_gateway");
+        makeUnhealthy("node_other_corenet");
+        makeUnhealthy("node_other_private");
+        VSinglePlace event = place(PlaceType.EVENT, LOCATION, 0.9);
+        VSinglePlace poi = place(PlaceType.POI, LOCATION, 0.9);
+        for(int i = 0; i < 20; ++i)
+        {
+            //One of the nearest cloudlets or gateways, with and without location
+            Assert.assertEquals("node_cloudlet", fallback(file(LOCATION, null, true, event)));
+            Assert.assertEquals("node_cloudlet", fallback(file(null, null, true, event)));
+            //A random node of the first type in the hierarchy
+            Assert.assertEquals("node_corenet", fallback(file(null, null, false, event)));
+            Assert.assertEquals("node_corenet", fallback(file(null, null, true, poi)));
+            Assert.assertEquals("node_corenet", fallback(file(null, ActivityType.IN_VEHICLE, true)));
+
+            VStoreFile f = file(null, null, true);
+            f.setPrivate(true);
+            Assert.assertEquals("node_private", fallback(f));
+        }
+    }
+}
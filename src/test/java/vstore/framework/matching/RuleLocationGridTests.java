@@ -0,0 +1,108 @@
+package vstore.framework.matching;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import vstore.framework.context.types.location.VLatLng;
+import vstore.framework.utils.ContextUtils;
+
+/**
+ * Compares the candidates of the {@link RuleLocationGrid} with the exact distance check that
+ * matching did for every rule before the grid existed. The grid may return more rules, but
+ * never less.
+ */
+public class RuleLocationGridTests {
+
+    private static final double METERS_PER_DEG = 60 * 1.15077945 * 1609.34;
+    private static final int[] RADIUS = { 0, 1, 50, 500, 1000, 5000, 20000, 300000, 5000000 };
+    private static final int RULES = 500;
+    private static final int LOOKUPS = 5000;
+
+    private static VLatLng randomLocation(Random random) {
+        switch(random.nextInt(4))
+        {
+            case 0:
+                //Close to a pole
+                return new VLatLng((random.nextBoolean() ? 1 : -1) * (89 + random.nextDouble()),
+                        -180 + random.nextDouble() * 360);
+            case 1:
+                //Close to the antimeridian
+                return new VLatLng(-60 + random.nextDouble() * 120,
+                        (random.nextBoolean() ? 1 : -1) * (179.9 + random.nextDouble() * 0.1));
+            default:
+                //Around one city, so that many circles overlap
+                return new VLatLng(50.77 + (random.nextDouble() * 2 - 1) * 0.2,
+                        6.08 + (random.nextDouble() * 2 - 1) * 0.2);
+        }
+    }
+
+    /**
+     * @return A location at about the given distance from the center.
+     */
+    private static VLatLng atDistance(Random random, VLatLng center, double meters) {
+        double bearing = random.nextDouble() * 2 * Math.PI;
+        double lat = center.getLatitude() + meters * Math.cos(bearing) / METERS_PER_DEG;
+        double cos = Math.max(0.01, Math.cos(Math.toRadians(center.getLatitude())));
+        double lng = center.getLongitude() + meters * Math.sin(bearing) / (METERS_PER_DEG * cos);
+        lat = Math.max(-90, Math.min(90, lat));
+        if(lng > 180) { lng -= 360; }
+        if(lng < -180) { lng += 360; }
+        return new VLatLng(lat, lng);
+    }
+
+    @Test
+    public void candidatesContainAllMatchingRulesTest() {
+        Random random = new Random(21);
+        VLatLng[] centers = new VLatLng[RULES];
+        int[] radius = new int[RULES];
+        RuleLocationGrid grid = new RuleLocationGrid(RULES);
+        for(int i = 0; i < RULES; ++i)
+        {
+            centers[i] = randomLocation(random);
+            radius[i] = RADIUS[random.nextInt(RADIUS.length)];
+            grid.add(i, centers[i], radius[i]);
+        }
+
+        long matching = 0;
+        long candidates = 0;
+        for(int k = 0; k < LOOKUPS; ++k)
+        {
+            VLatLng loc;
+            if(random.nextBoolean())
+            {
+                //Near the border of a circle
+                int i = random.nextInt(RULES);
+                loc = atDistance(random, centers[i], radius[i] * (0.9 + random.nextDouble() * 0.2));
+            }
+            else
+            {
+                loc = randomLocation(random);
+            }
+
+            BitSet result = grid.getCandidates(loc);
+            for(int i = 0; i < RULES; ++i)
+            {
+                double distance = ContextUtils.distanceBetween(centers[i], loc);
+                if(Math.ceil(distance) <= radius[i])
+                {
+                    ++matching;
+                    Assert.assertTrue("rule " + i + " at " + distance + "m of " + radius[i] + "m",
+                            result.get(i));
+                }
+            }
+            candidates += result.cardinality();
+        }
+        Assert.assertTrue(matching > LOOKUPS);
+        //The grid has to leave out most of the rules that do not match
+        Assert.assertTrue(candidates < (long) LOOKUPS * RULES / 2);
+    }
+
+    @Test
+    public void emptyGridTest() {
+        RuleLocationGrid grid = new RuleLocationGrid(0);
+        Assert.assertTrue(grid.getCandidates(new VLatLng(50.77, 6.08)).isEmpty());
+    }
+}
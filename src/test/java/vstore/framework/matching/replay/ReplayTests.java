@@ -0,0 +1,99 @@
+package vstore.framework.matching.replay;
+
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import vstore.framework.context.types.location.VLatLng;
+import vstore.framework.db.TestDatabase;
+import vstore.framework.matching.Matching.MatchingMode;
+import vstore.framework.node.NodeInfo;
+import vstore.framework.node.NodeManager;
+import vstore.framework.node.NodeType;
+import vstore.framework.rule.DecisionLayer;
+import vstore.framework.rule.RuleIndex;
+import vstore.framework.rule.VStoreRule;
+
+public class ReplayTests {
+
+    @BeforeClass
+    public static void openDatabase() throws Exception {
+        TestDatabase.open();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        TestDatabase.clear();
+        NodeManager.get().clearNodes();
+        RuleIndex.get().invalidate();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        NodeManager.get().clearNodes();
+        TestDatabase.clear();
+        RuleIndex.get().invalidate();
+    }
+
+    private static VStoreRule rule(String mimeType, NodeType target) {
+        VStoreRule r = new VStoreRule("rule_" + target, "Rule", new Date(1531152679000L), "{}", -1,
+                null, 0, 0, 23, 59, false, true, 1);
+        r.setMimeTypes(Collections.singletonList(mimeType));
+        DecisionLayer layer = new DecisionLayer();
+        layer.targetType = target;
+        r.addDecisionLayer(layer);
+        return r;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static StoreEvent event(String fileId, String mimeType, String extension) {
+        JSONObject j = new JSONObject();
+        j.put("fileId", fileId);
+        j.put("filetype", mimeType);
+        j.put("extension", extension);
+        j.put("fileSize", 1024L);
+        j.put("isPrivate", false);
+        j.put("fileContext", "{}");
+        j.put("uploadStartTime", 1531152679000L);
+        j.put("matchingMode", MatchingMode.RULES_NEXT_ON_NO_MATCH.name());
+        return StoreEvent.fromLogEntry(j);
+    }
+
+    @Test
+    public void deviceOnlyEventsTest() throws Exception {
+        List<VStoreRule> rules = Arrays.asList(
+                rule("application/txt", NodeType.CLOUDLET),
+                rule("image/png", NodeType.DEVICE_ONLY));
+        List<NodeInfo> nodes = Collections.singletonList(
+                new NodeInfo("node_cloudlet", "10.0.0.1", 50000, NodeType.CLOUDLET, new VLatLng(50.77, 6.08)));
+        //The second event matches a rule that keeps it on the device, the third matches no rule
+        List<StoreEvent> events = new ArrayList<>(Arrays.asList(
+                event("file_txt", "application/txt", "txt"),
+                event("file_png", "image/png", "png"),
+                event("file_mp4", "video/mp4", "mp4")));
+
+        ReplayReport report = new Replay(rules, nodes).run(events);
+
+        List<ReplayReport.Decision> decisions = report.getDecisions();
+        Assert.assertEquals(3, decisions.size());
+        Assert.assertEquals(NodeType.CLOUDLET, decisions.get(0).getNodeType());
+        Assert.assertEquals(Collections.singletonList("node_cloudlet"), decisions.get(0).getNodeIds());
+        for(ReplayReport.Decision d : decisions.subList(1, 3))
+        {
+            Assert.assertEquals(NodeType.DEVICE_ONLY, d.getNodeType());
+            Assert.assertTrue(d.getNodeIds().isEmpty());
+        }
+        Assert.assertEquals(Integer.valueOf(2), report.getDecisionsPerType().get(NodeType.DEVICE_ONLY));
+        Assert.assertEquals(Integer.valueOf(1), report.getDecisionsPerType().get(NodeType.CLOUDLET));
+        Assert.assertEquals(Collections.singletonMap("node_cloudlet", 1), report.getDecisionsPerNode());
+    }
+}
@@ -0,0 +1,160 @@
+package vstore.framework.node;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import vstore.framework.context.types.location.VLatLng;
+import vstore.framework.db.TestDatabase;
+
+/**
+ * Compares the bandwidth queries of the {@link NodeManager} with a scan over all nodes.
+ */
+public class NodeBandwidthIndexTests {
+
+    private static final int ROUNDS = 5;
+    private static final int NODES = 200;
+    /**
+     * Few distinct bandwidths, so that many nodes share them.
+     */
+    private static final int[] BANDWIDTHS = { 0, 1, 5, 10, 16, 50, 100 };
+    private static final float[] MIN_BANDWIDTHS = { 0, 1, 4.5f, 5, 10, 99.9f, 100, 101 };
+    private static final long[] FILE_SIZES = { 0, 1, 1024 * 1024, 10 * 1024 * 1024, 1024L * 1024 * 1024 };
+    private static final int[] SECONDS = { 0, 1, 2, 5, 60 };
+    private static final VLatLng CENTER = new VLatLng(50.5, 6.5);
+
+    @BeforeClass
+    public static void openDatabase() throws Exception {
+        TestDatabase.open();
+    }
+
+    @Before
+    public void clearNodes() {
+        NodeManager.get().clearNodes();
+    }
+
+    private static List<NodeInfo> randomNodes(Random random, int count) {
+        List<NodeInfo> nodes = new ArrayList<>();
+        NodeType[] types = { NodeType.CLOUDLET, NodeType.GATEWAY, NodeType.CLOUD };
+        for(int i = 0; i < count; ++i)
+        {
+            NodeInfo n = new NodeInfo("node_" + i, "10.0.0.1", 50000, types[i % types.length],
+                    new VLatLng(50 + random.nextDouble(), 6 + random.nextDouble()));
+            n.setBandwidthUp(BANDWIDTHS[random.nextInt(BANDWIDTHS.length)]);
+            n.setBandwidthDown(BANDWIDTHS[random.nextInt(BANDWIDTHS.length)]);
+            nodes.add(n);
+        }
+        return nodes;
+    }
+
+    private static Set<String> scanMatching(List<NodeInfo> nodes, NodeType type, float minUp, float minDown) {
+        Set<String> result = new HashSet<>();
+        for(NodeInfo n : nodes)
+        {
+            if(n.getNodeType() == type && n.getBandwidthUp() >= minUp && n.getBandwidthDown() >= minDown)
+            {
+                result.add(n.getIdentifier());
+            }
+        }
+        return result;
+    }
+
+    private static Set<String> scanByUploadTime(List<NodeInfo> nodes, NodeType type, long filesize, int seconds) {
+        Set<String> result = new HashSet<>();
+        for(NodeInfo n : nodes)
+        {
+            if(n.getNodeType() != type) { continue; }
+            //Filesize in MByte divided by bandwidth in MByte/s
+            float duration = filesize / (1024.0f*1024.0f) / (n.getBandwidthUp() / 8.0f);
+            if(!(Math.ceil(duration) > seconds)) { result.add(n.getIdentifier()); }
+        }
+        return result;
+    }
+
+    private static Set<String> ids(List<NodeInfo> nodes) {
+        Set<String> ids = new HashSet<>();
+        for(NodeInfo n : nodes) { ids.add(n.getIdentifier()); }
+        Assert.assertEquals("Nodes are returned only once", nodes.size(), ids.size());
+        return ids;
+    }
+
+    private static void assertUnmodifiable(List<NodeInfo> nodes) {
+        try
+        {
+            nodes.add(null);
+            Assert.fail("The result must not be modifiable");
+        }
+        catch(UnsupportedOperationException e)
+        {
+            //Expected
+        }
+    }
+
+    @Test
+    public void queriesMatchScanTest() {
+        Random random = new Random(14);
+        NodeManager manager = NodeManager.get();
+        for(int round = 0; round < ROUNDS; ++round)
+        {
+            List<NodeInfo> nodes = randomNodes(random, NODES);
+            manager.clearNodes();
+            Assert.assertTrue(manager.applyNodeChanges(nodes, Collections.<String>emptyList()));
+
+            for(NodeType type : NodeType.values())
+            {
+                for(float minUp : MIN_BANDWIDTHS)
+                {
+                    for(float minDown : MIN_BANDWIDTHS)
+                    {
+                        List<NodeInfo> matching = manager.getNodesMatchingBandwidthAndRadius(type, minUp, minDown,
+                                0, 0, null);
+                        Assert.assertEquals(scanMatching(nodes, type, minUp, minDown), ids(matching));
+                        assertUnmodifiable(matching);
+
+                        //With a radius, the nodes in the area are checked for the bandwidths
+                        Set<String> expected = scanMatching(nodes, type, minUp, minDown);
+                        for(NodeInfo n : nodes)
+                        {
+                            float dist = n.getGeographicDistanceTo(CENTER);
+                            if(dist < 10 || dist > 50) { expected.remove(n.getIdentifier()); }
+                        }
+                        matching = manager.getNodesMatchingBandwidthAndRadius(type, minUp, minDown, 10, 50, CENTER);
+                        Assert.assertEquals(expected, ids(matching));
+                    }
+                }
+                for(long filesize : FILE_SIZES)
+                {
+                    for(int seconds : SECONDS)
+                    {
+                        List<NodeInfo> matching = manager.getNodesByUploadTime(type, filesize, seconds);
+                        Assert.assertEquals(scanByUploadTime(nodes, type, filesize, seconds), ids(matching));
+                        assertUnmodifiable(matching);
+                    }
+                }
+            }
+        }
+        //The queries never change the nodes of the manager
+        Assert.assertEquals(NODES, manager.getNodeCount());
+    }
+
+    @Test
+    public void emptyNodeSetTest() {
+        NodeManager manager = NodeManager.get();
+        for(NodeType type : NodeType.values())
+        {
+            Assert.assertTrue(manager.getNodesMatchingBandwidthAndRadius(type, 0, 0, 0, 0, null).isEmpty());
+            Assert.assertTrue(manager.getNodesMatchingBandwidthAndRadius(type, 10, 10, 0, 0, null).isEmpty());
+            Assert.assertTrue(manager.getNodesByUploadTime(type, 0, 0).isEmpty());
+            Assert.assertTrue(manager.getNodesByUploadTime(type, 1024 * 1024, 5).isEmpty());
+        }
+        Assert.assertTrue(manager.getAllNodesByUploadTime(1024 * 1024, 5).isEmpty());
+    }
+}
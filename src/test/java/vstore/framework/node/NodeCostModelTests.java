@@ -0,0 +1,221 @@
+package vstore.framework.node;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import vstore.framework.context.ContextDescription;
+import vstore.framework.context.ContextManager;
+import vstore.framework.context.types.location.VLatLng;
+import vstore.framework.context.types.location.VLocation;
+import vstore.framework.db.TestDatabase;
+
+/**
+ * Compares the ranking of the {@link NodeCostModel} with a scan that picks the cheapest
+ * remaining node again and again.
+ */
+public class NodeCostModelTests {
+
+    private static final int ROUNDS = 200;
+    private static final NodeType[] TYPES = { NodeType.CLOUDLET, NodeType.GATEWAY, NodeType.CORENET, NodeType.CLOUD };
+    private static final int[] BANDWIDTHS = { 0, 10, 50, 100 };
+    private static final long[] FILE_SIZES = { 0, 1, NodeCostModel.DEFAULT_FILE_SIZE, 100 * 1024 * 1024 };
+
+    @BeforeClass
+    public static void openDatabase() throws Exception {
+        TestDatabase.open();
+    }
+
+    @Before
+    public void clearMeasurements() {
+        NodeLoadTracker.get().clear();
+        NodeHealthTracker.get().clear();
+        NodeCostModel.get().clear();
+    }
+
+    @After
+    public void clearContext() {
+        ContextManager.get().provideContext(new ContextDescription());
+    }
+
+    /**
+     * Creates nodes with random types, locations and measurements. Every fourth node is a copy
+     * of an unmeasured node with the same configuration, so that there are ties.
+     */
+    private static List<NodeInfo> randomNodes(Random random, String prefix, int count) {
+        NodeLoadTracker load = NodeLoadTracker.get();
+        NodeHealthTracker health = NodeHealthTracker.get();
+        List<NodeInfo> nodes = new ArrayList<>();
+        for(int i = 0; i < count; ++i)
+        {
+            String id = prefix + i;
+            if(i % 4 == 3)
+            {
+                NodeInfo original = nodes.get(random.nextInt(i));
+                if(load.getDownloadThroughput(original.getIdentifier()) == 0
+                        && health.getRtt(original.getIdentifier()) == 0
+                        && load.getDownloadErrorRate(original.getIdentifier()) == 0
+                        && health.isHealthy(original.getIdentifier()))
+                {
+                    NodeInfo copy = new NodeInfo(id, "10.0.0.1", 50000, original.getNodeType(), original.getLatLng());
+                    copy.setBandwidthDown(original.getBandwidthDown());
+                    nodes.add(copy);
+                    continue;
+                }
+            }
+            VLatLng loc = random.nextInt(5) == 0 ? null
+                    : new VLatLng(45 + random.nextDouble() * 10, random.nextDouble() * 10);
+            NodeInfo n = new NodeInfo(id, "10.0.0.1", 50000, TYPES[random.nextInt(TYPES.length)], loc);
+            n.setBandwidthDown(BANDWIDTHS[random.nextInt(BANDWIDTHS.length)]);
+            nodes.add(n);
+
+            switch(random.nextInt(6)) {
+                case 0:
+                    load.downloadStarted(id);
+                    load.downloadFinished(id, 1 + random.nextInt(10000000), random.nextInt(200),
+                            200 + random.nextInt(5000), random.nextBoolean());
+                    break;
+                case 1:
+                    health.probeSucceeded(id, random.nextInt(100000000), 4096, 1 + random.nextInt(100000000));
+                    break;
+                case 2:
+                    for(int k = 0; k < NodeHealthTracker.FAILURE_THRESHOLD; ++k) { health.probeFailed(id); }
+                    break;
+                case 3:
+                    load.downloadStarted(id);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Ranks the nodes by picking the first of the cheapest remaining nodes, healthy nodes first.
+     */
+    private static List<NodeInfo> scanRanking(List<NodeInfo> nodes, VLatLng location, long fileSize) {
+        NodeCostModel model = NodeCostModel.get();
+        NodeHealthTracker health = NodeHealthTracker.get();
+        List<NodeInfo> remaining = new ArrayList<>();
+        for(NodeInfo n : nodes)
+        {
+            if(n != null) { remaining.add(n); }
+        }
+        List<NodeInfo> ranked = new ArrayList<>();
+        while(!remaining.isEmpty())
+        {
+            int best = 0;
+            for(int i = 1; i < remaining.size(); ++i)
+            {
+                NodeInfo a = remaining.get(i);
+                NodeInfo b = remaining.get(best);
+                boolean healthyA = health.isHealthy(a.getIdentifier());
+                boolean healthyB = health.isHealthy(b.getIdentifier());
+                if(healthyA != healthyB)
+                {
+                    if(healthyA) { best = i; }
+                    continue;
+                }
+                if(model.estimateCost(a, location, fileSize) < model.estimateCost(b, location, fileSize)) { best = i; }
+            }
+            ranked.add(remaining.remove(best));
+        }
+        return ranked;
+    }
+
+    @Test
+    public void rankingMatchesScanTest() {
+        Random random = new Random(17);
+        NodeCostModel model = NodeCostModel.get();
+        for(int round = 0; round < ROUNDS; ++round)
+        {
+            List<NodeInfo> nodes = randomNodes(random, "node_" + round + "_", random.nextInt(25));
+            if(!nodes.isEmpty() && random.nextBoolean())
+            {
+                nodes.add(random.nextInt(nodes.size()), null);
+            }
+            VLatLng location = random.nextInt(4) == 0 ? null
+                    : new VLatLng(45 + random.nextDouble() * 10, random.nextDouble() * 10);
+            long fileSize = FILE_SIZES[random.nextInt(FILE_SIZES.length)];
+
+            Assert.assertEquals(scanRanking(nodes, location, fileSize), model.rank(nodes, location, fileSize));
+        }
+    }
+
+    @Test
+    public void cachedRankingMatchesScanTest() {
+        Random random = new Random(18);
+        NodeCostModel model = NodeCostModel.get();
+        VLatLng location = new VLatLng(50.77, 6.08);
+        ContextDescription ctx = new ContextDescription();
+        ctx.setLocationContext(new VLocation(location, 10, System.currentTimeMillis(), ""));
+        ContextManager.get().provideContext(ctx);
+
+        for(int round = 0; round < 20; ++round)
+        {
+            List<NodeInfo> nodes = randomNodes(random, "cached_" + round + "_", 1 + random.nextInt(25));
+            List<NodeInfo> expected = scanRanking(nodes, location, NodeCostModel.DEFAULT_FILE_SIZE);
+            Assert.assertEquals(expected, model.rank(nodes));
+            //The same node set in another order hits the cache
+            Collections.reverse(nodes);
+            Assert.assertEquals(expected, model.rank(nodes));
+        }
+    }
+
+    @Test
+    public void cachedRankingFollowsMeasurementsTest() {
+        Random random = new Random(19);
+        NodeCostModel model = NodeCostModel.get();
+        NodeLoadTracker load = NodeLoadTracker.get();
+        NodeHealthTracker health = NodeHealthTracker.get();
+        VLatLng location = new VLatLng(50.77, 6.08);
+        ContextDescription ctx = new ContextDescription();
+        ctx.setLocationContext(new VLocation(location, 10, System.currentTimeMillis(), ""));
+        ContextManager.get().provideContext(ctx);
+
+        List<NodeInfo> nodes = randomNodes(random, "measured_", 10);
+        Assert.assertEquals(scanRanking(nodes, location, NodeCostModel.DEFAULT_FILE_SIZE), model.rank(nodes));
+        for(int step = 0; step < 200; ++step)
+        {
+            //Mostly the node that is ranked first, so that the ranking changes
+            String id = (random.nextBoolean() ? model.rank(nodes).get(0)
+                    : nodes.get(random.nextInt(nodes.size()))).getIdentifier();
+            switch(random.nextInt(5)) {
+                case 0:
+                    load.downloadStarted(id);
+                    break;
+                case 1:
+                    load.downloadFinished(id, 1 + random.nextInt(10000000), random.nextInt(200),
+                            200 + random.nextInt(5000), random.nextBoolean());
+                    break;
+                case 2:
+                    health.probeFailed(id);
+                    break;
+                case 3:
+                    health.probeSucceeded(id, random.nextInt(100000000), 4096, 1 + random.nextInt(100000000));
+                    break;
+                default:
+                    //Uploads do not change the ranking for downloads
+                    load.uploadQueued(id);
+                    break;
+            }
+            Assert.assertEquals(scanRanking(nodes, location, NodeCostModel.DEFAULT_FILE_SIZE), model.rank(nodes));
+        }
+    }
+
+    @Test
+    public void emptyNodeSetTest() {
+        NodeCostModel model = NodeCostModel.get();
+        Assert.assertTrue(model.rank(new ArrayList<NodeInfo>()).isEmpty());
+        Assert.assertTrue(model.rank(new ArrayList<NodeInfo>(), new VLatLng(50.77, 6.08), 1).isEmpty());
+        Assert.assertTrue(model.rank(Collections.<NodeInfo>singletonList(null), null, 1).isEmpty());
+    }
+}
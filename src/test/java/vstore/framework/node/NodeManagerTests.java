@@ -0,0 +1,117 @@
+package vstore.framework.node;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import vstore.framework.context.types.location.VLatLng;
+import vstore.framework.db.TestDatabase;
+import vstore.framework.db.table_helper.NodeDBHelper;
+
+public class NodeManagerTests {
+
+    @BeforeClass
+    public static void openDatabase() throws Exception {
+        TestDatabase.open();
+    }
+
+    @Before
+    public void clearNodes() {
+        NodeManager.get().clearNodes();
+    }
+
+    private static NodeInfo node(String uuid, int bandwidthUp) {
+        NodeInfo n = new NodeInfo(uuid, "10.0.0.1", 50000, NodeType.CLOUDLET, new VLatLng(50.2, 3.6));
+        n.setBandwidthUp(bandwidthUp);
+        return n;
+    }
+
+    private static JSONObject json(String s) throws ParseException {
+        return (JSONObject) new JSONParser().parse(s);
+    }
+
+    @Test
+    public void appliedDeltaIsStoredAndPublishedTest() throws SQLException {
+        NodeManager manager = NodeManager.get();
+        Assert.assertTrue(manager.applyNodeChanges(
+                Arrays.asList(node("node_a", 10), node("node_b", 10)),
+                Collections.<String>emptyList()));
+        long version = manager.getSnapshot().getVersion();
+
+        //A delta as the master node sends it during a synchronization
+        Assert.assertTrue(manager.applyNodeChanges(
+                Arrays.asList(node("node_b", 20), node("node_c", 10)),
+                Collections.singletonList("node_a")));
+
+        NodeSnapshot snapshot = manager.getSnapshot();
+        Assert.assertEquals(version + 1, snapshot.getVersion());
+        Assert.assertNull(snapshot.getNode("node_a"));
+        Assert.assertEquals(20, snapshot.getNode("node_b").getBandwidthUp());
+        Assert.assertNotNull(snapshot.getNode("node_c"));
+
+        //The database holds the same nodes as the snapshot
+        Assert.assertNull(NodeDBHelper.getNode("node_a"));
+        Assert.assertEquals(20, NodeDBHelper.getNode("node_b").getBandwidthUp());
+        Assert.assertNotNull(NodeDBHelper.getNode("node_c"));
+        Assert.assertEquals(2, NodeDBHelper.getNodes().size());
+    }
+
+    @Test
+    public void deletedNodeIsForgottenTest() {
+        NodeManager manager = NodeManager.get();
+        NodeHealthTracker health = NodeHealthTracker.get();
+        Assert.assertTrue(manager.applyNodeChanges(
+                Arrays.asList(node("node_a", 10), node("node_b", 10)),
+                Collections.<String>emptyList()));
+        for(int i = 0; i < NodeHealthTracker.FAILURE_THRESHOLD; ++i)
+        {
+            health.probeFailed("node_a");
+            health.probeFailed("node_b");
+        }
+
+        manager.deleteNode("node_a");
+
+        Assert.assertNull(manager.getNode("node_a"));
+        Assert.assertEquals(0, health.getConsecutiveFailures("node_a"));
+        Assert.assertTrue(health.isHealthy("node_a"));
+        Assert.assertFalse(health.isHealthy("node_b"));
+        health.clear();
+    }
+
+    @Test
+    public void fullListRemovesMissingNodesTest() throws Exception {
+        NodeManager manager = NodeManager.get();
+        Assert.assertTrue(manager.applyNodeChanges(
+                Arrays.asList(node("node_a", 10), node("node_b", 10), node("node_c", 10)),
+                Collections.<String>emptyList()));
+
+        //A full list as older master nodes send it. node_a is gone from the master node.
+        Assert.assertTrue(manager.applyNodeList(Arrays.asList(node("node_b", 20), node("node_c", 10))));
+
+        NodeSnapshot snapshot = manager.getSnapshot();
+        Assert.assertNull(snapshot.getNode("node_a"));
+        Assert.assertEquals(20, snapshot.getNode("node_b").getBandwidthUp());
+        Assert.assertNotNull(snapshot.getNode("node_c"));
+        Assert.assertEquals(2, snapshot.size());
+        Assert.assertNull(NodeDBHelper.getNode("node_a"));
+        Assert.assertEquals(2, NodeDBHelper.getNodes().size());
+
+        //A full list must contain the nodes, a delta may leave them out
+        Assert.assertNull(NodeListDelta.fromJson(json("{\"version\": 3}"), null));
+        Assert.assertTrue(NodeListDelta.fromJson(json("{\"version\": 3, \"nodes\": []}"), null).isFull());
+        Assert.assertFalse(NodeListDelta.fromJson(json("{\"version\": 3, \"delta\": true}"), null).isFull());
+
+        //An empty full list removes all nodes
+        Assert.assertTrue(manager.applyNodeList(Collections.<NodeInfo>emptyList()));
+        Assert.assertEquals(0, manager.getSnapshot().size());
+        Assert.assertTrue(NodeDBHelper.getNodes().isEmpty());
+    }
+}
@@ -0,0 +1,232 @@
+package vstore.framework.node;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import vstore.framework.context.types.location.VLatLng;
+import vstore.framework.db.TestDatabase;
+import vstore.framework.db.table_helper.NodeDBHelper;
+import vstore.framework.utils.ContextUtils;
+
+/**
+ * Compares the queries of the {@link NodeManager} with plain scans over a map of the nodes, as
+ * the node manager did them before it published its nodes as snapshots. Nodes are added,
+ * updated and removed at random in between. Snapshots taken before a change must not see it.
+ */
+public class NodeSnapshotTests {
+
+    private static final NodeType[] TYPES = {
+            NodeType.CLOUDLET, NodeType.GATEWAY, NodeType.CORENET, NodeType.CLOUD, NodeType.PRIVATE_NODE
+    };
+    private static final int[] BANDWIDTHS = { 0, 10, 50, 100 };
+    //In kilometers, as the distance of a node
+    private static final float[] RADIUS = { 0, 1, 5, 20 };
+    private static final int OPERATIONS = 300;
+    private static final int IDS = 40;
+
+    @BeforeClass
+    public static void openDatabase() throws Exception {
+        TestDatabase.open();
+    }
+
+    @Before
+    public void setUp() {
+        NodeManager.get().clearNodes();
+    }
+
+    @After
+    public void tearDown() {
+        NodeManager.get().clearNodes();
+    }
+
+    private static VLatLng randomLocation(Random random) {
+        return new VLatLng(50.77 + (random.nextDouble() * 2 - 1) * 0.2, 6.08 + (random.nextDouble() * 2 - 1) * 0.3);
+    }
+
+    private static NodeInfo randomNode(Random random) {
+        NodeInfo n = new NodeInfo("node_" + random.nextInt(IDS), "10.0.0.1", 50000,
+                TYPES[random.nextInt(TYPES.length)], randomLocation(random));
+        n.setBandwidthUp(BANDWIDTHS[random.nextInt(BANDWIDTHS.length)]);
+        n.setBandwidthDown(BANDWIDTHS[random.nextInt(BANDWIDTHS.length)]);
+        return n;
+    }
+
+    private static String describe(NodeInfo n) {
+        return n.getIdentifier() + " " + n.getNodeType() + " " + n.getLatLng().getLatitude() + ","
+                + n.getLatLng().getLongitude() + " " + n.getBandwidthUp() + "/" + n.getBandwidthDown();
+    }
+
+    private static Set<String> describe(Iterable<NodeInfo> nodes) {
+        Set<String> result = new HashSet<>();
+        for(NodeInfo n : nodes) { result.add(describe(n)); }
+        return result;
+    }
+
+    private static List<NodeInfo> ofType(Map<String, NodeInfo> model, NodeType type) {
+        List<NodeInfo> result = new ArrayList<>();
+        for(NodeInfo n : model.values())
+        {
+            if(n.getNodeType() == type) { result.add(n); }
+        }
+        return result;
+    }
+
+    /**
+     * @return The distances of the given nodes to the location, in ascending order.
+     */
+    private static List<Float> distances(List<NodeInfo> nodes, VLatLng loc) {
+        List<Float> result = new ArrayList<>();
+        for(NodeInfo n : nodes) { result.add(ContextUtils.distanceBetween(n.getLatLng(), loc)); }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static void assertSameNodes(Map<String, NodeInfo> model, NodeSnapshot snapshot) {
+        Assert.assertEquals(model.size(), snapshot.size());
+        Assert.assertEquals(describe(model.values()), describe(snapshot.getNodes().values()));
+        for(NodeType t : NodeType.values())
+        {
+            Assert.assertEquals(describe(ofType(model, t)), describe(snapshot.getNodesOfType(t)));
+        }
+    }
+
+    private static void assertSameQueries(Map<String, NodeInfo> model, Random random) throws SQLException {
+        NodeManager manager = NodeManager.get();
+        assertSameNodes(model, manager.getSnapshot());
+        Assert.assertEquals(model.size(), manager.getNodeCount());
+        Assert.assertEquals(describe(model.values()), describe(manager.getNodeList().values()));
+        Assert.assertEquals(describe(model.values()), describe(NodeDBHelper.getNodes()));
+
+        for(int k = 0; k < 10; ++k)
+        {
+            VLatLng loc = randomLocation(random);
+            for(NodeType t : TYPES)
+            {
+                List<NodeInfo> nodes = ofType(model, t);
+                List<Float> expected = distances(nodes, loc);
+
+                //Nearest node, compared by distance since two nodes can be equally far away
+                NodeInfo nearest = manager.getNearestNodeOfType(t, loc);
+                if(nodes.isEmpty())
+                {
+                    Assert.assertNull(nearest);
+                }
+                else
+                {
+                    Assert.assertEquals(expected.get(0),
+                            ContextUtils.distanceBetween(nearest.getLatLng(), loc), 0.01f);
+                }
+                List<Float> nearestThree = distances(manager.get_N_NearestNodesOfType(t, loc, 3), loc);
+                Assert.assertEquals(expected.subList(0, Math.min(3, expected.size())).toString(),
+                        nearestThree.toString());
+
+                //Bandwidth and radius constraints
+                int bwUp = BANDWIDTHS[random.nextInt(BANDWIDTHS.length)];
+                int bwDown = BANDWIDTHS[random.nextInt(BANDWIDTHS.length)];
+                float minRadius = RADIUS[random.nextInt(RADIUS.length)];
+                float maxRadius = RADIUS[random.nextInt(RADIUS.length)];
+                boolean radius = maxRadius > minRadius;
+                List<NodeInfo> matching = new ArrayList<>();
+                for(NodeInfo n : nodes)
+                {
+                    if(n.getBandwidthUp() < bwUp || n.getBandwidthDown() < bwDown) { continue; }
+                    float dist = n.getGeographicDistanceTo(loc);
+                    if(radius && (dist < minRadius || dist > maxRadius)) { continue; }
+                    matching.add(n);
+                }
+                Assert.assertEquals(describe(matching), describe(
+                        manager.getNodesMatchingBandwidthAndRadius(t, bwUp, bwDown, minRadius, maxRadius, loc)));
+            }
+        }
+    }
+
+    @Test
+    public void queriesMatchScansTest() throws Exception {
+        Random random = new Random(51);
+        NodeManager manager = NodeManager.get();
+        Map<String, NodeInfo> model = new LinkedHashMap<>();
+        for(int op = 0; op < OPERATIONS; ++op)
+        {
+            NodeSnapshot before = manager.getSnapshot();
+            Map<String, NodeInfo> modelBefore = new HashMap<>(model);
+            int kind = random.nextInt(10);
+            if(kind < 3)
+            {
+                //A delta as the master node sends it, with each node at most once
+                List<NodeInfo> changed = new ArrayList<>();
+                List<String> removed = new ArrayList<>();
+                Set<String> ids = new HashSet<>();
+                int count = random.nextInt(6);
+                for(int i = 0; i < count; ++i)
+                {
+                    NodeInfo n = randomNode(random);
+                    if(!ids.add(n.getIdentifier())) { continue; }
+                    if(random.nextInt(3) == 0) { removed.add(n.getIdentifier()); }
+                    else { changed.add(n); }
+                }
+                Assert.assertTrue(manager.applyNodeChanges(changed, removed));
+                for(NodeInfo n : changed) { model.put(n.getIdentifier(), n); }
+                for(String id : removed) { model.remove(id); }
+            }
+            else if(kind < 4)
+            {
+                //The full node list
+                Map<String, NodeInfo> list = new LinkedHashMap<>();
+                int count = random.nextInt(15);
+                for(int i = 0; i < count; ++i)
+                {
+                    NodeInfo n = randomNode(random);
+                    list.put(n.getIdentifier(), n);
+                }
+                List<NodeInfo> nodes = new ArrayList<>(list.values());
+                Assert.assertTrue(manager.applyNodeList(nodes));
+                model.clear();
+                for(NodeInfo n : nodes) { model.put(n.getIdentifier(), n); }
+            }
+            else if(kind < 6)
+            {
+                NodeInfo n = randomNode(random);
+                Assert.assertNotNull(manager.addNode(n));
+                model.put(n.getIdentifier(), n);
+            }
+            else if(kind < 8)
+            {
+                //Only known nodes are updated
+                NodeInfo n = randomNode(random);
+                manager.updateNode(n);
+                if(model.containsKey(n.getIdentifier())) { model.put(n.getIdentifier(), n); }
+            }
+            else if(kind < 9)
+            {
+                String id = "node_" + random.nextInt(IDS);
+                manager.deleteNode(id);
+                model.remove(id);
+            }
+            else
+            {
+                manager.refreshNodes();
+            }
+
+            //The snapshot taken before the change still holds the old nodes
+            assertSameNodes(modelBefore, before);
+            Assert.assertTrue(manager.getVersion() >= before.getVersion());
+            if(op % 10 == 9) { assertSameQueries(model, random); }
+        }
+        assertSameQueries(model, random);
+        Assert.assertFalse(model.isEmpty());
+    }
+}
@@ -0,0 +1,215 @@
+package vstore.framework.node;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import vstore.framework.context.types.location.VLatLng;
+import vstore.framework.db.TestDatabase;
+
+/**
+ * Compares the location queries of the {@link NodeManager} with a scan over all nodes.
+ */
+public class NodeSpatialIndexTests {
+
+    private static final int ROUNDS = 6;
+    private static final int NODES = 300;
+    private static final int QUERIES = 40;
+
+    @BeforeClass
+    public static void openDatabase() throws Exception {
+        TestDatabase.open();
+    }
+
+    @Before
+    public void clearNodes() {
+        NodeManager.get().clearNodes();
+    }
+
+    /**
+     * Creates nodes of two types around the given center. Every fifth node is put at the
+     * location of an earlier node, so that there are ties.
+     */
+    private static List<NodeInfo> randomNodes(Random random, int count, double lat, double lng, double spread) {
+        List<NodeInfo> nodes = new ArrayList<>();
+        for(int i = 0; i < count; ++i)
+        {
+            VLatLng loc;
+            if(i % 5 == 4) {
+                loc = nodes.get(random.nextInt(i)).getLatLng();
+            } else {
+                loc = randomLocation(random, lat, lng, spread);
+            }
+            NodeType type = (i % 3 == 0) ? NodeType.GATEWAY : NodeType.CLOUDLET;
+            NodeInfo n = new NodeInfo("node_" + i, "10.0.0.1", 50000, type,
+                    new VLatLng(loc.getLatitude(), loc.getLongitude()));
+            nodes.add(n);
+        }
+        return nodes;
+    }
+
+    private static VLatLng randomLocation(Random random, double lat, double lng, double spread) {
+        double la = Math.max(-90, Math.min(90, lat + (random.nextDouble() * 2 - 1) * spread));
+        double lo = lng + (random.nextDouble() * 2 - 1) * spread;
+        if(lo > 180) { lo -= 360; }
+        if(lo < -180) { lo += 360; }
+        return new VLatLng(la, lo);
+    }
+
+    /**
+     * @return The nodes of the type, nearest first.
+     */
+    private static List<NodeInfo> scanNearest(List<NodeInfo> nodes, NodeType type, final VLatLng loc) {
+        List<NodeInfo> result = new ArrayList<>();
+        for(NodeInfo n : nodes)
+        {
+            if(n.getNodeType() == type) { result.add(n); }
+        }
+        Collections.sort(result, new Comparator<NodeInfo>() {
+            @Override
+            public int compare(NodeInfo a, NodeInfo b) {
+                return Float.compare(a.getGeographicDistanceTo(loc), b.getGeographicDistanceTo(loc));
+            }
+        });
+        return result;
+    }
+
+    private static Set<String> scanWithin(List<NodeInfo> nodes, NodeType type, VLatLng loc, float min, float max) {
+        Set<String> result = new HashSet<>();
+        for(NodeInfo n : nodes)
+        {
+            float dist = n.getGeographicDistanceTo(loc);
+            if(n.getNodeType() == type && dist >= min && dist <= max) { result.add(n.getIdentifier()); }
+        }
+        return result;
+    }
+
+    private static Set<String> ids(List<NodeInfo> nodes) {
+        Set<String> ids = new HashSet<>();
+        for(NodeInfo n : nodes) { ids.add(n.getIdentifier()); }
+        Assert.assertEquals("Nodes are returned only once", nodes.size(), ids.size());
+        return ids;
+    }
+
+    /**
+     * Asserts that both nodes are equally far away. Ties may be broken differently.
+     */
+    private static void assertSameDistance(NodeInfo expected, NodeInfo actual, VLatLng loc) {
+        float e = expected.getGeographicDistanceTo(loc);
+        float a = actual.getGeographicDistanceTo(loc);
+        Assert.assertEquals(e, a, 0.001 + e * 1e-6);
+    }
+
+    private void checkQueries(Random random, double lat, double lng, double spread) {
+        List<NodeInfo> nodes = randomNodes(random, NODES, lat, lng, spread);
+        NodeManager manager = NodeManager.get();
+        manager.clearNodes();
+        Assert.assertTrue(manager.applyNodeChanges(nodes, Collections.<String>emptyList()));
+
+        for(int q = 0; q < QUERIES; ++q)
+        {
+            //Query from the locations of nodes too, where the nearest node is at distance 0
+            VLatLng loc = (q % 4 == 0) ? nodes.get(random.nextInt(nodes.size())).getLatLng()
+                    : randomLocation(random, lat, lng, spread * 1.5);
+            for(NodeType type : Arrays.asList(NodeType.CLOUDLET, NodeType.GATEWAY))
+            {
+                List<NodeInfo> expected = scanNearest(nodes, type, loc);
+
+                assertSameDistance(expected.get(0), manager.getNearestNodeOfType(type, loc), loc);
+
+                for(int n : new int[] { 1, 3, 10 })
+                {
+                    List<NodeInfo> nearest = manager.get_N_NearestNodesOfType(type, loc, n);
+                    Assert.assertEquals(n, ids(nearest).size());
+                    for(int i = 0; i < n; ++i)
+                    {
+                        assertSameDistance(expected.get(i), nearest.get(i), loc);
+                    }
+                }
+
+                //Use the distances of nodes as radius too, so that nodes lie exactly on the border
+                float d1 = expected.get(random.nextInt(expected.size())).getGeographicDistanceTo(loc);
+                float d2 = (q % 2 == 0) ? expected.get(random.nextInt(expected.size())).getGeographicDistanceTo(loc)
+                        : random.nextFloat() * (float) spread * 111;
+                float min = Math.min(d1, d2);
+                float max = Math.max(d1, d2);
+                if(max > min)
+                {
+                    Assert.assertEquals(scanWithin(nodes, type, loc, min, max),
+                            ids(manager.getNodesMatchingBandwidthAndRadius(type, 0, 0, min, max, loc)));
+                }
+            }
+            Assert.assertNull(manager.getNearestNodeOfType(NodeType.CLOUD, loc));
+        }
+    }
+
+    @Test
+    public void queriesMatchScanTest() {
+        Random random = new Random(12);
+        for(int round = 0; round < ROUNDS; ++round)
+        {
+            //From a single city to a continent
+            double spread = 0.02 * Math.pow(5, round);
+            checkQueries(random, 50.77, 6.08, spread);
+        }
+    }
+
+    @Test
+    public void queriesMatchScanAtPolesAndDateLineTest() {
+        Random random = new Random(13);
+        //Near the poles the grid of the nearest node table is not used
+        checkQueries(random, 89.7, 20, 0.5);
+        checkQueries(random, -89.2, -140, 1);
+        checkQueries(random, 10, 179.95, 0.2);
+    }
+
+    @Test
+    public void emptyNodeSetTest() {
+        NodeManager manager = NodeManager.get();
+        VLatLng loc = new VLatLng(50.77, 6.08);
+        for(NodeType type : NodeType.values())
+        {
+            Assert.assertNull(manager.getNearestNodeOfType(type, loc));
+            Assert.assertTrue(manager.get_N_NearestNodesOfType(type, loc, 3).isEmpty());
+            Assert.assertTrue(manager.getNodesMatchingBandwidthAndRadius(type, 0, 0, 0, 1000, loc).isEmpty());
+        }
+    }
+
+    @Test
+    public void indexReturnsNodesWithoutLocationLastTest() {
+        Random random = new Random(14);
+        List<NodeInfo> nodes = randomNodes(random, 50, 50.77, 6.08, 1);
+        List<NodeInfo> unlocated = new ArrayList<>();
+        for(int i = 0; i < 5; ++i)
+        {
+            unlocated.add(new NodeInfo("unlocated_" + i, "10.0.0.2", 50000, NodeType.CLOUDLET, null));
+        }
+        List<NodeInfo> all = new ArrayList<>(nodes);
+        all.addAll(unlocated);
+        NodeSpatialIndex index = new NodeSnapshot(1, all).getSpatialIndex();
+
+        VLatLng loc = new VLatLng(50.5, 6.5);
+        List<NodeInfo> expected = scanNearest(nodes, NodeType.CLOUDLET, loc);
+        List<NodeInfo> nearest = index.getNearest(NodeType.CLOUDLET, loc, expected.size() + 3);
+        for(int i = 0; i < expected.size(); ++i)
+        {
+            assertSameDistance(expected.get(i), nearest.get(i), loc);
+        }
+        Assert.assertEquals(unlocated.subList(0, 3), nearest.subList(expected.size(), nearest.size()));
+
+        //Without located nodes, the first node without a location is the nearest one
+        NodeSpatialIndex onlyUnlocated = new NodeSnapshot(1, unlocated).getSpatialIndex();
+        Assert.assertSame(unlocated.get(0), onlyUnlocated.getNearest(NodeType.CLOUDLET, loc));
+        Assert.assertTrue(onlyUnlocated.getWithinDistance(NodeType.CLOUDLET, loc, 0, 20000).isEmpty());
+    }
+}
@@ -0,0 +1,176 @@
+package vstore.framework.rule;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import vstore.framework.db.TestDatabase;
+import vstore.framework.db.table_helper.RulesDBHelper;
+import vstore.framework.node.NodeType;
+
+/**
+ * Compares the rules of the {@link RuleIndex} with the rules read from the database for the
+ * mime type, its family and all types, sorted by detail score as matching did it before the
+ * index existed. Rules are inserted, updated and deleted at random in between.
+ */
+public class RuleIndexTests {
+
+    private static final String[] MIME_TYPES = {
+            "image/png", "image/jpeg", "image/*", "video/mp4", "video/*", "application/pdf", "*/*"
+    };
+    private static final String[] QUERIES = {
+            "image/png", "image/jpeg", "image/gif", "video/mp4", "video/ogg", "application/pdf", "text/plain"
+    };
+    private static final int OPERATIONS = 400;
+
+    @BeforeClass
+    public static void openDatabase() throws Exception {
+        TestDatabase.open();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        TestDatabase.clear();
+        RuleIndex.get().invalidate();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestDatabase.clear();
+        RuleIndex.get().invalidate();
+    }
+
+    /**
+     * Creates a rule with one to three random mime types and a detail score out of a few
+     * values, so that many rules have the same score.
+     */
+    private static VStoreRule randomRule(Random random, String uuid) {
+        VStoreRule r = new VStoreRule(uuid, "Rule " + uuid, new Date(1531152679000L), "{}", -1,
+                null, 0, 0, 23, 59, false, true, 1);
+        List<String> mimeTypes = new ArrayList<>();
+        int count = 1 + random.nextInt(3);
+        for(int i = 0; i < count; ++i)
+        {
+            String m = MIME_TYPES[random.nextInt(MIME_TYPES.length)];
+            if(!mimeTypes.contains(m)) { mimeTypes.add(m); }
+        }
+        r.setMimeTypes(mimeTypes);
+        DecisionLayer layer = new DecisionLayer();
+        layer.targetType = NodeType.values()[random.nextInt(NodeType.values().length)];
+        r.addDecisionLayer(layer);
+        r.setDetailScore(random.nextInt(4));
+        return r;
+    }
+
+    /**
+     * The rules for the mime type as matching got them from the database before the index.
+     */
+    private static List<VStoreRule> baseline(String mimetype) throws SQLException {
+        int slash = mimetype.indexOf('/');
+        String[] keys = { mimetype, mimetype.substring(0, slash) + "/*", "*/*" };
+        Map<String, VStoreRule> rules = new LinkedHashMap<>();
+        for(String key : keys)
+        {
+            for(VStoreRule r : RulesDBHelper.getRulesMatchingFileType(key))
+            {
+                if(!rules.containsKey(r.getUUID())) { rules.put(r.getUUID(), r); }
+            }
+        }
+        //Sorted into a new list (highest to lowest score)
+        List<VStoreRule> sorted = new ArrayList<>();
+        for(VStoreRule r : rules.values())
+        {
+            int pos = 0;
+            while(pos < sorted.size() && sorted.get(pos).getDetailScore() >= r.getDetailScore()) { ++pos; }
+            sorted.add(pos, r);
+        }
+        return sorted;
+    }
+
+    /**
+     * @return The UUIDs of the rules, grouped by runs of the same detail score. The order
+     * of rules with the same score is not specified.
+     */
+    private static List<Set<String>> groups(List<VStoreRule> rules) {
+        List<Set<String>> groups = new ArrayList<>();
+        float score = Float.NaN;
+        for(VStoreRule r : rules)
+        {
+            if(groups.isEmpty() || r.getDetailScore() != score)
+            {
+                groups.add(new HashSet<String>());
+                score = r.getDetailScore();
+            }
+            groups.get(groups.size() - 1).add(r.getUUID());
+        }
+        return groups;
+    }
+
+    private static void assertSameAsBaseline() throws SQLException {
+        for(String mimetype : QUERIES)
+        {
+            List<VStoreRule> expected = baseline(mimetype);
+            List<VStoreRule> actual = RuleIndex.get().getRulesMatchingFileType(mimetype);
+            Assert.assertEquals(mimetype, groups(expected), groups(actual));
+            for(VStoreRule r : actual)
+            {
+                VStoreRule stored = RulesDBHelper.getRule(r.getUUID());
+                Assert.assertEquals(new HashSet<>(stored.getMimeTypes()), new HashSet<>(r.getMimeTypes()));
+                Assert.assertEquals(stored.getDecisionLayers().size(), r.getDecisionLayers().size());
+                Assert.assertEquals(stored.getDecisionLayers().get(0).targetType,
+                        r.getDecisionLayers().get(0).targetType);
+            }
+        }
+    }
+
+    @Test
+    public void indexMatchesDatabaseTest() throws Exception {
+        Random random = new Random(11);
+        List<String> uuids = new ArrayList<>();
+        for(int op = 0; op < OPERATIONS; ++op)
+        {
+            int kind = random.nextInt(10);
+            if(kind < 6 || uuids.isEmpty())
+            {
+                String uuid = "rule_" + op;
+                RulesDBHelper.insertRule(randomRule(random, uuid));
+                uuids.add(uuid);
+            }
+            else if(kind < 8)
+            {
+                RulesDBHelper.updateRule(randomRule(random, uuids.get(random.nextInt(uuids.size()))));
+            }
+            else if(kind < 9)
+            {
+                RulesDBHelper.deleteRule(uuids.remove(random.nextInt(uuids.size())));
+            }
+            else
+            {
+                //Reloaded from the database on next use
+                RuleIndex.get().invalidate();
+            }
+            if(op % 20 == 19) { assertSameAsBaseline(); }
+        }
+        assertSameAsBaseline();
+        Assert.assertFalse(uuids.isEmpty());
+    }
+
+    @Test
+    public void emptyMimeTypeTest() throws Exception {
+        RulesDBHelper.insertRule(randomRule(new Random(12), "rule_1"));
+        Assert.assertTrue(RuleIndex.get().getRulesMatchingFileType(null).isEmpty());
+        Assert.assertTrue(RuleIndex.get().getRulesMatchingFileType("").isEmpty());
+    }
+}
@@ -0,0 +1,180 @@
+package vstore.framework.rule;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import vstore.framework.db.DBHelper;
+import vstore.framework.db.DBSchema;
+import vstore.framework.db.TestDatabase;
+import vstore.framework.db.table_helper.RulesDBHelper;
+import vstore.framework.node.NodeType;
+
+public class RulesDBHelperTests {
+
+    @BeforeClass
+    public static void openDatabase() throws Exception {
+        TestDatabase.open();
+    }
+
+    @Before
+    public void clearDatabase() throws SQLException {
+        TestDatabase.clear();
+        RuleIndex.get().invalidate();
+    }
+
+    private static VStoreRule rule(String uuid, NodeType... layerTypes) {
+        VStoreRule r = new VStoreRule(uuid, "Rule " + uuid, new Date(1531152679000L), "{}", -1,
+                null, 0, 0, 23, 59, false, true, layerTypes.length);
+        r.setMimeTypes(Arrays.asList("image/jpeg", "image/png"));
+        for(NodeType t : layerTypes)
+        {
+            DecisionLayer layer = new DecisionLayer();
+            layer.targetType = t;
+            r.addDecisionLayer(layer);
+        }
+        return r;
+    }
+
+    private static int countRows(String table) throws SQLException {
+        DBHelper db = DBHelper.get();
+        Connection conn = db.acquireReader();
+        try(Statement stmt = conn.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table))
+        {
+            rs.next();
+            return rs.getInt(1);
+        }
+        finally
+        {
+            db.releaseReader();
+        }
+    }
+
+    @Test
+    public void deleteAllRulesTest() throws SQLException {
+        RulesDBHelper.insertRule(rule("rule_1", NodeType.CLOUDLET));
+        RulesDBHelper.insertRule(rule("rule_2", NodeType.CLOUDLET, NodeType.CLOUD));
+        Assert.assertEquals(2, RulesDBHelper.getRules(null).size());
+
+        RulesDBHelper.deleteAllRules();
+
+        Assert.assertEquals(0, RulesDBHelper.getRules(null).size());
+        Assert.assertEquals(0, countRows(DBSchema.MimesPerRuleTable.__NAME));
+        Assert.assertEquals(0, countRows(DBSchema.DecisionsPerRuleTable.__NAME));
+    }
+
+    @Test
+    public void failedRuleWriteIsRolledBackTest() throws SQLException {
+        //The layer without a type fails after the rule row and the mime types were written
+        VStoreRule broken = rule("rule_broken", NodeType.CLOUDLET);
+        broken.addDecisionLayer(new DecisionLayer());
+        try
+        {
+            RulesDBHelper.insertRule(broken);
+            Assert.fail("Expected the layer without type to fail the insert");
+        }
+        catch(RuntimeException e)
+        {
+            //Expected
+        }
+
+        Assert.assertNull(RulesDBHelper.getRule("rule_broken"));
+        Assert.assertEquals(0, countRows(DBSchema.MimesPerRuleTable.__NAME));
+        Assert.assertEquals(0, countRows(DBSchema.DecisionsPerRuleTable.__NAME));
+
+        //An update that fails keeps the stored rule as it was
+        RulesDBHelper.insertRule(rule("rule_1", NodeType.CLOUDLET));
+        VStoreRule update = rule("rule_1", NodeType.CLOUD);
+        update.addDecisionLayer(new DecisionLayer());
+        try
+        {
+            RulesDBHelper.updateRule(update);
+            Assert.fail("Expected the layer without type to fail the update");
+        }
+        catch(RuntimeException e)
+        {
+            //Expected
+        }
+        VStoreRule stored = RulesDBHelper.getRule("rule_1");
+        Assert.assertEquals(1, stored.getDecisionLayers().size());
+        Assert.assertEquals(NodeType.CLOUDLET, stored.getDecisionLayer(0).targetType);
+        Assert.assertEquals(2, stored.getMimeTypes().size());
+    }
+
+    @Test
+    public void deleteRuleTest() throws SQLException {
+        RulesDBHelper.insertRule(rule("rule_1", NodeType.CLOUDLET));
+        RulesDBHelper.insertRule(rule("rule_2", NodeType.CLOUD));
+
+        RulesDBHelper.deleteRule("rule_1");
+
+        Assert.assertNull(RulesDBHelper.getRule("rule_1"));
+        Assert.assertNotNull(RulesDBHelper.getRule("rule_2"));
+        Assert.assertEquals(2, countRows(DBSchema.MimesPerRuleTable.__NAME));
+        Assert.assertEquals(1, countRows(DBSchema.DecisionsPerRuleTable.__NAME));
+    }
+
+    private static VStoreRule rule(String uuid, List<String> mimes, NodeType... layerTypes) {
+        VStoreRule r = rule(uuid, layerTypes);
+        r.getMimeTypes().clear();
+        r.setMimeTypes(mimes);
+        return r;
+    }
+
+    private static void assertDetails(VStoreRule r, List<String> mimes, NodeType... layerTypes) {
+        Assert.assertEquals(r.getUUID(), mimes, r.getMimeTypes());
+        Assert.assertEquals(r.getUUID(), layerTypes.length, r.getDecisionLayers().size());
+        for(int i = 0; i < layerTypes.length; ++i)
+        {
+            Assert.assertEquals(r.getUUID() + " layer " + i, layerTypes[i], r.getDecisionLayer(i).targetType);
+        }
+    }
+
+    @Test
+    public void bulkLoadedDetailsBelongToTheirRuleTest() throws SQLException {
+        List<String> mimesA = Arrays.asList("image/jpeg");
+        List<String> mimesB = Arrays.asList("image/png", "image/jpeg", "video/mp4");
+        List<String> mimesC = Arrays.asList("application/pdf");
+        RulesDBHelper.insertRule(rule("rule_a", mimesA, NodeType.CLOUD));
+        RulesDBHelper.insertRule(rule("rule_b", mimesB, NodeType.GATEWAY, NodeType.CLOUDLET, NodeType.CLOUD));
+        RulesDBHelper.insertRule(rule("rule_c", mimesC));
+        //Rewriting rule_a gives its rows higher ids than those of the other rules,
+        //so the layers have to be sorted by their position and not by their id
+        RulesDBHelper.updateRule(rule("rule_a", mimesA, NodeType.CORENET, NodeType.CLOUDLET));
+
+        Map<String, VStoreRule> all = new HashMap<>();
+        for(VStoreRule r : RulesDBHelper.getRules(null))
+        {
+            all.put(r.getUUID(), r);
+        }
+        Assert.assertEquals(3, all.size());
+        assertDetails(all.get("rule_a"), mimesA, NodeType.CORENET, NodeType.CLOUDLET);
+        assertDetails(all.get("rule_b"), mimesB, NodeType.GATEWAY, NodeType.CLOUDLET, NodeType.CLOUD);
+        assertDetails(all.get("rule_c"), mimesC);
+
+        Map<String, VStoreRule> jpeg = new HashMap<>();
+        for(VStoreRule r : RulesDBHelper.getRulesMatchingFileType("image/jpeg"))
+        {
+            jpeg.put(r.getUUID(), r);
+        }
+        Assert.assertEquals(2, jpeg.size());
+        assertDetails(jpeg.get("rule_a"), mimesA, NodeType.CORENET, NodeType.CLOUDLET);
+        assertDetails(jpeg.get("rule_b"), mimesB, NodeType.GATEWAY, NodeType.CLOUDLET, NodeType.CLOUD);
+        Assert.assertTrue(RulesDBHelper.getRulesMatchingFileType("video/mov").isEmpty());
+
+        assertDetails(RulesDBHelper.getRule("rule_b"), mimesB, NodeType.GATEWAY, NodeType.CLOUDLET, NodeType.CLOUD);
+        assertDetails(RulesDBHelper.getRule("rule_c"), mimesC);
+    }
+}
@@ -6,6 +6,18 @@ import org.json.simple.parser.ParseException;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import vstore.framework.context.RuleContextDescription;
+import vstore.framework.db.codec.RuleContextCodec;
+
 public class VStoreRuleTests {
 
 
@@ -63,4 +75,53 @@ public class VStoreRuleTests {
         Assert.assertTrue(rule.hasLocationContext());
         //Assert.assertTrue(rule.getDetailScore() == ((float)8.0));
     }
+
+    private static VStoreRule ruleWithContext(String contextJson) {
+        return new VStoreRule("test_rule_2", "Test Rule", new Date(), contextJson, 0,
+                null, 10, 0, 22, 0, false, false, 1);
+    }
+
+    @Test
+    public void concurrentContextAccessTest() throws Exception {
+        RuleContextDescription ctx = new RuleContextDescription();
+        ctx.setLocationContext(50.2, 3.6, 300);
+        final VStoreRule rule = ruleWithContext(null);
+        rule.setRuleContextFromData(RuleContextCodec.encode(ctx));
+
+        //All threads have to see the same parsed context, none may see null
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<RuleContextDescription>> results = new ArrayList<>();
+        for(int i = 0; i < 64; ++i)
+        {
+            results.add(pool.submit(new Callable<RuleContextDescription>() {
+                @Override
+                public RuleContextDescription call() {
+                    return rule.getRuleContext();
+                }
+            }));
+        }
+        pool.shutdown();
+        RuleContextDescription first = results.get(0).get();
+        Assert.assertNotNull(first);
+        for(Future<RuleContextDescription> f : results)
+        {
+            Assert.assertSame(first, f.get());
+        }
+        Assert.assertTrue(rule.hasLocationContext());
+    }
+
+    @Test
+    public void malformedContextIsKeptTest() {
+        String json = "{\"location\" : { \"lat\" : 50.2,";
+        VStoreRule rule = ruleWithContext(json);
+
+        Assert.assertNull(rule.getRuleContext());
+        Assert.assertTrue(rule.isRuleContextMalformed());
+        //A second access does not lose the raw context either
+        Assert.assertNull(rule.getRuleContext());
+        Assert.assertArrayEquals(json.getBytes(StandardCharsets.UTF_8), rule.getRuleContextData());
+
+        rule.setRuleContext(new RuleContextDescription());
+        Assert.assertFalse(rule.isRuleContextMalformed());
+    }
 }